@@ -0,0 +1,111 @@
+package com.twd.benchmark;
+
+import com.twd.buffer.BufferPool;
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description the garbage a steady-state read or write leaves behind, run it with -prof gc and look at
+ *              gc.alloc.rate.norm: reads go into a buffer the caller reuses, writes come from a range of a
+ *              pooled buffer. storageMode applies to the chunk, the chunkserver keeps its default
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class AllocationBenchmark {
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    @Param({"FILE_CHANNEL", "MMAP"})
+    public Chunk.StorageMode storageMode;
+
+    private File rootDir;
+
+    private Chunk chunk;
+
+    private BenchmarkCluster cluster;
+
+    private ChunkServer server;
+
+    private long chunkHandle;
+
+    private ByteBuffer heapBuffer;
+
+    private ByteBuffer directBuffer;
+
+    /**
+     * the payload sits in the middle of a larger pooled buffer, written from there as is
+     */
+    private ByteBuffer source;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        chunk = new Chunk(1, rootDir.getPath(), storageMode, ChunkMetadata.INITIAL_VERSION);
+        ByteBuffer full = ByteBuffer.wrap(BenchmarkCluster.payload(ChunkMetadata.CHUNK_SIZE));
+        chunk.write(0, full.duplicate());
+        cluster = new BenchmarkCluster(1, 1);
+        server = cluster.getServers().get(0);
+        // a chunk of a file with a handle past the boxed Long cache
+        String filename = null;
+        for (int i = 0; chunkHandle <= Byte.MAX_VALUE; i++) {
+            filename = "bench-" + i;
+            cluster.getClient().create(filename);
+            chunkHandle = cluster.getMaster().getChunkMetadata(new ChunkRequest(filename, 0), Master.REQUEST_WRITE).getChunkHandle();
+        }
+        cluster.getClient().write(filename, 0, full.duplicate());
+        heapBuffer = ByteBuffer.allocate(payloadSize);
+        directBuffer = BufferPool.shared().acquire(payloadSize);
+        source = BufferPool.shared().acquire(payloadSize * 2);
+        source.put(BenchmarkCluster.payload(payloadSize * 2));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BufferPool.shared().release(directBuffer);
+        BufferPool.shared().release(source);
+        chunk.delete();
+        BenchmarkCluster.delete(rootDir);
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public int chunkReadHeap() {
+        heapBuffer.clear();
+        return chunk.read(0, heapBuffer);
+    }
+
+    @Benchmark
+    public int chunkReadDirect() {
+        directBuffer.clear();
+        return chunk.read(0, directBuffer);
+    }
+
+    @Benchmark
+    public boolean chunkWrite() {
+        source.limit(payloadSize + payloadSize / 2);
+        source.position(payloadSize / 2);
+        return chunk.write(0, source);
+    }
+
+    @Benchmark
+    public int serverRead() {
+        directBuffer.clear();
+        return server.read(chunkHandle, 0, directBuffer);
+    }
+}
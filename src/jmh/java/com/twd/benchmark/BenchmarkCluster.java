@@ -0,0 +1,88 @@
+package com.twd.benchmark;
+
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import com.twd.role.Master;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author twd
+ * @description an in-process cluster (one master, n chunkservers, one client) rooted in a temp directory
+ * @date 2026-10-18
+ */
+public class BenchmarkCluster {
+    private final File rootDir;
+
+    private final Master master;
+
+    private final Client client;
+
+    private final List<ChunkServer> servers = new ArrayList<>();
+
+    public BenchmarkCluster(int serverCount) throws IOException {
+        this(serverCount, Master.DEFAULT_REPLICA_NUM);
+    }
+
+    public BenchmarkCluster(int serverCount, int replicaNum) throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        master = new Master(replicaNum);
+        for (int i = 0; i < serverCount; i++) {
+            servers.add(new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master));
+        }
+        client = new Client(master);
+    }
+
+    public Master getMaster() {
+        return master;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public List<ChunkServer> getServers() {
+        return servers;
+    }
+
+    public File getRootDir() {
+        return rootDir;
+    }
+
+    /**
+     * stop the chunkservers and remove every chunk file written by the cluster
+     */
+    public void destroy() {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+        delete(rootDir);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * a payload of the given size filled with printable bytes
+     * @param size
+     * @return
+     */
+    static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,33 @@
+package com.twd.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author twd
+ * @description run the selected benchmarks once per thread count, one json result file per run
+ *              usage: java -cp target/benchmarks.jar com.twd.benchmark.BenchmarkRunner [regex] [threads,...] [output dir]
+ *              e.g.   java -cp target/benchmarks.jar com.twd.benchmark.BenchmarkRunner Client 1,4,16 target/jmh
+ * @date 2026-10-18
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "com.twd.benchmark.*";
+        String threadList = args.length > 1 ? args[1] : "1,2,4,8";
+        String outputDir = args.length > 2 ? args[2] : ".";
+        new java.io.File(outputDir).mkdirs();
+        for (String thread : threadList.split(",")) {
+            int threads = Integer.parseInt(thread.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(String.format("%s/jmh-result-t%d.json", outputDir, threads))
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.twd.benchmark;
+
+import com.twd.cache.BlockCache;
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description block reads through a block cache of cacheBytes (0 reads every block from its chunk), from a
+ *              hot set which fits the cache, and from the hot set mixed with a scan over every block of every
+ *              chunk, one read in scanEvery. diskReads counts the reads which went to the chunk, with a
+ *              scan-resistant cache it stays close to the scan's share instead of flushing the hot set.
+ *              an off-heap cache pays for allocating a direct buffer on each miss
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class BlockCacheBenchmark {
+    private static final int BLOCK_SIZE = 256;
+
+    private static final int HOT_BLOCKS = 128;
+
+    @Param({"0", "65536"})
+    public long cacheBytes;
+
+    @Param({"2000"})
+    public int chunkCount;
+
+    @Param({"4"})
+    public int scanEvery;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long diskReads;
+    }
+
+    private File rootDir;
+
+    private BlockCache cache;
+
+    private Chunk[] chunks;
+
+    private ByteBuffer readBuffer;
+
+    private int blocksPerChunk;
+
+    private int scanned;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        cache = new BlockCache(cacheBytes, BLOCK_SIZE, offHeap);
+        chunks = new Chunk[chunkCount];
+        byte[] payload = BenchmarkCluster.payload(ChunkMetadata.CHUNK_SIZE);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new Chunk(i, rootDir.getPath());
+            chunks[i].write(0, ByteBuffer.wrap(payload));
+        }
+        blocksPerChunk = ChunkMetadata.CHUNK_SIZE / BLOCK_SIZE;
+        readBuffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Chunk chunk : chunks) {
+            chunk.close();
+        }
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    private int read(int block, Counters counters) {
+        Chunk chunk = chunks[block / blocksPerChunk];
+        int offset = block % blocksPerChunk * BLOCK_SIZE;
+        readBuffer.clear();
+        if (!cache.isEnabled()) {
+            counters.diskReads++;
+            return chunk.read(offset, readBuffer);
+        }
+        long misses = cache.getMisses();
+        int n = cache.read(chunk, offset, readBuffer);
+        counters.diskReads += cache.getMisses() - misses;
+        return n;
+    }
+
+    @Benchmark
+    public int hotRead(Counters counters) {
+        return read(ThreadLocalRandom.current().nextInt(HOT_BLOCKS), counters);
+    }
+
+    @Benchmark
+    public int hotReadWithScan(Counters counters) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (0 == random.nextInt(scanEvery)) {
+            scanned = (scanned + 1) % (chunkCount * blocksPerChunk);
+            return read(scanned, counters);
+        }
+        return read(random.nextInt(HOT_BLOCKS), counters);
+    }
+}
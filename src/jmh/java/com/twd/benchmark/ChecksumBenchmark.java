@@ -0,0 +1,69 @@
+package com.twd.benchmark;
+
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description the cost of block checksums on raw chunk I/O: a read verifies the blocks it covers,
+ *              a write recomputes the blocks it touches. blockSize 0 keeps no checksums
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+    @Param({"64", "512", "1024"})
+    public int payloadSize;
+
+    @Param({"0", "128", "65536"})
+    public int blockSize;
+
+    @Param({"FILE_CHANNEL", "MMAP"})
+    public Chunk.StorageMode storageMode;
+
+    private File rootDir;
+
+    private Chunk chunk;
+
+    private ByteBuffer payload;
+
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        chunk = new Chunk(1, rootDir.getPath(), storageMode, ChunkMetadata.INITIAL_VERSION, blockSize, -1);
+        chunk.write(0, ByteBuffer.wrap(BenchmarkCluster.payload(ChunkMetadata.CHUNK_SIZE)));
+        payload = ByteBuffer.wrap(BenchmarkCluster.payload(payloadSize));
+        readBuffer = ByteBuffer.allocate(payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunk.delete();
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    public int read() {
+        readBuffer.clear();
+        return chunk.read(0, readBuffer);
+    }
+
+    @Benchmark
+    public boolean write() {
+        payload.rewind();
+        return chunk.write(0, payload);
+    }
+}
@@ -0,0 +1,60 @@
+package com.twd.benchmark;
+
+import com.twd.element.Chunk;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description raw chunk file I/O, comparing the file channel and memory-mapped storage modes
+ *              run with -t n to see how concurrent readers of one chunk scale under each mode
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ChunkBenchmark {
+    @Param({"64", "512", "1024"})
+    public int payloadSize;
+
+    @Param({"FILE_CHANNEL", "MMAP"})
+    public Chunk.StorageMode storageMode;
+
+    private File rootDir;
+
+    private Chunk chunk;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        chunk = new Chunk(1, rootDir.getPath(), storageMode);
+        payload = BenchmarkCluster.payload(payloadSize);
+        chunk.write(0, ByteBuffer.wrap(payload));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunk.close();
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    public ByteBuffer read() {
+        return chunk.read(0, payloadSize);
+    }
+
+    @Benchmark
+    public boolean write() {
+        return chunk.write(0, ByteBuffer.wrap(payload));
+    }
+}
@@ -0,0 +1,110 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.element.WriteResult;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description push and write on the chunkservers, without the client and master in the loop
+ *              every push is consumed by a write, so the push buffer stays at the size of the
+ *              abandoned pushes left in it by the setup
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ChunkServerBenchmark {
+    private static final String FILENAME = "bench.txt";
+
+    @Param({"64", "512", "1024"})
+    public int payloadSize;
+
+    @Param({"3", "10", "100"})
+    public int serverCount;
+
+    @Param({"3", "5"})
+    public int replicaNum;
+
+    /**
+     * pushes never followed by a write, sitting in every replica's push buffer
+     */
+    @Param({"0", "10000"})
+    public int abandonedPushes;
+
+    private static final AtomicLong CLIENT_IDS = new AtomicLong();
+
+    /**
+     * each benchmark thread acts as its own client
+     */
+    @State(Scope.Thread)
+    public static class ClientState {
+        final long clientId = CLIENT_IDS.incrementAndGet();
+    }
+
+    private BenchmarkCluster cluster;
+
+    private byte[] payload;
+
+    private long chunkHandle;
+
+    private ChunkServer[] replicas;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(serverCount, replicaNum);
+        payload = BenchmarkCluster.payload(payloadSize);
+        cluster.getClient().create(FILENAME);
+        ChunkMetadata metadata = cluster.getMaster().getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_WRITE);
+        chunkHandle = metadata.getChunkHandle();
+        replicas = metadata.getChunkServers();
+        long abandonedClient = -1;
+        for (ChunkServer server : replicas) {
+            // keep the abandoned pushes for the whole trial
+            server.getPushBuffer().setTtlMillis(Long.MAX_VALUE);
+        }
+        for (int i = 0; i < abandonedPushes; i++) {
+            for (ChunkServer server : replicas) {
+                server.push(abandonedClient, chunkHandle, i, ByteBuffer.wrap(payload));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    /**
+     * push then write on one secondary, no fan-out
+     */
+    @Benchmark
+    public WriteResult secondaryPushWrite(ClientState client) {
+        ChunkServer secondary = replicas[replicas.length - 1];
+        secondary.push(client.clientId, chunkHandle, 0, ByteBuffer.wrap(payload));
+        return secondary.applyWrite(client.clientId, chunkHandle, 0, secondary.getChunkVersion(chunkHandle));
+    }
+
+    /**
+     * push to every replica then write through the primary, which fans out to the secondaries in parallel
+     */
+    @Benchmark
+    public WriteResult primaryPushWrite(ClientState client) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        for (ChunkServer server : replicas) {
+            server.push(client.clientId, chunkHandle, 0, buffer);
+        }
+        return replicas[0].write(client.clientId, chunkHandle, 0);
+    }
+}
@@ -0,0 +1,105 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description one file of FILE_BYTES stored in chunks of chunkSize. scan looks up every chunk of the file the
+ *              way a reader of the whole file does, masterRequests counts the lookups it takes, which drop with
+ *              the chunk count as the chunks grow. main() prints the heap the cluster keeps for the file:
+ *              java -cp target/benchmarks.jar com.twd.benchmark.ChunkSizeBenchmark
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ChunkSizeBenchmark {
+    private static final String FILENAME = "sized.bin";
+
+    /**
+     * the file's size: 2MB, with 1KB chunks its replicas keep 12k chunk and checksum files open
+     */
+    private static final int FILE_BYTES = 2 << 20;
+
+    @Param({"1024", "65536", "2097152"})
+    public int chunkSize;
+
+    private BenchmarkCluster cluster;
+
+    private int chunks;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long masterRequests;
+    }
+
+    /**
+     * create the file and each of its chunks, one byte at the start of each keeps the chunk files sparse
+     * @return the chunks of the file
+     */
+    static int fill(BenchmarkCluster cluster, int chunkSize) {
+        cluster.getClient().create(FILENAME, chunkSize);
+        int chunks = FILE_BYTES / chunkSize;
+        for (int i = 1; i < chunks; i++) {
+            cluster.getClient().write(FILENAME, i * chunkSize, ByteBuffer.wrap(BenchmarkCluster.payload(1)));
+        }
+        return chunks;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(5);
+        chunks = fill(cluster, chunkSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public ChunkMetadata scan(Counters counters) {
+        Master master = cluster.getMaster();
+        long before = master.getMetadataRequests();
+        ChunkMetadata metadata = null;
+        for (int i = 0; i < chunks; i++) {
+            metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, i), Master.REQUEST_READ);
+        }
+        counters.masterRequests += master.getMetadataRequests() - before;
+        return metadata;
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (int chunkSize : new int[]{1 << 10, 64 << 10, 2 << 20}) {
+            BenchmarkCluster cluster = new BenchmarkCluster(5);
+            try {
+                long before = usedMemory();
+                int chunks = fill(cluster, chunkSize);
+                long after = usedMemory();
+                System.out.printf("chunk size %,9d: %,5d chunks, %,10d metadata bytes for %,d file bytes%n",
+                        chunkSize, chunks, after - before, FILE_BYTES);
+            } finally {
+                cluster.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.Client;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description end-to-end client operations: client -> master -> chunkservers
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+    private static final String FILENAME = "bench.txt";
+
+    private static final String LOG_FILENAME = "bench.log";
+
+    private static final String LARGE_FILENAME = "large.bin";
+
+    /**
+     * chunks covered by a large read
+     */
+    private static final int LARGE_READ_CHUNKS = 8;
+
+    private ByteBuffer largeReadBuffer;
+
+    @Param({"64", "512", "1024"})
+    public int payloadSize;
+
+    @Param({"3", "10", "100"})
+    public int serverCount;
+
+    @Param({"DIRECT", "CHAIN"})
+    public Client.PushMode pushMode;
+
+    private BenchmarkCluster cluster;
+
+    private byte[] payload;
+
+    private final AtomicLong fileCounter = new AtomicLong();
+
+    /**
+     * appenders don't share a client, every benchmark thread gets its own
+     */
+    private ThreadLocal<Client> appenders;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(serverCount);
+        payload = BenchmarkCluster.payload(payloadSize);
+        cluster.getClient().setPushMode(pushMode);
+        cluster.getClient().create(FILENAME);
+        cluster.getClient().write(FILENAME, 0, ByteBuffer.wrap(payload));
+        cluster.getClient().create(LOG_FILENAME);
+        cluster.getClient().create(LARGE_FILENAME);
+        byte[] large = BenchmarkCluster.payload(LARGE_READ_CHUNKS * ChunkMetadata.CHUNK_SIZE);
+        cluster.getClient().write(LARGE_FILENAME, 0, ByteBuffer.wrap(large));
+        largeReadBuffer = ByteBuffer.allocateDirect(large.length);
+        appenders = ThreadLocal.withInitial(() -> {
+            Client client = new Client(cluster.getMaster());
+            client.setPushMode(pushMode);
+            return client;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public boolean create() {
+        return cluster.getClient().create("create-" + fileCounter.incrementAndGet() + ".txt");
+    }
+
+    @Benchmark
+    public ByteBuffer read() {
+        return cluster.getClient().read(FILENAME, 0, payloadSize);
+    }
+
+    @Benchmark
+    public boolean write() {
+        return cluster.getClient().write(FILENAME, 0, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * record size is capped by the largest record of a default sized chunk
+     */
+    @Benchmark
+    public long recordAppend() {
+        int size = Math.min(payloadSize, Client.maxRecordSize(ChunkMetadata.CHUNK_SIZE));
+        return appenders.get().recordAppend(LOG_FILENAME, ByteBuffer.wrap(payload, 0, size));
+    }
+
+    /**
+     * one read spanning several chunks, scattered over the replicas and gathered into one buffer
+     */
+    @Benchmark
+    @Threads(1)
+    public int readSpanningChunks() {
+        largeReadBuffer.clear();
+        return cluster.getClient().read(LARGE_FILENAME, 0, largeReadBuffer);
+    }
+}
@@ -0,0 +1,90 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description client writes under each durability mode, every benchmark thread writing its own file or its
+ *              own offset of one shared chunk. under SYNC a write is acknowledged once every replica forced it,
+ *              the writers waiting at the same time share a batch: one force of each chunk they wrote, so the
+ *              writers of one chunk pay for one force between them and writes/s grow with the writer count.
+ *              run it per writer count with BenchmarkRunner, e.g. BenchmarkRunner Durability 1,4,16 target/jmh
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+    private static final String SHARED_FILENAME = "durable.txt";
+
+    @Param({"NONE", "PERIODIC", "SYNC"})
+    public ChunkServer.Durability durability;
+
+    /**
+     * whether the writers share one chunk, each at its own offset, or write a file each
+     */
+    @Param({"false", "true"})
+    public boolean sharedChunk;
+
+    @Param({"64"})
+    public int payloadSize;
+
+    private BenchmarkCluster cluster;
+
+    private byte[] payload;
+
+    private final AtomicLong fileCounter = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private Client client;
+
+        private String filename;
+
+        private int offset;
+
+        @Setup(Level.Trial)
+        public void setup(DurabilityBenchmark benchmark) {
+            client = new Client(benchmark.cluster.getMaster());
+            long writer = benchmark.fileCounter.incrementAndGet();
+            if (benchmark.sharedChunk) {
+                filename = SHARED_FILENAME;
+                offset = (int) (writer * benchmark.payloadSize % ChunkMetadata.CHUNK_SIZE);
+            } else {
+                filename = "durable-" + writer + ".txt";
+                client.create(filename);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(3);
+        for (ChunkServer server : cluster.getServers()) {
+            server.setDurability(durability);
+        }
+        payload = BenchmarkCluster.payload(payloadSize);
+        cluster.getClient().create(SHARED_FILENAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public boolean write(Writer writer) {
+        return writer.client.write(writer.filename, writer.offset, ByteBuffer.wrap(payload));
+    }
+}
@@ -0,0 +1,60 @@
+package com.twd.benchmark;
+
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description steady-state writes to one chunk under a primary lease, the heartbeats keep extending it.
+ *              masterRequests counts the metadata calls the writes still make
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-bench.xml", "-Dgfs.heartbeat.millis=100"})
+@State(Scope.Benchmark)
+public class LeaseBenchmark {
+    private static final String FILENAME = "lease.bin";
+
+    @Param({"500", "60000"})
+    public long leaseMillis;
+
+    private BenchmarkCluster cluster;
+
+    private ByteBuffer payload;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long masterRequests;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(5);
+        cluster.getMaster().setLeaseMillis(leaseMillis);
+        cluster.getClient().create(FILENAME);
+        payload = ByteBuffer.wrap(BenchmarkCluster.payload(512));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public boolean write(Counters counters) {
+        Master master = cluster.getMaster();
+        long before = master.getMetadataRequests();
+        payload.rewind();
+        boolean success = cluster.getClient().write(FILENAME, 0, payload);
+        counters.masterRequests += master.getMetadataRequests() - before;
+        return success;
+    }
+}
@@ -0,0 +1,77 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description metadata lookups served by the master
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class MasterBenchmark {
+    private static final String FILENAME = "bench.txt";
+
+    @Param({"3", "10", "100"})
+    public int serverCount;
+
+    private BenchmarkCluster cluster;
+
+    /**
+     * chunks of the file, looked up one by one or in one batch
+     */
+    private static final int CHUNKS = 16;
+
+    private ChunkRequest chunkRequest;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(serverCount);
+        cluster.getClient().create(FILENAME);
+        chunkRequest = new ChunkRequest(FILENAME, 0);
+        for (int i = 1; i < CHUNKS; i++) {
+            cluster.getClient().write(FILENAME, i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(BenchmarkCluster.payload(1)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public ChunkMetadata getChunkMetadataRead() {
+        return cluster.getMaster().getChunkMetadata(chunkRequest, Master.REQUEST_READ);
+    }
+
+    @Benchmark
+    public ChunkMetadata getChunkMetadataWrite() {
+        return cluster.getMaster().getChunkMetadata(chunkRequest, Master.REQUEST_WRITE);
+    }
+
+    @Benchmark
+    public ChunkMetadata getChunkMetadataPerChunk() {
+        ChunkMetadata metadata = null;
+        for (int i = 0; i < CHUNKS; i++) {
+            metadata = cluster.getMaster().getChunkMetadata(new ChunkRequest(FILENAME, i), Master.REQUEST_READ);
+        }
+        return metadata;
+    }
+
+    @Benchmark
+    public List<ChunkMetadata> getChunkMetadatasBatch() {
+        return cluster.getMaster().getChunkMetadatas(FILENAME, 0, CHUNKS, Master.REQUEST_READ);
+    }
+}
@@ -0,0 +1,123 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.ChunkServer;
+import com.twd.store.ChunkTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description chunk metadata held as one object per chunk in a ConcurrentHashMap, against the chunk table
+ *              on and off the heap. the benchmarks time lookups, main() prints the bytes per chunk:
+ *              java -cp target/benchmarks.jar com.twd.benchmark.MetadataStoreBenchmark [chunks]
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-bench.xml", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class MetadataStoreBenchmark {
+    public enum Store {
+        OBJECT_MAP, HEAP, OFF_HEAP
+    }
+
+    private static final int REPLICA_NUM = 3;
+
+    @Param({"OBJECT_MAP", "HEAP", "OFF_HEAP"})
+    public Store store;
+
+    @Param({"1000000"})
+    public int chunks;
+
+    private Map<Long, ChunkMetadata> objectMap;
+
+    private ChunkTable chunkTable;
+
+    /**
+     * the chunk table keeps ids, the map references to these
+     */
+    private static final ChunkServer[] SERVERS = new ChunkServer[REPLICA_NUM];
+
+    /**
+     * fill the store the way the master does
+     * @return the store
+     */
+    static Object fill(Store store, int chunks) {
+        int[] ids = {1, 2, 3};
+        switch (store) {
+            case OBJECT_MAP:
+                Map<Long, ChunkMetadata> map = new ConcurrentHashMap<>();
+                for (long handle = 1; handle <= chunks; handle++) {
+                    ChunkMetadata metadata = new ChunkMetadata(handle, SERVERS.clone());
+                    metadata.setLeaseExpireTime(handle);
+                    map.put(handle, metadata);
+                }
+                return map;
+            case OFF_HEAP:
+            case HEAP:
+            default:
+                ChunkTable table = new ChunkTable(REPLICA_NUM,
+                        Store.OFF_HEAP == store ? ChunkTable.Backing.OFF_HEAP : ChunkTable.Backing.HEAP, 0);
+                for (long handle = 1; handle <= chunks; handle++) {
+                    table.put(handle, ids, REPLICA_NUM, handle);
+                }
+                return table;
+        }
+    }
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Object filled = fill(store, chunks);
+        if (Store.OBJECT_MAP == store) {
+            objectMap = (Map<Long, ChunkMetadata>) filled;
+        } else {
+            chunkTable = (ChunkTable) filled;
+        }
+    }
+
+    @Benchmark
+    public long lookup() {
+        long handle = ThreadLocalRandom.current().nextInt(chunks) + 1;
+        if (Store.OBJECT_MAP == store) {
+            ChunkMetadata metadata = objectMap.get(handle);
+            return metadata.getLeaseExpireTime() + metadata.getChunkServers().length;
+        }
+        int[] ids = new int[REPLICA_NUM];
+        return chunkTable.getLeaseExpireTime(handle) + chunkTable.getReplicas(handle, ids);
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+
+    public static void main(String[] args) {
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        for (Store store : Store.values()) {
+            long before = usedMemory();
+            Object filled = fill(store, chunks);
+            long after = usedMemory();
+            System.out.printf("%-10s %,d chunks: %.1f bytes/chunk%n", store, chunks, (double) (after - before) / chunks);
+            // keep it reachable until measured
+            System.out.print(filled.hashCode() == 0 ? " " : "");
+        }
+    }
+}
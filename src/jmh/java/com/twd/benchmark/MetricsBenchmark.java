@@ -0,0 +1,81 @@
+package com.twd.benchmark;
+
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import com.twd.metrics.MetricsRegistry;
+import com.twd.metrics.OperationMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description what recording a call costs: the clock read alone, a whole record (clock, striped counter,
+ *              histogram), and a chunk read with and without its disk metrics.
+ *              run with -t n to see the record under contention from n threads on the same operation
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-bench.xml", "-Dgfs.metrics.dump.millis=0"})
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private OperationMetrics metrics;
+
+    private File rootDir;
+
+    private Chunk chunk;
+
+    private Chunk timedChunk;
+
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(false);
+        metrics = registry.operation("bench", "op");
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        chunk = new Chunk(1, rootDir.getPath(), Chunk.StorageMode.MMAP, ChunkMetadata.INITIAL_VERSION);
+        timedChunk = new Chunk(2, rootDir.getPath(), Chunk.StorageMode.MMAP, ChunkMetadata.INITIAL_VERSION);
+        timedChunk.setMetrics(registry.operation("bench", "disk.read"), registry.operation("bench", "disk.write"));
+        byte[] payload = BenchmarkCluster.payload(ChunkMetadata.CHUNK_SIZE);
+        chunk.write(0, ByteBuffer.wrap(payload));
+        timedChunk.write(0, ByteBuffer.wrap(payload));
+        readBuffer = ByteBuffer.allocateDirect(64);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chunk.delete();
+        timedChunk.delete();
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    public long clock() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void record() {
+        metrics.record(System.nanoTime(), true);
+    }
+
+    @Benchmark
+    public int chunkRead() {
+        readBuffer.clear();
+        return chunk.read(0, readBuffer);
+    }
+
+    @Benchmark
+    public int timedChunkRead() {
+        readBuffer.clear();
+        return timedChunk.read(0, readBuffer);
+    }
+}
@@ -0,0 +1,77 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description namespace operations of the master against the number of files it holds
+ *              files are spread over 1000 directories, /dir-N/file-M
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class NamespaceBenchmark {
+    private static final int DIRECTORIES = 1000;
+
+    @Param({"10000", "1000000"})
+    public int fileCount;
+
+    private BenchmarkCluster cluster;
+
+    private final AtomicLong createCounter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(3);
+        for (int i = 0; i < fileCount; i++) {
+            cluster.getMaster().getChunkMetadata(new ChunkRequest(path(i), 0), Master.REQUEST_CREATE);
+        }
+    }
+
+    private static String path(int i) {
+        return String.format("/dir-%d/file-%d", i % DIRECTORIES, i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public ChunkMetadata lookup() {
+        int i = ThreadLocalRandom.current().nextInt(fileCount);
+        return cluster.getMaster().getChunkMetadata(new ChunkRequest(path(i), 0), Master.REQUEST_READ);
+    }
+
+    /**
+     * creates from every thread land in the same few directories
+     */
+    @Benchmark
+    public ChunkMetadata create() {
+        long i = createCounter.incrementAndGet();
+        String path = String.format("/new-%d/file-%d", i % 4, i);
+        return cluster.getMaster().getChunkMetadata(new ChunkRequest(path, 0), Master.REQUEST_CREATE);
+    }
+
+    /**
+     * one page of a directory listing
+     */
+    @Benchmark
+    public List<String> listPage() {
+        int dir = ThreadLocalRandom.current().nextInt(DIRECTORIES);
+        return cluster.getMaster().list("/dir-" + dir + "/file-1", 100);
+    }
+}
@@ -0,0 +1,93 @@
+package com.twd.benchmark;
+
+import com.twd.element.Chunk;
+import com.twd.element.OpenChunkCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description reads across many chunks with a bounded open chunk cache: the hot set fits the cache and
+ *              never reopens a file, reads spread over every chunk pay an open and a close each.
+ *              opens counts the reads which found their chunk closed, at most maxOpenChunks chunks are open
+ *              whatever chunkCount is
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class OpenChunkCacheBenchmark {
+    private static final int HOT_CHUNKS = 64;
+
+    @Param({"1000", "10000"})
+    public int chunkCount;
+
+    @Param({"256"})
+    public int maxOpenChunks;
+
+    @Param({"FILE_CHANNEL", "MMAP"})
+    public Chunk.StorageMode storageMode;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long opens;
+    }
+
+    private File rootDir;
+
+    private OpenChunkCache cache;
+
+    private Chunk[] chunks;
+
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        cache = new OpenChunkCache(maxOpenChunks);
+        chunks = new Chunk[chunkCount];
+        byte[] payload = BenchmarkCluster.payload(64);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new Chunk(i, rootDir.getPath(), storageMode);
+            chunks[i].setOpenChunkCache(cache);
+            chunks[i].write(0, ByteBuffer.wrap(payload));
+        }
+        readBuffer = ByteBuffer.allocate(payload.length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Chunk chunk : chunks) {
+            chunk.close();
+        }
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    private int read(Chunk chunk, Counters counters) {
+        if (!chunk.isOpen()) {
+            counters.opens++;
+        }
+        readBuffer.clear();
+        return chunk.read(0, readBuffer);
+    }
+
+    @Benchmark
+    public int hotRead(Counters counters) {
+        return read(chunks[ThreadLocalRandom.current().nextInt(HOT_CHUNKS)], counters);
+    }
+
+    @Benchmark
+    public int spreadRead(Counters counters) {
+        return read(chunks[ThreadLocalRandom.current().nextInt(chunkCount)], counters);
+    }
+}
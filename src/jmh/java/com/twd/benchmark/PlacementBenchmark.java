@@ -0,0 +1,69 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import com.twd.role.PlacementEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description chunk creates per second against the number of chunkservers to choose from
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class PlacementBenchmark {
+    @Param({"10", "100", "1000", "5000"})
+    public int serverCount;
+
+    private BenchmarkCluster cluster;
+
+    private PlacementEngine placementEngine;
+
+    /**
+     * the file is deleted again after every create, the chunk is never created on the servers
+     */
+    private ChunkRequest chunkRequest;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(serverCount);
+        for (ChunkServer server : cluster.getServers()) {
+            // room for every chunk the benchmark places
+            server.setCapacity(Long.MAX_VALUE / 4);
+            cluster.getMaster().addChunkServerInfo(server, 0);
+        }
+        placementEngine = cluster.getMaster().getPlacementEngine();
+        chunkRequest = new ChunkRequest("create.txt", 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public ChunkServer[] place() {
+        return placementEngine.place(cluster.getMaster().getReplicaNum());
+    }
+
+    /**
+     * placement plus the master's create bookkeeping, and deleting the file again
+     */
+    @Benchmark
+    @Threads(1)
+    public ChunkMetadata createChunkMetadata() {
+        ChunkMetadata metadata = cluster.getMaster().getChunkMetadata(chunkRequest, Master.REQUEST_CREATE);
+        cluster.getMaster().delete(chunkRequest.getFilename());
+        return metadata;
+    }
+}
@@ -0,0 +1,75 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkRequest;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description master restart time against the number of files in its namespace
+ *              checkpointed: a checkpoint holds every file and the log tail is empty
+ *              otherwise every create is replayed from the operation log
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+    private static final int DIRECTORIES = 1000;
+
+    @Param({"10000", "100000"})
+    public int fileCount;
+
+    @Param({"true", "false"})
+    public boolean checkpointed;
+
+    private File rootDir;
+
+    private File logDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-recovery").toFile();
+        logDir = new File(rootDir, "master");
+        Master master = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        master.setCheckpointOps(Long.MAX_VALUE);
+        List<ChunkServer> servers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            servers.add(new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master));
+        }
+        for (int i = 0; i < fileCount; i++) {
+            master.getChunkMetadata(new ChunkRequest(String.format("/dir-%d/file-%d", i % DIRECTORIES, i), 0),
+                    Master.REQUEST_CREATE);
+        }
+        if (checkpointed) {
+            master.checkpoint();
+        }
+        master.close();
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    public long recover() throws IOException {
+        Master master = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        master.close();
+        return master.getFileCount();
+    }
+}
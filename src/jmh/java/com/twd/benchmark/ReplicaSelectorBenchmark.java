@@ -0,0 +1,117 @@
+package com.twd.benchmark;
+
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import com.twd.role.LeastLoadedReplicaSelector;
+import com.twd.role.Master;
+import com.twd.role.RandomReplicaSelector;
+import com.twd.role.ReplicaSelector;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author twd
+ * @description read latency with one slow replica out of three, compare the sample-time p99 of the selectors
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class ReplicaSelectorBenchmark {
+    private static final String FILENAME = "bench.txt";
+
+    public enum Selector {
+        RANDOM, LEAST_LOADED, HEDGED
+    }
+
+    /**
+     * a chunkserver that stalls every read
+     */
+    static class SlowChunkServer extends ChunkServer {
+        private final long delayNanos;
+
+        SlowChunkServer(String rootFolder, Master master, long delayNanos) {
+            super(rootFolder, master);
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public int read(long chunkHandle, int offset, ByteBuffer dst) {
+            LockSupport.parkNanos(delayNanos);
+            return super.read(chunkHandle, offset, dst);
+        }
+    }
+
+    @Param({"RANDOM", "LEAST_LOADED", "HEDGED"})
+    public Selector selector;
+
+    /**
+     * how long the slow replica stalls a read
+     */
+    @Param({"0", "1000"})
+    public int slowMicros;
+
+    @Param({"4096"})
+    public int payloadSize;
+
+    private File rootDir;
+
+    private Client client;
+
+    private final List<ChunkServer> servers = new ArrayList<>();
+
+    private ByteBuffer dst;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-bench").toFile();
+        Master master = new Master(3);
+        servers.add(new SlowChunkServer(new File(rootDir, "slow").getPath(), master, TimeUnit.MICROSECONDS.toNanos(slowMicros)));
+        servers.add(new ChunkServer(new File(rootDir, "0").getPath(), master));
+        servers.add(new ChunkServer(new File(rootDir, "1").getPath(), master));
+        client = new Client(master);
+        client.setReplicaSelector(newSelector());
+        client.create(FILENAME);
+        client.write(FILENAME, 0, ByteBuffer.wrap(BenchmarkCluster.payload(payloadSize)));
+        dst = ByteBuffer.allocate(payloadSize);
+    }
+
+    private ReplicaSelector newSelector() {
+        switch (selector) {
+            case RANDOM:
+                return new RandomReplicaSelector();
+            case HEDGED:
+                return new LeastLoadedReplicaSelector(0.95);
+            case LEAST_LOADED:
+            default:
+                return new LeastLoadedReplicaSelector();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+        servers.clear();
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int read() {
+        dst.clear();
+        return client.read(FILENAME, 0, dst);
+    }
+}
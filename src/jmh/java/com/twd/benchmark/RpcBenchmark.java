@@ -0,0 +1,123 @@
+package com.twd.benchmark;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import com.twd.rpc.ChunkLocation;
+import com.twd.rpc.ChunkServerService;
+import com.twd.rpc.MasterService;
+import com.twd.rpc.RemoteChunkServer;
+import com.twd.rpc.RemoteClient;
+import com.twd.rpc.RemoteMaster;
+import com.twd.rpc.RpcClient;
+import com.twd.rpc.RpcServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description the loopback transport: reads through the remote client against the in-process one,
+ *              and raw chunkserver reads with pipelineDepth calls in flight on one connection
+ * @date 2026-10-18
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class RpcBenchmark {
+    private static final String FILENAME = "/rpc.bin";
+
+    @Param({"64", "1024"})
+    public int readSize;
+
+    @Param({"1", "16"})
+    public int pipelineDepth;
+
+    private BenchmarkCluster cluster;
+
+    private final List<RpcServer> rpcServers = new ArrayList<>();
+
+    private RemoteClient remoteClient;
+
+    private RpcClient rpcClient;
+
+    private RemoteChunkServer replica;
+
+    private ChunkLocation location;
+
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cluster = new BenchmarkCluster(3);
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        for (ChunkServer server : cluster.getServers()) {
+            rpcServers.add(ChunkServerService.serve(server, loopback));
+        }
+        RpcServer masterServer = MasterService.serve(cluster.getMaster(), loopback);
+        rpcServers.add(masterServer);
+        cluster.getClient().create(FILENAME);
+        cluster.getClient().write(FILENAME, 0, ByteBuffer.wrap(BenchmarkCluster.payload(ChunkMetadata.CHUNK_SIZE)));
+        remoteClient = new RemoteClient(masterServer.getAddress());
+        rpcClient = new RpcClient(1);
+        location = new RemoteMaster(rpcClient, masterServer.getAddress())
+                .lookup(FILENAME, 0, Master.REQUEST_READ).join();
+        replica = new RemoteChunkServer(rpcClient, location.getReplicas()[0]);
+        readBuffer = ByteBuffer.allocate(readSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        remoteClient.close();
+        rpcClient.close();
+        for (RpcServer rpcServer : rpcServers) {
+            rpcServer.close();
+        }
+        cluster.destroy();
+    }
+
+    @Benchmark
+    public int inProcessRead() {
+        readBuffer.clear();
+        return cluster.getClient().read(FILENAME, 0, readBuffer);
+    }
+
+    /**
+     * a master lookup and a chunkserver read, both over the network
+     */
+    @Benchmark
+    public int remoteClientRead() {
+        readBuffer.clear();
+        return remoteClient.read(FILENAME, 0, readBuffer);
+    }
+
+    /**
+     * pipelineDepth reads sent back to back on one connection, then awaited
+     */
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public int pipelinedChunkRead() {
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[16];
+        int n = 0;
+        for (int sent = 0; sent < reads.length; sent += pipelineDepth) {
+            int batch = Math.min(pipelineDepth, reads.length - sent);
+            for (int i = 0; i < batch; i++) {
+                reads[sent + i] = replica.read(location.getChunkHandle(), 0, readSize);
+            }
+            for (int i = 0; i < batch; i++) {
+                n += ((ByteBuffer) reads[sent + i].join()).remaining();
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,54 @@
+package com.twd.benchmark;
+
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description chunkserver startup against the number of chunk files it holds: the scan of its root folder
+ *              and the block report the master applies
+ * @date 2026-10-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    @Param({"10000", "100000"})
+    public int chunkCount;
+
+    private File rootDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rootDir = Files.createTempDirectory("gfs-startup").toFile();
+        byte[] data = BenchmarkCluster.payload(16);
+        for (int i = 1; i <= chunkCount; i++) {
+            Files.write(new File(rootDir, i + ".chunk").toPath(), data);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCluster.delete(rootDir);
+    }
+
+    @Benchmark
+    public int start() {
+        Master master = new Master();
+        ChunkServer server = new ChunkServer(rootDir.getPath(), master);
+        try {
+            return server.getChunkNum() + (int) master.getChunkTable().size();
+        } finally {
+            server.close();
+        }
+    }
+}
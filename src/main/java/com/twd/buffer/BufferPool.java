@@ -0,0 +1,128 @@
+package com.twd.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description a pool of direct buffers in power-of-two size classes
+ *              a request is served by the smallest class that fits, with its limit set to the requested size,
+ *              requests above the largest class are allocated directly and dropped on release
+ * @date 2026-10-18
+ */
+public class BufferPool {
+    /**
+     * the smallest size class: 64B
+     */
+    public static final int MIN_CLASS_SIZE = 1 << 6;
+
+    /**
+     * the largest size class: 1MB
+     */
+    public static final int MAX_CLASS_SIZE = 1 << 20;
+
+    /**
+     * free buffers kept per size class
+     */
+    public static final int DEFAULT_BUFFERS_PER_CLASS = 256;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFERS_PER_CLASS);
+
+    /**
+     * free buffers of each size class: {class index} -> {free buffers}
+     */
+    private final Queue<ByteBuffer>[] freeLists;
+
+    private final AtomicLong allocated = new AtomicLong();
+
+    private final AtomicLong reused = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int buffersPerClass) {
+        int classes = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_SHIFT + 1;
+        freeLists = new Queue[classes];
+        for (int i = 0; i < classes; i++) {
+            freeLists[i] = new ArrayBlockingQueue<>(buffersPerClass);
+        }
+    }
+
+    /**
+     * the pool shared by every component of the process
+     * @return
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * the size class index for the given size, -1 if it's too large to pool
+     * @param size
+     * @return
+     */
+    private static int classIndex(int size) {
+        if (size > MAX_CLASS_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * get a cleared direct buffer whose limit is size
+     * @param size
+     * @return
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classIndex(size);
+        if (index < 0) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = freeLists[index].poll();
+        if (null == buffer) {
+            allocated.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(MIN_CLASS_SIZE << index);
+        } else {
+            reused.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * give a buffer got from acquire back to the pool
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = classIndex(capacity);
+        if (index < 0 || !buffer.isDirect() || capacity != MIN_CLASS_SIZE << index) {
+            // not one of ours, leave it to the gc
+            return;
+        }
+        freeLists[index].offer(buffer);
+    }
+
+    /**
+     * buffers allocated because no free one was available
+     * @return
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * acquires served from a free list
+     * @return
+     */
+    public long getReused() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,341 @@
+package com.twd.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author twd
+ * @description data pushed by clients ahead of their write requests, keyed by (client, chunk handle, offset)
+ *              the pushed bytes are copied into pooled direct buffers.
+ *              entries are kept in push order, so the head is both the least recently pushed and the oldest:
+ *              when the byte budget is exceeded the oldest pushes are evicted, and pushes older than the ttl
+ *              are expired whenever the buffer is touched or expire() is called.
+ *              data may also arrive as packets: the first packet reserves the whole buffer
+ *              and a take() only succeeds once every byte has been received, a packet that arrives twice
+ *              (e.g. resent after a timeout) counts once
+ * @date 2026-10-18
+ */
+public class PushBuffer {
+    /**
+     * default total bytes held: 64MB
+     */
+    public static final long DEFAULT_BUDGET_BYTES = 64L << 20;
+
+    /**
+     * default time a push waits for its write: 60s
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60_000L;
+
+    /**
+     * the key of a pushed data
+     */
+    public static final class Key {
+        private final long clientId;
+
+        private final long chunkHandle;
+
+        private final int offset;
+
+        public Key(long clientId, long chunkHandle, int offset) {
+            this.clientId = clientId;
+            this.chunkHandle = chunkHandle;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return clientId == other.clientId && chunkHandle == other.chunkHandle && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Long.hashCode(clientId);
+            hash = hash * 31 + Long.hashCode(chunkHandle);
+            return hash * 31 + offset;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%d:%d", clientId, chunkHandle, offset);
+        }
+    }
+
+    /**
+     * the bytes of one push, received and dropped are guarded by the entry
+     */
+    private static class Entry {
+        final ByteBuffer buffer;
+
+        final long pushedAt;
+
+        /**
+         * the ranges received so far, start to end, merged where they overlap or touch
+         */
+        final TreeMap<Integer, Integer> received = new TreeMap<>();
+
+        boolean dropped;
+
+        Entry(ByteBuffer buffer, long pushedAt) {
+            this.buffer = buffer;
+            this.pushedAt = pushedAt;
+        }
+
+        void received(int start, int end) {
+            Map.Entry<Integer, Integer> before = received.floorEntry(start);
+            if (null != before && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            // swallow the ranges the new one reaches
+            for (Map.Entry<Integer, Integer> next = received.ceilingEntry(start);
+                 null != next && next.getKey() <= end; next = received.ceilingEntry(start)) {
+                end = Math.max(end, next.getValue());
+                received.remove(next.getKey());
+            }
+            received.put(start, end);
+        }
+
+        synchronized boolean isComplete() {
+            Integer end = received.get(0);
+            return null != end && end == buffer.limit();
+        }
+    }
+
+    private final BufferPool pool;
+
+    /**
+     * pushed data in push order, guarded by this
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+    private long budgetBytes;
+
+    private long ttlMillis;
+
+    private long occupiedBytes;
+
+    private long evictions;
+
+    private long expirations;
+
+    private long rejections;
+
+    public PushBuffer() {
+        this(BufferPool.shared(), DEFAULT_BUDGET_BYTES, DEFAULT_TTL_MILLIS);
+    }
+
+    public PushBuffer(BufferPool pool, long budgetBytes, long ttlMillis) {
+        this.pool = pool;
+        this.budgetBytes = budgetBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * copy the remaining bytes of data into the buffer, replacing an earlier push with the same key
+     * @param key
+     * @param data
+     * @return false if the data is larger than the whole budget
+     */
+    public boolean put(Key key, ByteBuffer data) {
+        Entry entry = reserve(key, data.remaining());
+        return null != entry && fill(entry, 0, data);
+    }
+
+    /**
+     * copy one packet of a push into the buffer, the first packet seen for the key reserves the whole push
+     * @param key
+     * @param length the length of the whole push
+     * @param position the position of the packet in the push
+     * @param packet
+     * @return false if the push is larger than the whole budget, or was evicted while being received
+     */
+    public boolean putPacket(Key key, int length, int position, ByteBuffer packet) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (null == entry || entry.buffer.limit() != length) {
+            entry = reserveIfAbsent(key, length);
+        }
+        return null != entry && fill(entry, position, packet);
+    }
+
+    private synchronized Entry reserveIfAbsent(Key key, int length) {
+        Entry entry = entries.get(key);
+        if (null != entry && entry.buffer.limit() == length) {
+            // another packet of the same push got here first
+            return entry;
+        }
+        return reserve(key, length);
+    }
+
+    /**
+     * make room for a push of size bytes and register an empty entry for it
+     * @param key
+     * @param size
+     * @return null if size is larger than the whole budget
+     */
+    private Entry reserve(Key key, int size) {
+        if (size > budgetBytes) {
+            synchronized (this) {
+                rejections++;
+            }
+            return null;
+        }
+        ByteBuffer buffer = pool.acquire(size);
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(buffer, now);
+        synchronized (this) {
+            expire(now);
+            Entry previous = entries.remove(key);
+            if (null != previous) {
+                drop(previous);
+            }
+            while (occupiedBytes + size > budgetBytes && !entries.isEmpty()) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                drop(iterator.next());
+                iterator.remove();
+                evictions++;
+            }
+            entries.put(key, entry);
+            occupiedBytes += size;
+        }
+        return entry;
+    }
+
+    private boolean fill(Entry entry, int position, ByteBuffer data) {
+        synchronized (entry) {
+            if (entry.dropped) {
+                return false;
+            }
+            ByteBuffer view = entry.buffer.duplicate();
+            view.position(position);
+            view.put(data.duplicate());
+            entry.received(position, view.position());
+            return true;
+        }
+    }
+
+    /**
+     * remove and return the data pushed for key, the caller gives it back by release()
+     * @param key
+     * @return null if nothing was pushed, or it was evicted
+     */
+    public ByteBuffer take(Key key) {
+        Entry entry;
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            entry = entries.get(key);
+            if (null == entry || !entry.isComplete()) {
+                return null;
+            }
+            entries.remove(key);
+            occupiedBytes -= entry.buffer.limit();
+        }
+        return entry.buffer;
+    }
+
+    /**
+     * give a buffer returned by take() back to the pool
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * drop every push older than the ttl
+     */
+    public synchronized void expire() {
+        expire(System.currentTimeMillis());
+    }
+
+    private void expire(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.pushedAt < ttlMillis) {
+                // the rest are younger
+                break;
+            }
+            drop(entry);
+            iterator.remove();
+            expirations++;
+        }
+    }
+
+    private void drop(Entry entry) {
+        occupiedBytes -= entry.buffer.limit();
+        synchronized (entry) {
+            // a packet being copied in sees the flag and gives up
+            entry.dropped = true;
+        }
+        pool.release(entry.buffer);
+    }
+
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public synchronized long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * bytes held by outstanding pushes
+     * @return
+     */
+    public synchronized long getOccupiedBytes() {
+        return occupiedBytes;
+    }
+
+    /**
+     * outstanding pushes
+     * @return
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * pushes dropped to stay within the byte budget
+     * @return
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * pushes dropped because their write never came within the ttl
+     * @return
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * pushes refused because they alone exceed the byte budget
+     * @return
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+}
@@ -0,0 +1,447 @@
+package com.twd.cache;
+
+import com.twd.element.Chunk;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description a chunkserver's cache of fixed-size blocks of chunk data, bounded by bytes, on or off the heap.
+ *              eviction is w-tinylfu: a new block enters a small lru window, and when it leaves the window it
+ *              only displaces a block of the main area (a probation and a protected segment) if the frequency
+ *              sketch has seen it more often, so a scan over cold chunks can't flush the hot ones.
+ *              concurrent misses on one block wait for a single disk read.
+ *              the caller holds the chunk's read lock while it reads through the cache and its write lock while
+ *              it writes and invalidates, so a block read before a write is never cached after it
+ * @date 2026-10-18
+ */
+public class BlockCache implements BlockCacheMBean {
+    /**
+     * the default budget, set by -Dgfs.block.cache.bytes, 0 turns the cache off
+     */
+    public static final long DEFAULT_CAPACITY_BYTES = Long.getLong("gfs.block.cache.bytes", 0L);
+
+    /**
+     * the default block size, set by -Dgfs.block.cache.block.size: 64KB
+     */
+    public static final int DEFAULT_BLOCK_SIZE = Integer.getInteger("gfs.block.cache.block.size", 64 << 10);
+
+    /**
+     * whether blocks are kept in direct buffers by default, set by -Dgfs.block.cache.off.heap
+     */
+    public static final boolean DEFAULT_OFF_HEAP = Boolean.parseBoolean(System.getProperty("gfs.block.cache.off.heap", "true"));
+
+    /**
+     * the share of the budget the window takes, in percent
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * the share of the main area the protected segment takes, in percent
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private static final class Key {
+        final long chunkHandle;
+
+        final int block;
+
+        Key(long chunkHandle, int block) {
+            this.chunkHandle = chunkHandle;
+            this.block = block;
+        }
+
+        long hash() {
+            return chunkHandle * 0x9E3779B97F4A7C15L + block;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return chunkHandle == other.chunkHandle && block == other.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash());
+        }
+    }
+
+    /**
+     * a cached block, linked into the list of its segment
+     */
+    private static final class Node {
+        final Key key;
+
+        /**
+         * read-only, from 0 to the block's length
+         */
+        final ByteBuffer data;
+
+        int segment;
+
+        Node prev;
+
+        Node next;
+
+        Node(Key key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        int size() {
+            return data.capacity();
+        }
+    }
+
+    /**
+     * a segment's blocks, least recently used first
+     */
+    private static final class Segment {
+        final Node head = new Node(null, null);
+
+        long bytes;
+
+        Segment() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            bytes += node.size();
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            bytes -= node.size();
+        }
+    }
+
+    private final long capacityBytes;
+
+    private final int blockSize;
+
+    private final boolean offHeap;
+
+    private final long windowCapacity;
+
+    private final long protectedCapacity;
+
+    /**
+     * the blocks, guarded by this like the segments and the sketch
+     */
+    private final Map<Key, Node> blocks = new HashMap<>();
+
+    private final Segment[] segments = {new Segment(), new Segment(), new Segment()};
+
+    private final FrequencySketch sketch;
+
+    /**
+     * the disk reads in progress, a miss on a block being read waits for it
+     */
+    private final Map<Key, CompletableFuture<ByteBuffer>> loads = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder coalescedMisses = new LongAdder();
+
+    private final LongAdder bytesSaved = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public BlockCache() {
+        this(DEFAULT_CAPACITY_BYTES, DEFAULT_BLOCK_SIZE, DEFAULT_OFF_HEAP);
+    }
+
+    /**
+     * @param capacityBytes the bytes the blocks may take, 0 to cache nothing
+     * @param blockSize
+     * @param offHeap whether blocks are kept in direct buffers
+     */
+    public BlockCache(long capacityBytes, int blockSize, boolean offHeap) {
+        this.capacityBytes = capacityBytes;
+        this.blockSize = blockSize;
+        this.offHeap = offHeap;
+        windowCapacity = Math.max(blockSize, capacityBytes * WINDOW_PERCENT / 100);
+        protectedCapacity = (capacityBytes - windowCapacity) * PROTECTED_PERCENT / 100;
+        sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE / 2, Math.max(1, capacityBytes / blockSize)));
+    }
+
+    public boolean isEnabled() {
+        return capacityBytes > 0;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * read into dst from offset of the chunk through the cache, until dst is full or the chunk ends
+     * @param chunk read and verified on a miss, the caller holds its read lock
+     * @param offset
+     * @param dst its position is advanced by the bytes read
+     * @return the bytes read, -1 if a block can't be read from the chunk
+     */
+    public int read(Chunk chunk, int offset, ByteBuffer dst) {
+        int size = chunk.size();
+        if (size < 0) {
+            return -1;
+        }
+        int total = 0;
+        int position = offset;
+        while (dst.hasRemaining() && position < size) {
+            int block = position / blockSize;
+            int blockStart = block * blockSize;
+            ByteBuffer data = get(chunk, block, Math.min(blockSize, size - blockStart));
+            if (null == data) {
+                return -1;
+            }
+            int from = position - blockStart;
+            if (from >= data.limit()) {
+                break;
+            }
+            int count = Math.min(dst.remaining(), data.limit() - from);
+            ByteBuffer view = data.duplicate();
+            view.position(from);
+            view.limit(from + count);
+            dst.put(view);
+            total += count;
+            position += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the block's data, from the cache or read from the chunk, null if it can't be read
+     */
+    private ByteBuffer get(Chunk chunk, int block, int length) {
+        Key key = new Key(chunk.getChunkHandle(), block);
+        ByteBuffer cached = lookup(key);
+        if (null != cached) {
+            hits.increment();
+            bytesSaved.add(cached.limit());
+            return cached;
+        }
+        CompletableFuture<ByteBuffer> load = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> running = loads.putIfAbsent(key, load);
+        if (null != running) {
+            coalescedMisses.increment();
+            return running.join();
+        }
+        misses.increment();
+        ByteBuffer data = null;
+        try {
+            ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            if (chunk.read(block * blockSize, buffer) >= 0) {
+                buffer.flip();
+                data = buffer.asReadOnlyBuffer();
+                if (data.hasRemaining()) {
+                    insert(key, data);
+                }
+            }
+        } finally {
+            loads.remove(key, load);
+            load.complete(data);
+        }
+        return data;
+    }
+
+    private synchronized ByteBuffer lookup(Key key) {
+        Node node = blocks.get(key);
+        if (null == node) {
+            return null;
+        }
+        sketch.increment(key.hash());
+        switch (node.segment) {
+            case PROBATION:
+                // seen again while on probation, it's promoted
+                segments[PROBATION].remove(node);
+                node.segment = PROTECTED;
+                segments[PROTECTED].addLast(node);
+                demoteProtected();
+                break;
+            default:
+                segments[node.segment].remove(node);
+                segments[node.segment].addLast(node);
+        }
+        return node.data;
+    }
+
+    private synchronized void insert(Key key, ByteBuffer data) {
+        if (blocks.containsKey(key) || data.capacity() > capacityBytes) {
+            return;
+        }
+        sketch.increment(key.hash());
+        Node node = new Node(key, data);
+        node.segment = WINDOW;
+        blocks.put(key, node);
+        segments[WINDOW].addLast(node);
+        while (segments[WINDOW].bytes > windowCapacity) {
+            Node candidate = segments[WINDOW].first();
+            segments[WINDOW].remove(candidate);
+            admit(candidate);
+        }
+    }
+
+    /**
+     * move a block leaving the window into probation, if it's more popular than the blocks it would displace
+     */
+    private void admit(Node candidate) {
+        long mainCapacity = capacityBytes - windowCapacity;
+        while (segments[PROBATION].bytes + segments[PROTECTED].bytes + candidate.size() > mainCapacity) {
+            Segment victims = null != segments[PROBATION].first() ? segments[PROBATION] : segments[PROTECTED];
+            Node victim = victims.first();
+            if (null == victim || sketch.frequency(candidate.key.hash()) <= sketch.frequency(victim.key.hash())) {
+                evict(candidate);
+                return;
+            }
+            victims.remove(victim);
+            evict(victim);
+        }
+        candidate.segment = PROBATION;
+        segments[PROBATION].addLast(candidate);
+    }
+
+    private void demoteProtected() {
+        while (segments[PROTECTED].bytes > protectedCapacity) {
+            Node node = segments[PROTECTED].first();
+            segments[PROTECTED].remove(node);
+            node.segment = PROBATION;
+            segments[PROBATION].addLast(node);
+        }
+    }
+
+    private void evict(Node node) {
+        blocks.remove(node.key);
+        evictions.increment();
+    }
+
+    private void remove(Node node) {
+        segments[node.segment].remove(node);
+        blocks.remove(node.key);
+        invalidations.increment();
+    }
+
+    /**
+     * drop the blocks a write of [offset, offset + len) touched, the caller holds the chunk's write lock
+     * @param chunkHandle
+     * @param offset
+     * @param len
+     */
+    public synchronized void invalidate(long chunkHandle, int offset, int len) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        int last = (offset + Math.max(len, 1) - 1) / blockSize;
+        for (int block = offset / blockSize; block <= last; block++) {
+            Node node = blocks.get(new Key(chunkHandle, block));
+            if (null != node) {
+                remove(node);
+            }
+        }
+    }
+
+    /**
+     * drop every block of a chunk, e.g. when it's deleted
+     * @param chunkHandle
+     */
+    public synchronized void invalidate(long chunkHandle) {
+        Iterator<Node> iterator = blocks.values().iterator();
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (node.key.chunkHandle == chunkHandle) {
+                segments[node.segment].remove(node);
+                iterator.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public synchronized long getSizeBytes() {
+        return segments[WINDOW].bytes + segments[PROBATION].bytes + segments[PROTECTED].bytes;
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * misses which read the block from the chunk
+     * @return
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * misses which waited for another read of the same block instead of reading it again
+     * @return
+     */
+    public long getCoalescedMisses() {
+        return coalescedMisses.sum();
+    }
+
+    /**
+     * the share of block lookups served from the cache, the coalesced misses count as hits
+     * @return
+     */
+    public double getHitRatio() {
+        long hits = this.hits.sum() + coalescedMisses.sum();
+        long lookups = hits + misses.sum();
+        return 0 == lookups ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * the bytes of the blocks served from the cache, each one a disk read saved
+     * @return
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+}
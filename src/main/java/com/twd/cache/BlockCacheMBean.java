@@ -0,0 +1,30 @@
+package com.twd.cache;
+
+/**
+ * @author twd
+ * @description the jmx view of a chunkserver's block cache
+ * @date 2026-10-18
+ */
+public interface BlockCacheMBean {
+    long getCapacityBytes();
+
+    long getSizeBytes();
+
+    int getBlockCount();
+
+    int getBlockSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getCoalescedMisses();
+
+    double getHitRatio();
+
+    long getBytesSaved();
+
+    long getEvictions();
+
+    long getInvalidations();
+}
@@ -0,0 +1,165 @@
+package com.twd.cache;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author twd
+ * @description the client's cache of chunk metadata, bounded by entry count with lru eviction
+ *              an entry expires with the primary lease it was handed out under, or after the ttl if that's sooner,
+ *              so replica locations are never used for longer than the master vouches for them
+ * @date 2026-10-18
+ */
+public class ChunkMetadataCache {
+    /**
+     * default entries kept
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    /**
+     * default longest time an entry is used: 60s
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60_000L;
+
+    private static class Entry {
+        final ChunkMetadata metadata;
+
+        final long expireTime;
+
+        Entry(ChunkMetadata metadata, long expireTime) {
+            this.metadata = metadata;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final int maxEntries;
+
+    private final long ttlMillis;
+
+    /**
+     * entries in access order, guarded by this
+     */
+    private final LinkedHashMap<ChunkRequest, Entry> entries;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long expirations;
+
+    private long invalidations;
+
+    public ChunkMetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    public ChunkMetadataCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        entries = new LinkedHashMap<ChunkRequest, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ChunkRequest, Entry> eldest) {
+                if (size() > ChunkMetadataCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param chunkRequest
+     * @return null if not cached or expired
+     */
+    public synchronized ChunkMetadata get(ChunkRequest chunkRequest) {
+        Entry entry = entries.get(chunkRequest);
+        if (null == entry) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expireTime) {
+            entries.remove(chunkRequest);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.metadata;
+    }
+
+    /**
+     * is the chunk cached and not expired, not counted as a hit or miss
+     * @param chunkRequest
+     * @return
+     */
+    public synchronized boolean contains(ChunkRequest chunkRequest) {
+        Entry entry = entries.get(chunkRequest);
+        return null != entry && System.currentTimeMillis() < entry.expireTime;
+    }
+
+    public synchronized void put(ChunkRequest chunkRequest, ChunkMetadata metadata) {
+        long now = System.currentTimeMillis();
+        long expireTime = now + ttlMillis;
+        if (metadata.getLeaseExpireTime() > now) {
+            // only a live lease shortens the ttl, the locations of a chunk without one are as good as any
+            expireTime = Math.min(expireTime, metadata.getLeaseExpireTime());
+        }
+        entries.put(chunkRequest, new Entry(metadata, expireTime));
+    }
+
+    /**
+     * keep using the entry until the primary's extended lease runs out, or the ttl from now if that's sooner
+     * @param chunkRequest
+     * @param leaseExpireTime
+     */
+    public synchronized void renew(ChunkRequest chunkRequest, long leaseExpireTime) {
+        Entry entry = entries.get(chunkRequest);
+        if (null == entry) {
+            return;
+        }
+        long expireTime = Math.min(System.currentTimeMillis() + ttlMillis, leaseExpireTime);
+        if (expireTime > entry.expireTime) {
+            entries.put(chunkRequest, new Entry(entry.metadata, expireTime));
+        }
+    }
+
+    /**
+     * drop the entry after a chunkserver call under it failed
+     * @param chunkRequest
+     */
+    public synchronized void invalidate(ChunkRequest chunkRequest) {
+        if (null != entries.remove(chunkRequest)) {
+            invalidations++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+}
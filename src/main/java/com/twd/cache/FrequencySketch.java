@@ -0,0 +1,75 @@
+package com.twd.cache;
+
+/**
+ * @author twd
+ * @description a count-min sketch of how often keys were seen lately, 4 rows of counters capped at 15.
+ *              every counter is halved once the sketch has seen ten times its width, so old popularity fades
+ *              and a key that was hot long ago doesn't hold its place forever.
+ *              not thread-safe, the block cache calls it under its lock
+ * @date 2026-10-18
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final byte[][] rows;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int samples;
+
+    /**
+     * @param expectedKeys about how many keys the cache holds
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys) * 2 - 1);
+        rows = new byte[DEPTH][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    private int index(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    void increment(long hash) {
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int i = index(hash, row);
+            if (rows[row][i] < MAX_COUNT) {
+                rows[row][i]++;
+                added = true;
+            }
+        }
+        if (added && ++samples >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * @param hash
+     * @return about how often the key was seen lately
+     */
+    int frequency(long hash) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, rows[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (byte[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        samples /= 2;
+    }
+}
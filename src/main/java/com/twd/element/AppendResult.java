@@ -0,0 +1,84 @@
+package com.twd.element;
+
+import com.twd.role.ChunkServer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author twd
+ * @description the outcome of a record append: the offset the primary chose,
+ *              or that the chunk was full and has been padded, or the replicas which failed
+ * @date 2026-10-18
+ */
+public class AppendResult {
+    public enum Status {
+        /**
+         * the record was appended at the offset on every replica
+         */
+        SUCCESS,
+        /**
+         * the record doesn't fit, the chunk was padded and the append should go to the next chunk
+         */
+        CHUNK_FULL,
+        /**
+         * some replicas failed, the append should be retried
+         */
+        FAILED
+    }
+
+    private static final AppendResult CHUNK_FULL = new AppendResult(Status.CHUNK_FULL, -1, Collections.<ChunkServer>emptyList(), 0);
+
+    private final Status status;
+
+    /**
+     * the offset of the record in the chunk
+     */
+    private final int offset;
+
+    private final List<ChunkServer> failedReplicas;
+
+    /**
+     * when the primary's lease ends, 0 if not known
+     */
+    private final long leaseExpireTime;
+
+    private AppendResult(Status status, int offset, List<ChunkServer> failedReplicas, long leaseExpireTime) {
+        this.status = status;
+        this.offset = offset;
+        this.failedReplicas = failedReplicas;
+        this.leaseExpireTime = leaseExpireTime;
+    }
+
+    public static AppendResult success(int offset) {
+        return success(offset, 0);
+    }
+
+    public static AppendResult success(int offset, long leaseExpireTime) {
+        return new AppendResult(Status.SUCCESS, offset, Collections.<ChunkServer>emptyList(), leaseExpireTime);
+    }
+
+    public static AppendResult chunkFull() {
+        return CHUNK_FULL;
+    }
+
+    public static AppendResult failure(List<ChunkServer> failedReplicas) {
+        return new AppendResult(Status.FAILED, -1, Collections.unmodifiableList(failedReplicas), 0);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public List<ChunkServer> getFailedReplicas() {
+        return failedReplicas;
+    }
+
+    public long getLeaseExpireTime() {
+        return leaseExpireTime;
+    }
+}
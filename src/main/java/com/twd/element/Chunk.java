@@ -1,14 +1,19 @@
 package com.twd.element;
 
+import com.twd.metrics.OperationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author twd
@@ -16,19 +21,120 @@ import java.nio.charset.StandardCharsets;
  * @date 2019-12-04
  */
 public class Chunk {
-    private int chunkHandle;
+    /**
+     * how the chunk file is accessed
+     */
+    public enum StorageMode {
+        /**
+         * position the file channel then read/write, one caller at a time
+         */
+        FILE_CHANNEL,
+        /**
+         * memory-map the file and access absolute offsets, safe for concurrent readers
+         */
+        MMAP
+    }
+
+    /**
+     * the storage mode used when none is given, set by -Dgfs.chunk.storage=FILE_CHANNEL|MMAP
+     */
+    public static final StorageMode DEFAULT_STORAGE_MODE =
+            StorageMode.valueOf(System.getProperty("gfs.chunk.storage", StorageMode.MMAP.name()));
+
+    private long chunkHandle;
+
+    /**
+     * the chunk's version is part of the file's name, {handle}.{version}.chunk, so it survives restarts
+     */
+    private volatile long version;
+
+    private final String prefix;
+
+    private volatile String filename;
+
+    private final StorageMode storageMode;
+
+    private volatile ChunkStorage storage;
+
+    /**
+     * the size of the blocks checksummed apart, set by -Dgfs.checksum.block.size
+     */
+    public static final int CHECKSUM_BLOCK_SIZE = Integer.getInteger("gfs.checksum.block.size", 64 << 10);
+
+    /**
+     * whether the chunk keeps block checksums, set by -Dgfs.chunk.checksum=false to turn them off
+     */
+    public static final boolean CHECKSUMS_ENABLED = Boolean.parseBoolean(System.getProperty("gfs.chunk.checksum", "true"));
+
+    /**
+     * whether a chunk's whole file is allocated when it's first opened, set by -Dgfs.chunk.preallocate.
+     * off, the file grows sparse with the writes
+     */
+    public static final boolean DEFAULT_PREALLOCATE = Boolean.parseBoolean(System.getProperty("gfs.chunk.preallocate", "false"));
+
+    /**
+     * the size of the chunk's file, the chunk size of its file
+     */
+    private volatile int capacity = ChunkMetadata.CHUNK_SIZE;
+
+    private volatile boolean preallocate = DEFAULT_PREALLOCATE;
+
+    private final int checksumBlockSize;
+
+    /**
+     * opened with the storage, null if checksums are off
+     */
+    private volatile ChunkChecksums checksums;
+
+    /**
+     * set once a checksum mismatch is found, the chunk's data can't be trusted anymore
+     */
+    private volatile boolean corrupt;
+
+    /**
+     * when the chunk was last read or written, the scrubber leaves recently used chunks alone
+     */
+    private volatile long lastAccessMillis;
+
+    /**
+     * the server's open chunks, null to keep the files open until close()
+     */
+    private OpenChunkCache openChunkCache;
+
+    /**
+     * the disk reads and writes of the server's chunks, null if not recorded
+     */
+    private OperationMetrics readMetrics;
 
-    private final String filename;
+    private OperationMetrics writeMetrics;
 
-    private FileChannel fileChannel;
+    /**
+     * the I/Os using the open files, the cache doesn't close a pinned chunk
+     */
+    private final AtomicInteger pins = new AtomicInteger();
+
+    /**
+     * set once the files are removed, they aren't opened (and created) again
+     */
+    private volatile boolean deleted;
+
+    /**
+     * the file's length while it isn't open, -1 until looked up
+     */
+    private volatile int closedSize = -1;
+
+    /**
+     * readers of the chunk share it, mutations of the chunk take it exclusively
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     private Logger logger;
 
-    public int getChunkHandle() {
+    public long getChunkHandle() {
         return chunkHandle;
     }
 
-    public void setChunkHandle(int chunkHandle) {
+    public void setChunkHandle(long chunkHandle) {
         this.chunkHandle = chunkHandle;
     }
 
@@ -36,57 +142,533 @@ public class Chunk {
         return filename;
     }
 
-    public Chunk(int chunkHandle, String prefix) {
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    public Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    public Chunk(long chunkHandle, String prefix) {
+        this(chunkHandle, prefix, DEFAULT_STORAGE_MODE);
+    }
+
+    public Chunk(long chunkHandle, String prefix, StorageMode storageMode) {
+        this(chunkHandle, prefix, storageMode, ChunkMetadata.INITIAL_VERSION);
+    }
+
+    public Chunk(long chunkHandle, String prefix, StorageMode storageMode, long version) {
+        this(chunkHandle, prefix, storageMode, version, -1);
+    }
+
+    /**
+     * a chunk found on disk, its file is opened on first access
+     * @param chunkHandle
+     * @param prefix
+     * @param storageMode
+     * @param version
+     * @param size the file's length
+     */
+    public Chunk(long chunkHandle, String prefix, StorageMode storageMode, long version, int size) {
+        this(chunkHandle, prefix, storageMode, version, CHECKSUMS_ENABLED ? CHECKSUM_BLOCK_SIZE : 0, size);
+    }
+
+    /**
+     * @param chunkHandle
+     * @param prefix
+     * @param storageMode
+     * @param version
+     * @param checksumBlockSize the size of the blocks checksummed apart, 0 to keep no checksums
+     * @param size the file's length, -1 if unknown
+     */
+    public Chunk(long chunkHandle, String prefix, StorageMode storageMode, long version, int checksumBlockSize,
+                 int size) {
         this.chunkHandle = chunkHandle;
-        filename = String.format("%s/%d.chunk", prefix, this.chunkHandle);
-        logger = LoggerFactory.getLogger(filename);
-        try {
-            fileChannel = new RandomAccessFile(filename, "rw").getChannel();
-        } catch (IOException e) {
-            logger.error("open chunk error");
-        }
+        this.checksumBlockSize = checksumBlockSize;
+        this.storageMode = storageMode;
+        this.prefix = prefix;
+        this.version = version;
+        closedSize = size;
+        filename = fileName(prefix, chunkHandle, version);
+        logger = LoggerFactory.getLogger(String.format("%s/%d.chunk", prefix, chunkHandle));
+    }
+
+    public static String fileName(String prefix, long chunkHandle, long version) {
+        return String.format("%s/%d.%d.chunk", prefix, chunkHandle, version);
+    }
+
+    /**
+     * the block checksums of the chunk file
+     * @param filename the chunk file's name
+     * @return
+     */
+    private static String checksumFileName(String filename) {
+        return filename.substring(0, filename.length() - ".chunk".length()) + ".crc";
+    }
+
+    /**
+     * have the cache keep the chunk's files open only while it's among the recently used, set before any I/O
+     * @param openChunkCache
+     */
+    public void setOpenChunkCache(OpenChunkCache openChunkCache) {
+        this.openChunkCache = openChunkCache;
+    }
+
+    /**
+     * record the chunk's reads and writes, set before any I/O
+     * @param readMetrics
+     * @param writeMetrics
+     */
+    public void setMetrics(OperationMetrics readMetrics, OperationMetrics writeMetrics) {
+        this.readMetrics = readMetrics;
+        this.writeMetrics = writeMetrics;
+    }
+
+    /**
+     * the chunk size of the chunk's file, set before any I/O
+     * @param capacity
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * allocate the whole chunk file when it's first opened rather than as it's written, set before any I/O.
+     * only mmap storage with checksums preallocates: the file keeps its extent on close, the length of its data
+     * is the one in the checksum header
+     * @param preallocate
+     */
+    public void setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+    }
+
+    public boolean isOpen() {
+        return null != storage;
+    }
+
+    boolean isPinned() {
+        return pins.get() > 0;
     }
 
-    private void checkFC() {
-        if (null == fileChannel) {
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * move the chunk to a new version, its file is renamed
+     * @param version
+     * @return false if the file can't be renamed
+     */
+    public synchronized boolean setVersion(long version) {
+        if (version == this.version) {
+            return true;
+        }
+        String target = fileName(prefix, chunkHandle, version);
+        File file = new File(filename);
+        File checksumFile = new File(checksumFileName(filename));
+        if (file.exists()) {
             try {
-                fileChannel = new RandomAccessFile(filename, "rw").getChannel();
+                // an open file keeps working under its new name
+                Files.move(file.toPath(), Paths.get(target), StandardCopyOption.ATOMIC_MOVE);
+                if (checksumFile.exists()) {
+                    Files.move(checksumFile.toPath(), Paths.get(checksumFileName(target)),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
             } catch (IOException e) {
-                logger.error("open chunk error");
+                logger.error("rename chunk to version {} error", version);
+                return false;
+            }
+        }
+        filename = target;
+        this.version = version;
+        return true;
+    }
+
+    /**
+     * open the chunk file, creating it if needed. every access opens it too
+     * @return false if it can't be opened
+     */
+    public boolean open() {
+        if (null == pin()) {
+            return false;
+        }
+        unpin();
+        return true;
+    }
+
+    /**
+     * keep the files open for an I/O, opening them if they aren't. every pin() that succeeds is
+     * followed by unpin()
+     * @return null if the files can't be opened
+     */
+    ChunkStorage pin() {
+        pins.incrementAndGet();
+        // the cache clears storage before it checks the pins, so either it sees this pin or this sees null
+        ChunkStorage current = storage;
+        if (null != current) {
+            if (null != openChunkCache) {
+                openChunkCache.hit(this);
+            }
+            return current;
+        }
+        current = checkFC();
+        if (null == current) {
+            pins.decrementAndGet();
+        }
+        return current;
+    }
+
+    void unpin() {
+        pins.decrementAndGet();
+    }
+
+    private ChunkStorage openStorage() throws IOException {
+        switch (storageMode) {
+            case MMAP:
+                return new MappedStorage(filename, capacity, preallocate && checksumBlockSize > 0);
+            case FILE_CHANNEL:
+            default:
+                return new FileChannelStorage(filename);
+        }
+    }
+
+    private ChunkStorage checkFC() {
+        ChunkStorage current = storage;
+        boolean opened = false;
+        if (null == current) {
+            synchronized (this) {
+                current = storage;
+                if (null == current && deleted) {
+                    return null;
+                }
+                if (null == current) {
+                    try {
+                        current = openStorage();
+                        if (checksumBlockSize > 0) {
+                            try {
+                                checksums = new ChunkChecksums(checksumFileName(filename), checksumBlockSize, current);
+                            } catch (IOException e) {
+                                current.close();
+                                throw e;
+                            }
+                        }
+                        storage = current;
+                        opened = true;
+                    } catch (IOException e) {
+                        current = null;
+                        logger.error("open chunk error");
+                    }
+                }
             }
         }
+        // the cache may close other chunks, not while holding this one's lock
+        if (opened && null != openChunkCache) {
+            openChunkCache.opened(this);
+        }
+        return current;
     }
 
+    /**
+     * read into a new buffer, a hot path should use read(int, ByteBuffer) with a buffer it reuses
+     * @param offset
+     * @param len
+     * @return a buffer positioned after the bytes read, nothing is read on error
+     */
     public ByteBuffer read(int offset, int len) {
-        checkFC();
         ByteBuffer buffer = ByteBuffer.allocate(len);
+        if (read(offset, buffer) < 0) {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * check the data read at offset against the checksums of the blocks it covers, the chunk is marked corrupt
+     * on a mismatch
+     * @param data holds the data from its position to its limit, they are the same on return
+     */
+    private boolean verify(ChunkStorage current, int offset, ByteBuffer data) throws IOException {
+        lastAccessMillis = System.currentTimeMillis();
+        ChunkChecksums blockChecksums = checksums;
+        if (null == blockChecksums || blockChecksums.verify(current, offset, data)) {
+            return true;
+        }
+        corrupt = true;
+        logger.error("[{}:{}]-[read]-[checksum mismatch]", filename, offset);
+        return false;
+    }
+
+    /**
+     * read into dst from offset, until dst is full or the chunk ends. nothing is allocated,
+     * a direct dst (e.g. one from BufferPool) is filled by the file channel without a copy
+     * @param offset
+     * @param dst its position is advanced by the bytes read
+     * @return the bytes read, -1 on error
+     */
+    public int read(int offset, ByteBuffer dst) {
+        OperationMetrics metrics = readMetrics;
+        if (null == metrics) {
+            return readStorage(offset, dst);
+        }
+        long start = System.nanoTime();
+        int n = readStorage(offset, dst);
+        metrics.record(start, n >= 0);
+        return n;
+    }
+
+    private int readStorage(int offset, ByteBuffer dst) {
+        ChunkStorage current = pin();
+        if (null == current) {
+            return -1;
+        }
         try {
-            fileChannel.position(offset);
-            fileChannel.read(buffer);
-            logger.info("[{}:{}]-[read]-[{}]", filename, offset, new String(buffer.array(), StandardCharsets.UTF_8));
+            int limit = dst.limit();
+            int n = current.read(offset, dst);
+            // verify the bytes just read in place
+            dst.limit(dst.position());
+            dst.position(dst.position() - n);
+            boolean verified = verify(current, offset, dst);
+            dst.position(dst.limit());
+            dst.limit(limit);
+            if (!verified) {
+                return -1;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}:{}]-[read]-[{} bytes]", filename, offset, n);
+            }
+            return n;
         } catch (IOException e) {
             logger.error("read chunk error");
+            return -1;
+        } finally {
+            unpin();
         }
-        return buffer;
     }
 
+    /**
+     * get ready to send [offset, offset + len) with transferTo: the blocks it covers are verified
+     * @param offset
+     * @param len
+     * @return the bytes there are to send, fewer than len if the chunk ends early, -1 on error or corruption
+     */
+    public int prepareTransfer(int offset, int len) {
+        ChunkStorage current = pin();
+        if (null == current) {
+            return -1;
+        }
+        lastAccessMillis = System.currentTimeMillis();
+        try {
+            int available = Math.max(0, Math.min(len, current.size() - offset));
+            ChunkChecksums blockChecksums = checksums;
+            if (null != blockChecksums && !blockChecksums.verify(current, offset, available)) {
+                corrupt = true;
+                logger.error("[{}:{}]-[transfer]-[checksum mismatch]", filename, offset);
+                return -1;
+            }
+            return available;
+        } catch (IOException e) {
+            logger.error("prepare transfer error");
+            return -1;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * send bytes straight from the chunk file to the channel
+     * @param position
+     * @param count
+     * @param target
+     * @return the bytes sent, fewer than count if the target is full
+     * @throws IOException if the chunk can't be read, e.g. it was deleted
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ChunkStorage current = pin();
+        if (null == current) {
+            throw new IOException("chunk can't be opened");
+        }
+        try {
+            return current.transferTo(position, count, target);
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * write the bytes from byteBuffer's position to its limit at offset, straight from the buffer:
+     * a range of a larger (e.g. pooled) buffer is written without being copied or sliced first
+     * @param offset
+     * @param byteBuffer its position is advanced past the bytes written
+     * @return false on error or if a block the write partly covers is corrupt
+     */
     public boolean write(int offset, ByteBuffer byteBuffer) {
-        checkFC();
+        OperationMetrics metrics = writeMetrics;
+        if (null == metrics) {
+            return writeStorage(offset, byteBuffer);
+        }
+        long start = System.nanoTime();
+        boolean written = writeStorage(offset, byteBuffer);
+        metrics.record(start, written);
+        return written;
+    }
+
+    private boolean writeStorage(int offset, ByteBuffer byteBuffer) {
+        ChunkStorage current = pin();
+        if (null == current) {
+            return false;
+        }
+        int len = byteBuffer.remaining();
+        lastAccessMillis = System.currentTimeMillis();
         try {
-            fileChannel.position(offset);
-            fileChannel.write(byteBuffer);
-            logger.info("[{}:{}]-[write]-[{}]", filename, offset, new String(byteBuffer.array(), StandardCharsets.UTF_8));
+            ChunkChecksums blockChecksums = checksums;
+            int[] updated = null;
+            if (null != blockChecksums && len > 0) {
+                updated = blockChecksums.prepare(current, offset, byteBuffer);
+                if (null == updated) {
+                    corrupt = true;
+                    logger.error("[{}:{}]-[write]-[checksum mismatch]", filename, offset);
+                    return false;
+                }
+            }
+            current.write(offset, byteBuffer);
+            if (null != updated) {
+                blockChecksums.commit(offset, len, updated);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}:{}]-[write]-[{} bytes]", filename, offset, len);
+            }
         } catch (IOException e) {
             logger.error("write chunk error");
             return false;
+        } finally {
+            unpin();
+        }
+        return true;
+    }
+
+    /**
+     * the length of the chunk's data
+     * @return -1 if the chunk file can't be accessed
+     */
+    public int size() {
+        pins.incrementAndGet();
+        ChunkStorage current = storage;
+        if (null == current) {
+            pins.decrementAndGet();
+            // don't open the file to learn its length
+            int size = closedSize;
+            if (size < 0) {
+                File file = new File(filename);
+                if (!file.isFile()) {
+                    return -1;
+                }
+                size = (int) file.length();
+                if (checksumBlockSize > 0) {
+                    // a preallocated file is longer than its data
+                    int checksummed = ChunkChecksums.checksummedLength(checksumFileName(filename));
+                    if (checksummed >= 0 && checksummed < size) {
+                        size = checksummed;
+                    }
+                }
+                closedSize = size;
+            }
+            return size;
+        }
+        try {
+            return current.size();
+        } catch (IOException e) {
+            logger.error("size chunk error");
+            return -1;
+        } finally {
+            pins.decrementAndGet();
+        }
+    }
+
+    /**
+     * flush the data and checksums written so far to the disk, opening the files if they were closed:
+     * a file's dirty pages outlive its descriptor, the force reaches them through a new one
+     * @return false if they can't be flushed, true for a deleted chunk as there is nothing left to keep
+     */
+    public boolean force() {
+        ChunkStorage current = pin();
+        if (null == current) {
+            return deleted;
+        }
+        try {
+            current.force();
+            ChunkChecksums blockChecksums = checksums;
+            if (null != blockChecksums) {
+                blockChecksums.force();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("force chunk error");
+            return false;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * close the chunk's files, the next I/O opens them again
+     * @return false if they can't be closed
+     */
+    public synchronized boolean close() {
+        ChunkStorage current = storage;
+        storage = null;
+        if (null != openChunkCache) {
+            openChunkCache.closed(this);
+        }
+        return closeFiles(current);
+    }
+
+    /**
+     * close the files for the cache, unless an I/O has the chunk pinned
+     * @return false if it's pinned
+     */
+    synchronized boolean evict() {
+        ChunkStorage current = storage;
+        if (null == current) {
+            return true;
+        }
+        // the I/O pins first then reads storage, clearing it first here means one of the two sees the other
+        storage = null;
+        if (pins.get() > 0) {
+            storage = current;
+            return false;
         }
+        closeFiles(current);
         return true;
     }
 
-    public boolean close() {
+    private boolean closeFiles(ChunkStorage current) {
         try {
-            fileChannel.close();
-            fileChannel = null;
+            if (null != current) {
+                int size = current.size();
+                current.close();
+                closedSize = size;
+            }
+            if (null != checksums) {
+                checksums.close();
+            }
+            checksums = null;
         } catch (IOException e) {
             logger.error("close chunk error");
             return false;
@@ -94,6 +676,25 @@ public class Chunk {
         return true;
     }
 
+    /**
+     * close the chunk and remove its file, it isn't opened again
+     * @return false if the file is still there
+     */
+    public synchronized boolean delete() {
+        deleted = true;
+        close();
+        File file = new File(filename);
+        if (file.exists() && !file.delete()) {
+            logger.error("delete chunk error");
+            return false;
+        }
+        File checksumFile = new File(checksumFileName(filename));
+        if (checksumFile.exists() && !checksumFile.delete()) {
+            logger.error("delete chunk checksums error");
+        }
+        return true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Chunk)) {
@@ -105,6 +706,6 @@ public class Chunk {
 
     @Override
     public int hashCode() {
-        return chunkHandle;
+        return Long.hashCode(chunkHandle);
     }
 }
@@ -0,0 +1,358 @@
+package com.twd.element;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * @author twd
+ * @description a crc32 per fixed-size block of a chunk, kept in memory and in a file next to the chunk's data.
+ *              the file holds the length of the checksummed data, then the checksum of each block.
+ *              a write only recomputes the blocks it touches, the old contents of a block it covers in part
+ *              are verified first so a corrupt block isn't hidden behind a fresh checksum.
+ *              a read only verifies the blocks it covers
+ * @date 2026-10-18
+ */
+class ChunkChecksums {
+    /**
+     * the scratch a thread assembles partly covered blocks in
+     */
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+
+    /**
+     * the crc each thread computes with, reset before use
+     */
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * the checksums a thread's write prepares, handed to commit()
+     */
+    private static final ThreadLocal<int[]> UPDATED = ThreadLocal.withInitial(() -> new int[0]);
+
+    private final int blockSize;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel fileChannel;
+
+    /**
+     * the checksum of each block, the last one covers the data up to the chunk's length
+     */
+    private int[] crcs;
+
+    private int blocks;
+
+    /**
+     * the bytes the checksums cover
+     */
+    private int length;
+
+    /**
+     * what persist() writes the header and checksums from, grown as the chunk grows.
+     * writes to a chunk hold its write lock, so only one thread uses it at a time
+     */
+    private ByteBuffer persistBuffer = ByteBuffer.allocate(HEADER_SIZE);
+
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    /**
+     * load the checksums of the chunk. data past the checksummed length (a write cut short by a crash,
+     * or the tail of a mapping that was never trimmed) is dropped. a chunk written before checksums
+     * were kept has them computed from its data
+     * @param filename the checksum file
+     * @param blockSize
+     * @param storage the chunk's data
+     * @throws IOException
+     */
+    ChunkChecksums(String filename, int blockSize, ChunkStorage storage) throws IOException {
+        this.blockSize = blockSize;
+        file = new RandomAccessFile(filename, "rw");
+        fileChannel = file.getChannel();
+        length = storage.size();
+        int stored = 0;
+        if (fileChannel.size() >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            int checksummed = header.getInt(0);
+            if (checksummed < length) {
+                storage.truncate(checksummed);
+                length = checksummed;
+            }
+            stored = (int) Math.min((fileChannel.size() - HEADER_SIZE) / Integer.BYTES, blockCount(checksummed));
+        }
+        int expected = blockCount(length);
+        stored = Math.min(stored, expected);
+        crcs = new int[Math.max(expected, 1)];
+        ByteBuffer buffer = ByteBuffer.allocate(stored * Integer.BYTES);
+        readFully(buffer, HEADER_SIZE);
+        for (int i = 0; i < stored; i++) {
+            crcs[i] = buffer.getInt(i * Integer.BYTES);
+        }
+        blocks = expected;
+        if (stored < expected || fileChannel.size() < HEADER_SIZE) {
+            for (int i = stored; i < expected; i++) {
+                ByteBuffer block = scratch();
+                block.limit(Math.min(blockSize, length - i * blockSize));
+                storage.read(i * blockSize, block);
+                block.flip();
+                crcs[i] = crc(block);
+            }
+            persist(stored, expected - stored);
+        }
+    }
+
+    /**
+     * the bytes the checksums in the file cover, without loading them
+     * @param filename the checksum file
+     * @return -1 if there is no such file or it can't be read
+     */
+    static int checksummedLength(String filename) {
+        File checksumFile = new File(filename);
+        if (checksumFile.length() < HEADER_SIZE) {
+            return -1;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(checksumFile, "r")) {
+            return in.readInt();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    private int blockCount(int length) {
+        return (length + blockSize - 1) / blockSize;
+    }
+
+    private ByteBuffer scratch() {
+        ByteBuffer scratch = SCRATCH.get();
+        if (scratch.capacity() < blockSize) {
+            scratch = ByteBuffer.allocate(blockSize);
+            SCRATCH.set(scratch);
+        }
+        scratch.clear();
+        scratch.limit(blockSize);
+        return scratch;
+    }
+
+    /**
+     * the crc of data from its position to its limit, data's position is moved to its limit
+     */
+    private static int crc(ByteBuffer data) {
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * the crc of data[from, to), data's position and limit are left as they were
+     */
+    private static int crc(ByteBuffer data, int from, int to) {
+        int position = data.position();
+        int limit = data.limit();
+        data.limit(to);
+        data.position(from);
+        int value = crc(data);
+        data.limit(limit);
+        data.position(position);
+        return value;
+    }
+
+    /**
+     * check the bytes just read against the checksums of the blocks they fall in.
+     * a block the read covers in full is checked from the read bytes, the one or two blocks it covers in part
+     * are read again whole
+     * @param storage
+     * @param offset where the read started
+     * @param data the bytes read, from its position to its limit
+     * @return false if a block doesn't match its checksum
+     * @throws IOException
+     */
+    boolean verify(ChunkStorage storage, int offset, ByteBuffer data) throws IOException {
+        int len = data.remaining();
+        if (0 == len) {
+            return true;
+        }
+        int end = offset + len;
+        for (int block = offset / blockSize; block <= (end - 1) / blockSize; block++) {
+            int blockStart = block * blockSize;
+            int blockEnd = Math.min(blockStart + blockSize, length);
+            if (block >= blocks) {
+                return false;
+            }
+            int crc;
+            if (offset <= blockStart && end >= blockEnd) {
+                crc = crc(data, data.position() + blockStart - offset, data.position() + blockEnd - offset);
+            } else {
+                ByteBuffer bytes = scratch();
+                bytes.limit(blockEnd - blockStart);
+                storage.read(blockStart, bytes);
+                bytes.flip();
+                crc = crc(bytes);
+            }
+            if (crc != crcs[block]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * check the blocks covering [offset, offset + len) against their checksums, reading them from the storage
+     * @param storage
+     * @param offset
+     * @param len
+     * @return false if a block doesn't match its checksum
+     * @throws IOException
+     */
+    boolean verify(ChunkStorage storage, int offset, int len) throws IOException {
+        for (int block = offset / blockSize; len > 0 && block <= (offset + len - 1) / blockSize; block++) {
+            int blockStart = block * blockSize;
+            if (block >= blocks) {
+                return false;
+            }
+            ByteBuffer bytes = scratch();
+            bytes.limit(Math.min(blockSize, length - blockStart));
+            storage.read(blockStart, bytes);
+            bytes.flip();
+            if (crc(bytes) != crcs[block]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * work out the checksums of the blocks a write touches, before the data is written
+     * @param storage
+     * @param offset
+     * @param data the bytes about to be written, from its position to its limit, its position and limit
+     *             are the same on return
+     * @return the new checksums from the block the write starts in (or the chunk's last block,
+     *         if the write leaves a hole after it), in an array the thread reuses and which may be longer,
+     *         null if a block it partly overwrites is already corrupt
+     * @throws IOException
+     */
+    int[] prepare(ChunkStorage storage, int offset, ByteBuffer data) throws IOException {
+        int len = data.remaining();
+        int oldLength = length;
+        int end = offset + len;
+        int newLength = Math.max(oldLength, end);
+        int first = Math.min(offset, oldLength) / blockSize;
+        int last = (end - 1) / blockSize;
+        int[] updated = UPDATED.get();
+        if (updated.length < last - first + 1) {
+            updated = new int[last - first + 1];
+            UPDATED.set(updated);
+        }
+        for (int block = first; block <= last; block++) {
+            int blockStart = block * blockSize;
+            int blockEnd = Math.min(blockStart + blockSize, newLength);
+            if (offset <= blockStart && end >= blockEnd) {
+                updated[block - first] = crc(data, data.position() + blockStart - offset, data.position() + blockEnd - offset);
+            } else {
+                // the old bytes of the block, zeros where the chunk had none, overlaid with the new ones
+                ByteBuffer bytes = scratch();
+                int oldEnd = Math.max(blockStart, Math.min(blockStart + blockSize, oldLength));
+                if (oldEnd > blockStart) {
+                    bytes.limit(oldEnd - blockStart);
+                    storage.read(blockStart, bytes);
+                    bytes.flip();
+                    if (block >= blocks || crc(bytes, 0, bytes.limit()) != crcs[block]) {
+                        return null;
+                    }
+                }
+                Arrays.fill(bytes.array(), oldEnd - blockStart, blockEnd - blockStart, (byte) 0);
+                int from = Math.max(offset, blockStart);
+                int to = Math.min(end, blockEnd);
+                if (from < to) {
+                    int position = data.position();
+                    data.position(position + from - offset);
+                    data.get(bytes.array(), from - blockStart, to - from);
+                    data.position(position);
+                }
+                bytes.clear();
+                bytes.limit(blockEnd - blockStart);
+                updated[block - first] = crc(bytes);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * take the checksums prepare() worked out, once the data is written
+     * @param offset the write's offset
+     * @param len the write's length
+     * @param updated what prepare() returned
+     * @throws IOException
+     */
+    void commit(int offset, int len, int[] updated) throws IOException {
+        int first = Math.min(offset, length) / blockSize;
+        int count = (offset + len - 1) / blockSize - first + 1;
+        int end = first + count;
+        if (end > crcs.length) {
+            crcs = Arrays.copyOf(crcs, Math.max(end, crcs.length << 1));
+        }
+        System.arraycopy(updated, 0, crcs, first, count);
+        blocks = Math.max(blocks, end);
+        length = Math.max(length, offset + len);
+        persist(first, count);
+    }
+
+    private void persist(int first, int count) throws IOException {
+        ByteBuffer buffer = persistBuffer(HEADER_SIZE + count * Integer.BYTES);
+        if (0 == first) {
+            // the header and the checksums are adjacent, one write
+            buffer.putInt(length);
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(crcs[i]);
+            }
+            buffer.flip();
+            write(buffer, 0);
+            return;
+        }
+        for (int i = first; i < first + count; i++) {
+            buffer.putInt(crcs[i]);
+        }
+        buffer.flip();
+        write(buffer, HEADER_SIZE + (long) first * Integer.BYTES);
+        // the checksums go first, a crash in between leaves the header at the old length
+        buffer.clear();
+        buffer.putInt(length);
+        buffer.flip();
+        write(buffer, 0);
+    }
+
+    private ByteBuffer persistBuffer(int size) {
+        if (persistBuffer.capacity() < size) {
+            persistBuffer = ByteBuffer.allocate(Math.max(size, persistBuffer.capacity() << 1));
+        }
+        persistBuffer.clear();
+        return persistBuffer;
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += fileChannel.write(buffer, position);
+        }
+    }
+
+    void force() throws IOException {
+        fileChannel.force(false);
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+}
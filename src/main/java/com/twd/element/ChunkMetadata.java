@@ -9,30 +9,63 @@ import com.twd.role.ChunkServer;
  */
 public class ChunkMetadata {
     /**
-     * set chunk size to 1024KB
+     * the chunk size of a file created without one, set by -Dgfs.chunk.size: 1KB
      */
-    public static final int CHUNK_SIZE = 1 << 10;
+    public static final int CHUNK_SIZE = Integer.getInteger("gfs.chunk.size", 1 << 10);
 
     /**
-     * use int to represent chunk handle
+     * the largest chunk size a file may have, chunk offsets are ints: 1GB
      */
-    private int chunkHandle;
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * the version of a new chunk, each lease granted on it moves it up by one
+     */
+    public static final long INITIAL_VERSION = 1;
+
+    /**
+     * use long to represent chunk handle, handed out by the master in increasing order
+     */
+    private long chunkHandle;
 
     /**
      * chunkservers which have the chunk
      */
     private ChunkServer[] chunkServers;
 
-    public ChunkMetadata(int chunkHandle, ChunkServer[] chunkServers) {
+    /**
+     * when the primary's lease ends, in epoch millis, 0 if no lease was granted
+     */
+    private volatile long leaseExpireTime;
+
+    /**
+     * the chunk's version under the lease, a replica with an older one missed mutations
+     */
+    private long version = INITIAL_VERSION;
+
+    /**
+     * the chunk size of the chunk's file, the chunk holds at most that many bytes
+     */
+    private int chunkSize = CHUNK_SIZE;
+
+    public ChunkMetadata(long chunkHandle, ChunkServer[] chunkServers) {
         this.chunkHandle = chunkHandle;
         this.chunkServers = chunkServers;
     }
 
-    public int getChunkHandle() {
+    /**
+     * @param chunkSize
+     * @return whether a file may have chunks of that size
+     */
+    public static boolean isValidChunkSize(int chunkSize) {
+        return chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE;
+    }
+
+    public long getChunkHandle() {
         return chunkHandle;
     }
 
-    public void setChunkHandle(int chunkHandle) {
+    public void setChunkHandle(long chunkHandle) {
         this.chunkHandle = chunkHandle;
     }
 
@@ -43,4 +76,28 @@ public class ChunkMetadata {
     public void setChunkServers(ChunkServer[] chunkServers) {
         this.chunkServers = chunkServers;
     }
+
+    public long getLeaseExpireTime() {
+        return leaseExpireTime;
+    }
+
+    public void setLeaseExpireTime(long leaseExpireTime) {
+        this.leaseExpireTime = leaseExpireTime;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
 }
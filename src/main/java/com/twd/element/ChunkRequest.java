@@ -35,6 +35,6 @@ public class ChunkRequest {
 
     @Override
     public int hashCode() {
-        return filename.hashCode() * 100 + chunkIndex;
+        return filename.hashCode() * 31 + chunkIndex;
     }
 }
@@ -0,0 +1,70 @@
+package com.twd.element;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author twd
+ * @description the I/O engine behind a chunk file
+ * @date 2026-10-18
+ */
+interface ChunkStorage {
+    /**
+     * read up to len bytes at offset, the returned buffer is positioned after the data read
+     * @param offset
+     * @param len
+     * @return
+     * @throws IOException
+     */
+    ByteBuffer read(int offset, int len) throws IOException;
+
+    /**
+     * read into dst, from offset until dst is full or the chunk ends, dst's position is advanced
+     * @param offset
+     * @param dst
+     * @return the bytes read
+     * @throws IOException
+     */
+    int read(int offset, ByteBuffer dst) throws IOException;
+
+    /**
+     * write the remaining bytes of buffer at offset
+     * @param offset
+     * @param buffer
+     * @throws IOException
+     */
+    void write(int offset, ByteBuffer buffer) throws IOException;
+
+    /**
+     * the length of the chunk's data
+     * @return
+     * @throws IOException
+     */
+    int size() throws IOException;
+
+    /**
+     * send up to count bytes at position straight from the file to the channel, not through the heap
+     * @param position
+     * @param count
+     * @param target
+     * @return the bytes sent, fewer than count if the target is full or the chunk ends
+     * @throws IOException
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * drop the data past length, a later write past it finds zeros in between
+     * @param length
+     * @throws IOException
+     */
+    void truncate(int length) throws IOException;
+
+    /**
+     * flush the data written so far from the page cache to the disk
+     * @throws IOException
+     */
+    void force() throws IOException;
+
+    void close() throws IOException;
+}
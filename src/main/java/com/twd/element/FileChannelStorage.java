@@ -0,0 +1,78 @@
+package com.twd.element;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author twd
+ * @description seek-then-read/write through a file channel, the channel position is shared by all callers
+ * @date 2026-10-18
+ */
+class FileChannelStorage implements ChunkStorage {
+    private final FileChannel fileChannel;
+
+    FileChannelStorage(String filename) throws IOException {
+        fileChannel = new RandomAccessFile(filename, "rw").getChannel();
+    }
+
+    @Override
+    public synchronized ByteBuffer read(int offset, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        fileChannel.position(offset);
+        fileChannel.read(buffer);
+        return buffer;
+    }
+
+    /**
+     * positional read, doesn't touch the shared position so it needs no lock
+     */
+    @Override
+    public int read(int offset, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = fileChannel.read(dst, offset + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void write(int offset, ByteBuffer buffer) throws IOException {
+        fileChannel.position(offset);
+        fileChannel.write(buffer);
+    }
+
+    @Override
+    public synchronized int size() throws IOException {
+        return (int) fileChannel.size();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return fileChannel.transferTo(position, count, target);
+    }
+
+    @Override
+    public synchronized void truncate(int length) throws IOException {
+        fileChannel.truncate(length);
+    }
+
+    /**
+     * the data only, the length the data needs is flushed with it
+     */
+    @Override
+    public void force() throws IOException {
+        fileChannel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.twd.element;
+
+/**
+ * @author twd
+ * @description what a chunkserver tells the master in a heartbeat: the chunks it created or lost since the last one,
+ *              the leases it wants extended, and how full it is
+ * @date 2026-10-18
+ */
+public class Heartbeat {
+    private static final long[] NONE = new long[0];
+
+    private long[] addedChunks = NONE;
+
+    /**
+     * the version of each added chunk
+     */
+    private long[] addedVersions = NONE;
+
+    private long[] removedChunks = NONE;
+
+    /**
+     * chunks the server is the primary of and saw mutations on
+     */
+    private long[] leaseExtensions = NONE;
+
+    private long usedBytes;
+
+    private int chunkNum;
+
+    public long[] getAddedChunks() {
+        return addedChunks;
+    }
+
+    public long[] getAddedVersions() {
+        return addedVersions;
+    }
+
+    public void setAddedChunks(long[] addedChunks, long[] addedVersions) {
+        this.addedChunks = addedChunks;
+        this.addedVersions = addedVersions;
+    }
+
+    public long[] getRemovedChunks() {
+        return removedChunks;
+    }
+
+    public void setRemovedChunks(long[] removedChunks) {
+        this.removedChunks = removedChunks;
+    }
+
+    public long[] getLeaseExtensions() {
+        return leaseExtensions;
+    }
+
+    public void setLeaseExtensions(long[] leaseExtensions) {
+        this.leaseExtensions = leaseExtensions;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public int getChunkNum() {
+        return chunkNum;
+    }
+
+    public void setChunkNum(int chunkNum) {
+        this.chunkNum = chunkNum;
+    }
+}
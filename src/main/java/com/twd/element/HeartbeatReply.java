@@ -0,0 +1,33 @@
+package com.twd.element;
+
+/**
+ * @author twd
+ * @description the master's answer to a heartbeat or block report: the chunks the server should delete,
+ *              and the leases extended with their new expire time
+ * @date 2026-10-18
+ */
+public class HeartbeatReply {
+    private final long[] staleChunks;
+
+    private final long[] extendedLeases;
+
+    private final long leaseExpireTime;
+
+    public HeartbeatReply(long[] staleChunks, long[] extendedLeases, long leaseExpireTime) {
+        this.staleChunks = staleChunks;
+        this.extendedLeases = extendedLeases;
+        this.leaseExpireTime = leaseExpireTime;
+    }
+
+    public long[] getStaleChunks() {
+        return staleChunks;
+    }
+
+    public long[] getExtendedLeases() {
+        return extendedLeases;
+    }
+
+    public long getLeaseExpireTime() {
+        return leaseExpireTime;
+    }
+}
@@ -0,0 +1,188 @@
+package com.twd.element;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author twd
+ * @description memory-mapped chunk file, reads and writes go to absolute offsets of the mapping
+ *              so no position is shared and concurrent readers never enter the kernel.
+ *              the mapping grows (doubling, capped by the chunk size) when a write goes past it, so the file
+ *              stays sparse until written. with preallocation the file is extended to the whole chunk and its
+ *              pages touched when it's first opened, so appends never fault in new blocks, and it keeps that
+ *              extent on close. the logical length is tracked apart from the mapping, a sparse file is trimmed
+ *              to it on close, a preallocated one keeps it in the checksum header and is cut back to it by
+ *              truncate() on reopen
+ * @date 2026-10-18
+ */
+class MappedStorage implements ChunkStorage {
+    /**
+     * the smallest mapping created on first write
+     */
+    private static final int MIN_MAP_SIZE = 4 << 10;
+
+    /**
+     * one byte of each page is touched to allocate it
+     */
+    private static final int PAGE_SIZE = 4 << 10;
+
+    /**
+     * the chunk size, the mapping doesn't grow past it unless a write does
+     */
+    private final int capacity;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel fileChannel;
+
+    /**
+     * current mapping, replaced (never mutated) when it grows
+     */
+    private volatile MappedByteBuffer mapped;
+
+    /**
+     * bytes written so far, reads never go past it
+     */
+    private volatile int length;
+
+    /**
+     * the file holds only zeros from here on, a write leaving a hole before it zeros the hole first
+     */
+    private int zeroFrom;
+
+    private final boolean preallocate;
+
+    /**
+     * @param filename
+     * @param capacity the chunk size
+     * @param preallocate whether to allocate the whole chunk, if the file doesn't have it yet
+     * @throws IOException
+     */
+    MappedStorage(String filename, int capacity, boolean preallocate) throws IOException {
+        this.capacity = capacity;
+        this.preallocate = preallocate;
+        file = new RandomAccessFile(filename, "rw");
+        fileChannel = file.getChannel();
+        length = (int) fileChannel.size();
+        zeroFrom = length;
+        mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, preallocate ? Math.max(length, capacity) : length);
+        if (preallocate) {
+            // the file was just extended, the pages past the data are holes until written, fill them
+            for (int page = (length + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE; page < mapped.capacity(); page += PAGE_SIZE) {
+                mapped.put(page, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(int offset, int len) {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        read(offset, buffer);
+        return buffer;
+    }
+
+    @Override
+    public int read(int offset, ByteBuffer dst) {
+        int available = Math.min(dst.remaining(), length - offset);
+        if (available <= 0) {
+            return 0;
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        view.limit(offset + available);
+        dst.put(view);
+        return available;
+    }
+
+    @Override
+    public void write(int offset, ByteBuffer buffer) throws IOException {
+        int end = offset + buffer.remaining();
+        ByteBuffer view = ensureCapacity(end).duplicate();
+        zeroHole(view, offset);
+        view.position(offset);
+        view.put(buffer);
+        if (end > length) {
+            updateLength(end);
+        }
+    }
+
+    private MappedByteBuffer ensureCapacity(int required) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current.capacity() >= required) {
+            return current;
+        }
+        synchronized (this) {
+            current = mapped;
+            if (current.capacity() < required) {
+                int size = Math.min(Math.max(current.capacity() << 1, MIN_MAP_SIZE), capacity);
+                // the old mapping is released by the gc once no reader holds it
+                current = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(required, size));
+                mapped = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * the bytes between the data and offset read as zeros after the write, truncated data may still be there
+     */
+    private synchronized void zeroHole(ByteBuffer view, int offset) {
+        int end = Math.min(offset, zeroFrom);
+        for (int i = length; i < end; i++) {
+            view.put(i, (byte) 0);
+        }
+    }
+
+    private synchronized void updateLength(int end) {
+        if (end > length) {
+            length = end;
+        }
+        zeroFrom = Math.max(zeroFrom, end);
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * the mapping shares the page cache with the file, so the channel sends what was written through it
+     */
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long available = Math.min(count, length - position);
+        return available <= 0 ? 0 : fileChannel.transferTo(position, available, target);
+    }
+
+    /**
+     * the dropped bytes stay in the file, a later write past length zeros the ones it leaves in a hole
+     */
+    @Override
+    public synchronized void truncate(int length) {
+        if (length < this.length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * the current mapping covers every byte written, through it or an older one, they share the pages
+     */
+    @Override
+    public void force() {
+        mapped.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped.force();
+        if (!preallocate) {
+            // drop the tail the mapping added beyond the written data
+            fileChannel.truncate(length);
+        }
+        file.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.twd.element;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description the chunks of a chunkserver whose files are open, bounded by count with lru eviction,
+ *              so the file descriptors a server holds don't grow with the chunks it stores.
+ *              a chunk opens its files on its first I/O and joins the cache, the least recently used chunks
+ *              are closed once there are too many. a chunk pinned by an I/O in progress is never closed,
+ *              the cache may run over its bound while every chunk in it is pinned
+ * @date 2026-10-18
+ */
+public class OpenChunkCache {
+    /**
+     * default chunks kept open, set by -Dgfs.chunk.max.open
+     */
+    public static final int DEFAULT_MAX_OPEN_CHUNKS = Integer.getInteger("gfs.chunk.max.open", 4096);
+
+    private volatile int maxOpenChunks;
+
+    /**
+     * the open chunks in access order, guarded by this
+     */
+    private final LinkedHashMap<Chunk, Chunk> chunks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public OpenChunkCache() {
+        this(DEFAULT_MAX_OPEN_CHUNKS);
+    }
+
+    public OpenChunkCache(int maxOpenChunks) {
+        this.maxOpenChunks = maxOpenChunks;
+    }
+
+    public int getMaxOpenChunks() {
+        return maxOpenChunks;
+    }
+
+    /**
+     * the open chunks beyond the new bound are closed as soon as another one opens
+     * @param maxOpenChunks
+     */
+    public void setMaxOpenChunks(int maxOpenChunks) {
+        this.maxOpenChunks = maxOpenChunks;
+    }
+
+    /**
+     * an I/O found the chunk open
+     * @param chunk
+     */
+    void hit(Chunk chunk) {
+        hits.increment();
+        synchronized (this) {
+            chunks.get(chunk);
+        }
+    }
+
+    /**
+     * the chunk opened its files, the least recently used chunks that aren't pinned are closed to make room
+     * @param chunk
+     */
+    void opened(Chunk chunk) {
+        misses.increment();
+        List<Chunk> victims = null;
+        synchronized (this) {
+            chunks.put(chunk, chunk);
+            int excess = chunks.size() - maxOpenChunks;
+            Iterator<Chunk> iterator = chunks.values().iterator();
+            while (excess > 0 && iterator.hasNext()) {
+                Chunk victim = iterator.next();
+                if (victim != chunk && !victim.isPinned()) {
+                    iterator.remove();
+                    excess--;
+                    if (null == victims) {
+                        victims = new ArrayList<>();
+                    }
+                    victims.add(victim);
+                }
+            }
+        }
+        if (null == victims) {
+            return;
+        }
+        // closing takes the victim's lock, never while holding the cache's
+        for (Chunk victim : victims) {
+            if (victim.evict()) {
+                evictions.increment();
+            } else {
+                // pinned since it was picked, it stays
+                synchronized (this) {
+                    chunks.put(victim, victim);
+                }
+            }
+        }
+    }
+
+    /**
+     * the chunk was closed by its owner
+     * @param chunk
+     */
+    synchronized void closed(Chunk chunk) {
+        // another chunk with the same handle may have taken its place
+        if (chunks.get(chunk) == chunk) {
+            chunks.remove(chunk);
+        }
+    }
+
+    /**
+     * close the chunk's files now if no I/O is using it, e.g. once a one-off pass over it is done
+     * @param chunk
+     * @return false if it's pinned
+     */
+    public boolean evict(Chunk chunk) {
+        synchronized (this) {
+            if (chunks.get(chunk) != chunk) {
+                return true;
+            }
+            chunks.remove(chunk);
+        }
+        if (chunk.evict()) {
+            evictions.increment();
+            return true;
+        }
+        synchronized (this) {
+            chunks.put(chunk, chunk);
+        }
+        return false;
+    }
+
+    public synchronized int getOpenChunks() {
+        return chunks.size();
+    }
+
+    /**
+     * I/Os which found their chunk open
+     * @return
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * I/Os which had to open their chunk's files
+     * @return
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * chunks closed to keep the open ones within the bound
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
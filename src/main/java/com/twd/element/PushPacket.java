@@ -0,0 +1,65 @@
+package com.twd.element;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description one fixed-size piece of the data a client pushes before its write request
+ *              the packets of a push share the client id, chunk handle, offset and length
+ * @date 2026-10-18
+ */
+public class PushPacket {
+    private final long clientId;
+
+    private final long chunkHandle;
+
+    /**
+     * the write offset in the chunk
+     */
+    private final int offset;
+
+    /**
+     * the length of the whole push
+     */
+    private final int length;
+
+    /**
+     * the position of this packet in the push
+     */
+    private final int position;
+
+    private final ByteBuffer data;
+
+    public PushPacket(long clientId, long chunkHandle, int offset, int length, int position, ByteBuffer data) {
+        this.clientId = clientId;
+        this.chunkHandle = chunkHandle;
+        this.offset = offset;
+        this.length = length;
+        this.position = position;
+        this.data = data;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public long getChunkHandle() {
+        return chunkHandle;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public ByteBuffer getData() {
+        return data;
+    }
+}
@@ -0,0 +1,58 @@
+package com.twd.element;
+
+import com.twd.role.ChunkServer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author twd
+ * @description the outcome of a write request, naming the replicas which didn't apply it
+ * @date 2026-10-18
+ */
+public class WriteResult {
+    private static final WriteResult SUCCESS = new WriteResult(Collections.<ChunkServer>emptyList(), 0);
+
+    /**
+     * replicas which failed, or didn't answer in time
+     */
+    private final List<ChunkServer> failedReplicas;
+
+    /**
+     * when the primary's lease ends, the client keeps writing through it until then. 0 if not known
+     */
+    private final long leaseExpireTime;
+
+    private WriteResult(List<ChunkServer> failedReplicas, long leaseExpireTime) {
+        this.failedReplicas = failedReplicas;
+        this.leaseExpireTime = leaseExpireTime;
+    }
+
+    public static WriteResult success() {
+        return SUCCESS;
+    }
+
+    public static WriteResult success(long leaseExpireTime) {
+        return new WriteResult(Collections.<ChunkServer>emptyList(), leaseExpireTime);
+    }
+
+    public static WriteResult failure(List<ChunkServer> failedReplicas) {
+        return new WriteResult(Collections.unmodifiableList(failedReplicas), 0);
+    }
+
+    public static WriteResult failure(ChunkServer failedReplica) {
+        return new WriteResult(Collections.singletonList(failedReplica), 0);
+    }
+
+    public boolean isSuccess() {
+        return failedReplicas.isEmpty();
+    }
+
+    public List<ChunkServer> getFailedReplicas() {
+        return failedReplicas;
+    }
+
+    public long getLeaseExpireTime() {
+        return leaseExpireTime;
+    }
+}
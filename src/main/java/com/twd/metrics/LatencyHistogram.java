@@ -0,0 +1,135 @@
+package com.twd.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description a lock-free histogram of latencies in nanoseconds
+ *              buckets are log-linear: every power of two is split into 8 equal buckets,
+ *              so a percentile is accurate to within 12.5% at any scale, and recording is a few atomic adds.
+ *              the bucket counts start as one array, threads which collide on it spread over more arrays
+ *              (up to the cpu count), so a histogram shared by many threads doesn't serialize them
+ * @date 2026-10-18
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int MAX_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * the bucket counts, each thread adds to one of them, a power of two of them
+     */
+    private volatile AtomicLongArray[] stripes = {new AtomicLongArray(BUCKETS)};
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * the largest value falling into the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void record(long nanos) {
+        int bucket = bucket(nanos);
+        AtomicLongArray[] current = stripes;
+        AtomicLongArray counts = current[stripe(current.length)];
+        long count = counts.get(bucket);
+        if (!counts.compareAndSet(bucket, count, count + 1)) {
+            counts.incrementAndGet(bucket);
+            grow(current);
+        }
+        total.increment();
+        sum.add(nanos);
+    }
+
+    private static int stripe(int stripeCount) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) * 0x9E3779B9 >>> 16 & (stripeCount - 1);
+    }
+
+    /**
+     * double the stripes after a collision, unless another thread already has
+     */
+    private synchronized void grow(AtomicLongArray[] current) {
+        if (current != stripes || current.length >= MAX_STRIPES) {
+            return;
+        }
+        AtomicLongArray[] grown = new AtomicLongArray[current.length << 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(BUCKETS);
+        }
+        stripes = grown;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return 0 == count ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the latency at or under which that share of the recorded latencies fall, 0 if none recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray counts : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] += counts.get(i);
+            }
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            count += snapshot[i];
+        }
+        if (0 == count) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (AtomicLongArray counts : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+        total.reset();
+        sum.reset();
+    }
+}
@@ -0,0 +1,157 @@
+package com.twd.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description the operation metrics of every component of the process, each published as an mbean
+ *              named com.twd.gfs:type=Operation,component={component},operation={operation}.
+ *              a component looks its metrics up once and keeps them, recording never goes through here.
+ *              the shared registry also logs a snapshot of all of them to the "metrics" logger periodically
+ * @date 2026-10-18
+ */
+public class MetricsRegistry {
+    /**
+     * how often the shared registry logs a snapshot, set by -Dgfs.metrics.dump.millis, 0 for never: 60s
+     */
+    public static final long DUMP_MILLIS = Long.getLong("gfs.metrics.dump.millis", 60_000L);
+
+    private static final String DOMAIN = "com.twd.gfs";
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry(true);
+
+    /**
+     * {component} {operation} -> {metrics}, sorted so a snapshot groups a component's operations
+     */
+    private final Map<String, OperationMetrics> metrics = new ConcurrentSkipListMap<>();
+
+    private final boolean publish;
+
+    private final Logger logger = LoggerFactory.getLogger("metrics");
+
+    /**
+     * @param publish whether the metrics are registered as mbeans
+     */
+    public MetricsRegistry(boolean publish) {
+        this.publish = publish;
+    }
+
+    /**
+     * the registry shared by every component of the process
+     * @return
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    static {
+        if (DUMP_MILLIS > 0) {
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleWithFixedDelay(SHARED::dump, DUMP_MILLIS, DUMP_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * the metrics of an operation of a component, created and published on first use.
+     * a component started again under the same name carries on with the same metrics
+     * @param component e.g. the chunkserver's name
+     * @param operation
+     * @return
+     */
+    public OperationMetrics operation(String component, String operation) {
+        return metrics.computeIfAbsent(component + " " + operation, key -> {
+            OperationMetrics created = new OperationMetrics(component, operation);
+            if (publish) {
+                register(created);
+            }
+            return created;
+        });
+    }
+
+    private void register(OperationMetrics created) {
+        register(DOMAIN + ":type=Operation,component=" + ObjectName.quote(created.getComponent())
+                + ",operation=" + ObjectName.quote(created.getOperation()), created);
+    }
+
+    /**
+     * publish a component's own mbean, e.g. a cache's gauges, as com.twd.gfs:type={type},component={component}.
+     * a component started again under the same name replaces the one before
+     * @param type
+     * @param component
+     * @param mbean
+     */
+    public void register(String type, String component, Object mbean) {
+        if (!publish) {
+            return;
+        }
+        String name = DOMAIN + ":type=" + type + ",component=" + ObjectName.quote(component);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.error("unregister mbean error", e);
+        }
+        register(name, mbean);
+    }
+
+    private void register(String name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            // the metrics are still recorded and dumped
+            logger.error("register mbean error", e);
+        }
+    }
+
+    /**
+     * @return every operation's metrics, by component then operation
+     */
+    public List<OperationMetrics> getOperations() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * one line per operation which has been called
+     * @return
+     */
+    public String snapshot() {
+        StringBuilder builder = new StringBuilder();
+        for (OperationMetrics operation : metrics.values()) {
+            if (operation.getSuccesses() + operation.getFailures() > 0) {
+                builder.append(operation).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    public void dump() {
+        String snapshot = snapshot();
+        if (!snapshot.isEmpty()) {
+            logger.info("snapshot\n{}", snapshot);
+        }
+    }
+}
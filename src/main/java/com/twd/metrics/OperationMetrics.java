@@ -0,0 +1,121 @@
+package com.twd.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description the calls of one operation of one component (a chunkserver, a client, the master),
+ *              counted and timed by outcome. recording is a striped add and a histogram add, no lock and
+ *              no allocation, so it stays on in production
+ * @date 2026-10-18
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final String component;
+
+    private final String operation;
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram failureLatency = new LatencyHistogram();
+
+    public OperationMetrics(String component, String operation) {
+        this.component = component;
+        this.operation = operation;
+    }
+
+    /**
+     * record a call which started at startNanos, from System.nanoTime(), and ends now
+     * @param startNanos
+     * @param success
+     */
+    public void record(long startNanos, boolean success) {
+        long nanos = System.nanoTime() - startNanos;
+        if (success) {
+            successes.increment();
+            latency.record(nanos);
+        } else {
+            failures.increment();
+            failureLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public String getComponent() {
+        return component;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * the latencies of the successful calls
+     * @return
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getFailureLatency() {
+        return failureLatency;
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return latency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return latency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return latency.getPercentile(0.999);
+    }
+
+    @Override
+    public double getFailureMeanNanos() {
+        return failureLatency.getMean();
+    }
+
+    @Override
+    public void reset() {
+        successes.reset();
+        failures.reset();
+        latency.reset();
+        failureLatency.reset();
+    }
+
+    /**
+     * one line: the counts, then the latency percentiles of the successful calls in microseconds
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("%s %s ok=%d failed=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus",
+                component, operation, getSuccesses(), getFailures(), getMeanNanos() / 1000,
+                getP50Nanos() / 1000.0, getP99Nanos() / 1000.0, getP999Nanos() / 1000.0);
+    }
+}
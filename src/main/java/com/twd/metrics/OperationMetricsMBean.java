@@ -0,0 +1,28 @@
+package com.twd.metrics;
+
+/**
+ * @author twd
+ * @description the jmx view of one operation of one component, latencies in nanoseconds
+ * @date 2026-10-18
+ */
+public interface OperationMetricsMBean {
+    String getComponent();
+
+    String getOperation();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    double getMeanNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    double getFailureMeanNanos();
+
+    void reset();
+}
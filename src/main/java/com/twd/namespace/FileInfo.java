@@ -0,0 +1,57 @@
+package com.twd.namespace;
+
+import java.util.Arrays;
+
+/**
+ * @author twd
+ * @description what the namespace knows of a file, a copy taken under the file's lock
+ * @date 2026-10-18
+ */
+public class FileInfo {
+    private final String path;
+
+    private final long createTime;
+
+    private final int chunkSize;
+
+    private final long[] chunkHandles;
+
+    FileInfo(String path, long createTime, int chunkSize, long[] chunkHandles) {
+        this.path = path;
+        this.createTime = createTime;
+        this.chunkSize = chunkSize;
+        this.chunkHandles = chunkHandles;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * the size of each of the file's chunks, chosen when the file was created
+     * @return
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkHandles.length;
+    }
+
+    /**
+     * @param chunkIndex
+     * @return Namespace.NO_HANDLE if the chunk was never written
+     */
+    public long getChunkHandle(int chunkIndex) {
+        return chunkIndex < chunkHandles.length ? chunkHandles[chunkIndex] : Namespace.NO_HANDLE;
+    }
+
+    public long[] getChunkHandles() {
+        return Arrays.copyOf(chunkHandles, chunkHandles.length);
+    }
+}
@@ -0,0 +1,31 @@
+package com.twd.namespace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description hand out chunk handles, every handle once and in increasing order
+ * @date 2026-10-18
+ */
+public class HandleAllocator {
+    private final AtomicLong next = new AtomicLong(1);
+
+    public long allocate() {
+        return next.getAndIncrement();
+    }
+
+    /**
+     * never hand out the handle or any lower one, e.g. one a chunkserver reported
+     * @param handle
+     */
+    public void advancePast(long handle) {
+        next.accumulateAndGet(handle + 1, Math::max);
+    }
+
+    /**
+     * the handle allocate() returns next
+     */
+    public long peek() {
+        return next.get();
+    }
+}
@@ -0,0 +1,389 @@
+package com.twd.namespace;
+
+import com.twd.element.ChunkMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * @author twd
+ * @description the master's file table: a tree of directories and files, each file with its ordered chunk handles
+ *              paths look like "/dir/file", the leading "/" may be left out and directories are made as files are created.
+ *              a lookup walks one sorted map per path component, and listing a prefix visits only the matching entries.
+ *              like in GFS, an operation on a path takes read locks on every ancestor and a read or write lock on the
+ *              path itself, through lock(). the tree's maps are concurrent, so creates in one directory (all holding
+ *              its read lock) run in parallel. the other methods expect the caller to hold the path's lock
+ * @date 2026-10-18
+ */
+public class Namespace {
+    /**
+     * no chunk at that index
+     */
+    public static final long NO_HANDLE = -1;
+
+    private static final long[] NO_CHUNKS = new long[0];
+
+    private static class Node {
+    }
+
+    private static class Directory extends Node {
+        final ConcurrentSkipListMap<String, Node> children = new ConcurrentSkipListMap<>();
+    }
+
+    private static class FileNode extends Node {
+        final long createTime;
+
+        final int chunkSize;
+
+        FileNode(long createTime, int chunkSize) {
+            this.createTime = createTime;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * the first chunkCount are the file's chunks, guarded by the path's lock
+         */
+        long[] chunkHandles = NO_CHUNKS;
+
+        int chunkCount;
+
+        long[] chunks() {
+            return Arrays.copyOf(chunkHandles, chunkCount);
+        }
+    }
+
+    /**
+     * the locks taken for an operation on a path, released by close()
+     */
+    public final class PathLock implements AutoCloseable {
+        private final List<String> paths;
+
+        private final boolean exclusive;
+
+        private boolean closed;
+
+        private PathLock(List<String> paths, boolean exclusive) {
+            this.paths = paths;
+            this.exclusive = exclusive;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (int i = paths.size() - 1; i >= 0; i--) {
+                pathLocks.unlock(paths.get(i), exclusive && i == paths.size() - 1);
+            }
+        }
+    }
+
+    private final Directory root = new Directory();
+
+    private final PathLocks pathLocks = new PathLocks();
+
+    private final LongAdder fileCount = new LongAdder();
+
+    private static String[] split(String path) {
+        List<String> components = new ArrayList<>();
+        for (String component : path.split("/")) {
+            if (!component.isEmpty()) {
+                components.add(component);
+            }
+        }
+        return components.toArray(new String[0]);
+    }
+
+    private static String join(String dirPath, String name) {
+        return ("/".equals(dirPath) ? "" : dirPath) + "/" + name;
+    }
+
+    /**
+     * @param path
+     * @return the path with a leading "/" and no empty components
+     */
+    public static String normalize(String path) {
+        String[] components = split(path);
+        return 0 == components.length ? "/" : "/" + String.join("/", components);
+    }
+
+    /**
+     * lock the path for an operation: its ancestors shared, itself shared or exclusive
+     * @param path
+     * @param exclusive
+     * @return close it to unlock
+     */
+    public PathLock lock(String path, boolean exclusive) {
+        String[] components = split(path);
+        List<String> paths = new ArrayList<>(components.length + 1);
+        String current = "/";
+        paths.add(current);
+        for (String component : components) {
+            current = join(current, component);
+            paths.add(current);
+        }
+        // top down, the same order for every operation
+        for (int i = 0; i < paths.size(); i++) {
+            boolean leaf = i == paths.size() - 1;
+            pathLocks.lock(paths.get(i), exclusive && leaf, !leaf);
+        }
+        return new PathLock(paths, exclusive);
+    }
+
+    private Directory findDirectory(String[] components, int depth) {
+        Directory dir = root;
+        for (int i = 0; i < depth; i++) {
+            Node child = dir.children.get(components[i]);
+            if (!(child instanceof Directory)) {
+                return null;
+            }
+            dir = (Directory) child;
+        }
+        return dir;
+    }
+
+    private FileNode findFile(String path) {
+        String[] components = split(path);
+        if (0 == components.length) {
+            return null;
+        }
+        Directory dir = findDirectory(components, components.length - 1);
+        if (null == dir) {
+            return null;
+        }
+        Node node = dir.children.get(components[components.length - 1]);
+        return node instanceof FileNode ? (FileNode) node : null;
+    }
+
+    /**
+     * create an empty file, and the directories above it
+     * @param path
+     * @return false if the path or one of its parents is taken
+     */
+    public boolean create(String path) {
+        return create(path, System.currentTimeMillis());
+    }
+
+    /**
+     * create an empty file, and the directories above it
+     * @param path
+     * @param createTime e.g. the one logged when the file was first created
+     * @return false if the path or one of its parents is taken
+     */
+    public boolean create(String path, long createTime) {
+        return create(path, createTime, ChunkMetadata.CHUNK_SIZE);
+    }
+
+    /**
+     * create an empty file, and the directories above it
+     * @param path
+     * @param createTime e.g. the one logged when the file was first created
+     * @param chunkSize the size of each of the file's chunks
+     * @return false if the path or one of its parents is taken
+     */
+    public boolean create(String path, long createTime, int chunkSize) {
+        String[] components = split(path);
+        if (0 == components.length) {
+            return false;
+        }
+        Directory dir = root;
+        for (int i = 0; i < components.length - 1; i++) {
+            Node child = dir.children.computeIfAbsent(components[i], name -> new Directory());
+            if (!(child instanceof Directory)) {
+                return false;
+            }
+            dir = (Directory) child;
+        }
+        if (null != dir.children.putIfAbsent(components[components.length - 1], new FileNode(createTime, chunkSize))) {
+            return false;
+        }
+        fileCount.increment();
+        return true;
+    }
+
+    public boolean exists(String path) {
+        return null != findFile(path);
+    }
+
+    /**
+     * remove the file from the namespace
+     * @param path
+     * @return the handles of the file's chunks, null if there's no such file
+     */
+    public long[] delete(String path) {
+        String[] components = split(path);
+        if (0 == components.length) {
+            return null;
+        }
+        Directory dir = findDirectory(components, components.length - 1);
+        if (null == dir) {
+            return null;
+        }
+        String name = components[components.length - 1];
+        Node node = dir.children.get(name);
+        if (!(node instanceof FileNode) || !dir.children.remove(name, node)) {
+            return null;
+        }
+        fileCount.decrement();
+        return Arrays.stream(((FileNode) node).chunks()).filter(handle -> NO_HANDLE != handle).toArray();
+    }
+
+    /**
+     * @param path
+     * @param chunkIndex
+     * @return NO_HANDLE if there's no such file or chunk
+     */
+    public long getChunkHandle(String path, int chunkIndex) {
+        FileNode file = findFile(path);
+        if (null == file || chunkIndex >= file.chunkCount) {
+            return NO_HANDLE;
+        }
+        return file.chunkHandles[chunkIndex];
+    }
+
+    /**
+     * record the chunk at the index of the file, chunks before it that were never written stay empty
+     * @param path
+     * @param chunkIndex
+     * @param handle
+     * @return false if there's no such file
+     */
+    public boolean setChunkHandle(String path, int chunkIndex, long handle) {
+        FileNode file = findFile(path);
+        if (null == file) {
+            return false;
+        }
+        if (chunkIndex >= file.chunkHandles.length) {
+            // grow by doubling, appending chunk after chunk stays linear
+            file.chunkHandles = Arrays.copyOf(file.chunkHandles, Math.max(chunkIndex + 1, file.chunkHandles.length * 2));
+        }
+        if (chunkIndex >= file.chunkCount) {
+            Arrays.fill(file.chunkHandles, file.chunkCount, chunkIndex, NO_HANDLE);
+            file.chunkCount = chunkIndex + 1;
+        }
+        file.chunkHandles[chunkIndex] = handle;
+        return true;
+    }
+
+    /**
+     * @param path
+     * @return the index of the file's last chunk, -1 if there's no such file or it has no chunk
+     */
+    public int getLastChunkIndex(String path) {
+        FileNode file = findFile(path);
+        return null == file ? -1 : file.chunkCount - 1;
+    }
+
+    /**
+     * @param path
+     * @return null if there's no such file
+     */
+    public FileInfo stat(String path) {
+        FileNode file = findFile(path);
+        if (null == file) {
+            return null;
+        }
+        return new FileInfo(normalize(path), file.createTime, file.chunkSize, file.chunks());
+    }
+
+    /**
+     * @param path
+     * @return the size of each of the file's chunks, -1 if there's no such file
+     */
+    public int getChunkSize(String path) {
+        FileNode file = findFile(path);
+        return null == file ? -1 : file.chunkSize;
+    }
+
+    /**
+     * the files whose path starts with the prefix, in order, e.g. "/logs/" lists everything under /logs
+     * and "/logs/app-" the files and directories in /logs named app-*. the caller holds the read lock
+     * of the prefix's directory
+     * @param prefix
+     * @param limit the most paths returned
+     * @return
+     */
+    public List<String> list(String prefix, int limit) {
+        String[] components = split(prefix);
+        String dirPath = listDirectory(prefix);
+        int depth = split(dirPath).length;
+        String namePrefix = depth == components.length ? "" : components[components.length - 1];
+        Directory dir = findDirectory(components, depth);
+        if (null == dir || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, Node> entry : dir.children.tailMap(namePrefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(namePrefix) || paths.size() >= limit) {
+                break;
+            }
+            collect(join(dirPath, entry.getKey()), entry.getValue(), paths, limit);
+        }
+        return paths;
+    }
+
+    public List<String> list(String prefix) {
+        return list(prefix, Integer.MAX_VALUE);
+    }
+
+    private static void collect(String path, Node node, List<String> paths, int limit) {
+        if (node instanceof FileNode) {
+            paths.add(path);
+            return;
+        }
+        for (Map.Entry<String, Node> entry : ((Directory) node).children.entrySet()) {
+            if (paths.size() >= limit) {
+                return;
+            }
+            collect(join(path, entry.getKey()), entry.getValue(), paths, limit);
+        }
+    }
+
+    /**
+     * visit the path of every file, in order. files created or deleted meanwhile may or may not be visited
+     * @param action
+     */
+    public void forEachFile(Consumer<String> action) {
+        forEachFile("/", root, action);
+    }
+
+    private static void forEachFile(String path, Node node, Consumer<String> action) {
+        if (node instanceof FileNode) {
+            action.accept(path);
+            return;
+        }
+        for (Map.Entry<String, Node> entry : ((Directory) node).children.entrySet()) {
+            forEachFile(join(path, entry.getKey()), entry.getValue(), action);
+        }
+    }
+
+    /**
+     * the parent directory of the path, the one to lock for list()
+     * @param prefix
+     * @return
+     */
+    public static String listDirectory(String prefix) {
+        String[] components = split(prefix);
+        boolean wholeDirectory = 0 == components.length || prefix.endsWith("/");
+        int depth = wholeDirectory ? components.length : components.length - 1;
+        return normalize(String.join("/", Arrays.copyOf(components, depth)));
+    }
+
+    public long getFileCount() {
+        return fileCount.sum();
+    }
+
+    /**
+     * the paths whose lock is kept, held or waited for
+     */
+    public int getLockedPaths() {
+        return pathLocks.size();
+    }
+}
@@ -0,0 +1,73 @@
+package com.twd.namespace;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author twd
+ * @description a read/write lock per path. a file's lock is made on first use and dropped once no one holds or
+ *              waits for it, so millions of files cost no memory at rest. a directory's lock, once taken as an ancestor,
+ *              is kept: every operation takes its ancestors' locks, and looking them up must not contend
+ * @date 2026-10-18
+ */
+class PathLocks {
+    private static class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * holders and waiters, changed under the map's lock of the entry
+         */
+        int refs;
+
+        /**
+         * never dropped, set under the map's lock of the entry
+         */
+        volatile boolean pinned;
+    }
+
+    private final ConcurrentHashMap<String, Entry> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param path
+     * @param exclusive
+     * @param ancestor the path is locked as an ancestor of another one
+     */
+    void lock(String path, boolean exclusive, boolean ancestor) {
+        Entry entry = locks.get(path);
+        if (null == entry || !entry.pinned) {
+            entry = locks.compute(path, (key, current) -> {
+                Entry e = null == current ? new Entry() : current;
+                if (ancestor) {
+                    e.pinned = true;
+                } else if (!e.pinned) {
+                    e.refs++;
+                }
+                return e;
+            });
+        }
+        if (exclusive) {
+            entry.lock.writeLock().lock();
+        } else {
+            entry.lock.readLock().lock();
+        }
+    }
+
+    void unlock(String path, boolean exclusive) {
+        Entry entry = locks.get(path);
+        if (exclusive) {
+            entry.lock.writeLock().unlock();
+        } else {
+            entry.lock.readLock().unlock();
+        }
+        if (!entry.pinned) {
+            locks.computeIfPresent(path, (key, e) -> 0 == --e.refs && !e.pinned ? null : e);
+        }
+    }
+
+    /**
+     * the paths with a lock kept, held or waited for
+     */
+    int size() {
+        return locks.size();
+    }
+}
@@ -0,0 +1,271 @@
+package com.twd.oplog;
+
+import com.twd.element.ChunkMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author twd
+ * @description a binary image of the namespace, in files named checkpoint.{txid}
+ *              a checkpoint is written while the master keeps changing, so it holds every mutation up to its txid and
+ *              maybe some later ones; replaying the log after txid over it gives the current state.
+ *              layout: magic, format version, txid, next handle, then per file: path, create time, chunk size, chunk count, and the
+ *              chunk handles as varint deltas from the previous one; a 0 byte ends the files and a crc32 of everything
+ *              ends the image
+ * @date 2026-10-18
+ */
+public class Checkpoint {
+    private static final String PREFIX = "checkpoint.";
+
+    private static final int MAGIC = 0x47465344;
+
+    /**
+     * the magic of the first format, which had no version and no chunk sizes
+     */
+    private static final int LEGACY_MAGIC = 0x47465343;
+
+    /**
+     * the layout of the image, 2 since files carry their chunk size
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * one file of a checkpoint
+     */
+    public interface FileVisitor {
+        void visit(String path, long createTime, int chunkSize, long[] chunkHandles);
+    }
+
+    /**
+     * writes one checkpoint, close() makes it durable and visible
+     */
+    public static class Writer implements AutoCloseable {
+        private final File dir;
+
+        private final long txid;
+
+        private final File tmp;
+
+        private final FileOutputStream file;
+
+        private final CheckedOutputStream checked;
+
+        private final DataOutputStream out;
+
+        private boolean committed;
+
+        public Writer(File dir, long txid, long nextHandle) throws IOException {
+            this.dir = dir;
+            this.txid = txid;
+            tmp = new File(dir, PREFIX + txid + ".tmp");
+            file = new FileOutputStream(tmp);
+            checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(txid);
+            out.writeLong(nextHandle);
+        }
+
+        public void writeFile(String path, long createTime, int chunkSize, long[] chunkHandles) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(path);
+            out.writeLong(createTime);
+            writeVarLong(out, chunkSize);
+            writeVarLong(out, chunkHandles.length);
+            long previous = 0;
+            for (long handle : chunkHandles) {
+                writeVarLong(out, zigzag(handle - previous));
+                previous = handle;
+            }
+        }
+
+        /**
+         * finish the image, force it to disk and give it its name
+         */
+        public void commit() throws IOException {
+            out.writeByte(0);
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(crc);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(tmp.toPath(), new File(dir, PREFIX + txid).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                tmp.delete();
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (0 == (b & 0x80)) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * the txids of the checkpoints in the directory, newest first
+     */
+    public static List<Long> list(File dir) {
+        List<Long> txids = new ArrayList<>();
+        String[] names = dir.list();
+        if (null != names) {
+            for (String name : names) {
+                if (name.startsWith(PREFIX) && !name.endsWith(".tmp")) {
+                    try {
+                        txids.add(Long.parseLong(name.substring(PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not a checkpoint
+                    }
+                }
+            }
+        }
+        txids.sort((a, b) -> Long.compare(b, a));
+        return txids;
+    }
+
+    /**
+     * the first part of a checkpoint
+     */
+    public static class Header {
+        private final long txid;
+
+        private final long nextHandle;
+
+        Header(long txid, long nextHandle) {
+            this.txid = txid;
+            this.nextHandle = nextHandle;
+        }
+
+        public long getTxid() {
+            return txid;
+        }
+
+        public long getNextHandle() {
+            return nextHandle;
+        }
+    }
+
+    /**
+     * read a checkpoint, handing every file to the visitor
+     * @param dir
+     * @param txid
+     * @param visitor
+     * @return the header
+     * @throws IOException if the checkpoint is missing or damaged
+     * @throws UnsupportedFormatException if it was written in another format
+     */
+    public static Header read(File dir, long txid, FileVisitor visitor) throws IOException {
+        File file = new File(dir, PREFIX + txid);
+        // check the whole image first, nothing of a damaged one reaches the visitor
+        verify(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            int magic = in.readInt();
+            if (LEGACY_MAGIC == magic) {
+                throw new UnsupportedFormatException(file + " was written by an older version");
+            }
+            if (MAGIC != magic) {
+                throw new IOException(file + " is no checkpoint");
+            }
+            int version = in.readInt();
+            if (FORMAT_VERSION != version) {
+                throw new UnsupportedFormatException(file + " is of format " + version + ", not " + FORMAT_VERSION);
+            }
+            Header header = new Header(in.readLong(), in.readLong());
+            while (0 != in.readByte()) {
+                String path = in.readUTF();
+                long createTime = in.readLong();
+                long chunkSize = readVarLong(in);
+                if (chunkSize > Integer.MAX_VALUE || !ChunkMetadata.isValidChunkSize((int) chunkSize)) {
+                    throw new IOException(file + " has bad chunk size " + chunkSize + " for " + path);
+                }
+                long[] handles = new long[(int) readVarLong(in)];
+                long previous = 0;
+                for (int i = 0; i < handles.length; i++) {
+                    handles[i] = previous + unzigzag(readVarLong(in));
+                    previous = handles[i];
+                }
+                visitor.visit(path, createTime, (int) chunkSize, handles);
+            }
+            return header;
+        }
+    }
+
+    private static void verify(File file) throws IOException {
+        long length = file.length();
+        if (length < Long.BYTES) {
+            throw new IOException(file + " is damaged");
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            byte[] buffer = new byte[1 << 16];
+            long remaining = length - Long.BYTES;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException(file + " is damaged");
+                }
+                remaining -= n;
+            }
+            long expected = checked.getChecksum().getValue();
+            if (expected != in.readLong()) {
+                throw new IOException(file + " is damaged");
+            }
+        }
+    }
+
+    /**
+     * delete the checkpoints older than txid
+     */
+    public static void purge(File dir, long txid) {
+        for (long old : list(dir)) {
+            if (old < txid) {
+                new File(dir, PREFIX + old).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.twd.oplog;
+
+import com.twd.element.ChunkMetadata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * @author twd
+ * @description one metadata mutation in the operation log
+ *              replaying a record sets state rather than changing it (create if absent, set the handle, delete if
+ *              present), so a record may be replayed over a state that already has it
+ * @date 2026-10-18
+ */
+public class LogRecord {
+    public enum Type {
+        /**
+         * a file was created
+         */
+        CREATE_FILE,
+        /**
+         * a chunk handle was given to a chunk index of a file
+         */
+        ADD_CHUNK,
+        /**
+         * a file was deleted
+         */
+        DELETE_FILE
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final Type type;
+
+    private final String path;
+
+    private final int chunkIndex;
+
+    private final long chunkHandle;
+
+    private final long time;
+
+    /**
+     * the chunk size of a created file
+     */
+    private final int chunkSize;
+
+    /**
+     * the record's position in the log, set when it's appended
+     */
+    private long txid;
+
+    private LogRecord(Type type, String path, int chunkIndex, long chunkHandle, long time, int chunkSize) {
+        this.type = type;
+        this.path = path;
+        this.chunkIndex = chunkIndex;
+        this.chunkHandle = chunkHandle;
+        this.time = time;
+        this.chunkSize = chunkSize;
+    }
+
+    public static LogRecord createFile(String path, long createTime) {
+        return createFile(path, createTime, ChunkMetadata.CHUNK_SIZE);
+    }
+
+    public static LogRecord createFile(String path, long createTime, int chunkSize) {
+        return new LogRecord(Type.CREATE_FILE, path, -1, -1, createTime, chunkSize);
+    }
+
+    public static LogRecord addChunk(String path, int chunkIndex, long chunkHandle) {
+        return new LogRecord(Type.ADD_CHUNK, path, chunkIndex, chunkHandle, 0, 0);
+    }
+
+    public static LogRecord deleteFile(String path) {
+        return new LogRecord(Type.DELETE_FILE, path, -1, -1, 0, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public long getChunkHandle() {
+        return chunkHandle;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getTxid() {
+        return txid;
+    }
+
+    void setTxid(long txid) {
+        this.txid = txid;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(txid);
+        out.writeByte(type.ordinal());
+        out.writeUTF(path);
+        switch (type) {
+            case CREATE_FILE:
+                out.writeLong(time);
+                out.writeInt(chunkSize);
+                break;
+            case ADD_CHUNK:
+                out.writeInt(chunkIndex);
+                out.writeLong(chunkHandle);
+                break;
+            case DELETE_FILE:
+            default:
+                break;
+        }
+    }
+
+    static LogRecord readFrom(DataInput in) throws IOException {
+        long txid = in.readLong();
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= TYPES.length) {
+            throw new IOException("unknown record type " + ordinal);
+        }
+        String path = in.readUTF();
+        LogRecord record;
+        switch (TYPES[ordinal]) {
+            case CREATE_FILE:
+                long createTime = in.readLong();
+                int chunkSize = in.readInt();
+                if (!ChunkMetadata.isValidChunkSize(chunkSize)) {
+                    throw new IOException("bad chunk size " + chunkSize + " of " + path);
+                }
+                record = createFile(path, createTime, chunkSize);
+                break;
+            case ADD_CHUNK:
+                int chunkIndex = in.readInt();
+                record = addChunk(path, chunkIndex, in.readLong());
+                break;
+            case DELETE_FILE:
+            default:
+                record = deleteFile(path);
+                break;
+        }
+        record.setTxid(txid);
+        return record;
+    }
+}
@@ -0,0 +1,382 @@
+package com.twd.oplog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * @author twd
+ * @description the master's append-only log of metadata mutations, in segment files named oplog.{first txid}
+ *              append() only buffers a record. sync() makes it durable with group commit: the first caller to sync
+ *              writes and forces everything appended so far, callers arriving meanwhile wait for the next force and
+ *              share it, so n concurrent mutations cost far fewer than n forces.
+ *              a segment starts with [magic][format version], then every record is framed as [length][crc32][body];
+ *              a torn record at the end of a segment ends its replay, a segment of another format fails it
+ * @date 2026-10-18
+ */
+public class OperationLog implements Closeable {
+    private static final String SEGMENT_PREFIX = "oplog.";
+
+    /**
+     * starts every segment, segments of the first format start with a frame length, which is far smaller
+     */
+    private static final int SEGMENT_MAGIC = 0x47464C47;
+
+    /**
+     * the layout of the segments and their records, 2 since CREATE_FILE records carry the chunk size
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * larger frames are garbage, a record is a path and a few numbers
+     */
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    /**
+     * a byte array output stream that lends its buffer for writing
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final File dir;
+
+    private FileChannel channel;
+
+    /**
+     * appended records not yet written
+     */
+    private Buffer pending = new Buffer();
+
+    private final Buffer body = new Buffer();
+
+    private final DataOutputStream bodyOut = new DataOutputStream(body);
+
+    private long lastTxid;
+
+    private long syncedTxid;
+
+    /**
+     * a caller is writing and forcing a batch
+     */
+    private boolean syncing;
+
+    private long syncs;
+
+    /**
+     * a batch that couldn't be written is lost, so after a failure nothing is durable any more
+     */
+    private IOException failure;
+
+    private final Logger logger = LoggerFactory.getLogger(OperationLog.class);
+
+    /**
+     * open the log to append after lastTxid, in a new segment
+     * @param dir
+     * @param lastTxid the last txid already in the log, see replay()
+     * @throws IOException
+     */
+    public OperationLog(File dir, long lastTxid) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        this.lastTxid = lastTxid;
+        this.syncedTxid = lastTxid;
+        channel = openSegment(lastTxid + 1);
+    }
+
+    private FileChannel openSegment(long firstTxid) throws IOException {
+        FileChannel segment = FileChannel.open(new File(dir, SEGMENT_PREFIX + firstTxid).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (0 == segment.size()) {
+            // forced with the segment's first records
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            header.putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                segment.write(header);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * buffer the record, it's durable once sync() returns for its txid
+     * @param record
+     * @return the record's txid
+     */
+    public synchronized long append(LogRecord record) {
+        record.setTxid(++lastTxid);
+        try {
+            body.reset();
+            record.writeTo(bodyOut);
+            CRC32 crc = new CRC32();
+            crc.update(body.view());
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(body.size());
+            out.writeInt((int) crc.getValue());
+            body.writeTo(out);
+        } catch (IOException e) {
+            // in-memory streams don't throw
+            throw new IllegalStateException(e);
+        }
+        return lastTxid;
+    }
+
+    /**
+     * make every record up to txid durable
+     * @param txid
+     * @throws IOException
+     */
+    public void sync(long txid) throws IOException {
+        Buffer batch;
+        long batchTxid;
+        FileChannel target;
+        synchronized (this) {
+            checkFailure();
+            while (syncing && txid > syncedTxid) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the log sync");
+                }
+            }
+            checkFailure();
+            if (txid <= syncedTxid) {
+                return;
+            }
+            // lead this batch: take everything appended so far
+            syncing = true;
+            batch = pending;
+            pending = new Buffer();
+            batchTxid = lastTxid;
+            target = channel;
+        }
+        IOException error = null;
+        try {
+            write(target, batch);
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (null == error) {
+                    syncedTxid = batchTxid;
+                    syncs++;
+                } else {
+                    failure = error;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (null != failure) {
+            throw new IOException("the operation log failed", failure);
+        }
+    }
+
+    /**
+     * make every record appended so far durable
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        long txid;
+        synchronized (this) {
+            txid = lastTxid;
+        }
+        sync(txid);
+    }
+
+    private static void write(FileChannel target, Buffer batch) throws IOException {
+        ByteBuffer data = batch.view();
+        while (data.hasRemaining()) {
+            target.write(data);
+        }
+        target.force(false);
+    }
+
+    /**
+     * close the current segment, durable, and start a new one
+     * @return the last txid in the closed segments
+     * @throws IOException
+     */
+    public synchronized long roll() throws IOException {
+        checkFailure();
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for the log sync");
+            }
+        }
+        write(channel, pending);
+        pending = new Buffer();
+        syncedTxid = lastTxid;
+        channel.close();
+        channel = openSegment(lastTxid + 1);
+        return lastTxid;
+    }
+
+    /**
+     * delete the segments holding only records up to txid, a checkpoint covers them
+     * @param txid
+     */
+    public synchronized void purge(long txid) {
+        List<Long> segments = segments(dir);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            // a segment ends where the next one starts
+            if (segments.get(i + 1) - 1 <= txid && !new File(dir, SEGMENT_PREFIX + segments.get(i)).delete()) {
+                logger.error("delete log segment {} error", segments.get(i));
+            }
+        }
+    }
+
+    public synchronized long getLastTxid() {
+        return lastTxid;
+    }
+
+    public synchronized long getSyncedTxid() {
+        return syncedTxid;
+    }
+
+    /**
+     * the forces done by sync(), fewer than the records synced when they were grouped
+     */
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            write(channel, pending);
+            pending = new Buffer();
+            syncedTxid = lastTxid;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static List<Long> segments(File dir) {
+        List<Long> segments = new ArrayList<>();
+        String[] names = dir.list();
+        if (null != names) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * read back the records after txid, in order
+     * @param dir
+     * @param afterTxid skip the records up to it, e.g. the ones a checkpoint covers
+     * @param consumer
+     * @return the last txid in the log, afterTxid if none is later
+     * @throws IOException
+     * @throws UnsupportedFormatException if a segment was written in another format
+     */
+    public static long replay(File dir, long afterTxid, Consumer<LogRecord> consumer) throws IOException {
+        long last = afterTxid;
+        for (long segment : segments(dir)) {
+            File file = new File(dir, SEGMENT_PREFIX + segment);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (!readHeader(in, file)) {
+                    continue;
+                }
+                LogRecord record;
+                while (null != (record = readRecord(in))) {
+                    last = Math.max(last, record.getTxid());
+                    if (record.getTxid() > afterTxid) {
+                        consumer.accept(record);
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return false if the segment is empty, its header was never written
+     * @throws UnsupportedFormatException if the segment isn't of FORMAT_VERSION
+     */
+    private static boolean readHeader(DataInputStream in, File file) throws IOException {
+        int magic;
+        int version;
+        try {
+            magic = in.readInt();
+            version = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (SEGMENT_MAGIC != magic) {
+            throw new UnsupportedFormatException(file + " has no format header, it was written by an older version");
+        }
+        if (FORMAT_VERSION != version) {
+            throw new UnsupportedFormatException(file + " is of format " + version + ", not " + FORMAT_VERSION);
+        }
+        return true;
+    }
+
+    /**
+     * @return null at the end of the segment or at a torn record
+     * @throws IOException if a record which passed its crc can't be parsed
+     */
+    private static LogRecord readRecord(DataInputStream in) throws IOException {
+        byte[] bytes;
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            bytes = new byte[length];
+            in.readFully(bytes);
+            CRC32 actual = new CRC32();
+            actual.update(bytes);
+            if ((int) actual.getValue() != crc) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        // a whole record, a body too short for its type is no torn write
+        try {
+            return LogRecord.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (EOFException e) {
+            throw new IOException("malformed log record", e);
+        }
+    }
+}
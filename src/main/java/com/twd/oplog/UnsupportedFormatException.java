@@ -0,0 +1,17 @@
+package com.twd.oplog;
+
+import java.io.IOException;
+
+/**
+ * @author twd
+ * @description a log segment or checkpoint written in a format this version can't read, e.g. by an older master.
+ *              unlike a damaged file it isn't skipped: reading on without it would lose or misread metadata
+ * @date 2026-10-18
+ */
+public class UnsupportedFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedFormatException(String message) {
+        super(message);
+    }
+}
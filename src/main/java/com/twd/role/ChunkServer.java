@@ -1,13 +1,37 @@
 package com.twd.role;
 
+import com.twd.buffer.PushBuffer;
+import com.twd.cache.BlockCache;
+import com.twd.element.AppendResult;
 import com.twd.element.Chunk;
 import com.twd.element.ChunkMetadata;
+import com.twd.element.Heartbeat;
+import com.twd.element.HeartbeatReply;
+import com.twd.element.OpenChunkCache;
+import com.twd.element.PushPacket;
+import com.twd.element.WriteResult;
+import com.twd.metrics.MetricsRegistry;
+import com.twd.metrics.OperationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 /**
  * @author twd
@@ -15,6 +39,35 @@ import java.util.*;
  * @date 2019-12-04
  */
 public class ChunkServer {
+    /**
+     * when a write is on disk, relative to its ack
+     */
+    public enum Durability {
+        /**
+         * the os writes the data back when it likes, an ack only means the data is in the page cache
+         */
+        NONE,
+        /**
+         * the chunks written are forced every DURABILITY_PERIOD_MILLIS, a crash loses at most that much
+         */
+        PERIODIC,
+        /**
+         * the write is forced before it's acknowledged, concurrent writers share the force
+         */
+        SYNC
+    }
+
+    /**
+     * the durability used when none is given, set by -Dgfs.durability=NONE|PERIODIC|SYNC
+     */
+    public static final Durability DEFAULT_DURABILITY =
+            Durability.valueOf(System.getProperty("gfs.durability", Durability.NONE.name()));
+
+    /**
+     * how often written chunks are forced under PERIODIC, set by -Dgfs.durability.period.millis: 1s
+     */
+    public static final long DURABILITY_PERIOD_MILLIS = Long.getLong("gfs.durability.period.millis", 1_000L);
+
     /**
      * the root directory to store chunks
      */
@@ -31,41 +84,168 @@ public class ChunkServer {
 
     /**
      * store all stored chunks: {chunk handle} -> {chunk}
+     * reads of a chunk run under its read lock, writes under its write lock
      */
-    private Map<Integer, Chunk> chunks;
+    private Map<Long, Chunk> chunks;
+
+    /**
+     * the chunks reads looked up lately, slot (handle mod length), so a read finds its chunk without boxing
+     * the handle for the map. a slot is cleared when its chunk is dropped
+     */
+    private final AtomicReferenceArray<Chunk> recentChunks = new AtomicReferenceArray<>(RECENT_CHUNK_SLOTS);
+
+    private static final int RECENT_CHUNK_SLOTS = 1 << 10;
+
+    /**
+     * the last byte of a padded chunk, the bytes before it are a hole
+     */
+    private static final byte[] PAD = new byte[1];
+
+    /**
+     * the chunks whose files are open, the rest are opened on their next I/O
+     */
+    private final OpenChunkCache openChunkCache = new OpenChunkCache();
+
+    /**
+     * blocks of the chunks read lately, off unless -Dgfs.block.cache.bytes is set
+     */
+    private volatile BlockCache blockCache = new BlockCache();
+
+    private volatile Durability durability = DEFAULT_DURABILITY;
+
+    /**
+     * forces the written chunks unless the durability is NONE
+     */
+    private final GroupCommit groupCommit;
+
+    /**
+     * the server's calls, and the disk I/O of its chunks, by outcome
+     */
+    private final OperationMetrics readMetrics;
+
+    private final OperationMetrics pushMetrics;
+
+    private final OperationMetrics writeMetrics;
+
+    private final OperationMetrics applyWriteMetrics;
+
+    private final OperationMetrics diskReadMetrics;
+
+    private final OperationMetrics diskWriteMetrics;
 
     /**
      * the chunkserver is the primary for these chunk handles : {chunk handle} -> {chunk}
      */
-    private Map<Integer, ChunkMetadata> primaries;
+    private Map<Long, ChunkMetadata> primaries;
 
     private Master master;
 
-    private static class BufferedData {
-        int chunkHandle;
-        int offset;
-        ByteBuffer buffer;
-        BufferedData(int chunkHandle, int offset, ByteBuffer buffer) {
-            this.chunkHandle = chunkHandle;
-            this.offset = offset;
-            this.buffer = buffer;
-        }
-    }
     /**
-     * buffer the pushed data
+     * how this server's chunk files are accessed
+     */
+    private final Chunk.StorageMode storageMode;
+
+    /**
+     * buffer the pushed data: {client, chunk handle, offset} -> {data}
+     */
+    private final PushBuffer pushBuffer = new PushBuffer();
+
+    /**
+     * where the server sits in the network, like "/datacenter/rack/host"
+     */
+    private volatile String networkLocation;
+
+    /**
+     * where the server takes calls over the network, null while it's only reachable in process
+     */
+    private volatile InetSocketAddress address;
+
+    /**
+     * forwards pushed packets along the push chain
+     */
+    private final ExecutorService forwarder;
+
+    /**
+     * how long the primary waits for the secondaries to apply a write: 10s
+     */
+    public static final long DEFAULT_SECONDARY_TIMEOUT_MILLIS = 10_000L;
+
+    /**
+     * sends write requests to the secondaries in parallel
      */
-    private List<BufferedData> bufferedDatas = new ArrayList<>();
+    private volatile ExecutorService replicator;
+
+    private volatile long secondaryTimeoutMillis = DEFAULT_SECONDARY_TIMEOUT_MILLIS;
+
+    /**
+     * the bytes the server may store, 0 for the size of the disk under the root folder
+     */
+    private volatile long capacity;
+
+    /**
+     * how often the server sends a heartbeat to the master, set by -Dgfs.heartbeat.millis: 3s
+     */
+    public static final long HEARTBEAT_MILLIS = Long.getLong("gfs.heartbeat.millis", 3_000L);
+
+    /**
+     * chunks created or removed since the last heartbeat, sent with the next one
+     */
+    private final Set<Long> addedChunks = ConcurrentHashMap.newKeySet();
+
+    private final Set<Long> removedChunks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * chunks mutated under this server's lease since the last heartbeat, their leases are extended
+     */
+    private final Set<Long> mutatedChunks = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartbeater;
+
+    private final Scrubber scrubber;
+
+    /**
+     * runs the scrubber's passes
+     */
+    private final ScheduledExecutorService scrubScheduler;
+
+    private static final String CHUNK_SUFFIX = ".chunk";
 
     private Logger logger;
 
     public ChunkServer(String rootFolder, Master master) {
+        this(rootFolder, master, Chunk.DEFAULT_STORAGE_MODE);
+    }
+
+    public ChunkServer(String rootFolder, Master master, Chunk.StorageMode storageMode) {
+        this.storageMode = storageMode;
         this.master = master;
         this.master.addChunkServers(this);
         this.rootFolder = rootFolder;
-        chunks = new HashMap<>();
-        primaries = new HashMap<>();
+        chunks = new ConcurrentHashMap<>();
+        primaries = new ConcurrentHashMap<>();
         chunkServerName = String.format("chunkserver-%s", rootFolder);
         logger = LoggerFactory.getLogger(chunkServerName);
+        MetricsRegistry registry = MetricsRegistry.shared();
+        readMetrics = registry.operation(chunkServerName, "read");
+        pushMetrics = registry.operation(chunkServerName, "push");
+        writeMetrics = registry.operation(chunkServerName, "write");
+        applyWriteMetrics = registry.operation(chunkServerName, "applyWrite");
+        diskReadMetrics = registry.operation(chunkServerName, "disk.read");
+        diskWriteMetrics = registry.operation(chunkServerName, "disk.write");
+        registry.register("BlockCache", chunkServerName, blockCache);
+        groupCommit = new GroupCommit(chunkServerName + "-sync", DURABILITY_PERIOD_MILLIS,
+                registry.operation(chunkServerName, "disk.force"));
+        networkLocation = "/default-rack/" + chunkServerName;
+        forwarder = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, chunkServerName + "-forwarder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replicator = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, chunkServerName + "-replicator");
+            thread.setDaemon(true);
+            return thread;
+        });
         // create root directory
         File rootDir = new File(rootFolder);
         if (rootDir.exists()) {
@@ -77,48 +257,248 @@ public class ChunkServer {
             }
         }
         master.addChunkServerInfo(this, chunks.size());
+        heartbeater = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, chunkServerName + "-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeater.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        // scrubbing sleeps to keep its rate, it gets its own thread so heartbeats aren't held up
+        scrubber = new Scrubber(this);
+        scrubScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, chunkServerName + "-scrubber");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scrubScheduler.scheduleWithFixedDelay(scrubber::scrub, Scrubber.PERIOD_MILLIS, Scrubber.PERIOD_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * check chunk info
+     * find the chunks in the root folder and report them all to the master in one block report
+     * the names are parsed and the files sized in parallel, no chunk file is opened
      */
     private void checkChunks() {
         File rootDir = new File(rootFolder);
-        File[] files = rootDir.listFiles();
-        if (null == files) {
+        String[] names = rootDir.list();
+        if (null == names) {
             return ;
         }
-        for (File file : files) {
+        Arrays.stream(names).parallel().filter(name -> name.endsWith(CHUNK_SUFFIX)).forEach(name -> {
+            // {handle}.{version}.chunk
+            String[] parts = name.substring(0, name.length() - CHUNK_SUFFIX.length()).split("\\.");
+            long chunkHandle;
+            long version;
+            try {
+                chunkHandle = Long.parseLong(parts[0]);
+                version = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+            } catch (NumberFormatException e) {
+                logger.error("not a chunk file: {}", name);
+                return;
+            }
+            File file = new File(rootDir, name);
             if (file.isFile()) {
-                String filename = file.getName();
-                int chunkHandle = Integer.parseInt(filename.substring(0, filename.lastIndexOf('.')));
-                chunks.put(chunkHandle, new Chunk(chunkHandle, rootFolder));
-                // report to master
-                master.reportChunkMetadata(chunkHandle, this);
+                // a preallocated file is longer than its data, its length is looked up when it's first needed
+                int size = Chunk.DEFAULT_PREALLOCATE ? -1 : (int) file.length();
+                Chunk chunk = new Chunk(chunkHandle, rootFolder, storageMode, version, size);
+                chunk.setOpenChunkCache(openChunkCache);
+                chunk.setMetrics(diskReadMetrics, diskWriteMetrics);
+                chunks.put(chunkHandle, chunk);
+            }
+        });
+        long[] chunkHandles = chunks.keySet().stream().mapToLong(Long::longValue).toArray();
+        deleteChunks(master.blockReport(this, chunkHandles, versions(chunkHandles)));
+        logger.info("reported {} chunks", chunkHandles.length);
+    }
+
+    private long[] versions(long[] chunkHandles) {
+        long[] versions = new long[chunkHandles.length];
+        for (int i = 0; i < chunkHandles.length; i++) {
+            Chunk chunk = chunks.get(chunkHandles[i]);
+            versions[i] = null == chunk ? 0 : chunk.getVersion();
+        }
+        return versions;
+    }
+
+    /**
+     * stop the server's threads, force what was written and close the chunks' files. the master isn't told,
+     * the server's heartbeats just stop
+     * @return false if a chunk couldn't be forced or closed
+     */
+    public boolean close() {
+        heartbeater.shutdown();
+        forwarder.shutdown();
+        replicator.shutdown();
+        // the scrubber may be asleep in its throttle, it only reads this server's chunks, closed below anyway
+        scrubScheduler.shutdownNow();
+        try {
+            // the writes in flight finish, interrupting them would close the channels they write through
+            for (ExecutorService executor : new ExecutorService[]{heartbeater, forwarder, replicator, scrubScheduler}) {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        boolean closed = groupCommit.close();
+        for (Chunk chunk : chunks.values()) {
+            closed &= chunk.close();
+        }
+        return closed;
+    }
+
+    /**
+     * tell the master which chunks were created or removed since the last heartbeat, and how full the server is.
+     * the leases of the chunks mutated under this server's primary lease since the last heartbeat are extended.
+     * the master answers with the chunks it no longer wants, they are deleted
+     */
+    public void heartbeat() {
+        long[] added = drain(addedChunks);
+        long[] removed = drain(removedChunks);
+        long[] mutated = drain(mutatedChunks);
+        Heartbeat heartbeat = new Heartbeat();
+        heartbeat.setAddedChunks(added, versions(added));
+        heartbeat.setRemovedChunks(removed);
+        heartbeat.setLeaseExtensions(mutated);
+        heartbeat.setUsedBytes(getUsedBytes());
+        heartbeat.setChunkNum(chunks.size());
+        try {
+            HeartbeatReply reply = master.heartbeat(this, heartbeat);
+            for (long chunkHandle : reply.getExtendedLeases()) {
+                ChunkMetadata metadata = primaries.get(chunkHandle);
+                if (null != metadata) {
+                    metadata.setLeaseExpireTime(Math.max(metadata.getLeaseExpireTime(), reply.getLeaseExpireTime()));
+                }
+            }
+            deleteChunks(reply.getStaleChunks());
+        } catch (RuntimeException e) {
+            // send them again with the next heartbeat
+            for (long chunkHandle : added) {
+                addedChunks.add(chunkHandle);
+            }
+            for (long chunkHandle : removed) {
+                removedChunks.add(chunkHandle);
             }
+            logger.error("heartbeat error", e);
         }
     }
 
+    private static long[] drain(Set<Long> chunkHandles) {
+        long[] drained = new long[chunkHandles.size()];
+        int count = 0;
+        Iterator<Long> iterator = chunkHandles.iterator();
+        while (iterator.hasNext() && count < drained.length) {
+            drained[count++] = iterator.next();
+            iterator.remove();
+        }
+        return count == drained.length ? drained : Arrays.copyOf(drained, count);
+    }
+
+    /**
+     * remove chunks the master asked for
+     * @param chunkHandles
+     */
+    private void deleteChunks(long[] chunkHandles) {
+        for (long chunkHandle : chunkHandles) {
+            if (deleteChunk(chunkHandle)) {
+                // the master knows, no need to tell it back
+                addedChunks.remove(chunkHandle);
+            }
+        }
+    }
+
+    private boolean deleteChunk(long chunkHandle) {
+        Chunk chunk = chunks.get(chunkHandle);
+        return null != chunk && deleteChunk(chunk);
+    }
+
+    /**
+     * @param chunk
+     * @return false if the chunk was dropped already
+     */
+    private boolean deleteChunk(Chunk chunk) {
+        long chunkHandle = chunk.getChunkHandle();
+        if (!chunks.remove(chunkHandle, chunk)) {
+            return false;
+        }
+        recentChunks.compareAndSet(recentSlot(chunkHandle), chunk, null);
+        primaries.remove(chunkHandle);
+        chunk.writeLock().lock();
+        try {
+            chunk.delete();
+            blockCache.invalidate(chunkHandle);
+        } finally {
+            chunk.writeLock().unlock();
+        }
+        logger.info("delete chunk({}.chunk)", chunkHandle);
+        return true;
+    }
+
+    /**
+     * drop a replica on this server's own account, e.g. a bad disk, the master learns it with the next heartbeat
+     * @param chunkHandle
+     * @return false if the server doesn't have the chunk
+     */
+    public boolean removeChunk(long chunkHandle) {
+        if (!deleteChunk(chunkHandle)) {
+            return false;
+        }
+        // the master may have recorded the replica when it placed the chunk, report it either way
+        addedChunks.remove(chunkHandle);
+        removedChunks.add(chunkHandle);
+        return true;
+    }
+
+    /**
+     * create chunk for given chunk handle, at the version of the lease this server holds on it
+     * @param chunkHandle
+     * @return
+     */
+    public boolean create(long chunkHandle) {
+        ChunkMetadata metadata = primaries.get(chunkHandle);
+        return null != metadata
+                ? create(chunkHandle, metadata.getVersion(), metadata.getChunkSize())
+                : create(chunkHandle, ChunkMetadata.INITIAL_VERSION);
+    }
+
     /**
      * create chunk for given chunk handle
      * @param chunkHandle
+     * @param version
+     * @return
+     */
+    public boolean create(long chunkHandle, long version) {
+        return create(chunkHandle, version, ChunkMetadata.CHUNK_SIZE);
+    }
+
+    /**
+     * create chunk for given chunk handle, its file is allocated as it's written unless the chunks are preallocated
+     * @param chunkHandle
+     * @param version
+     * @param chunkSize the chunk size of the chunk's file
      * @return
      */
-    public boolean create(int chunkHandle) {
-        // check if the chunk exists
-        if (!chunks.containsKey(chunkHandle)) {
-            Chunk chunk = new Chunk(chunkHandle, rootFolder);
-            chunks.put(chunkHandle, chunk);
+    public boolean create(long chunkHandle, long version, int chunkSize) {
+        // create the chunk if it doesn't exist
+        Chunk chunk = chunks.computeIfAbsent(chunkHandle, handle -> {
+            addedChunks.add(handle);
+            Chunk created = new Chunk(handle, rootFolder, storageMode, version);
+            created.setCapacity(chunkSize);
+            created.setOpenChunkCache(openChunkCache);
+            created.setMetrics(diskReadMetrics, diskWriteMetrics);
+            return created;
+        });
+        if (!chunk.open()) {
+            return false;
         }
-        if (primaries.containsKey(chunkHandle)) {
+        ChunkMetadata metadata = primaries.get(chunkHandle);
+        if (null != metadata) {
             // it's primary
-            ChunkMetadata metadata = primaries.get(chunkHandle);
             for (ChunkServer server : metadata.getChunkServers()) {
                 /**
                  * send the secondary for create request
                  * if one failed, the create function return false
                  */
-                if (this != server && !server.create(chunkHandle)) {
+                if (this != server && !server.create(chunkHandle, version, chunkSize)) {
                     return false;
                 }
             }
@@ -131,6 +511,120 @@ public class ChunkServer {
         return true;
     }
 
+    /**
+     * the bytes the server may store, the master places chunks by it
+     * @return
+     */
+    public long getCapacity() {
+        if (capacity > 0) {
+            return capacity;
+        }
+        long total = new File(rootFolder).getTotalSpace();
+        return total > 0 ? total : Long.MAX_VALUE;
+    }
+
+    /**
+     * set before the server registers with the master, or register it again
+     * @param capacity
+     */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * the bytes stored in this server's chunks
+     * @return
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Chunk chunk : chunks.values()) {
+            used += Math.max(0, chunk.size());
+        }
+        return used;
+    }
+
+    /**
+     * the chunks whose files are open, with its hit, miss and eviction counts
+     * @return
+     */
+    public OpenChunkCache getOpenChunkCache() {
+        return openChunkCache;
+    }
+
+    /**
+     * the blocks of chunk data this server caches, with its hit ratio and the bytes it saved reading
+     * @return
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * replace the block cache, the blocks of the one before are dropped
+     * @param blockCache
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+        MetricsRegistry.shared().register("BlockCache", chunkServerName, blockCache);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @param durability when the writes acknowledged from now on are on disk
+     */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    public Scrubber getScrubber() {
+        return scrubber;
+    }
+
+    Collection<Chunk> getChunks() {
+        return chunks.values();
+    }
+
+    private static int recentSlot(long chunkHandle) {
+        return (int) (chunkHandle & (RECENT_CHUNK_SLOTS - 1));
+    }
+
+    /**
+     * find the chunk a read is for, from the recent chunks if it's there
+     * @param chunkHandle
+     * @return null if the server doesn't have the chunk
+     */
+    private Chunk lookup(long chunkHandle) {
+        int slot = recentSlot(chunkHandle);
+        Chunk chunk = recentChunks.get(slot);
+        if (null != chunk && chunk.getChunkHandle() == chunkHandle) {
+            return chunk;
+        }
+        chunk = chunks.get(chunkHandle);
+        if (null != chunk) {
+            recentChunks.set(slot, chunk);
+            // dropped meanwhile, deleteChunk may have cleared the slot before it was set
+            if (chunks.get(chunkHandle) != chunk) {
+                recentChunks.compareAndSet(slot, chunk, null);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * @param chunk
+     * @return whether the chunk is still one of this server's, a dropped chunk isn't
+     */
+    boolean holds(Chunk chunk) {
+        return chunks.get(chunk.getChunkHandle()) == chunk;
+    }
+
     /**
      * return the chunk num of this chunkserver
      * @return
@@ -146,95 +640,629 @@ public class ChunkServer {
      * @param len
      * @return
      */
-    public ByteBuffer read(int chunkHandle, int offset, int len) {
-        if (!chunks.containsKey(chunkHandle)) {
+    public ByteBuffer read(long chunkHandle, int offset, int len) {
+        long start = System.nanoTime();
+        ByteBuffer buffer = readChunk(chunkHandle, offset, len);
+        readMetrics.record(start, null != buffer);
+        return buffer;
+    }
+
+    private ByteBuffer readChunk(long chunkHandle, int offset, int len) {
+        Chunk chunk = lookup(chunkHandle);
+        if (null == chunk) {
             logger.error("the file does not exist");
             return null;
         }
-        Chunk chunk = chunks.get(chunkHandle);
-        return chunk.read(offset, len);
+        ByteBuffer buffer;
+        chunk.readLock().lock();
+        try {
+            buffer = chunk.read(offset, len);
+        } finally {
+            chunk.readLock().unlock();
+        }
+        if (chunk.isCorrupt()) {
+            reportCorrupt(chunk);
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * read into the caller's buffer, dst's position is advanced by the bytes read. nothing is allocated,
+     * so a caller reusing dst (or one from BufferPool) reads without garbage
+     * @param chunkHandle
+     * @param offset
+     * @param dst
+     * @return the bytes read, -1 if the chunk doesn't exist or can't be read
+     */
+    public int read(long chunkHandle, int offset, ByteBuffer dst) {
+        long start = System.nanoTime();
+        int n = readChunk(chunkHandle, offset, dst);
+        readMetrics.record(start, n >= 0);
+        return n;
+    }
+
+    private int readChunk(long chunkHandle, int offset, ByteBuffer dst) {
+        Chunk chunk = lookup(chunkHandle);
+        if (null == chunk) {
+            logger.error("the file does not exist");
+            return -1;
+        }
+        int n;
+        BlockCache cache = blockCache;
+        chunk.readLock().lock();
+        try {
+            n = cache.isEnabled() ? cache.read(chunk, offset, dst) : chunk.read(offset, dst);
+        } finally {
+            chunk.readLock().unlock();
+        }
+        if (n < 0 && chunk.isCorrupt()) {
+            // the client reads another replica
+            reportCorrupt(chunk);
+        }
+        return n;
+    }
+
+    /**
+     * verify a range of the chunk before it's sent with transferTo
+     * @param chunkHandle
+     * @param offset
+     * @param len
+     * @return the bytes there are to send, -1 if the chunk doesn't exist or is corrupt
+     */
+    public int prepareTransfer(long chunkHandle, int offset, int len) {
+        Chunk chunk = lookup(chunkHandle);
+        if (null == chunk) {
+            logger.error("the file does not exist");
+            return -1;
+        }
+        int n;
+        chunk.readLock().lock();
+        try {
+            n = chunk.prepareTransfer(offset, len);
+        } finally {
+            chunk.readLock().unlock();
+        }
+        if (n < 0 && chunk.isCorrupt()) {
+            reportCorrupt(chunk);
+        }
+        return n;
+    }
+
+    /**
+     * send bytes of the chunk straight from its file to the channel
+     * @param chunkHandle
+     * @param position
+     * @param count
+     * @param target
+     * @return the bytes sent, fewer than count if the target is full
+     * @throws IOException if the chunk is gone
+     */
+    public long transferTo(long chunkHandle, long position, long count, WritableByteChannel target) throws IOException {
+        Chunk chunk = lookup(chunkHandle);
+        if (null == chunk) {
+            throw new IOException("chunk " + chunkHandle + " is gone");
+        }
+        return chunk.transferTo(position, count, target);
+    }
+
+    /**
+     * drop a replica whose data doesn't match its checksums and tell the master at once,
+     * or with the next heartbeat if it can't be reached
+     * @param chunk
+     */
+    void reportCorrupt(Chunk chunk) {
+        // only the first reader to find it drops it
+        if (!deleteChunk(chunk)) {
+            return;
+        }
+        long chunkHandle = chunk.getChunkHandle();
+        addedChunks.remove(chunkHandle);
+        try {
+            master.reportCorruptChunk(this, chunkHandle);
+        } catch (RuntimeException e) {
+            removedChunks.add(chunkHandle);
+            logger.error("report corrupt chunk error", e);
+        }
     }
 
     /**
      * before send write request, client push the data to chunkserver
      * chunkservers buffer data after receiving
+     * @param clientId
      * @param chunkHandle
      * @param offset
      * @param buffer
-     * @return
+     * @return false if the push buffer can't hold the data
      */
-    public boolean push(int chunkHandle, int offset, ByteBuffer buffer) {
-        BufferedData bufferedData = new BufferedData(chunkHandle, offset, buffer);
-        if (!bufferedDatas.contains(bufferedData)) {
-            bufferedDatas.add(bufferedData);
-            logger.info("receive pushed data success");
+    public boolean push(long clientId, long chunkHandle, int offset, ByteBuffer buffer) {
+        long start = System.nanoTime();
+        if (!pushBuffer.put(new PushBuffer.Key(clientId, chunkHandle, offset), buffer)) {
+            pushMetrics.record(start, false);
+            logger.error("pushed data ({}:{}) exceeds the push buffer", chunkHandle, offset);
+            return false;
         }
+        pushMetrics.record(start, true);
+        logger.debug("receive pushed data success");
         return true;
     }
 
     /**
-     * according to the write request, chunkserver find the buffered data
+     * receive one packet of a chained push and pass it on to the next replica of the chain
+     * the packet is forwarded before it's copied here, so every hop forwards while it's still receiving
+     * @param packet
+     * @param chain the replicas in push order
+     * @param hop the position of this server in the chain
+     * @return completes with true once this server and all later ones in the chain hold the packet
+     */
+    public CompletableFuture<Boolean> push(PushPacket packet, ChunkServer[] chain, int hop) {
+        CompletableFuture<Boolean> downstream;
+        if (hop + 1 < chain.length) {
+            ChunkServer next = chain[hop + 1];
+            downstream = CompletableFuture
+                    .supplyAsync(() -> next.push(packet, chain, hop + 1), forwarder)
+                    .thenCompose(ack -> ack);
+        } else {
+            downstream = CompletableFuture.completedFuture(true);
+        }
+        long start = System.nanoTime();
+        PushBuffer.Key key = new PushBuffer.Key(packet.getClientId(), packet.getChunkHandle(), packet.getOffset());
+        boolean stored = pushBuffer.putPacket(key, packet.getLength(), packet.getPosition(), packet.getData());
+        pushMetrics.record(start, stored);
+        if (!stored) {
+            logger.error("pushed packet ({}:{}+{}) exceeds the push buffer",
+                    packet.getChunkHandle(), packet.getOffset(), packet.getPosition());
+        }
+        return downstream.thenApply(ack -> ack && stored);
+    }
+
+    public String getNetworkLocation() {
+        return networkLocation;
+    }
+
+    public void setNetworkLocation(String networkLocation) {
+        this.networkLocation = networkLocation;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public void setAddress(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * the buffer holding pushed data which waits for its write request
+     * @return
+     */
+    public PushBuffer getPushBuffer() {
+        return pushBuffer;
+    }
+
+    /**
+     * the primary's lease on the chunk, if this server holds one that hasn't expired
+     * @param chunkHandle
+     * @return null if this server isn't the primary of the chunk now
+     */
+    private ChunkMetadata primaryLease(long chunkHandle) {
+        ChunkMetadata metadata = primaries.get(chunkHandle);
+        if (null == metadata) {
+            return null;
+        }
+        if (metadata.getLeaseExpireTime() <= System.currentTimeMillis()) {
+            primaries.remove(chunkHandle, metadata);
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * apply the buffered data to the chunk, the primary then forwards the write to all secondaries at once
+     * the chunk's write lock is held until every replica has answered,
+     * so all replicas see the writes to one chunk in the same order
+     * @param clientId the client which pushed the data
      * @param chunkHandle
      * @param offset
-     * @return
+     * @return the replicas which failed to apply the write, if any, with the lease's expire time on success.
+     *         fails if this server has no running lease on the chunk
      */
-    private BufferedData getBufferedData(int chunkHandle, int offset) {
-        BufferedData retData = null;
-        for (BufferedData data : bufferedDatas) {
-            // search data in buffer
-            if (chunkHandle == data.chunkHandle && offset == data.offset) {
-                retData = data;
-                break;
+    public WriteResult write(long clientId, long chunkHandle, int offset) {
+        long start = System.nanoTime();
+        WriteResult result = primaryWrite(clientId, chunkHandle, offset);
+        if (result.isSuccess()) {
+            WriteResult synced = syncReplicas(chunkHandle, offset);
+            if (!synced.isSuccess()) {
+                result = synced;
             }
         }
-        if (null != retData) {
-            // remove data in buffer
-            bufferedDatas.remove(retData);
+        writeMetrics.record(start, result.isSuccess());
+        return result;
+    }
+
+    private WriteResult primaryWrite(long clientId, long chunkHandle, int offset) {
+        ChunkMetadata metadata = primaryLease(chunkHandle);
+        if (null == metadata) {
+            ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(clientId, chunkHandle, offset));
+            if (null != buffer) {
+                pushBuffer.release(buffer);
+            }
+            logger.error("not the primary of chunk({}.chunk)", chunkHandle);
+            return WriteResult.failure(this);
+        }
+        ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(clientId, chunkHandle, offset));
+        if (null == buffer) {
+            logger.error("can't find buffered data ({}:{})", chunkHandle, offset);
+            return WriteResult.failure(this);
+        }
+        Chunk chunk = chunks.get(chunkHandle);
+        if (null == chunk) {
+            pushBuffer.release(buffer);
+            logger.error("the chunk({}.chunk) does not exist", chunkHandle);
+            return WriteResult.failure(this);
+        }
+        chunk.writeLock().lock();
+        try {
+            boolean written = writeChunk(chunk, offset, buffer);
+            pushBuffer.release(buffer);
+            if (!written) {
+                // failure
+                logger.error("{}'s primary write data error", chunkHandle);
+                return WriteResult.failure(this);
+            }
+            mutatedChunks.add(chunkHandle);
+            long version = metadata.getVersion();
+            WriteResult result = writeSecondaries(metadata, chunkHandle, offset,
+                    server -> server.applyWrite(clientId, chunkHandle, offset, version));
+            if (result.isSuccess()) {
+                logger.debug("primary write success");
+                return WriteResult.success(metadata.getLeaseExpireTime());
+            }
+            logger.error("secondary write error on {} replica(s)", result.getFailedReplicas().size());
+            return result;
+        } finally {
+            chunk.writeLock().unlock();
         }
-        return retData;
     }
 
     /**
-     *
+     * the primary tells a secondary to apply the data the client pushed
+     * @param clientId
      * @param chunkHandle
      * @param offset
+     * @param version the version of the primary's lease, a replica with another one is stale
      * @return
      */
-    public boolean write(int chunkHandle, int offset) {
-        BufferedData bufferedData = getBufferedData(chunkHandle, offset);
-        if (null == bufferedData) {
+    public WriteResult applyWrite(long clientId, long chunkHandle, int offset, long version) {
+        long start = System.nanoTime();
+        WriteResult result = secondaryWrite(clientId, chunkHandle, offset, version);
+        applyWriteMetrics.record(start, result.isSuccess());
+        return result;
+    }
+
+    private WriteResult secondaryWrite(long clientId, long chunkHandle, int offset, long version) {
+        ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(clientId, chunkHandle, offset));
+        if (null == buffer) {
             logger.error("can't find buffered data ({}:{})", chunkHandle, offset);
-            return false;
+            return WriteResult.failure(this);
+        }
+        Chunk chunk = checkVersion(chunkHandle, version);
+        if (null == chunk) {
+            pushBuffer.release(buffer);
+            return WriteResult.failure(this);
+        }
+        chunk.writeLock().lock();
+        try {
+            boolean written = writeChunk(chunk, offset, buffer);
+            pushBuffer.release(buffer);
+            if (!written) {
+                logger.error("{}'s secondary write data error", chunkHandle);
+                return WriteResult.failure(this);
+            }
+        } finally {
+            chunk.writeLock().unlock();
+        }
+        logger.debug("secondary write success");
+        return WriteResult.success();
+    }
+
+    /**
+     * @return null if the chunk doesn't exist here or isn't at the version
+     */
+    private Chunk checkVersion(long chunkHandle, long version) {
+        Chunk chunk = chunks.get(chunkHandle);
+        if (null == chunk) {
+            logger.error("the chunk({}.chunk) does not exist", chunkHandle);
+            return null;
+        }
+        if (chunk.getVersion() != version) {
+            logger.error("chunk({}.chunk) is at version {}, not {}", chunkHandle, chunk.getVersion(), version);
+            return null;
         }
+        return chunk;
+    }
+
+    /**
+     * @param chunkHandle
+     * @return -1 if the server doesn't have the chunk
+     */
+    public long getChunkVersion(long chunkHandle) {
         Chunk chunk = chunks.get(chunkHandle);
-        // need to rewind
-        bufferedData.buffer.rewind();
-        if (!chunk.write(offset, bufferedData.buffer)) {
-            // failure
-            logger.error("{}'s {} write data error",
-                    chunkHandle,
-                    primaries.containsKey(chunkHandle) ? "primary" : "secondary");
+        return null == chunk ? -1 : chunk.getVersion();
+    }
+
+    /**
+     * the master moved the chunk to a new version before granting a lease on it
+     * @param chunkHandle
+     * @param version
+     * @return false if the server doesn't have the chunk
+     */
+    public boolean setChunkVersion(long chunkHandle, long version) {
+        Chunk chunk = chunks.get(chunkHandle);
+        if (null == chunk) {
             return false;
         }
-        if (primaries.containsKey(chunkHandle)) {
-            // send write request to other secondary
-            ChunkMetadata metadata = primaries.get(chunkHandle);
-            ChunkServer[] servers = metadata.getChunkServers();
-            for (int i = 1; i < Master.REPLICA_NUM; i++) {
-                if (!servers[i].write(chunkHandle, offset)) {
-                    logger.error("secondary write error");
-                    return false;
+        chunk.writeLock().lock();
+        try {
+            return chunk.setVersion(version);
+        } finally {
+            chunk.writeLock().unlock();
+        }
+    }
+
+    /**
+     * send a request to every secondary in parallel and wait for their acks, up to the timeout
+     */
+    private WriteResult writeSecondaries(ChunkMetadata metadata, long chunkHandle, int offset,
+                                         Function<ChunkServer, WriteResult> request) {
+        ChunkServer[] servers = metadata.getChunkServers();
+        List<ChunkServer> secondaries = new ArrayList<>();
+        List<Future<WriteResult>> acks = new ArrayList<>();
+        for (ChunkServer server : servers) {
+            if (null != server && this != server) {
+                secondaries.add(server);
+                acks.add(replicator.submit(() -> request.apply(server)));
+            }
+        }
+        List<ChunkServer> failed = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(secondaryTimeoutMillis);
+        for (int i = 0; i < acks.size(); i++) {
+            Future<WriteResult> ack = acks.get(i);
+            try {
+                WriteResult result = ack.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!result.isSuccess()) {
+                    failed.addAll(result.getFailedReplicas());
                 }
+            } catch (TimeoutException e) {
+                // not interrupted: an interrupt in the middle of a file channel write closes the channel
+                // for good and breaks the secondary's chunk, the late write just finishes unheeded
+                ack.cancel(false);
+                logger.error("{} didn't ack write ({}:{}) in time", secondaries.get(i).getChunkServerName(), chunkHandle, offset);
+                failed.add(secondaries.get(i));
+            } catch (ExecutionException e) {
+                logger.error("{} write ({}:{}) error", secondaries.get(i).getChunkServerName(), chunkHandle, offset, e.getCause());
+                failed.add(secondaries.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.add(secondaries.get(i));
             }
-            logger.info("primary write success");
-            return true;
         }
-        logger.info("secondary write success");
-        return true;
+        return failed.isEmpty() ? WriteResult.success() : WriteResult.failure(failed);
+    }
+
+    /**
+     * append the data the client pushed under appendId at the end of the chunk, the primary chooses the offset
+     * appends to one chunk are serialized by the chunk's write lock, if the record doesn't fit
+     * the chunk is padded to its full size on every replica and the client moves to the next chunk
+     * @param clientId the client which pushed the data
+     * @param chunkHandle
+     * @param appendId the data is pushed before its offset is known, so it's keyed by
+     *                 a negative append id in place of the offset
+     * @return the offset of the record in the chunk
+     */
+    public AppendResult recordAppend(long clientId, long chunkHandle, int appendId) {
+        AppendResult result = primaryAppend(clientId, chunkHandle, appendId);
+        if (AppendResult.Status.FAILED == result.getStatus()) {
+            return result;
+        }
+        WriteResult synced = syncReplicas(chunkHandle, result.getOffset());
+        return synced.isSuccess() ? result : AppendResult.failure(synced.getFailedReplicas());
+    }
+
+    private AppendResult primaryAppend(long clientId, long chunkHandle, int appendId) {
+        ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(clientId, chunkHandle, appendId));
+        if (null == buffer) {
+            logger.error("can't find buffered append data ({}:{})", chunkHandle, appendId);
+            return AppendResult.failure(Collections.singletonList(this));
+        }
+        Chunk chunk = chunks.get(chunkHandle);
+        ChunkMetadata metadata = primaryLease(chunkHandle);
+        if (null == chunk || null == metadata) {
+            pushBuffer.release(buffer);
+            logger.error("not the primary of chunk({}.chunk)", chunkHandle);
+            return AppendResult.failure(Collections.singletonList(this));
+        }
+        chunk.writeLock().lock();
+        try {
+            int offset = chunk.size();
+            if (offset < 0) {
+                pushBuffer.release(buffer);
+                return AppendResult.failure(Collections.singletonList(this));
+            }
+            int chunkSize = metadata.getChunkSize();
+            if (offset + buffer.remaining() > chunkSize) {
+                pushBuffer.release(buffer);
+                // fill the chunk up, so that no replica takes later appends
+                if (!padChunk(chunkHandle, chunkSize)) {
+                    return AppendResult.failure(Collections.singletonList(this));
+                }
+                WriteResult result = writeSecondaries(metadata, chunkHandle, offset, server ->
+                        server.padChunk(chunkHandle, chunkSize) ? WriteResult.success() : WriteResult.failure(server));
+                return result.isSuccess() ? AppendResult.chunkFull() : AppendResult.failure(result.getFailedReplicas());
+            }
+            boolean written = writeChunk(chunk, offset, buffer);
+            pushBuffer.release(buffer);
+            if (!written) {
+                return AppendResult.failure(Collections.singletonList(this));
+            }
+            mutatedChunks.add(chunkHandle);
+            long version = metadata.getVersion();
+            WriteResult result = writeSecondaries(metadata, chunkHandle, offset,
+                    server -> server.applyAppend(clientId, chunkHandle, appendId, offset, version));
+            return result.isSuccess()
+                    ? AppendResult.success(offset, metadata.getLeaseExpireTime())
+                    : AppendResult.failure(result.getFailedReplicas());
+        } finally {
+            chunk.writeLock().unlock();
+        }
+    }
+
+    /**
+     * the primary tells a secondary to write the data pushed under appendId at the offset it chose
+     * @param clientId
+     * @param chunkHandle
+     * @param appendId
+     * @param offset
+     * @param version the version of the primary's lease, a replica with another one is stale
+     * @return
+     */
+    public WriteResult applyAppend(long clientId, long chunkHandle, int appendId, int offset, long version) {
+        ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(clientId, chunkHandle, appendId));
+        Chunk chunk = checkVersion(chunkHandle, version);
+        if (null == buffer || null == chunk) {
+            if (null != buffer) {
+                pushBuffer.release(buffer);
+            }
+            logger.error("can't apply append ({}:{}) at {}", chunkHandle, appendId, offset);
+            return WriteResult.failure(this);
+        }
+        chunk.writeLock().lock();
+        try {
+            boolean written = writeChunk(chunk, offset, buffer);
+            pushBuffer.release(buffer);
+            return written ? WriteResult.success() : WriteResult.failure(this);
+        } finally {
+            chunk.writeLock().unlock();
+        }
+    }
+
+    /**
+     * fill the chunk with zeros up to the chunk size it was created with
+     * @param chunkHandle
+     * @return
+     */
+    public boolean padChunk(long chunkHandle) {
+        Chunk chunk = chunks.get(chunkHandle);
+        return null != chunk && padChunk(chunkHandle, chunk.getCapacity());
+    }
+
+    /**
+     * fill the chunk with zeros up to chunkSize. only its last byte is written, the rest is left a hole
+     * of the file which reads as zeros, so the pad takes neither disk space nor a write of its length
+     * @param chunkHandle
+     * @param chunkSize
+     * @return
+     */
+    public boolean padChunk(long chunkHandle, int chunkSize) {
+        Chunk chunk = chunks.get(chunkHandle);
+        if (null == chunk) {
+            return false;
+        }
+        chunk.writeLock().lock();
+        try {
+            int size = chunk.size();
+            if (size < 0) {
+                return false;
+            }
+            if (size >= chunkSize) {
+                return true;
+            }
+            return writeChunk(chunk, chunkSize - 1, ByteBuffer.wrap(PAD));
+        } finally {
+            chunk.writeLock().unlock();
+        }
+    }
+
+    /**
+     * write to the chunk and drop the cached blocks the write touched, the caller holds the chunk's write lock.
+     * a write past the chunk's end also drops the blocks of the hole, the block the chunk ended in is cached
+     * with the old length
+     * @param chunk
+     * @param offset
+     * @param buffer
+     * @return
+     */
+    private boolean writeChunk(Chunk chunk, int offset, ByteBuffer buffer) {
+        int len = buffer.remaining();
+        int size = chunk.size();
+        boolean written = chunk.write(offset, buffer);
+        // even a failed write may have changed some of the blocks
+        if (size >= 0 && size < offset) {
+            blockCache.invalidate(chunk.getChunkHandle(), size, offset + len - size);
+        } else {
+            blockCache.invalidate(chunk.getChunkHandle(), offset, len);
+        }
+        if (Durability.NONE != durability) {
+            groupCommit.written(chunk);
+        }
+        return written;
+    }
+
+    /**
+     * wait until the writes this server applied so far are on disk, if its durability is SYNC
+     * @return
+     */
+    public WriteResult sync() {
+        return Durability.SYNC != durability || groupCommit.sync() ? WriteResult.success() : WriteResult.failure(this);
+    }
+
+    /**
+     * under SYNC, have every replica force a write the primary acknowledges. it runs once the chunk's lock
+     * is released, so the writers of one chunk share the forces too, not only the writers of different chunks
+     * @param chunkHandle
+     * @param offset
+     * @return the replicas which failed to force the write
+     */
+    private WriteResult syncReplicas(long chunkHandle, int offset) {
+        if (Durability.SYNC != durability) {
+            return WriteResult.success();
+        }
+        ChunkMetadata metadata = primaries.get(chunkHandle);
+        if (null == metadata) {
+            logger.error("lost the lease of chunk({}.chunk) before the write was forced", chunkHandle);
+            return WriteResult.failure(this);
+        }
+        // this server's force runs while the secondaries force theirs
+        CompletableFuture<Boolean> forced = groupCommit.request();
+        WriteResult result = writeSecondaries(metadata, chunkHandle, offset, ChunkServer::sync);
+        if (!forced.join()) {
+            List<ChunkServer> failed = new ArrayList<>(result.getFailedReplicas());
+            failed.add(this);
+            return WriteResult.failure(failed);
+        }
+        return result;
+    }
+
+    /**
+     * replace the pool the secondaries are written from, the one replaced is shut down
+     * @param replicator shut down with the server
+     */
+    public void setReplicator(ExecutorService replicator) {
+        ExecutorService replaced = this.replicator;
+        this.replicator = replicator;
+        replaced.shutdown();
+    }
+
+    public long getSecondaryTimeoutMillis() {
+        return secondaryTimeoutMillis;
+    }
+
+    public void setSecondaryTimeoutMillis(long secondaryTimeoutMillis) {
+        this.secondaryTimeoutMillis = secondaryTimeoutMillis;
     }
 
     /**
-     * become the primary of the specific chunk
+     * become the primary of the specific chunk until the lease in the metadata expires
      * @param metadata
      * @return
      */
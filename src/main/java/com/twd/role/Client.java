@@ -1,14 +1,34 @@
 package com.twd.role;
 
+import com.twd.buffer.BufferPool;
+import com.twd.cache.ChunkMetadataCache;
+import com.twd.element.AppendResult;
 import com.twd.element.ChunkMetadata;
 import com.twd.element.ChunkRequest;
+import com.twd.element.PushPacket;
+import com.twd.element.WriteResult;
+import com.twd.metrics.MetricsRegistry;
+import com.twd.metrics.OperationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author twd
@@ -16,38 +36,252 @@ import java.util.Random;
  * @date 2019-12-04
  */
 public class Client {
+    /**
+     * how the client pushes write data to the replicas
+     */
+    public enum PushMode {
+        /**
+         * push the whole data to every replica, one after another
+         */
+        DIRECT,
+        /**
+         * push packets to the first replica of a chain, every replica forwards them to the next one
+         */
+        CHAIN
+    }
+
+    /**
+     * the packet size of a chained push: 64KB
+     */
+    public static final int DEFAULT_PUSH_PACKET_SIZE = 64 << 10;
+
+    /**
+     * how many times a failed write is pushed and sent again
+     */
+    public static final int DEFAULT_WRITE_RETRIES = 2;
+
+    /**
+     * chunks whose metadata is fetched ahead on sequential access
+     */
+    public static final int DEFAULT_PREFETCH_CHUNKS = 4;
+
+    /**
+     * the files a client keeps per-file state of at most, the least recently used are forgotten
+     */
+    public static final int MAX_TRACKED_FILES = 1024;
+
+    /**
+     * runs the per-chunk pieces of reads spanning several chunks, shared by all clients unless replaced
+     */
+    private static final ExecutorService DEFAULT_READ_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gfs-client-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicLong CLIENT_IDS = new AtomicLong();
+
+    /**
+     * identify this client's pushed data on chunkservers
+     */
+    private final long clientId = CLIENT_IDS.incrementAndGet();
+
+    /**
+     * source of the negative ids record append data is pushed under
+     */
+    private final AtomicInteger appendIds = new AtomicInteger();
+
     private Master master;
     /**
      * cache the chunk metadata
      */
-    private Map<ChunkRequest, ChunkMetadata> chunkMetadataCache = new HashMap<>();
+    private final ChunkMetadataCache chunkMetadataCache;
+
+    /**
+     * the chunk size of the files used, a file's offsets are mapped to chunks by it
+     */
+    private final Map<String, Integer> chunkSizes = new ConcurrentHashMap<>();
+
+    /**
+     * the chunk of each file looked up last, to tell sequential access. kept by file so threads reading
+     * different files don't break each other's runs
+     */
+    private final Map<String, Integer> lastChunkIndexes = trackedFiles();
+
+    /**
+     * the chunk of each file record appends go to, so the master is only asked on a miss or a failure
+     */
+    private final Map<String, Integer> appendChunkIndexes = trackedFiles();
+
+    private int prefetchChunks = DEFAULT_PREFETCH_CHUNKS;
+
+    private PushMode pushMode = PushMode.CHAIN;
+
+    private PushChainPolicy pushChainPolicy = PushChainPolicy.AS_GIVEN;
+
+    private int pushPacketSize = DEFAULT_PUSH_PACKET_SIZE;
+
+    private int writeRetries = DEFAULT_WRITE_RETRIES;
+
+    private ExecutorService readExecutor = DEFAULT_READ_EXECUTOR;
+
+    private ReplicaSelector replicaSelector = new LeastLoadedReplicaSelector();
+
+    /**
+     * reads sent to a second replica because the first was slow
+     */
+    private final LongAdder hedgedReads = new LongAdder();
+
+    /**
+     * the calls of all the process's clients, by outcome
+     */
+    private static final OperationMetrics CREATE_METRICS = MetricsRegistry.shared().operation("client", "create");
+
+    private static final OperationMetrics READ_METRICS = MetricsRegistry.shared().operation("client", "read");
+
+    private static final OperationMetrics WRITE_METRICS = MetricsRegistry.shared().operation("client", "write");
 
     private Logger logger = LoggerFactory.getLogger(Client.class);
 
     public Client(Master master) {
+        this(master, new ChunkMetadataCache());
+    }
+
+    public Client(Master master, ChunkMetadataCache chunkMetadataCache) {
         this.master = master;
+        this.chunkMetadataCache = chunkMetadataCache;
+    }
+
+    /**
+     * a map of per-file state bounded by MAX_TRACKED_FILES, least recently used first out
+     */
+    private static <V> Map<String, V> trackedFiles() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_TRACKED_FILES;
+            }
+        });
+    }
+
+    public ChunkMetadataCache getChunkMetadataCache() {
+        return chunkMetadataCache;
+    }
+
+    public int getPrefetchChunks() {
+        return prefetchChunks;
+    }
+
+    public void setPrefetchChunks(int prefetchChunks) {
+        this.prefetchChunks = prefetchChunks;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public PushMode getPushMode() {
+        return pushMode;
+    }
+
+    public void setPushMode(PushMode pushMode) {
+        this.pushMode = pushMode;
+    }
+
+    public PushChainPolicy getPushChainPolicy() {
+        return pushChainPolicy;
+    }
+
+    public void setPushChainPolicy(PushChainPolicy pushChainPolicy) {
+        this.pushChainPolicy = pushChainPolicy;
+    }
+
+    public int getPushPacketSize() {
+        return pushPacketSize;
+    }
+
+    public void setPushPacketSize(int pushPacketSize) {
+        this.pushPacketSize = pushPacketSize;
+    }
+
+    public void setReadExecutor(ExecutorService readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    public ReplicaSelector getReplicaSelector() {
+        return replicaSelector;
+    }
+
+    public void setReplicaSelector(ReplicaSelector replicaSelector) {
+        this.replicaSelector = replicaSelector;
+    }
+
+    public long getHedgedReads() {
+        return hedgedReads.sum();
+    }
+
+    public int getWriteRetries() {
+        return writeRetries;
+    }
+
+    public void setWriteRetries(int writeRetries) {
+        this.writeRetries = writeRetries;
+    }
+
+    /**
+     * the file's chunk size, asked from the master once. a file that doesn't exist has the default one
+     * @param filename
+     * @return
+     */
+    private int chunkSize(String filename) {
+        Integer chunkSize = chunkSizes.get(filename);
+        if (null != chunkSize) {
+            return chunkSize;
+        }
+        int fetched = master.getChunkSize(filename);
+        if (fetched <= 0) {
+            return ChunkMetadata.CHUNK_SIZE;
+        }
+        chunkSizes.put(filename, fetched);
+        return fetched;
     }
 
     /**
      * compute chunk index with given offset
+     * @param filename
      * @param offset the read/write offset in bytes
      * @return chunk index
      */
-    private int computeChunkIndex(int offset) {
-        return offset / ChunkMetadata.CHUNK_SIZE ;
+    private int computeChunkIndex(String filename, int offset) {
+        return offset / chunkSize(filename);
     }
 
     /**
      * get the metadata for given filename and offset
+     * on a miss during sequential access, the metadata of the next chunks is fetched in the same master call
      * @param filename
      * @param offset
      * @return
      */
     private ChunkMetadata getChunkMetadata(String filename, int offset, int request) {
-        int chunkIndex = computeChunkIndex(offset);
+        return getChunkMetadataByIndex(filename, computeChunkIndex(filename, offset), request);
+    }
+
+    /**
+     * get the metadata for given filename and chunk index, the chunk may start past the range of an int offset
+     * @param filename
+     * @param chunkIndex
+     * @return
+     */
+    private ChunkMetadata getChunkMetadataByIndex(String filename, int chunkIndex, int request) {
         ChunkRequest chunkRequest = new ChunkRequest(filename, chunkIndex);
+        Integer lastChunkIndex = lastChunkIndexes.put(filename, chunkIndex);
+        boolean sequential = null != lastChunkIndex && chunkIndex == lastChunkIndex + 1;
         // first search in cache
-        ChunkMetadata metadata = chunkMetadataCache.getOrDefault(chunkRequest, null);
+        ChunkMetadata metadata = chunkMetadataCache.get(chunkRequest);
+        if (null == metadata && sequential && Master.REQUEST_CREATE != request && prefetchChunks > 0) {
+            metadata = prefetch(filename, chunkIndex);
+        }
         if (null == metadata) {
             // ask master for metadata
             metadata = master.getChunkMetadata(chunkRequest, request);
@@ -61,13 +295,152 @@ public class Client {
         return metadata;
     }
 
+    /**
+     * fetch the metadata of the chunk and the next prefetchChunks ones in one master call
+     * @return the metadata of the chunk, null if it doesn't exist yet
+     */
+    private ChunkMetadata prefetch(String filename, int chunkIndex) {
+        List<ChunkMetadata> metadatas = master.getChunkMetadatas(filename, chunkIndex, prefetchChunks + 1, Master.REQUEST_READ);
+        for (int i = 0; i < metadatas.size(); i++) {
+            if (null != metadatas.get(i)) {
+                chunkMetadataCache.put(new ChunkRequest(filename, chunkIndex + i), metadatas.get(i));
+            }
+        }
+        return metadatas.get(0);
+    }
+
+    /**
+     * get the metadata of every chunk covered by [offset, offset + len), the ones not cached in one master call
+     * a sequential read also fetches the metadata of the next prefetchChunks chunks in that call
+     * @param filename
+     * @param offset
+     * @param len
+     * @param request
+     * @return the metadata of each chunk in order, null for chunks the master returned nothing for
+     */
+    private List<ChunkMetadata> getChunkMetadatas(String filename, int offset, int len, int request) {
+        int firstIndex = computeChunkIndex(filename, offset);
+        int lastIndex = computeChunkIndex(filename, offset + Math.max(len, 1) - 1);
+        Integer lastChunkIndex = lastChunkIndexes.put(filename, lastIndex);
+        boolean sequential = null != lastChunkIndex && firstIndex == lastChunkIndex + 1;
+        List<ChunkMetadata> metadatas = new ArrayList<>(lastIndex - firstIndex + 1);
+        List<ChunkRequest> missed = new ArrayList<>();
+        for (int chunkIndex = firstIndex; chunkIndex <= lastIndex; chunkIndex++) {
+            ChunkRequest chunkRequest = new ChunkRequest(filename, chunkIndex);
+            ChunkMetadata metadata = chunkMetadataCache.get(chunkRequest);
+            if (null == metadata) {
+                missed.add(chunkRequest);
+            }
+            metadatas.add(metadata);
+        }
+        if (missed.isEmpty()) {
+            return metadatas;
+        }
+        if (sequential && Master.REQUEST_READ == request) {
+            for (int chunkIndex = lastIndex + 1; chunkIndex <= lastIndex + prefetchChunks; chunkIndex++) {
+                ChunkRequest chunkRequest = new ChunkRequest(filename, chunkIndex);
+                if (!chunkMetadataCache.contains(chunkRequest)) {
+                    missed.add(chunkRequest);
+                }
+            }
+        }
+        List<ChunkMetadata> fetched = master.getChunkMetadatas(missed, request);
+        for (int i = 0; i < fetched.size(); i++) {
+            ChunkMetadata metadata = fetched.get(i);
+            if (null != metadata) {
+                ChunkRequest chunkRequest = missed.get(i);
+                chunkMetadataCache.put(chunkRequest, metadata);
+                if (chunkRequest.getChunkIndex() <= lastIndex) {
+                    metadatas.set(chunkRequest.getChunkIndex() - firstIndex, metadata);
+                }
+            }
+        }
+        return metadatas;
+    }
+
+    /**
+     * the primary's lease was extended, keep writing through it without asking the master
+     */
+    private void renew(String filename, int offset, long leaseExpireTime) {
+        renewByIndex(filename, computeChunkIndex(filename, offset), leaseExpireTime);
+    }
+
+    private void renewByIndex(String filename, int chunkIndex, long leaseExpireTime) {
+        if (leaseExpireTime > 0) {
+            chunkMetadataCache.renew(new ChunkRequest(filename, chunkIndex), leaseExpireTime);
+        }
+    }
+
+    /**
+     * forget the cached metadata after a chunkserver call under it failed, and the file's chunk size in case
+     * it was created again
+     */
+    private void invalidate(String filename, int offset) {
+        invalidateByIndex(filename, computeChunkIndex(filename, offset));
+    }
+
+    private void invalidateByIndex(String filename, int chunkIndex) {
+        chunkMetadataCache.invalidate(new ChunkRequest(filename, chunkIndex));
+        chunkSizes.remove(filename);
+    }
+
     /**
      * create file
      * @param filename
      * @return
      */
     public boolean create(String filename) {
-        ChunkMetadata metadata = getChunkMetadata(filename, 0, Master.REQUEST_CREATE);
+        long start = System.nanoTime();
+        boolean success = createFile(filename);
+        CREATE_METRICS.record(start, success);
+        return success;
+    }
+
+    /**
+     * create a file whose chunks hold chunkSize bytes each, instead of ChunkMetadata.CHUNK_SIZE.
+     * large chunks mean fewer chunks for the master to track and fewer lookups per byte, at the cost
+     * of the padding a record append may leave in a full chunk
+     * @param filename
+     * @param chunkSize from 1 byte to ChunkMetadata.MAX_CHUNK_SIZE
+     * @return
+     */
+    public boolean create(String filename, int chunkSize) {
+        long start = System.nanoTime();
+        ChunkMetadata metadata = master.create(filename, chunkSize);
+        if (null != metadata) {
+            chunkSizes.put(filename, chunkSize);
+            chunkMetadataCache.put(new ChunkRequest(filename, 0), metadata);
+        }
+        boolean success = createFirstChunk(filename, metadata);
+        CREATE_METRICS.record(start, success);
+        return success;
+    }
+
+    /**
+     * delete the file and forget what the client kept about it
+     * @param filename
+     * @return false if the file doesn't exist
+     */
+    public boolean delete(String filename) {
+        boolean success = master.delete(filename);
+        Integer lastChunkIndex = lastChunkIndexes.remove(filename);
+        Integer appendChunkIndex = appendChunkIndexes.remove(filename);
+        int last = Math.max(null == lastChunkIndex ? 0 : lastChunkIndex, null == appendChunkIndex ? 0 : appendChunkIndex);
+        for (int i = 0; i <= last; i++) {
+            chunkMetadataCache.invalidate(new ChunkRequest(filename, i));
+        }
+        chunkSizes.remove(filename);
+        return success;
+    }
+
+    private boolean createFile(String filename) {
+        return createFirstChunk(filename, getChunkMetadata(filename, 0, Master.REQUEST_CREATE));
+    }
+
+    private boolean createFirstChunk(String filename, ChunkMetadata metadata) {
+        // a file created again starts over at its first chunk
+        appendChunkIndexes.remove(filename);
+        lastChunkIndexes.remove(filename);
         if (null == metadata) {
             logger.info("create file {} error", filename);
             return false;
@@ -87,37 +460,398 @@ public class Client {
      * @param filename
      * @param offset
      * @param len
-     * @return
+     * @return a buffer positioned after the bytes read, null on failure
      */
     public ByteBuffer read(String filename, int offset, int len) {
-        ChunkMetadata metadata = getChunkMetadata(filename, offset, Master.REQUEST_READ);
-        // read don't need primary's participation, so select one to read
-        int selectIndex = new Random().nextInt(Master.REPLICA_NUM);
-        return metadata.getChunkServers()[selectIndex].read(metadata.getChunkHandle(), offset % ChunkMetadata.CHUNK_SIZE, len);
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        if (read(filename, offset, buffer) < 0) {
+            return null;
+        }
+        return buffer;
     }
 
+    /**
+     * read dst.remaining() bytes at the file offset straight into dst, the range may span any number of chunks
+     * it's split at chunk boundaries and the pieces are read in parallel, each from the replica the
+     * replica selector picks, into their own slice of dst, so nothing is copied again
+     * @param filename
+     * @param offset
+     * @param dst its position is advanced past the last byte read
+     * @return the bytes read, fewer than requested if the file ends early, -1 on failure
+     */
+    public int read(String filename, int offset, ByteBuffer dst) {
+        long start = System.nanoTime();
+        int n = readFile(filename, offset, dst);
+        READ_METRICS.record(start, n >= 0);
+        return n;
+    }
 
-    public boolean write(String filename, int offset, ByteBuffer buffer) {
-        ChunkMetadata metadata = getChunkMetadata(filename, offset, Master.REQUEST_WRITE);
-        // transform offset of file to offset of chunk
-        offset = offset % ChunkMetadata.CHUNK_SIZE;
+    private int readFile(String filename, int offset, ByteBuffer dst) {
+        int len = dst.remaining();
+        if (0 == len) {
+            return 0;
+        }
+        List<ChunkMetadata> metadatas = getChunkMetadatas(filename, offset, len, Master.REQUEST_READ);
+        int pieces = metadatas.indexOf(null);
+        if (0 == pieces) {
+            logger.info("get chunk's metadata error");
+            return -1;
+        }
+        if (pieces < 0) {
+            pieces = metadatas.size();
+        }
+        // else the file ends before the range does, read up to its last chunk
+        int chunkSize = chunkSize(filename);
+        int start = dst.position();
+        int[] positions = new int[pieces];
+        int[] lengths = new int[pieces];
+        int[] counts = new int[pieces];
+        List<Future<Integer>> futures = new ArrayList<>(pieces);
+        int position = 0;
+        for (int i = 0; i < pieces; i++) {
+            ChunkMetadata metadata = metadatas.get(i);
+            int pieceOffset = offset + position;
+            int pieceLength = Math.min(len - position, chunkSize - pieceOffset % chunkSize);
+            ByteBuffer slice = dst.duplicate();
+            slice.position(start + position);
+            slice.limit(start + position + pieceLength);
+            ByteBuffer piece = slice.slice();
+            positions[i] = position;
+            lengths[i] = pieceLength;
+            if (i == pieces - 1) {
+                // the caller reads the last piece itself
+                counts[i] = readPiece(filename, pieceOffset, metadata, piece);
+            } else {
+                futures.add(readExecutor.submit(() -> readPiece(filename, pieceOffset, metadata, piece)));
+            }
+            position += pieceLength;
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                counts[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            } catch (ExecutionException e) {
+                logger.error("read piece error", e.getCause());
+                return -1;
+            }
+        }
+        for (int i = 0; i < pieces; i++) {
+            if (counts[i] < 0) {
+                return -1;
+            }
+        }
+        // the data ends at the first short piece, whatever later pieces read lies past a gap nothing filled
+        int total = 0;
+        for (int i = 0; i < pieces; i++) {
+            total = positions[i] + counts[i];
+            if (counts[i] < lengths[i]) {
+                break;
+            }
+        }
+        dst.position(start + total);
+        return total;
+    }
+
+    /**
+     * read one chunk's piece from the replica the selector picks, falling over to another replica if one fails
+     */
+    private int readPiece(String filename, int fileOffset, ChunkMetadata metadata, ByteBuffer piece) {
         ChunkServer[] servers = metadata.getChunkServers();
-        // first, push data to these chunkserver
-        logger.info("begin push data");
-        for (ChunkServer server : servers) {
-            if (!server.push(metadata.getChunkHandle(), offset, buffer)) {
+        long chunkHandle = metadata.getChunkHandle();
+        int chunkOffset = fileOffset % chunkSize(filename);
+        List<ChunkServer> tried = new ArrayList<>(servers.length);
+        ChunkServer server;
+        while (null != (server = replicaSelector.select(servers, tried))) {
+            tried.add(server);
+            piece.clear();
+            long hedgeDelay = replicaSelector.hedgeDelayNanos(server);
+            int n = hedgeDelay < 0
+                    ? timedRead(server, chunkHandle, chunkOffset, piece)
+                    : hedgedRead(servers, tried, server, chunkHandle, chunkOffset, piece, hedgeDelay);
+            if (n >= 0) {
+                return n;
+            }
+        }
+        invalidate(filename, fileOffset);
+        return -1;
+    }
+
+    /**
+     * read from the server, reporting the read to the replica selector
+     */
+    private int timedRead(ChunkServer server, long chunkHandle, int chunkOffset, ByteBuffer dst) {
+        replicaSelector.onStart(server);
+        long start = System.nanoTime();
+        int n = -1;
+        try {
+            n = server.read(chunkHandle, chunkOffset, dst);
+        } finally {
+            replicaSelector.onFinish(server, System.nanoTime() - start, n >= 0);
+        }
+        return n;
+    }
+
+    /**
+     * read from the server, and if it hasn't answered after the delay, from another replica too.
+     * a read can't be called back once sent, so the loser would still be writing when the winner returns:
+     * each read gets its own pooled buffer and the winner's is copied into the piece
+     * @param tried the replicas tried so far, the hedge is added to it
+     */
+    private int hedgedRead(ChunkServer[] servers, List<ChunkServer> tried, ChunkServer server,
+                           long chunkHandle, int chunkOffset, ByteBuffer piece, long hedgeDelay) {
+        CompletableFuture<ByteBuffer> winner = new CompletableFuture<>();
+        // reads that may still succeed, plus one held until no more hedge can be sent
+        AtomicInteger pending = new AtomicInteger(1);
+        sendHedge(server, chunkHandle, chunkOffset, piece.remaining(), winner, pending);
+        ByteBuffer result;
+        try {
+            try {
+                result = winner.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                ChunkServer backup = replicaSelector.select(servers, tried);
+                if (null != backup) {
+                    tried.add(backup);
+                    hedgedReads.increment();
+                    sendHedge(backup, chunkHandle, chunkOffset, piece.remaining(), winner, pending);
+                }
+                if (0 == pending.decrementAndGet()) {
+                    winner.complete(null);
+                }
+                result = winner.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            logger.error("hedged read error", e.getCause());
+            return -1;
+        }
+        if (null == result) {
+            return -1;
+        }
+        result.flip();
+        int n = result.remaining();
+        piece.put(result);
+        BufferPool.shared().release(result);
+        return n;
+    }
+
+    private void sendHedge(ChunkServer server, long chunkHandle, int chunkOffset, int len,
+                           CompletableFuture<ByteBuffer> winner, AtomicInteger pending) {
+        pending.incrementAndGet();
+        readExecutor.execute(() -> {
+            ByteBuffer buffer = BufferPool.shared().acquire(len);
+            int n = -1;
+            try {
+                n = timedRead(server, chunkHandle, chunkOffset, buffer);
+            } finally {
+                if (n < 0 || !winner.complete(buffer)) {
+                    // the loser's buffer goes back at once, the winner's once it's copied
+                    BufferPool.shared().release(buffer);
+                }
+                if (n < 0 && 0 == pending.decrementAndGet()) {
+                    winner.complete(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * write the data at the file offset, a write crossing chunk boundaries is split into one write per chunk
+     * the metadata of all the chunks is fetched in one master call
+     * @param filename
+     * @param fileOffset
+     * @param buffer
+     * @return
+     */
+    public boolean write(String filename, int fileOffset, ByteBuffer buffer) {
+        long start = System.nanoTime();
+        boolean written = writeFile(filename, fileOffset, buffer);
+        WRITE_METRICS.record(start, written);
+        return written;
+    }
+
+    private boolean writeFile(String filename, int fileOffset, ByteBuffer buffer) {
+        int length = buffer.remaining();
+        int chunkSize = chunkSize(filename);
+        int chunkOffset = fileOffset % chunkSize;
+        if (chunkOffset + length <= chunkSize) {
+            return writeChunk(filename, fileOffset, buffer);
+        }
+        getChunkMetadatas(filename, fileOffset, length, Master.REQUEST_WRITE);
+        int position = 0;
+        while (position < length) {
+            int pieceOffset = fileOffset + position;
+            int pieceLength = Math.min(length - position, chunkSize - pieceOffset % chunkSize);
+            ByteBuffer piece = buffer.duplicate();
+            piece.position(buffer.position() + position);
+            piece.limit(buffer.position() + position + pieceLength);
+            if (!writeChunk(filename, pieceOffset, piece.slice())) {
+                return false;
+            }
+            position += pieceLength;
+        }
+        return true;
+    }
+
+    /**
+     * write data which lies within one chunk
+     */
+    private boolean writeChunk(String filename, int fileOffset, ByteBuffer buffer) {
+        // transform offset of file to offset of chunk
+        int offset = fileOffset % chunkSize(filename);
+        for (int attempt = 0; attempt <= writeRetries; attempt++) {
+            ChunkMetadata metadata = getChunkMetadata(filename, fileOffset, Master.REQUEST_WRITE);
+            if (null == metadata) {
+                return false;
+            }
+            ChunkServer[] servers = metadata.getChunkServers();
+            // first, push data to these chunkserver
+            logger.debug("begin push data");
+            boolean pushed = PushMode.CHAIN == pushMode
+                    ? chainPush(servers, metadata.getChunkHandle(), offset, buffer)
+                    : directPush(servers, metadata.getChunkHandle(), offset, buffer);
+            if (!pushed) {
                 logger.error("push data error");
+                invalidate(filename, fileOffset);
+                continue;
+            }
+            logger.debug("push data success");
+            // send write request to primary
+            WriteResult result = servers[0].write(clientId, metadata.getChunkHandle(), offset);
+            if (result.isSuccess()) {
+                logger.debug("write data success");
+                renew(filename, fileOffset, result.getLeaseExpireTime());
+                return true;
+            }
+            for (ChunkServer failed : result.getFailedReplicas()) {
+                logger.error("write data error on {}", failed.getChunkServerName());
+            }
+            invalidate(filename, fileOffset);
+        }
+        logger.error("write data error");
+        return false;
+    }
+
+    /**
+     * push the whole data to every replica in turn
+     */
+    private boolean directPush(ChunkServer[] servers, long chunkHandle, int offset, ByteBuffer buffer) {
+        for (ChunkServer server : servers) {
+            if (!server.push(clientId, chunkHandle, offset, buffer)) {
                 return false;
             }
         }
-        logger.info("push data success");
-        // send write request to primary
-        boolean finish = false;
-        if ((finish = servers[0].write(metadata.getChunkHandle(), offset))) {
-            logger.info("write data success");
-        } else {
-            logger.error("write data error");
+        return true;
+    }
+
+    /**
+     * send the data once, in packets, to the head of the push chain
+     * the replicas forward each packet down the chain as it arrives, so the packets are in flight on every hop at once
+     */
+    private boolean chainPush(ChunkServer[] servers, long chunkHandle, int offset, ByteBuffer buffer) {
+        ChunkServer[] chain = pushChainPolicy.order(servers);
+        int length = buffer.remaining();
+        int packetCount = Math.max(1, (length + pushPacketSize - 1) / pushPacketSize);
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[packetCount];
+        for (int i = 0; i < packetCount; i++) {
+            int position = i * pushPacketSize;
+            ByteBuffer data = buffer.duplicate();
+            data.position(buffer.position() + position);
+            data.limit(buffer.position() + Math.min(length, position + pushPacketSize));
+            PushPacket packet = new PushPacket(clientId, chunkHandle, offset, length, position, data.slice());
+            acks[i] = chain[0].push(packet, chain, 0);
+        }
+        try {
+            CompletableFuture.allOf(acks).join();
+            for (CompletableFuture<?> ack : acks) {
+                if (!Boolean.TRUE.equals(ack.join())) {
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("chained push error", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * the largest record of a record append to a file, a quarter of its chunk size bounds the padding
+     * a full chunk wastes
+     * @param chunkSize the file's chunk size
+     * @return
+     */
+    public static int maxRecordSize(int chunkSize) {
+        return chunkSize / 4;
+    }
+
+    /**
+     * append the record at an offset chosen by the primary of the file's last chunk
+     * concurrent appenders need no coordination, the primary serializes them.
+     * when the record doesn't fit in the last chunk, the chunk is padded and the append moves to a new chunk
+     * @param filename
+     * @param buffer the record, at most a quarter of the file's chunk size
+     * @return the offset of the record in the file, -1 on failure
+     */
+    public long recordAppend(String filename, ByteBuffer buffer) {
+        Integer cached = appendChunkIndexes.get(filename);
+        int chunkIndex = null != cached ? cached : master.getLastChunkIndex(filename);
+        if (chunkIndex < 0) {
+            logger.error("append to {} which does not exist", filename);
+            return -1;
+        }
+        int chunkSize = chunkSize(filename);
+        if (buffer.remaining() > maxRecordSize(chunkSize)) {
+            logger.error("record of {} bytes exceeds {}", buffer.remaining(), maxRecordSize(chunkSize));
+            return -1;
+        }
+        int failures = 0;
+        while (failures <= writeRetries) {
+            // by index, the byte offset of a chunk of a file past 2GB doesn't fit an int
+            ChunkMetadata metadata = getChunkMetadataByIndex(filename, chunkIndex, Master.REQUEST_WRITE);
+            if (null == metadata) {
+                appendChunkIndexes.remove(filename);
+                return -1;
+            }
+            ChunkServer[] servers = metadata.getChunkServers();
+            // offsets are never negative, so a negative id can't collide with a write's push
+            int appendId = -1 - (appendIds.getAndIncrement() & Integer.MAX_VALUE);
+            boolean pushed = PushMode.CHAIN == pushMode
+                    ? chainPush(servers, metadata.getChunkHandle(), appendId, buffer)
+                    : directPush(servers, metadata.getChunkHandle(), appendId, buffer);
+            if (!pushed) {
+                logger.error("push append data error");
+                invalidateByIndex(filename, chunkIndex);
+                failures++;
+                continue;
+            }
+            AppendResult result = servers[0].recordAppend(clientId, metadata.getChunkHandle(), appendId);
+            switch (result.getStatus()) {
+                case SUCCESS:
+                    appendChunkIndexes.put(filename, chunkIndex);
+                    renewByIndex(filename, chunkIndex, result.getLeaseExpireTime());
+                    return (long) chunkIndex * chunkSize + result.getOffset();
+                case CHUNK_FULL:
+                    chunkIndex++;
+                    appendChunkIndexes.put(filename, chunkIndex);
+                    break;
+                case FAILED:
+                default:
+                    for (ChunkServer failed : result.getFailedReplicas()) {
+                        logger.error("record append error on {}", failed.getChunkServerName());
+                    }
+                    invalidateByIndex(filename, chunkIndex);
+                    appendChunkIndexes.remove(filename);
+                    // another client may have moved the file on to later chunks
+                    chunkIndex = Math.max(chunkIndex, master.getLastChunkIndex(filename));
+                    failures++;
+                    break;
+            }
         }
-        return finish;
+        logger.error("record append to {} error", filename);
+        return -1;
     }
 }
@@ -0,0 +1,62 @@
+package com.twd.role;
+
+/**
+ * @author twd
+ * @description build the push chain greedily: each hop sends to the closest replica which hasn't got the data yet
+ *              locations are paths like "/datacenter/rack/host", the distance of two locations is
+ *              the number of path levels from each of them up to their common ancestor
+ * @date 2026-10-18
+ */
+public class ClosestFirstChainPolicy implements PushChainPolicy {
+    /**
+     * the network location of the client
+     */
+    private final String clientLocation;
+
+    public ClosestFirstChainPolicy(String clientLocation) {
+        this.clientLocation = clientLocation;
+    }
+
+    @Override
+    public ChunkServer[] order(ChunkServer[] replicas) {
+        ChunkServer[] chain = replicas.clone();
+        String from = clientLocation;
+        for (int hop = 0; hop < chain.length; hop++) {
+            int closest = hop;
+            int closestDistance = Integer.MAX_VALUE;
+            for (int i = hop; i < chain.length; i++) {
+                int distance = distance(from, chain[i].getNetworkLocation());
+                if (distance < closestDistance) {
+                    closest = i;
+                    closestDistance = distance;
+                }
+            }
+            ChunkServer next = chain[closest];
+            chain[closest] = chain[hop];
+            chain[hop] = next;
+            from = next.getNetworkLocation();
+        }
+        return chain;
+    }
+
+    /**
+     * the tree distance between two locations
+     * @param a
+     * @param b
+     * @return
+     */
+    static int distance(String a, String b) {
+        String[] left = split(a);
+        String[] right = split(b);
+        int common = 0;
+        while (common < left.length && common < right.length && left[common].equals(right[common])) {
+            common++;
+        }
+        return left.length - common + right.length - common;
+    }
+
+    private static String[] split(String location) {
+        String trimmed = location.startsWith("/") ? location.substring(1) : location;
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+    }
+}
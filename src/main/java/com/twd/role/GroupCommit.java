@@ -0,0 +1,211 @@
+package com.twd.role;
+
+import com.twd.element.Chunk;
+import com.twd.metrics.OperationMetrics;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description forces the chunks a chunkserver wrote to disk in batches, from one thread. every writer waiting
+ *              in sync() when a batch starts is acknowledged by it, so concurrent writers across the server's
+ *              chunks pay for one force of each chunk they touched instead of one each.
+ *              the chunks written are also forced every periodMillis whether anyone waits or not
+ * @date 2026-10-18
+ */
+public class GroupCommit {
+    /**
+     * the chunks written since their last force
+     */
+    private final Set<Chunk> dirty = ConcurrentHashMap.newKeySet();
+
+    private final String name;
+
+    private final long periodMillis;
+
+    /**
+     * one per force of a chunk
+     */
+    private final OperationMetrics forceMetrics;
+
+    /**
+     * completed by the next batch, guarded by this
+     */
+    private CompletableFuture<Boolean> pending = new CompletableFuture<>();
+
+    /**
+     * whether a writer waits on pending, guarded by this
+     */
+    private boolean requested;
+
+    /**
+     * set by close(), guarded by this
+     */
+    private boolean closed;
+
+    private volatile Thread syncer;
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder syncs = new LongAdder();
+
+    /**
+     * @param name the syncer thread's name
+     * @param periodMillis how long a written chunk may wait for its force when nobody asks for it
+     * @param forceMetrics
+     */
+    public GroupCommit(String name, long periodMillis, OperationMetrics forceMetrics) {
+        this.name = name;
+        this.periodMillis = periodMillis;
+        this.forceMetrics = forceMetrics;
+    }
+
+    /**
+     * the chunk was written, it's forced with the next batch
+     * @param chunk
+     */
+    public void written(Chunk chunk) {
+        dirty.add(chunk);
+        if (null == syncer) {
+            start();
+        }
+    }
+
+    private synchronized void start() {
+        if (null == syncer && !closed) {
+            syncer = new Thread(this::run, name);
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    /**
+     * wait until every chunk written before the call is on disk
+     * @return false if a chunk couldn't be forced
+     */
+    public boolean sync() {
+        return request().join();
+    }
+
+    /**
+     * ask for the chunks written before the call to be forced, without waiting
+     * @return completes with false if a chunk couldn't be forced
+     */
+    public CompletableFuture<Boolean> request() {
+        CompletableFuture<Boolean> batch;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.completedFuture(false);
+            }
+            if (null == syncer) {
+                // nothing has been written
+                return CompletableFuture.completedFuture(true);
+            }
+            batch = pending;
+            requested = true;
+            notifyAll();
+        }
+        syncs.increment();
+        return batch;
+    }
+
+    private void run() {
+        while (true) {
+            CompletableFuture<Boolean> batch;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + periodMillis;
+                long remaining = periodMillis;
+                while (!requested && !closed && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (closed) {
+                    return;
+                }
+                // the writers which ask from now on wait for the next batch, it covers their writes
+                batch = pending;
+                pending = new CompletableFuture<>();
+                requested = false;
+            }
+            batch.complete(forceDirty());
+        }
+    }
+
+    /**
+     * stop the syncer thread and force what's still dirty, the writers waiting get that last batch.
+     * the thread is woken rather than interrupted, an interrupt would close the channel a force runs on
+     * @return false if a chunk couldn't be forced
+     */
+    public boolean close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = syncer;
+            notifyAll();
+        }
+        if (null != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        CompletableFuture<Boolean> batch;
+        synchronized (this) {
+            batch = pending;
+        }
+        boolean forced = forceDirty();
+        batch.complete(forced);
+        return forced;
+    }
+
+    /**
+     * force the chunks written so far, a chunk written again meanwhile is forced by the next batch
+     */
+    private boolean forceDirty() {
+        if (dirty.isEmpty()) {
+            return true;
+        }
+        boolean forced = true;
+        Iterator<Chunk> iterator = dirty.iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            iterator.remove();
+            long start = System.nanoTime();
+            boolean success = chunk.force();
+            forceMetrics.record(start, success);
+            if (!success) {
+                // later syncs fail too until it's forced
+                dirty.add(chunk);
+                forced = false;
+            }
+        }
+        batches.increment();
+        return forced;
+    }
+
+    /**
+     * the batches which forced chunks, asked for by a sync or at the end of a period
+     * @return
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * the writers which waited for a batch, many of them share one
+     * @return
+     */
+    public long getSyncs() {
+        return syncs.sum();
+    }
+}
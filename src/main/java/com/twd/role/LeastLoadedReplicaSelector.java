@@ -0,0 +1,167 @@
+package com.twd.role;
+
+import com.twd.metrics.LatencyHistogram;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author twd
+ * @description power of two choices: sample two replicas at random and read from the one with the lower cost,
+ *              the cost being the moving average latency times the reads still outstanding on the replica.
+ *              two random candidates are enough to steer clear of a slow replica without herding every client onto
+ *              the same fastest one. a replica with no history costs the median read, at most DEFAULT_PRIOR_NANOS,
+ *              so new replicas get probed even when a slow one set the median, while the reads outstanding on
+ *              them still count.
+ *              reads may be hedged: when a read takes longer than the given quantile of all reads, it's sent to a
+ *              second replica as well and the first answer wins
+ * @date 2026-10-18
+ */
+public class LeastLoadedReplicaSelector implements ReplicaSelector {
+    /**
+     * the weight of a new read in the moving average latency
+     */
+    public static final double DEFAULT_ALPHA = 0.2;
+
+    /**
+     * the time constant an idle replica's average latency decays in
+     */
+    public static final long DEFAULT_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * what a failed read counts as in the moving average latency
+     */
+    public static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * reads seen before hedging starts, too few make the quantile meaningless
+     */
+    public static final int MIN_HEDGE_SAMPLES = 100;
+
+    /**
+     * the latency a replica without history is taken to have at most, and before any read came back at all
+     */
+    public static final long DEFAULT_PRIOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<ChunkServer, ReplicaStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * the latency of all reads, the hedge delay is taken from it
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final double hedgeQuantile;
+
+    private double alpha = DEFAULT_ALPHA;
+
+    private long decayNanos = DEFAULT_DECAY_NANOS;
+
+    /**
+     * don't hedge reads
+     */
+    public LeastLoadedReplicaSelector() {
+        this(-1);
+    }
+
+    /**
+     * @param hedgeQuantile hedge a read that takes longer than this quantile of all reads, e.g. 0.95, negative not to hedge
+     */
+    public LeastLoadedReplicaSelector(double hedgeQuantile) {
+        this.hedgeQuantile = hedgeQuantile;
+    }
+
+    public double getHedgeQuantile() {
+        return hedgeQuantile;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public long getDecayNanos() {
+        return decayNanos;
+    }
+
+    public void setDecayNanos(long decayNanos) {
+        this.decayNanos = decayNanos;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public ReplicaStats getStats(ChunkServer server) {
+        return stats.computeIfAbsent(server, s -> new ReplicaStats(s.getChunkServerName()));
+    }
+
+    /**
+     * @return the stats of every replica read so far, by chunkserver name
+     */
+    public Map<String, ReplicaStats> getStats() {
+        Map<String, ReplicaStats> snapshot = new HashMap<>();
+        for (ReplicaStats replicaStats : stats.values()) {
+            snapshot.put(replicaStats.getChunkServerName(), replicaStats);
+        }
+        return snapshot;
+    }
+
+    private double cost(ChunkServer server) {
+        ReplicaStats replicaStats = getStats(server);
+        double ewma = replicaStats.getEwmaNanos(decayNanos);
+        if (0 == replicaStats.getRequests()) {
+            long prior = latency.getCount() > 0 ? Math.min(latency.getPercentile(0.5), DEFAULT_PRIOR_NANOS) : DEFAULT_PRIOR_NANOS;
+            ewma = Math.max(ewma, prior);
+        }
+        return ewma * (replicaStats.getOutstanding() + 1);
+    }
+
+    @Override
+    public ChunkServer select(ChunkServer[] replicas, Collection<ChunkServer> exclude) {
+        ChunkServer[] candidates = new ChunkServer[replicas.length];
+        int count = 0;
+        for (ChunkServer server : replicas) {
+            if (null != server && !exclude.contains(server)) {
+                candidates[count++] = server;
+            }
+        }
+        if (count < 2) {
+            return 0 == count ? null : candidates[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if (second >= first) {
+            second++;
+        }
+        return cost(candidates[second]) < cost(candidates[first]) ? candidates[second] : candidates[first];
+    }
+
+    @Override
+    public void onStart(ChunkServer server) {
+        getStats(server).start();
+    }
+
+    @Override
+    public void onFinish(ChunkServer server, long latencyNanos, boolean success) {
+        getStats(server).finish(success ? latencyNanos : Math.max(latencyNanos, FAILURE_PENALTY_NANOS), success, alpha);
+        if (success) {
+            latency.record(latencyNanos);
+        }
+    }
+
+    @Override
+    public long hedgeDelayNanos(ChunkServer server) {
+        if (hedgeQuantile < 0 || latency.getCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return latency.getPercentile(hedgeQuantile);
+    }
+}
@@ -2,84 +2,246 @@ package com.twd.role;
 
 import com.twd.element.ChunkMetadata;
 import com.twd.element.ChunkRequest;
+import com.twd.element.Heartbeat;
+import com.twd.element.HeartbeatReply;
+import com.twd.metrics.MetricsRegistry;
+import com.twd.metrics.OperationMetrics;
+import com.twd.namespace.FileInfo;
+import com.twd.namespace.HandleAllocator;
+import com.twd.namespace.Namespace;
+import com.twd.oplog.Checkpoint;
+import com.twd.oplog.LogRecord;
+import com.twd.oplog.OperationLog;
+import com.twd.oplog.UnsupportedFormatException;
+import com.twd.store.ChunkTable;
+import com.twd.store.ServerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author twd
  * @description be responsible for providing metadata to client
+ *              operations lock the paths they touch in the namespace instead of the whole master.
+ *              given a log directory, the namespace survives restarts: mutations go to an operation log, checkpoints
+ *              of the namespace are written in the background, and a new master loads the newest checkpoint and
+ *              replays the log after it. where the chunks are is not logged, chunkservers report it when they start
  * @date 2019-12-04
  */
+// the path locks are held by try-with-resources and never referenced in the body
+@SuppressWarnings("try")
 public class Master {
+    public static final int REQUEST_CREATE = 1;
+    public static final int REQUEST_READ = 2;
+    public static final int REQUEST_WRITE = 3;
+
     /**
-     * add to queue
+     * store the chunk metadata: {chunk handle} -> {lease expire time, replicas' server ids}
+     * a ChunkMetadata is made from a record when asked for
      */
-    private static class ChunkServerInfo implements Comparable<ChunkServerInfo>{
-        ChunkServer server;
-        /**
-         * chunk num of the chunk server
-         */
-        int chunkNum = 0;
+    private final ChunkTable chunkTable;
 
-        ChunkServerInfo(ChunkServer server, int chunkNum) {
-            this.server = server;
-            this.chunkNum = chunkNum;
-        }
+    /**
+     * the small ids chunk records refer to chunkservers by
+     */
+    private final ServerRegistry serverRegistry = new ServerRegistry();
 
-        @Override
-        public int compareTo(ChunkServerInfo o) {
-            return Integer.compare(chunkNum, o.chunkNum);
-        }
+    /**
+     * the files and their chunks
+     */
+    private final Namespace namespace = new Namespace();
 
-        @Override
-        public int hashCode() {
-            return server.hashCode();
-        }
+    private final HandleAllocator handleAllocator = new HandleAllocator();
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (!(obj instanceof ChunkServerInfo)) {
-                return false;
-            }
-            ChunkServerInfo other = (ChunkServerInfo)obj;
-            return server == other.server;
-        }
-    }
+    /**
+     * how long a primary lease lasts: 60s
+     */
+    public static final long LEASE_MILLIS = 60_000L;
 
-    public static final int REQUEST_CREATE = 1;
-    public static final int REQUEST_READ = 2;
-    public static final int REQUEST_WRITE = 3;
+    private volatile long leaseMillis = LEASE_MILLIS;
+
+    /**
+     * metadata calls served, a client writing under a cached lease makes none
+     */
+    private final LongAdder metadataRequests = new LongAdder();
+
+    /**
+     * replicas dropped by their servers after a checksum mismatch
+     */
+    private final LongAdder corruptReplicas = new LongAdder();
+
+    /**
+     * the metadata calls, by outcome: a single chunk's metadata is a failure if there's none to return
+     */
+    private final OperationMetrics metadataMetrics = MetricsRegistry.shared().operation("master", "getChunkMetadata");
+
+    private final OperationMetrics batchMetadataMetrics = MetricsRegistry.shared().operation("master", "getChunkMetadatas");
+
+    /**
+     * default replication num
+     */
+    public static final int DEFAULT_REPLICA_NUM = 3;
 
     /**
-     * store the chunk metadata: {chunk handle} -> {chunk metadata}
+     * replication num of this deployment
      */
-    private Map<Integer, ChunkMetadata> chunkMetadataMap = new HashMap<>();
+    private final int replicaNum;
 
     /**
-     * replication num
+     * checkpoint after this many logged mutations
      */
-    public static final int REPLICA_NUM = 3;
+    public static final long DEFAULT_CHECKPOINT_OPS = 100_000;
+
+    /**
+     * where the operation log and checkpoints are kept, null to keep nothing
+     */
+    private final File logDir;
+
+    private final OperationLog operationLog;
+
+    /**
+     * writes checkpoints in the background
+     */
+    private final ExecutorService checkpointer;
+
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+
+    private final Object checkpointLock = new Object();
+
+    /**
+     * the txid the last checkpoint covers
+     */
+    private volatile long checkpointTxid;
+
+    private volatile long checkpointOps = DEFAULT_CHECKPOINT_OPS;
+
+    private Logger logger = LoggerFactory.getLogger(Master.class);
+
+    /**
+     * chunks of deleted files each server still holds: {chunkserver} -> {chunk handles}
+     */
+    private final Map<ChunkServer, Queue<Long>> garbage = new ConcurrentHashMap<>();
 
     /**
      * contains all chunkservers
      */
-    private List<ChunkServer> chunkServers = new ArrayList<>();
+    private final List<ChunkServer> chunkServers = new CopyOnWriteArrayList<>();
+
+    /**
+     * select the chunkservers which have the most free space
+     */
+    private final PlacementEngine placementEngine = new PlacementEngine();
+
+    public Master() {
+        this(DEFAULT_REPLICA_NUM);
+    }
+
+    public Master(int replicaNum) {
+        this(replicaNum, ChunkTable.DEFAULT_BACKING);
+    }
+
+    /**
+     * @param replicaNum
+     * @param backing keep the chunk records on the heap or off it
+     */
+    public Master(int replicaNum, ChunkTable.Backing backing) {
+        this.replicaNum = replicaNum;
+        this.chunkTable = new ChunkTable(replicaNum, backing, 0);
+        this.logDir = null;
+        this.operationLog = null;
+        this.checkpointer = null;
+    }
+
+    /**
+     * a master whose namespace is kept in the log directory, recovered from it if it holds one
+     * @param replicaNum
+     * @param logDir
+     * @throws IOException if the log can't be read or opened
+     */
+    public Master(int replicaNum, File logDir) throws IOException {
+        this(replicaNum, ChunkTable.DEFAULT_BACKING, logDir);
+    }
+
+    public Master(int replicaNum, ChunkTable.Backing backing, File logDir) throws IOException {
+        this.replicaNum = replicaNum;
+        this.chunkTable = new ChunkTable(replicaNum, backing, 0);
+        this.logDir = logDir;
+        if (!logDir.isDirectory() && !logDir.mkdirs()) {
+            throw new IOException("can't create " + logDir);
+        }
+        long lastTxid = recover();
+        this.operationLog = new OperationLog(logDir, lastTxid);
+        this.checkpointer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gfs-master-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getReplicaNum() {
+        return replicaNum;
+    }
+
+    public PlacementEngine getPlacementEngine() {
+        return placementEngine;
+    }
+
+    public ChunkTable getChunkTable() {
+        return chunkTable;
+    }
+
+    /**
+     * @return null if the master keeps no log
+     */
+    public OperationLog getOperationLog() {
+        return operationLog;
+    }
+
+    public long getCheckpointOps() {
+        return checkpointOps;
+    }
+
+    public void setCheckpointOps(long checkpointOps) {
+        this.checkpointOps = checkpointOps;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
 
     /**
-     * select the chunkservers which have the smallest chunk num
+     * how long the leases granted from now on last
+     * @param leaseMillis
      */
-    private List<ChunkServerInfo> chunkServerInfos = new ArrayList<>();
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
 
-    public Master() { }
+    public long getMetadataRequests() {
+        return metadataRequests.sum();
+    }
 
     /**
      * add chunkserver
      * @param server
      */
     public void addChunkServers(ChunkServer server) {
+        serverRegistry.register(server);
         chunkServers.add(server);
     }
 
@@ -89,118 +251,619 @@ public class Master {
      * @param chunkNum
      */
     public void addChunkServerInfo(ChunkServer server, int chunkNum) {
-        ChunkServerInfo info = new ChunkServerInfo(server, chunkNum);
-        chunkServerInfos.add(info);
-    }
-
-    /**
-     * compute the hashcode of the combination of filename and chunk index
-     * @param chunkRequest the combination of filename and chunk index
-     * @return chunk handle
-     */
-    private int computeChunkHandle(ChunkRequest chunkRequest) {
-        return chunkRequest.getFilename().hashCode() * 100 + chunkRequest.getChunkIndex();
+        placementEngine.addServer(server, server.getCapacity(), server.getUsedBytes(), chunkNum);
     }
 
     /**
      * return chunk metadata for the chunk requested
+     * a read or a write of an existing chunk only takes the file's read lock,
+     * creating a file or one of its chunks takes the file's write lock
      * @param chunkRequest
      * @return
      */
     public ChunkMetadata getChunkMetadata(ChunkRequest chunkRequest, int request) {
-        int chunkHandle = computeChunkHandle(chunkRequest);
-        ChunkMetadata metadata = chunkMetadataMap.getOrDefault(chunkHandle, null);
-        if (null == metadata) {
-            if (REQUEST_CREATE == request) {
-                // create request
-                metadata = createChunkMetadata(chunkRequest);
-                metadata.getChunkServers()[0].becomePrimary(metadata);
-            } else if (REQUEST_READ == request) {
-                return null;
-            } else {
-                /**
-                 * for write request, check if the file exists
-                 */
-                ChunkRequest fileRequest = new ChunkRequest(chunkRequest.getFilename(), 0);
-                int fileChunkHandle = computeChunkHandle(fileRequest);
-                if (chunkMetadataMap.containsKey(fileChunkHandle)) {
-                    // the file exists, so create the corresponding chunk
-                    metadata = createChunkMetadata(chunkRequest);
-                    metadata.getChunkServers()[0].becomePrimary(metadata);
-                    // create chunk
-                    metadata.getChunkServers()[0].create(metadata.getChunkHandle());
+        long start = System.nanoTime();
+        metadataRequests.increment();
+        ChunkMetadata metadata = chunkMetadata(chunkRequest, request);
+        metadataMetrics.record(start, null != metadata);
+        return metadata;
+    }
+
+    private ChunkMetadata chunkMetadata(ChunkRequest chunkRequest, int request) {
+        String filename = chunkRequest.getFilename();
+        int chunkIndex = chunkRequest.getChunkIndex();
+        if (REQUEST_CREATE != request) {
+            try (Namespace.PathLock lock = namespace.lock(filename, false)) {
+                ChunkMetadata metadata = existingChunk(filename, chunkIndex, REQUEST_WRITE == request);
+                if (null != metadata || REQUEST_READ == request || !namespace.exists(filename)) {
+                    return metadata;
+                }
+            }
+        }
+        ChunkMetadata metadata;
+        try (Namespace.PathLock lock = namespace.lock(filename, true)) {
+            metadata = REQUEST_CREATE == request
+                    ? createFile(filename, chunkIndex, ChunkMetadata.CHUNK_SIZE)
+                    : createChunk(filename, chunkIndex);
+        }
+        // out of the lock, so other mutations join the same log force
+        return syncLog() ? metadata : null;
+    }
+
+    /**
+     * create a file whose chunks hold chunkSize bytes each, with its first chunk. the client then asks the primary
+     * to create the chunk, as for a create through getChunkMetadata
+     * @param filename
+     * @param chunkSize from 1 byte to ChunkMetadata.MAX_CHUNK_SIZE
+     * @return the first chunk's metadata, null if the file exists or the chunk size is out of range
+     */
+    public ChunkMetadata create(String filename, int chunkSize) {
+        long start = System.nanoTime();
+        metadataRequests.increment();
+        ChunkMetadata metadata = null;
+        if (ChunkMetadata.isValidChunkSize(chunkSize)) {
+            try (Namespace.PathLock lock = namespace.lock(filename, true)) {
+                metadata = createFile(filename, 0, chunkSize);
+            }
+            if (!syncLog()) {
+                metadata = null;
+            }
+        }
+        metadataMetrics.record(start, null != metadata);
+        return metadata;
+    }
+
+    /**
+     * the size of each of the file's chunks, a client maps file offsets to chunks by it
+     * @param filename
+     * @return -1 if the file doesn't exist
+     */
+    public int getChunkSize(String filename) {
+        try (Namespace.PathLock lock = namespace.lock(filename, false)) {
+            return namespace.getChunkSize(filename);
+        }
+    }
+
+    /**
+     * return the metadata of many chunks in one call, each one handled as by getChunkMetadata
+     * @param chunkRequests
+     * @param request create, read or write, applied to every chunk
+     * @return the metadata of chunkRequests[i] at i, null where getChunkMetadata would return null
+     */
+    public List<ChunkMetadata> getChunkMetadatas(List<ChunkRequest> chunkRequests, int request) {
+        long start = System.nanoTime();
+        metadataRequests.increment();
+        List<ChunkMetadata> metadatas = new ArrayList<>(chunkRequests.size());
+        for (ChunkRequest chunkRequest : chunkRequests) {
+            metadatas.add(chunkMetadata(chunkRequest, request));
+        }
+        batchMetadataMetrics.record(start, true);
+        return metadatas;
+    }
+
+    /**
+     * return the metadata of consecutive chunks of a file in one call, the file is locked once for all of them
+     * @param filename
+     * @param fromIndex the first chunk index
+     * @param count
+     * @param request create, read or write, applied to every chunk
+     * @return the metadata of chunk fromIndex + i at i
+     */
+    public List<ChunkMetadata> getChunkMetadatas(String filename, int fromIndex, int count, int request) {
+        long start = System.nanoTime();
+        List<ChunkMetadata> metadatas = chunkMetadatas(filename, fromIndex, count, request);
+        batchMetadataMetrics.record(start, true);
+        return metadatas;
+    }
+
+    private List<ChunkMetadata> chunkMetadatas(String filename, int fromIndex, int count, int request) {
+        metadataRequests.increment();
+        List<ChunkMetadata> metadatas = new ArrayList<>(count);
+        if (REQUEST_CREATE == request) {
+            for (int i = 0; i < count; i++) {
+                metadatas.add(chunkMetadata(new ChunkRequest(filename, fromIndex + i), request));
+            }
+            return metadatas;
+        }
+        boolean missing = false;
+        try (Namespace.PathLock lock = namespace.lock(filename, false)) {
+            for (int i = 0; i < count; i++) {
+                ChunkMetadata metadata = existingChunk(filename, fromIndex + i, REQUEST_WRITE == request);
+                metadatas.add(metadata);
+                missing |= null == metadata;
+            }
+        }
+        if (!missing || REQUEST_READ == request) {
+            return metadatas;
+        }
+        try (Namespace.PathLock lock = namespace.lock(filename, true)) {
+            for (int i = 0; i < count; i++) {
+                if (null == metadatas.get(i)) {
+                    metadatas.set(i, createChunk(filename, fromIndex + i));
+                }
+            }
+        }
+        if (!syncLog()) {
+            for (int i = 0; i < count; i++) {
+                metadatas.set(i, null);
+            }
+        }
+        return metadatas;
+    }
+
+    /**
+     * the metadata of an existing chunk, the first replica is the primary while the lease lasts.
+     * a write needs a lease: if none is running the chunk moves to a new version, the replicas are told,
+     * and the first replica gets the lease. otherwise, and for reads, the master doesn't call the chunkservers
+     * @param filename
+     * @param chunkIndex
+     * @param write
+     * @return null if the chunk doesn't exist or has no replica
+     */
+    private ChunkMetadata existingChunk(String filename, int chunkIndex, boolean write) {
+        long chunkHandle = namespace.getChunkHandle(filename, chunkIndex);
+        if (Namespace.NO_HANDLE == chunkHandle) {
+            return null;
+        }
+        int[] ids = new int[replicaNum];
+        long[] lease = new long[2];
+        long now = System.currentTimeMillis();
+        long leaseExpireTime = now + leaseMillis;
+        int count = write
+                ? chunkTable.grantLease(chunkHandle, now, leaseExpireTime, ids, lease)
+                : chunkTable.getReplicas(chunkHandle, ids, lease);
+        if (count <= 0) {
+            return null;
+        }
+        List<ChunkServer> servers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            servers.add(serverRegistry.getServer(ids[i]));
+        }
+        boolean granted = write && lease[0] == leaseExpireTime;
+        if (granted) {
+            // a replica which doesn't take the new version would be stale, leave it out
+            for (int i = 0; i < count; i++) {
+                if (!servers.get(i).setChunkVersion(chunkHandle, lease[1])) {
+                    logger.error("{} can't move chunk {} to version {}",
+                            servers.get(i).getChunkServerName(), chunkHandle, lease[1]);
+                    chunkTable.removeReplica(chunkHandle, ids[i]);
+                    servers.set(i, null);
                 }
             }
-        } else {
-            if (REQUEST_CREATE == request) {
-                // the file exists
+            servers.removeIf(server -> null == server);
+            if (servers.isEmpty()) {
                 return null;
-            } else {
-                metadata.getChunkServers()[0].becomePrimary(metadata);
             }
         }
+        ChunkMetadata metadata = new ChunkMetadata(chunkHandle, servers.toArray(new ChunkServer[0]));
+        if (lease[0] > now) {
+            // a lease which ran out no longer bounds how long the locations may be cached
+            metadata.setLeaseExpireTime(lease[0]);
+        }
+        metadata.setVersion(lease[1]);
+        metadata.setChunkSize(namespace.getChunkSize(filename));
+        if (granted) {
+            metadata.getChunkServers()[0].becomePrimary(metadata);
+        }
         return metadata;
     }
 
     /**
-     * create metadata for new chunk, select least used chunkserver
-     * the created metadata is temp, not add to chunk metadata map
-     * @param chunkRequest
+     * create the file with its first chunk, the client then asks the primary to create the chunk.
+     * the caller holds the file's write lock
+     * @return null if the file exists
+     */
+    private ChunkMetadata createFile(String filename, int chunkIndex, int chunkSize) {
+        long createTime = System.currentTimeMillis();
+        if (!namespace.create(filename, createTime, chunkSize)) {
+            return null;
+        }
+        logOperation(LogRecord.createFile(Namespace.normalize(filename), createTime, chunkSize));
+        ChunkMetadata metadata = createChunkMetadata(filename, chunkIndex);
+        if (null == metadata) {
+            namespace.delete(filename);
+            logOperation(LogRecord.deleteFile(Namespace.normalize(filename)));
+        }
+        return metadata;
+    }
+
+    /**
+     * create a chunk of an existing file, unless someone created it first. the caller holds the file's write lock
+     * @return null if the file doesn't exist
+     */
+    private ChunkMetadata createChunk(String filename, int chunkIndex) {
+        ChunkMetadata metadata = existingChunk(filename, chunkIndex, true);
+        if (null != metadata || !namespace.exists(filename)) {
+            return metadata;
+        }
+        metadata = createChunkMetadata(filename, chunkIndex);
+        if (null != metadata) {
+            // create chunk
+            metadata.getChunkServers()[0].create(metadata.getChunkHandle());
+        }
+        return metadata;
+    }
+
+    /**
+     * remove the file from the namespace and forget its chunks
+     * the chunk files stay on the chunkservers, there's no garbage collection of them yet
+     * @param filename
+     * @return false if the file doesn't exist
+     */
+    public boolean delete(String filename) {
+        long[] chunkHandles;
+        try (Namespace.PathLock lock = namespace.lock(filename, true)) {
+            chunkHandles = namespace.delete(filename);
+            if (null != chunkHandles) {
+                logOperation(LogRecord.deleteFile(Namespace.normalize(filename)));
+            }
+        }
+        if (null == chunkHandles || !syncLog()) {
+            return false;
+        }
+        int[] ids = new int[replicaNum];
+        for (long chunkHandle : chunkHandles) {
+            // the replicas are deleted when their servers next report
+            int count = chunkTable.getReplicas(chunkHandle, ids);
+            for (int i = 0; i < count; i++) {
+                collectGarbage(chunkHandle, ids[i]);
+            }
+            chunkTable.remove(chunkHandle);
+        }
+        return true;
+    }
+
+    /**
+     * @param filename
+     * @return null if the file doesn't exist
+     */
+    public FileInfo stat(String filename) {
+        try (Namespace.PathLock lock = namespace.lock(filename, false)) {
+            return namespace.stat(filename);
+        }
+    }
+
+    /**
+     * the files whose path starts with the prefix, in order
+     * @param prefix e.g. "/logs/" for everything under /logs, "/logs/app-" for the entries of /logs named app-*
+     * @param limit the most paths returned
      * @return
      */
-    private ChunkMetadata createChunkMetadata(ChunkRequest chunkRequest) {
-        int chunkHandle = computeChunkHandle(chunkRequest);
+    public List<String> list(String prefix, int limit) {
+        try (Namespace.PathLock lock = namespace.lock(Namespace.listDirectory(prefix), false)) {
+            return namespace.list(prefix, limit);
+        }
+    }
+
+    public List<String> list(String prefix) {
+        return list(prefix, Integer.MAX_VALUE);
+    }
+
+    public long getFileCount() {
+        return namespace.getFileCount();
+    }
+
+    /**
+     * make the first replica the primary of the chunk, for the next lease period
+     * @param metadata
+     */
+    private void grantLease(ChunkMetadata metadata) {
+        metadata.setLeaseExpireTime(System.currentTimeMillis() + leaseMillis);
+        metadata.getChunkServers()[0].becomePrimary(metadata);
+    }
+
+    /**
+     * the index of the last chunk of the file, where record appends go
+     * @param filename
+     * @return -1 if the file doesn't exist
+     */
+    public int getLastChunkIndex(String filename) {
+        metadataRequests.increment();
+        try (Namespace.PathLock lock = namespace.lock(filename, false)) {
+            return namespace.getLastChunkIndex(filename);
+        }
+    }
+
+    /**
+     * create metadata for new chunk with a new handle, select the least used chunkservers
+     * the caller holds the file's write lock
+     * @param filename
+     * @param chunkIndex
+     * @return null if there's no chunkserver
+     */
+    private ChunkMetadata createChunkMetadata(String filename, int chunkIndex) {
+        int chunkSize = namespace.getChunkSize(filename);
         // select chunkservers
-        ChunkServer[] servers = new ChunkServer[REPLICA_NUM];
-        Collections.sort(chunkServerInfos);
-        for (int i = 0; i < REPLICA_NUM; i++) {
-            servers[i] = chunkServerInfos.get(i).server;
+        ChunkServer[] servers = placementEngine.place(replicaNum, chunkSize);
+        if (0 == servers.length) {
+            return null;
         }
-        ChunkMetadata metadata = new ChunkMetadata(chunkHandle, servers);
+        ChunkMetadata metadata = new ChunkMetadata(handleAllocator.allocate(), servers);
+        metadata.setChunkSize(chunkSize);
+        grantLease(metadata);
+        chunkTable.put(metadata.getChunkHandle(), serverIds(servers), servers.length, metadata.getLeaseExpireTime(),
+                metadata.getVersion());
+        namespace.setChunkHandle(filename, chunkIndex, metadata.getChunkHandle());
+        logOperation(LogRecord.addChunk(Namespace.normalize(filename), chunkIndex, metadata.getChunkHandle()));
         return metadata;
     }
 
+    /**
+     * append the mutation to the operation log, after it's applied and under the path's lock
+     * so a checkpoint started later sees it. it's durable once syncLog() returns
+     * @param record
+     */
+    private void logOperation(LogRecord record) {
+        if (null == operationLog) {
+            return;
+        }
+        long txid = operationLog.append(record);
+        if (txid - checkpointTxid >= checkpointOps && checkpointScheduled.compareAndSet(false, true)) {
+            checkpointer.execute(() -> {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    logger.error("checkpoint error", e);
+                } finally {
+                    checkpointScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * make the mutations logged so far durable
+     * @return false if the log can't be written
+     */
+    private boolean syncLog() {
+        if (null == operationLog) {
+            return true;
+        }
+        try {
+            operationLog.sync();
+            return true;
+        } catch (IOException e) {
+            logger.error("sync operation log error", e);
+            return false;
+        }
+    }
+
+    /**
+     * write a checkpoint of the namespace while mutations go on, then drop the log it covers
+     * the log is rolled first, a file is copied under its read lock, and the records after the roll are
+     * replayed over the checkpoint on recovery, whether or not it caught them
+     * @return the txid the checkpoint covers
+     * @throws IOException
+     */
+    public long checkpoint() throws IOException {
+        if (null == operationLog) {
+            throw new IllegalStateException("the master keeps no log");
+        }
+        synchronized (checkpointLock) {
+            long txid = operationLog.roll();
+            long nextHandle = handleAllocator.peek();
+            try (Checkpoint.Writer writer = new Checkpoint.Writer(logDir, txid, nextHandle)) {
+                IOException[] error = new IOException[1];
+                namespace.forEachFile(path -> {
+                    if (null != error[0]) {
+                        return;
+                    }
+                    FileInfo info;
+                    try (Namespace.PathLock lock = namespace.lock(path, false)) {
+                        info = namespace.stat(path);
+                    }
+                    if (null != info) {
+                        try {
+                            writer.writeFile(path, info.getCreateTime(), info.getChunkSize(), info.getChunkHandles());
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                    }
+                });
+                if (null != error[0]) {
+                    throw error[0];
+                }
+                writer.commit();
+            }
+            checkpointTxid = txid;
+            operationLog.purge(txid);
+            Checkpoint.purge(logDir, txid);
+            logger.info("checkpoint at txid {}", txid);
+            return txid;
+        }
+    }
+
+    /**
+     * load the newest checkpoint that can be read and replay the log after it
+     * @return the last txid in the log
+     * @throws IOException
+     */
+    private long recover() throws IOException {
+        long txid = 0;
+        for (long candidate : Checkpoint.list(logDir)) {
+            try {
+                Checkpoint.Header header = Checkpoint.read(logDir, candidate, (path, createTime, chunkSize, chunkHandles) -> {
+                    namespace.create(path, createTime, chunkSize);
+                    for (int i = 0; i < chunkHandles.length; i++) {
+                        namespace.setChunkHandle(path, i, chunkHandles[i]);
+                    }
+                });
+                handleAllocator.advancePast(header.getNextHandle() - 1);
+                txid = header.getTxid();
+                break;
+            } catch (UnsupportedFormatException e) {
+                // an older checkpoint or the log after it would lose or misread the files, don't start at all
+                throw e;
+            } catch (IOException e) {
+                logger.error("load checkpoint {} error", candidate, e);
+            }
+        }
+        checkpointTxid = txid;
+        long lastTxid = OperationLog.replay(logDir, txid, this::apply);
+        // every live chunk gets a record, its replicas come from the block reports
+        namespace.forEachFile(path -> {
+            for (long chunkHandle : namespace.stat(path).getChunkHandles()) {
+                if (Namespace.NO_HANDLE != chunkHandle) {
+                    chunkTable.put(chunkHandle, new int[0], 0, 0);
+                }
+            }
+        });
+        logger.info("recovered {} files up to txid {}", namespace.getFileCount(), lastTxid);
+        return lastTxid;
+    }
+
+    /**
+     * replay a logged mutation, it may already be in the state
+     * @param record
+     */
+    private void apply(LogRecord record) {
+        switch (record.getType()) {
+            case CREATE_FILE:
+                namespace.create(record.getPath(), record.getTime(), record.getChunkSize());
+                break;
+            case ADD_CHUNK:
+                namespace.setChunkHandle(record.getPath(), record.getChunkIndex(), record.getChunkHandle());
+                handleAllocator.advancePast(record.getChunkHandle());
+                break;
+            case DELETE_FILE:
+            default:
+                namespace.delete(record.getPath());
+                break;
+        }
+    }
+
+    /**
+     * stop checkpointing and close the operation log
+     * @return false if the log couldn't be closed
+     */
+    public boolean close() {
+        if (null == operationLog) {
+            return true;
+        }
+        checkpointer.shutdown();
+        try {
+            checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            operationLog.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            logger.error("close operation log error", e);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * when primary finish the create work, then primary will call this function
      * @param metadata
      */
     public void addChunkMetatdat(ChunkMetadata metadata) {
-        chunkMetadataMap.put(metadata.getChunkHandle(), metadata);
-        // update chunkserver info
-        Set<ChunkServer> servers = new HashSet<>(Arrays.asList(metadata.getChunkServers()));
-        for (ChunkServerInfo info : chunkServerInfos) {
-            if (servers.contains(info.server)) {
-                info.chunkNum++;
-            }
+        // the master recorded the chunk when it placed it, and charged its servers,
+        // only a chunk of a file deleted meanwhile is missing, don't bring it back
+        ChunkServer[] servers = metadata.getChunkServers();
+        chunkTable.replace(metadata.getChunkHandle(), serverIds(servers), servers.length, metadata.getLeaseExpireTime());
+    }
+
+    private int[] serverIds(ChunkServer[] servers) {
+        int[] ids = new int[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            ids[i] = serverRegistry.register(servers[i]);
         }
+        return ids;
     }
 
     /**
      * when chunkserver start, it will check all chunks
-     * then report the chunk metadata
-     * @param chunkHandle
+     * then report them all, with their versions, in one block report applied in bulk.
+     * a replica older than the master's version missed mutations while its server was away, it's stale.
+     * a master recovered from its log knows every live chunk, the reported chunks it doesn't know
+     * belong to deleted files. without a log every reported chunk is taken
      * @param server
+     * @param chunkHandles
+     * @param versions
+     * @return the chunks the server should delete
      */
-    public void reportChunkMetadata(int chunkHandle, ChunkServer server) {
-        ChunkMetadata metadata = chunkMetadataMap.getOrDefault(chunkHandle, null);
-        if (null == metadata) {
-            // update chunk metadata map
-            metadata = new ChunkMetadata(chunkHandle, new ChunkServer[REPLICA_NUM]);
-            chunkMetadataMap.put(chunkHandle, metadata);
+    public long[] blockReport(ChunkServer server, long[] chunkHandles, long[] versions) {
+        long max = -1;
+        for (long chunkHandle : chunkHandles) {
+            max = Math.max(max, chunkHandle);
         }
-        ChunkServer[] servers = metadata.getChunkServers();
-        for (int i = 0; i < REPLICA_NUM; i++) {
-            if (null == servers[i]) {
-                servers[i] = server;
-                break;
+        handleAllocator.advancePast(max);
+        chunkTable.addReplicas(chunkHandles, versions, chunkHandles.length, serverRegistry.register(server),
+                null == operationLog, this::collectGarbage);
+        return drainGarbage(server);
+    }
+
+    /**
+     * reconcile the chunks a server created or lost since its last heartbeat, extend the leases it asks for,
+     * and take its usage
+     * @param server
+     * @param heartbeat
+     * @return the chunks the server should delete: those of deleted files, stale ones, and added ones
+     *         the master doesn't know. and the leases extended, those the server still holds
+     */
+    public HeartbeatReply heartbeat(ChunkServer server, Heartbeat heartbeat) {
+        int id = serverRegistry.register(server);
+        for (long chunkHandle : heartbeat.getRemovedChunks()) {
+            chunkTable.removeReplica(chunkHandle, id);
+        }
+        long[] added = heartbeat.getAddedChunks();
+        chunkTable.addReplicas(added, heartbeat.getAddedVersions(), added.length, id, false, this::collectGarbage);
+        long now = System.currentTimeMillis();
+        long leaseExpireTime = now + leaseMillis;
+        long[] extensions = heartbeat.getLeaseExtensions();
+        long[] extended = new long[extensions.length];
+        int count = 0;
+        for (long chunkHandle : extensions) {
+            if (chunkTable.extendLease(chunkHandle, id, now, leaseExpireTime)) {
+                extended[count++] = chunkHandle;
             }
         }
+        placementEngine.updateUsage(server, heartbeat.getUsedBytes(), heartbeat.getChunkNum());
+        return new HeartbeatReply(drainGarbage(server), Arrays.copyOf(extended, count), leaseExpireTime);
+    }
+
+    /**
+     * a server found a checksum mismatch in its replica of the chunk and dropped it,
+     * the replica isn't handed out anymore
+     * @param server
+     * @param chunkHandle
+     */
+    public void reportCorruptChunk(ChunkServer server, long chunkHandle) {
+        chunkTable.removeReplica(chunkHandle, serverRegistry.register(server));
+        corruptReplicas.increment();
+        logger.warn("{}'s replica of chunk {} is corrupt", server.getChunkServerName(), chunkHandle);
+    }
+
+    public long getCorruptReplicas() {
+        return corruptReplicas.sum();
+    }
+
+    private void collectGarbage(long chunkHandle, int id) {
+        ChunkServer server = serverRegistry.getServer(id);
+        if (null != server) {
+            garbage.computeIfAbsent(server, key -> new ConcurrentLinkedQueue<>()).add(chunkHandle);
+        }
+    }
+
+    private long[] drainGarbage(ChunkServer server) {
+        Queue<Long> queue = garbage.get(server);
+        if (null == queue) {
+            return new long[0];
+        }
+        List<Long> chunkHandles = new ArrayList<>();
+        Long chunkHandle;
+        while (null != (chunkHandle = queue.poll())) {
+            chunkHandles.add(chunkHandle);
+        }
+        return chunkHandles.stream().mapToLong(Long::longValue).toArray();
     }
 
     public void printChunkServerInfos() {
         System.out.println("chunserver : chunkname");
-        for (ChunkServerInfo info : chunkServerInfos) {
-            System.out.println(info.server.getChunkServerName() + " : " + info.chunkNum);
+        for (Map.Entry<String, Integer> entry : placementEngine.getChunkNums().entrySet()) {
+            System.out.println(entry.getKey() + " : " + entry.getValue());
         }
     }
 }
@@ -0,0 +1,179 @@
+package com.twd.role;
+
+import com.twd.element.ChunkMetadata;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @author twd
+ * @description choose the chunkservers a new chunk is placed on
+ *              servers are kept in a tree ordered by how full they are (bytes used / capacity, then most free bytes),
+ *              so the emptiest servers are taken off its head in O(log n) each, and are never taken twice for one chunk.
+ *              a placed chunk is charged as a full chunk to each of its servers until they report their real usage
+ * @date 2026-10-18
+ */
+public class PlacementEngine {
+    private static class Node {
+        final ChunkServer server;
+
+        /**
+         * breaks ties, keeps nodes distinct in the tree
+         */
+        final long id;
+
+        final long capacity;
+
+        long usedBytes;
+
+        int chunkNum;
+
+        Node(ChunkServer server, long id, long capacity) {
+            this.server = server;
+            this.id = id;
+            this.capacity = capacity;
+        }
+
+        double utilization() {
+            return (double) usedBytes / capacity;
+        }
+
+        long freeBytes() {
+            return capacity - usedBytes;
+        }
+    }
+
+    private static final Comparator<Node> BY_UTILIZATION = Comparator
+            .comparingDouble(Node::utilization)
+            .thenComparing(Comparator.comparingLong(Node::freeBytes).reversed())
+            .thenComparingLong(node -> node.id);
+
+    /**
+     * what a placed chunk is charged to each of its servers unless its size is given
+     */
+    private final long chunkBytes;
+
+    private final TreeSet<Node> tree = new TreeSet<>(BY_UTILIZATION);
+
+    private final Map<ChunkServer, Node> nodes = new HashMap<>();
+
+    private long nextId;
+
+    public PlacementEngine() {
+        this(ChunkMetadata.CHUNK_SIZE);
+    }
+
+    public PlacementEngine(long chunkBytes) {
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * add a server, or update one already added
+     * @param server
+     * @param capacity the bytes the server can store
+     * @param usedBytes the bytes the server stores already
+     * @param chunkNum the chunks the server stores already
+     */
+    public synchronized void addServer(ChunkServer server, long capacity, long usedBytes, int chunkNum) {
+        Node node = nodes.remove(server);
+        if (null != node) {
+            tree.remove(node);
+        }
+        node = new Node(server, nextId++, Math.max(1, capacity));
+        node.usedBytes = usedBytes;
+        node.chunkNum = chunkNum;
+        nodes.put(server, node);
+        tree.add(node);
+    }
+
+    public synchronized void removeServer(ChunkServer server) {
+        Node node = nodes.remove(server);
+        if (null != node) {
+            tree.remove(node);
+        }
+    }
+
+    /**
+     * replace the usage charged to the server with what it reports
+     * @param server
+     * @param usedBytes
+     * @param chunkNum
+     */
+    public synchronized void updateUsage(ChunkServer server, long usedBytes, int chunkNum) {
+        Node node = nodes.get(server);
+        if (null == node) {
+            return;
+        }
+        tree.remove(node);
+        node.usedBytes = usedBytes;
+        node.chunkNum = chunkNum;
+        tree.add(node);
+    }
+
+    /**
+     * choose distinct servers for a new chunk, the emptiest first, and charge the chunk to them
+     * @param count the replicas wanted
+     * @return fewer servers than asked if not enough have room
+     */
+    public ChunkServer[] place(int count) {
+        return place(count, chunkBytes);
+    }
+
+    /**
+     * choose distinct servers for a new chunk, the emptiest first, and charge the chunk to them
+     * @param count the replicas wanted
+     * @param chunkBytes the chunk size of the chunk's file
+     * @return fewer servers than asked if not enough have room
+     */
+    public synchronized ChunkServer[] place(int count, long chunkBytes) {
+        List<Node> chosen = new ArrayList<>(count);
+        List<Node> full = new ArrayList<>();
+        while (chosen.size() < count && !tree.isEmpty()) {
+            Node node = tree.pollFirst();
+            if (node.freeBytes() < chunkBytes) {
+                full.add(node);
+            } else {
+                chosen.add(node);
+            }
+        }
+        ChunkServer[] servers = new ChunkServer[chosen.size()];
+        for (int i = 0; i < servers.length; i++) {
+            Node node = chosen.get(i);
+            node.usedBytes += chunkBytes;
+            node.chunkNum++;
+            servers[i] = node.server;
+            tree.add(node);
+        }
+        tree.addAll(full);
+        return servers;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized long getUsedBytes(ChunkServer server) {
+        Node node = nodes.get(server);
+        return null == node ? -1 : node.usedBytes;
+    }
+
+    public synchronized int getChunkNum(ChunkServer server) {
+        Node node = nodes.get(server);
+        return null == node ? -1 : node.chunkNum;
+    }
+
+    /**
+     * @return the chunk num of every server, by chunkserver name
+     */
+    public synchronized Map<String, Integer> getChunkNums() {
+        Map<String, Integer> chunkNums = new HashMap<>();
+        for (Node node : tree) {
+            chunkNums.put(node.server.getChunkServerName(), node.chunkNum);
+        }
+        return chunkNums;
+    }
+}
@@ -0,0 +1,21 @@
+package com.twd.role;
+
+/**
+ * @author twd
+ * @description decide the order in which a chained push visits the replicas
+ *              the first server receives the data from the client, each next one from the server before it
+ * @date 2026-10-18
+ */
+public interface PushChainPolicy {
+    /**
+     * keep the order given by the master, the primary first
+     */
+    PushChainPolicy AS_GIVEN = replicas -> replicas.clone();
+
+    /**
+     * order the replicas into a push chain
+     * @param replicas the replicas of the chunk, not modified
+     * @return the push chain
+     */
+    ChunkServer[] order(ChunkServer[] replicas);
+}
@@ -0,0 +1,23 @@
+package com.twd.role;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author twd
+ * @description pick a replica uniformly at random
+ * @date 2026-10-18
+ */
+public class RandomReplicaSelector implements ReplicaSelector {
+    @Override
+    public ChunkServer select(ChunkServer[] replicas, Collection<ChunkServer> exclude) {
+        int start = ThreadLocalRandom.current().nextInt(replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            ChunkServer server = replicas[(start + i) % replicas.length];
+            if (null != server && !exclude.contains(server)) {
+                return server;
+            }
+        }
+        return null;
+    }
+}
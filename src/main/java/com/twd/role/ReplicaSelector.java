@@ -0,0 +1,41 @@
+package com.twd.role;
+
+import java.util.Collection;
+
+/**
+ * @author twd
+ * @description choose the replica a client reads from
+ *              the client reports every read it sends, so a selector can learn which replicas are fast
+ * @date 2026-10-18
+ */
+public interface ReplicaSelector {
+    /**
+     * @param replicas the replicas of the chunk, some may be null
+     * @param exclude replicas not to choose, e.g. the ones already tried
+     * @return null if no replica is left
+     */
+    ChunkServer select(ChunkServer[] replicas, Collection<ChunkServer> exclude);
+
+    /**
+     * a read was sent to the server
+     * @param server
+     */
+    default void onStart(ChunkServer server) { }
+
+    /**
+     * a read sent to the server came back
+     * @param server
+     * @param latencyNanos
+     * @param success
+     */
+    default void onFinish(ChunkServer server, long latencyNanos, boolean success) { }
+
+    /**
+     * how long to wait for a read from the server before hedging it to another replica
+     * @param server
+     * @return the delay in nanoseconds, or -1 not to hedge
+     */
+    default long hedgeDelayNanos(ChunkServer server) {
+        return -1;
+    }
+}
@@ -0,0 +1,116 @@
+package com.twd.role;
+
+import com.twd.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description what a client has seen of the reads it sent to one replica
+ * @date 2026-10-18
+ */
+public class ReplicaStats {
+    private final String chunkServerName;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * the double bits of the moving average latency in nanoseconds
+     */
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0));
+
+    private volatile long lastUpdateNanos = System.nanoTime();
+
+    /**
+     * when the outstanding reads last went from none to one
+     */
+    private volatile long busySinceNanos = System.nanoTime();
+
+    public ReplicaStats(String chunkServerName) {
+        this.chunkServerName = chunkServerName;
+    }
+
+    public String getChunkServerName() {
+        return chunkServerName;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * the moving average latency in nanoseconds as of the last read
+     */
+    public double getEwmaNanos() {
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    /**
+     * while the replica is idle, the moving average decayed towards 0 for the time no read came back, so a replica
+     * that was slow once is tried again after a while instead of being shunned forever.
+     * while reads are outstanding it doesn't decay, and the time the replica has gone without answering any of them
+     * counts as a latency, so a hung replica gets dearer the longer it hangs
+     * @param decayNanos the time constant of the decay
+     */
+    public double getEwmaNanos(long decayNanos) {
+        long now = System.nanoTime();
+        double ewma = getEwmaNanos();
+        if (outstanding.get() > 0) {
+            // some read has waited at least this long, since the last answer or since the replica became busy
+            long unanswered = now - Math.max(lastUpdateNanos, busySinceNanos);
+            return Math.max(ewma, unanswered);
+        }
+        long idle = now - lastUpdateNanos;
+        return ewma * Math.exp(-(double) Math.max(0, idle) / decayNanos);
+    }
+
+    void start() {
+        if (1 == outstanding.incrementAndGet()) {
+            busySinceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param latencyNanos
+     * @param success
+     * @param alpha the weight of this read in the moving average
+     */
+    void finish(long latencyNanos, boolean success, double alpha) {
+        outstanding.decrementAndGet();
+        requests.increment();
+        if (success) {
+            latency.record(latencyNanos);
+        } else {
+            errors.increment();
+        }
+        long current;
+        double updated;
+        do {
+            current = ewmaBits.get();
+            double ewma = Double.longBitsToDouble(current);
+            // the first sample sets the average, later ones move it by alpha
+            updated = 0 == ewma ? latencyNanos : ewma + alpha * (latencyNanos - ewma);
+        } while (!ewmaBits.compareAndSet(current, Double.doubleToLongBits(updated)));
+        lastUpdateNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,183 @@
+package com.twd.role;
+
+import com.twd.element.Chunk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description verifies the checksums of a chunkserver's cold chunks, those nobody read or wrote lately,
+ *              so corruption is found before a client needs the data. a hot chunk is verified by its own reads.
+ *              the reads are throttled to a byte rate so scrubbing doesn't compete with clients for the disk
+ * @date 2026-10-18
+ */
+public class Scrubber {
+    /**
+     * the bytes scrubbed per second, set by -Dgfs.scrub.bytes.per.second
+     */
+    public static final long DEFAULT_BYTES_PER_SECOND = Long.getLong("gfs.scrub.bytes.per.second", 4L << 20);
+
+    /**
+     * the pause between two passes over the chunks, set by -Dgfs.scrub.period.millis
+     */
+    public static final long PERIOD_MILLIS = Long.getLong("gfs.scrub.period.millis", 60_000L);
+
+    /**
+     * a chunk read or written within this long isn't scrubbed
+     */
+    public static final long DEFAULT_IDLE_MILLIS = 60_000L;
+
+    private final ChunkServer server;
+
+    private volatile long bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+
+    private volatile long idleMillis = DEFAULT_IDLE_MILLIS;
+
+    /**
+     * when the throttle lets the next read go, only the scrubbing thread touches it
+     */
+    private long nextReadNanos;
+
+    private final LongAdder scrubbedChunks = new LongAdder();
+
+    private final LongAdder scrubbedBytes = new LongAdder();
+
+    private final LongAdder corruptChunks = new LongAdder();
+
+    private final Logger logger;
+
+    public Scrubber(ChunkServer server) {
+        this.server = server;
+        logger = LoggerFactory.getLogger(server.getChunkServerName() + "-scrubber");
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond 0 for no limit
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    public void setIdleMillis(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    public long getScrubbedChunks() {
+        return scrubbedChunks.sum();
+    }
+
+    public long getScrubbedBytes() {
+        return scrubbedBytes.sum();
+    }
+
+    public long getCorruptChunks() {
+        return corruptChunks.sum();
+    }
+
+    /**
+     * one pass over the server's chunks: the ones a write already found corrupt are reported,
+     * the cold ones are read back block by block and verified
+     * @return the corrupt chunks found
+     */
+    public synchronized int scrub() {
+        List<Chunk> chunks = new ArrayList<>(server.getChunks());
+        ByteBuffer block = ByteBuffer.allocate(Math.max(Chunk.CHECKSUM_BLOCK_SIZE, 1));
+        long idleSince = System.currentTimeMillis() - idleMillis;
+        int corrupt = 0;
+        try {
+            for (Chunk chunk : chunks) {
+                if (!chunk.isCorrupt() && chunk.getLastAccessMillis() > idleSince) {
+                    continue;
+                }
+                if (!chunk.isCorrupt() && scrub(chunk, block)) {
+                    continue;
+                }
+                if (chunk.isCorrupt()) {
+                    corrupt++;
+                    corruptChunks.increment();
+                    server.reportCorrupt(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // keep the scheduled passes going
+            logger.error("scrub error", e);
+        }
+        if (corrupt > 0) {
+            logger.warn("found {} corrupt chunk(s)", corrupt);
+        }
+        return corrupt;
+    }
+
+    /**
+     * a chunk that wasn't open is closed again once scrubbed, so a pass doesn't push the hot chunks
+     * out of the open chunk cache
+     * @return false if the chunk is corrupt or was dropped while it was scrubbed
+     */
+    private boolean scrub(Chunk chunk, ByteBuffer block) throws InterruptedException {
+        boolean wasOpen = chunk.isOpen();
+        try {
+            return scrubBlocks(chunk, block);
+        } finally {
+            if (!wasOpen) {
+                server.getOpenChunkCache().evict(chunk);
+            }
+        }
+    }
+
+    private boolean scrubBlocks(Chunk chunk, ByteBuffer block) throws InterruptedException {
+        int size = chunk.size();
+        for (int offset = 0; offset < size; offset += block.capacity()) {
+            int len = Math.min(block.capacity(), size - offset);
+            throttle(len);
+            block.clear();
+            block.limit(len);
+            int n;
+            chunk.readLock().lock();
+            try {
+                // a dropped chunk's file is gone, reading would create it again
+                if (!server.holds(chunk)) {
+                    return false;
+                }
+                n = chunk.read(offset, block);
+            } finally {
+                chunk.readLock().unlock();
+            }
+            if (n < 0) {
+                return false;
+            }
+            scrubbedBytes.add(n);
+        }
+        scrubbedChunks.increment();
+        return true;
+    }
+
+    private void throttle(int bytes) throws InterruptedException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        // an idle scrubber doesn't save up a burst
+        long start = Math.max(now, nextReadNanos);
+        nextReadNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        if (start > now) {
+            TimeUnit.NANOSECONDS.sleep(start - now);
+        }
+    }
+}
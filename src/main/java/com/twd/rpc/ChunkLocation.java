@@ -0,0 +1,41 @@
+package com.twd.rpc;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @author twd
+ * @description a chunk's metadata as a remote client sees it: the replicas are addresses, the first the primary
+ * @date 2026-10-18
+ */
+public class ChunkLocation {
+    private final long chunkHandle;
+
+    private final long version;
+
+    private final long leaseExpireTime;
+
+    private final InetSocketAddress[] replicas;
+
+    public ChunkLocation(long chunkHandle, long version, long leaseExpireTime, InetSocketAddress[] replicas) {
+        this.chunkHandle = chunkHandle;
+        this.version = version;
+        this.leaseExpireTime = leaseExpireTime;
+        this.replicas = replicas;
+    }
+
+    public long getChunkHandle() {
+        return chunkHandle;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLeaseExpireTime() {
+        return leaseExpireTime;
+    }
+
+    public InetSocketAddress[] getReplicas() {
+        return replicas;
+    }
+}
@@ -0,0 +1,110 @@
+package com.twd.rpc;
+
+import com.twd.element.WriteResult;
+import com.twd.role.ChunkServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description a chunkserver's calls over the network, the data path of clients in other processes.
+ *              a read is sent from the chunk file to the socket with transferTo
+ * @date 2026-10-18
+ */
+public class ChunkServerService implements RpcServer.Handler {
+    /**
+     * [long handle][int offset][int len] -> the bytes
+     */
+    public static final byte READ = 1;
+
+    /**
+     * [long client id][long handle][int offset][data] -> nothing
+     */
+    public static final byte PUSH = 2;
+
+    /**
+     * [long client id][long handle][int offset] -> [long lease expire time]
+     */
+    public static final byte WRITE = 3;
+
+    /**
+     * [long handle] -> nothing
+     */
+    public static final byte CREATE = 4;
+
+    private final ChunkServer server;
+
+    public ChunkServerService(ChunkServer server) {
+        this.server = server;
+    }
+
+    /**
+     * take calls for the server at the address, the master hands the bound address out to clients
+     * @param server
+     * @param address port 0 picks a free one
+     * @return the running rpc server
+     * @throws IOException
+     */
+    public static RpcServer serve(ChunkServer server, InetSocketAddress address) throws IOException {
+        RpcServer rpcServer = new RpcServer(address, new ChunkServerService(server));
+        server.setAddress(rpcServer.getAddress());
+        return rpcServer;
+    }
+
+    /**
+     * reads and pushes only touch the page cache and the push buffer
+     */
+    @Override
+    public boolean inline(byte method) {
+        return READ == method || PUSH == method;
+    }
+
+    @Override
+    public void handle(RpcCall call) {
+        ByteBuffer payload = call.getPayload();
+        switch (call.getMethod()) {
+            case READ: {
+                long chunkHandle = payload.getLong();
+                int offset = payload.getInt();
+                int len = payload.getInt();
+                int available = server.prepareTransfer(chunkHandle, offset, len);
+                if (available < 0) {
+                    call.reply(RpcResponse.ERROR);
+                    return;
+                }
+                call.reply(RpcResponse.OK, ByteBuffer.allocate(0), new FileRegion(
+                        (position, count, target) -> server.transferTo(chunkHandle, position, count, target),
+                        offset, available));
+                return;
+            }
+            case PUSH: {
+                long clientId = payload.getLong();
+                long chunkHandle = payload.getLong();
+                int offset = payload.getInt();
+                call.reply(server.push(clientId, chunkHandle, offset, payload) ? RpcResponse.OK : RpcResponse.ERROR);
+                return;
+            }
+            case WRITE: {
+                long clientId = payload.getLong();
+                long chunkHandle = payload.getLong();
+                int offset = payload.getInt();
+                WriteResult result = server.write(clientId, chunkHandle, offset);
+                if (!result.isSuccess()) {
+                    call.reply(RpcResponse.ERROR);
+                    return;
+                }
+                ByteBuffer reply = ByteBuffer.allocate(Long.BYTES);
+                reply.putLong(0, result.getLeaseExpireTime());
+                call.reply(RpcResponse.OK, reply);
+                return;
+            }
+            case CREATE:
+                call.reply(server.create(payload.getLong()) ? RpcResponse.OK : RpcResponse.ERROR);
+                return;
+            default:
+                call.reply(RpcResponse.ERROR);
+        }
+    }
+}
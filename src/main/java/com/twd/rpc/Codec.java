@@ -0,0 +1,29 @@
+package com.twd.rpc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author twd
+ * @description strings in payloads: a short length then the utf-8 bytes
+ * @date 2026-10-18
+ */
+final class Codec {
+    private Codec() {
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getShort() & 0xffff];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
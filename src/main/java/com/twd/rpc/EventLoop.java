@@ -0,0 +1,114 @@
+package com.twd.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author twd
+ * @description one selector thread serving many connections: it accepts, reads frames, and writes out
+ *              what other threads queued. other threads hand it work with execute()
+ * @date 2026-10-18
+ */
+class EventLoop implements Closeable {
+    /**
+     * what a selection key is attached to
+     */
+    interface Handler {
+        void onReady(SelectionKey key) throws IOException;
+
+        void onError(IOException e);
+    }
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    private final Logger logger;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        logger = LoggerFactory.getLogger(name);
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * run the task on the loop thread
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.error("select error", e);
+                break;
+            }
+            Runnable task;
+            while (null != (task = tasks.poll())) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("event loop task error", e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isValid()) {
+                        handler.onReady(key);
+                    }
+                } catch (IOException e) {
+                    handler.onError(e);
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                logger.error("close channel error", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("close selector error", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,59 @@
+package com.twd.rpc;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author twd
+ * @description a range of a file sent to the socket with FileChannel.transferTo,
+ *              the bytes go from the page cache to the socket without passing through the heap
+ * @date 2026-10-18
+ */
+public class FileRegion implements Outbound {
+    /**
+     * the file the region is cut from
+     */
+    public interface Source {
+        /**
+         * @param position
+         * @param count
+         * @param target
+         * @return the bytes transferred, may be fewer than count when the socket is full
+         * @throws IOException
+         */
+        long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+    }
+
+    private final Source source;
+
+    private long position;
+
+    private long remaining;
+
+    public FileRegion(Source source, long position, long count) {
+        this.source = source;
+        this.position = position;
+        this.remaining = count;
+    }
+
+    public long count() {
+        return remaining;
+    }
+
+    @Override
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        while (remaining > 0) {
+            long n = source.transferTo(position, remaining, channel);
+            if (n < 0) {
+                throw new IOException("file region ends early");
+            }
+            if (0 == n) {
+                return false;
+            }
+            position += n;
+            remaining -= n;
+        }
+        return true;
+    }
+}
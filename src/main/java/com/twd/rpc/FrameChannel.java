@@ -0,0 +1,301 @@
+package com.twd.rpc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author twd
+ * @description one connection cut into frames: [int length][long call id][byte code][payload],
+ *              the length counts the bytes after it. calls and replies on one connection are told apart
+ *              by their call id, so any number of them can be in flight and replies can come in any order.
+ *              frames queued by other threads are written out by the event loop, several at a time
+ * @date 2026-10-18
+ */
+class FrameChannel implements EventLoop.Handler {
+    static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + 1;
+
+    /**
+     * the largest payload taken, a bad length closes the connection
+     */
+    static final int MAX_PAYLOAD_SIZE = 128 << 20;
+
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+
+    /**
+     * buffers written with one gathering write
+     */
+    private static final int GATHER = 64;
+
+    interface Listener {
+        void onFrame(FrameChannel channel, long callId, byte code, ByteBuffer payload);
+
+        void onClose(FrameChannel channel, IOException cause);
+    }
+
+    private final SocketChannel channel;
+
+    private final EventLoop loop;
+
+    private final Listener listener;
+
+    private volatile SelectionKey key;
+
+    private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * one writer at a time, the loop or a sending thread
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+
+    private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * the payload of a frame too large for the read buffer, read straight from the socket
+     */
+    private ByteBuffer body;
+
+    private long bodyCallId;
+
+    private byte bodyCode;
+
+    private volatile boolean closed;
+
+    FrameChannel(SocketChannel channel, EventLoop loop, Listener listener) {
+        this.channel = channel;
+        this.loop = loop;
+        this.listener = listener;
+    }
+
+    static ByteBuffer header(long callId, byte code, int payloadLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(HEADER_SIZE - Integer.BYTES + payloadLength);
+        header.putLong(callId);
+        header.put(code);
+        header.flip();
+        return header;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * start reading, on the loop thread
+     */
+    void register() {
+        try {
+            key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+            if (!outbound.isEmpty()) {
+                flush();
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * queue a frame, the parts go out back to back
+     * @param parts the header, then the payload
+     * @return false if the connection is closed
+     */
+    boolean send(Outbound... parts) {
+        if (closed) {
+            return false;
+        }
+        synchronized (outbound) {
+            outbound.addAll(Arrays.asList(parts));
+        }
+        // write from this thread while the socket takes it, the loop only steps in when it's full
+        // or another thread is writing. it saves a wakeup and a thread hand-off per frame
+        if (null != key && writeLock.tryLock()) {
+            boolean drained;
+            try {
+                drained = write();
+            } catch (IOException e) {
+                close(e);
+                return true;
+            } finally {
+                writeLock.unlock();
+            }
+            if (drained) {
+                return true;
+            }
+        }
+        // one flush writes out every frame queued until it runs
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                if (null == key) {
+                    // flushed once registered
+                    return;
+                }
+                try {
+                    flush();
+                } catch (IOException e) {
+                    close(e);
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onError(IOException e) {
+        close(e);
+    }
+
+    /**
+     * write on the loop thread, waiting for the socket to drain if it's full
+     */
+    private void flush() throws IOException {
+        writeLock.lock();
+        try {
+            interest(write() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * write out the queued parts, the caller holds the write lock
+     * @return true if all were written, false if the socket is full
+     */
+    private boolean write() throws IOException {
+        while (!closed) {
+            Outbound head = outbound.peek();
+            if (null == head) {
+                return true;
+            }
+            boolean done;
+            if (head instanceof Outbound.BufferOutbound) {
+                int count = 0;
+                for (Outbound part : outbound) {
+                    if (!(part instanceof Outbound.BufferOutbound) || GATHER == count) {
+                        break;
+                    }
+                    gather[count++] = ((Outbound.BufferOutbound) part).buffer;
+                }
+                channel.write(gather, 0, count);
+                int written = 0;
+                while (written < count && !gather[written].hasRemaining()) {
+                    outbound.poll();
+                    written++;
+                }
+                Arrays.fill(gather, 0, count, null);
+                done = written == count;
+            } else {
+                done = head.writeTo(channel);
+                if (done) {
+                    outbound.poll();
+                }
+            }
+            if (!done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void interest(int ops) {
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    private void read() throws IOException {
+        while (true) {
+            int n = null != body ? channel.read(body) : channel.read(in);
+            if (n < 0) {
+                close(new EOFException("connection closed by peer"));
+                return;
+            }
+            if (null != body) {
+                if (body.hasRemaining()) {
+                    return;
+                }
+                body.flip();
+                ByteBuffer payload = body;
+                body = null;
+                listener.onFrame(this, bodyCallId, bodyCode, payload);
+                continue;
+            }
+            in.flip();
+            parse();
+            in.compact();
+            if (0 == n) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * hand out the whole frames in the read buffer
+     */
+    private void parse() throws IOException {
+        while (in.remaining() >= HEADER_SIZE) {
+            int payloadLength = in.getInt(in.position()) - (HEADER_SIZE - Integer.BYTES);
+            if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_SIZE) {
+                throw new IOException("bad frame length " + payloadLength);
+            }
+            boolean whole = in.remaining() >= HEADER_SIZE + payloadLength;
+            if (!whole && HEADER_SIZE + payloadLength <= in.capacity()) {
+                // the rest comes with the next read
+                return;
+            }
+            in.getInt();
+            long callId = in.getLong();
+            byte code = in.get();
+            ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            int limit = in.limit();
+            in.limit(in.position() + Math.min(payloadLength, in.remaining()));
+            payload.put(in);
+            in.limit(limit);
+            if (!whole) {
+                body = payload;
+                bodyCallId = callId;
+                bodyCode = code;
+                return;
+            }
+            payload.flip();
+            listener.onFrame(this, callId, code, payload);
+        }
+    }
+
+    void close(IOException cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (null != key) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        listener.onClose(this, cause);
+    }
+}
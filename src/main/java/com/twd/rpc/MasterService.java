@@ -0,0 +1,107 @@
+package com.twd.rpc;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.role.ChunkServer;
+import com.twd.role.Master;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description the master's metadata calls over the network
+ * @date 2026-10-18
+ */
+public class MasterService implements RpcServer.Handler {
+    /**
+     * [int request][int chunk index][string filename]
+     * -> [long handle][long version][long lease expire time][int n] n * ([string host][int port])
+     */
+    public static final byte LOOKUP = 1;
+
+    /**
+     * [string filename] -> [int chunk size], an error if there's no such file
+     */
+    public static final byte CHUNK_SIZE = 2;
+
+    /**
+     * [int chunk size][string filename] -> as LOOKUP, the file's first chunk
+     */
+    public static final byte CREATE = 3;
+
+    private final Master master;
+
+    public MasterService(Master master) {
+        this.master = master;
+    }
+
+    public static RpcServer serve(Master master, InetSocketAddress address) throws IOException {
+        return new RpcServer(address, new MasterService(master));
+    }
+
+    @Override
+    public void handle(RpcCall call) {
+        ByteBuffer payload = call.getPayload();
+        switch (call.getMethod()) {
+            case LOOKUP: {
+                int request = payload.getInt();
+                int chunkIndex = payload.getInt();
+                String filename = Codec.getString(payload);
+                replyLocation(call, master.getChunkMetadata(new ChunkRequest(filename, chunkIndex), request));
+                return;
+            }
+            case CHUNK_SIZE: {
+                int chunkSize = master.getChunkSize(Codec.getString(payload));
+                if (chunkSize < 0) {
+                    call.reply(RpcResponse.ERROR);
+                    return;
+                }
+                ByteBuffer reply = ByteBuffer.allocate(Integer.BYTES);
+                reply.putInt(chunkSize);
+                reply.flip();
+                call.reply(RpcResponse.OK, reply);
+                return;
+            }
+            case CREATE: {
+                int chunkSize = payload.getInt();
+                replyLocation(call, master.create(Codec.getString(payload), chunkSize));
+                return;
+            }
+            default:
+                call.reply(RpcResponse.ERROR);
+        }
+    }
+
+    private void replyLocation(RpcCall call, ChunkMetadata metadata) {
+        if (null == metadata) {
+            call.reply(RpcResponse.ERROR);
+            return;
+        }
+        ChunkServer[] servers = metadata.getChunkServers();
+        byte[][] hosts = new byte[servers.length][];
+        int size = 3 * Long.BYTES + Integer.BYTES;
+        for (int i = 0; i < servers.length; i++) {
+            InetSocketAddress address = servers[i].getAddress();
+            if (null == address) {
+                // a replica clients can't reach, the primary must be reachable
+                call.reply(RpcResponse.ERROR);
+                return;
+            }
+            hosts[i] = Codec.bytes(address.getHostString());
+            size += Short.BYTES + hosts[i].length + Integer.BYTES;
+        }
+        ByteBuffer reply = ByteBuffer.allocate(size);
+        reply.putLong(metadata.getChunkHandle());
+        reply.putLong(metadata.getVersion());
+        reply.putLong(metadata.getLeaseExpireTime());
+        reply.putInt(servers.length);
+        for (int i = 0; i < servers.length; i++) {
+            Codec.putString(reply, hosts[i]);
+            reply.putInt(servers[i].getAddress().getPort());
+        }
+        reply.flip();
+        call.reply(RpcResponse.OK, reply);
+    }
+}
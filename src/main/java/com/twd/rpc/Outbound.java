@@ -0,0 +1,41 @@
+package com.twd.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author twd
+ * @description a piece of a frame queued on a connection, written out by the event loop as the socket takes it
+ * @date 2026-10-18
+ */
+interface Outbound {
+    /**
+     * write as much as the socket takes
+     * @param channel
+     * @return true once all of it is written
+     * @throws IOException
+     */
+    boolean writeTo(SocketChannel channel) throws IOException;
+
+    /**
+     * bytes held in memory
+     */
+    static Outbound of(ByteBuffer buffer) {
+        return new BufferOutbound(buffer);
+    }
+
+    class BufferOutbound implements Outbound {
+        final ByteBuffer buffer;
+
+        BufferOutbound(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.twd.rpc;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author twd
+ * @description calls a chunkserver in another process. the calls return futures,
+ *              so a caller can pipeline many of them over one connection
+ * @date 2026-10-18
+ */
+public class RemoteChunkServer {
+    private final RpcClient client;
+
+    private final InetSocketAddress address;
+
+    public RemoteChunkServer(RpcClient client, InetSocketAddress address) {
+        this.client = client;
+        this.address = address;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @param chunkHandle
+     * @param offset
+     * @param len
+     * @return completes with the bytes read, fewer than len if the chunk ends early, null on failure
+     */
+    public CompletableFuture<ByteBuffer> read(long chunkHandle, int offset, int len) {
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + 2 * Integer.BYTES);
+        payload.putLong(chunkHandle).putInt(offset).putInt(len).flip();
+        return client.call(address, ChunkServerService.READ, payload)
+                .thenApply(response -> response.isOk() ? response.getPayload() : null);
+    }
+
+    /**
+     * @param clientId
+     * @param chunkHandle
+     * @param offset
+     * @param data sent from its position to its limit, left untouched
+     * @return
+     */
+    public CompletableFuture<Boolean> push(long clientId, long chunkHandle, int offset, ByteBuffer data) {
+        ByteBuffer head = ByteBuffer.allocate(2 * Long.BYTES + Integer.BYTES);
+        head.putLong(clientId).putLong(chunkHandle).putInt(offset).flip();
+        return client.call(address, ChunkServerService.PUSH, head, data).thenApply(RpcResponse::isOk);
+    }
+
+    /**
+     * @param clientId
+     * @param chunkHandle
+     * @param offset
+     * @return completes with the lease's expire time, -1 on failure
+     */
+    public CompletableFuture<Long> write(long clientId, long chunkHandle, int offset) {
+        ByteBuffer payload = ByteBuffer.allocate(2 * Long.BYTES + Integer.BYTES);
+        payload.putLong(clientId).putLong(chunkHandle).putInt(offset).flip();
+        return client.call(address, ChunkServerService.WRITE, payload)
+                .thenApply(response -> response.isOk() ? response.getPayload().getLong() : -1L);
+    }
+
+    public CompletableFuture<Boolean> create(long chunkHandle) {
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+        payload.putLong(chunkHandle).flip();
+        return client.call(address, ChunkServerService.CREATE, payload).thenApply(RpcResponse::isOk);
+    }
+}
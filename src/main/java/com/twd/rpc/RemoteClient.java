@@ -0,0 +1,243 @@
+package com.twd.rpc;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.Master;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author twd
+ * @description a client in its own process, talking to the master and the chunkservers over the network.
+ *              the per-chunk calls of a read or write spanning chunks are all sent before any reply is awaited
+ * @date 2026-10-18
+ */
+public class RemoteClient implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000L;
+
+    private final RpcClient rpcClient;
+
+    private final RemoteMaster master;
+
+    private final Map<InetSocketAddress, RemoteChunkServer> servers = new ConcurrentHashMap<>();
+
+    /**
+     * the chunk size of the files used, asked from the master once per file
+     */
+    private final Map<String, Integer> chunkSizes = new ConcurrentHashMap<>();
+
+    /**
+     * identify this client's pushed data on chunkservers, drawn at random as clients don't share a process
+     */
+    private final long clientId = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    private Logger logger = LoggerFactory.getLogger(RemoteClient.class);
+
+    public RemoteClient(InetSocketAddress master) throws IOException {
+        this(master, new RpcClient());
+    }
+
+    public RemoteClient(InetSocketAddress master, RpcClient rpcClient) {
+        this.rpcClient = rpcClient;
+        this.master = new RemoteMaster(rpcClient, master);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private RemoteChunkServer server(InetSocketAddress address) {
+        return servers.computeIfAbsent(address, key -> new RemoteChunkServer(rpcClient, key));
+    }
+
+    /**
+     * @return null on failure or timeout
+     */
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("remote call error", e);
+        }
+        return null;
+    }
+
+    /**
+     * the file's chunk size, a file that doesn't exist has the default one
+     */
+    private int chunkSize(String filename) {
+        Integer chunkSize = chunkSizes.get(filename);
+        if (null != chunkSize) {
+            return chunkSize;
+        }
+        chunkSize = await(master.chunkSize(filename));
+        if (null == chunkSize) {
+            return ChunkMetadata.CHUNK_SIZE;
+        }
+        chunkSizes.put(filename, chunkSize);
+        return chunkSize;
+    }
+
+    public boolean create(String filename) {
+        return create(filename, await(master.lookup(filename, 0, Master.REQUEST_CREATE)));
+    }
+
+    /**
+     * create a file whose chunks hold chunkSize bytes each
+     * @param filename
+     * @param chunkSize from 1 byte to ChunkMetadata.MAX_CHUNK_SIZE
+     * @return
+     */
+    public boolean create(String filename, int chunkSize) {
+        boolean created = create(filename, await(master.create(filename, chunkSize)));
+        if (created) {
+            chunkSizes.put(filename, chunkSize);
+        }
+        return created;
+    }
+
+    private boolean create(String filename, ChunkLocation location) {
+        if (null == location) {
+            logger.info("create file {} error", filename);
+            return false;
+        }
+        return Boolean.TRUE.equals(await(server(location.getReplicas()[0]).create(location.getChunkHandle())));
+    }
+
+    /**
+     * write the data at the file offset, one write per chunk it covers
+     * @param filename
+     * @param fileOffset
+     * @param buffer
+     * @return
+     */
+    public boolean write(String filename, int fileOffset, ByteBuffer buffer) {
+        int length = buffer.remaining();
+        int chunkSize = chunkSize(filename);
+        List<CompletableFuture<ChunkLocation>> locations = new ArrayList<>();
+        for (int position = 0; position < length;
+             position += pieceLength(chunkSize, fileOffset + position, length - position)) {
+            locations.add(master.lookup(filename, (fileOffset + position) / chunkSize, Master.REQUEST_WRITE));
+        }
+        int position = 0;
+        for (CompletableFuture<ChunkLocation> future : locations) {
+            int pieceOffset = fileOffset + position;
+            int pieceLength = pieceLength(chunkSize, pieceOffset, length - position);
+            ChunkLocation location = await(future);
+            if (null == location) {
+                return false;
+            }
+            ByteBuffer piece = buffer.duplicate();
+            piece.position(buffer.position() + position);
+            piece.limit(buffer.position() + position + pieceLength);
+            int chunkOffset = pieceOffset % chunkSize;
+            // push to every replica at once, then commit through the primary
+            InetSocketAddress[] replicas = location.getReplicas();
+            List<CompletableFuture<Boolean>> pushes = new ArrayList<>(replicas.length);
+            for (InetSocketAddress replica : replicas) {
+                pushes.add(server(replica).push(clientId, location.getChunkHandle(), chunkOffset, piece));
+            }
+            for (CompletableFuture<Boolean> push : pushes) {
+                if (!Boolean.TRUE.equals(await(push))) {
+                    logger.error("push data error");
+                    return false;
+                }
+            }
+            Long lease = await(server(replicas[0]).write(clientId, location.getChunkHandle(), chunkOffset));
+            if (null == lease || lease < 0) {
+                logger.error("write data error");
+                return false;
+            }
+            position += pieceLength;
+        }
+        return true;
+    }
+
+    private static int pieceLength(int chunkSize, int fileOffset, int remaining) {
+        return Math.min(remaining, chunkSize - fileOffset % chunkSize);
+    }
+
+    /**
+     * read dst.remaining() bytes at the file offset into dst, every chunk's piece is asked for at once
+     * @param filename
+     * @param offset
+     * @param dst its position is advanced past the last byte read
+     * @return the bytes read, fewer than requested if the file ends early, -1 on failure
+     */
+    public int read(String filename, int offset, ByteBuffer dst) {
+        int length = dst.remaining();
+        List<CompletableFuture<ByteBuffer>> pieces = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        int chunkSize = chunkSize(filename);
+        for (int position = 0; position < length;
+             position += pieceLength(chunkSize, offset + position, length - position)) {
+            int pieceOffset = offset + position;
+            int pieceLength = pieceLength(chunkSize, pieceOffset, length - position);
+            lengths.add(pieceLength);
+            pieces.add(master.lookup(filename, pieceOffset / chunkSize, Master.REQUEST_READ)
+                    .thenCompose(location -> null == location
+                            ? CompletableFuture.completedFuture(null)
+                            : readPiece(location, pieceOffset % chunkSize, pieceLength,
+                                    ThreadLocalRandom.current().nextInt(location.getReplicas().length), 0)));
+        }
+        int total = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            ByteBuffer piece = await(pieces.get(i));
+            if (null == piece) {
+                // past the file's last chunk
+                return 0 == i ? -1 : total;
+            }
+            int n = piece.remaining();
+            dst.put(piece);
+            total += n;
+            if (n < lengths.get(i)) {
+                // the file ends in this piece
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * read from a replica, and from the next one if it fails
+     */
+    private CompletableFuture<ByteBuffer> readPiece(ChunkLocation location, int chunkOffset, int len,
+                                                    int first, int tried) {
+        InetSocketAddress[] replicas = location.getReplicas();
+        if (tried == replicas.length) {
+            return CompletableFuture.completedFuture(null);
+        }
+        InetSocketAddress replica = replicas[(first + tried) % replicas.length];
+        return server(replica).read(location.getChunkHandle(), chunkOffset, len)
+                .handle((data, e) -> null != data
+                        ? CompletableFuture.completedFuture(data)
+                        : readPiece(location, chunkOffset, len, first, tried + 1))
+                .thenCompose(future -> future);
+    }
+
+    @Override
+    public void close() {
+        rpcClient.close();
+    }
+}
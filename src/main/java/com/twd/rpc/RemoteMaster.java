@@ -0,0 +1,80 @@
+package com.twd.rpc;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author twd
+ * @description calls a master in another process
+ * @date 2026-10-18
+ */
+public class RemoteMaster {
+    private final RpcClient client;
+
+    private final InetSocketAddress address;
+
+    public RemoteMaster(RpcClient client, InetSocketAddress address) {
+        this.client = client;
+        this.address = address;
+    }
+
+    /**
+     * @param filename
+     * @param chunkIndex
+     * @param request Master.REQUEST_CREATE, REQUEST_READ or REQUEST_WRITE
+     * @return completes with null if the master has no such chunk
+     */
+    public CompletableFuture<ChunkLocation> lookup(String filename, int chunkIndex, int request) {
+        byte[] name = Codec.bytes(filename);
+        ByteBuffer payload = ByteBuffer.allocate(2 * Integer.BYTES + Short.BYTES + name.length);
+        payload.putInt(request);
+        payload.putInt(chunkIndex);
+        Codec.putString(payload, name);
+        payload.flip();
+        return client.call(address, MasterService.LOOKUP, payload).thenApply(RemoteMaster::location);
+    }
+
+    /**
+     * @param filename
+     * @return completes with the file's chunk size, null if there's no such file
+     */
+    public CompletableFuture<Integer> chunkSize(String filename) {
+        byte[] name = Codec.bytes(filename);
+        ByteBuffer payload = ByteBuffer.allocate(Short.BYTES + name.length);
+        Codec.putString(payload, name);
+        payload.flip();
+        return client.call(address, MasterService.CHUNK_SIZE, payload)
+                .thenApply(response -> response.isOk() ? response.getPayload().getInt() : null);
+    }
+
+    /**
+     * @param filename
+     * @param chunkSize
+     * @return completes with the file's first chunk, null if the file can't be created
+     */
+    public CompletableFuture<ChunkLocation> create(String filename, int chunkSize) {
+        byte[] name = Codec.bytes(filename);
+        ByteBuffer payload = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + name.length);
+        payload.putInt(chunkSize);
+        Codec.putString(payload, name);
+        payload.flip();
+        return client.call(address, MasterService.CREATE, payload).thenApply(RemoteMaster::location);
+    }
+
+    private static ChunkLocation location(RpcResponse response) {
+        if (!response.isOk()) {
+            return null;
+        }
+        ByteBuffer reply = response.getPayload();
+        long chunkHandle = reply.getLong();
+        long version = reply.getLong();
+        long leaseExpireTime = reply.getLong();
+        InetSocketAddress[] replicas = new InetSocketAddress[reply.getInt()];
+        for (int i = 0; i < replicas.length; i++) {
+            String host = Codec.getString(reply);
+            replicas[i] = new InetSocketAddress(host, reply.getInt());
+        }
+        return new ChunkLocation(chunkHandle, version, leaseExpireTime, replicas);
+    }
+}
@@ -0,0 +1,55 @@
+package com.twd.rpc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description a call received by a server, the handler answers it with one of the reply methods,
+ *              from any thread
+ * @date 2026-10-18
+ */
+public class RpcCall {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final FrameChannel channel;
+
+    private final long callId;
+
+    private final byte method;
+
+    private final ByteBuffer payload;
+
+    RpcCall(FrameChannel channel, long callId, byte method, ByteBuffer payload) {
+        this.channel = channel;
+        this.callId = callId;
+        this.method = method;
+        this.payload = payload;
+    }
+
+    public byte getMethod() {
+        return method;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    public void reply(byte status) {
+        reply(status, EMPTY);
+    }
+
+    public void reply(byte status, ByteBuffer payload) {
+        channel.send(Outbound.of(FrameChannel.header(callId, status, payload.remaining())), Outbound.of(payload));
+    }
+
+    /**
+     * reply with a head in memory followed by a range of a file, sent without copying it into the heap
+     * @param status
+     * @param head
+     * @param region
+     */
+    public void reply(byte status, ByteBuffer head, FileRegion region) {
+        int length = head.remaining() + (int) region.count();
+        channel.send(Outbound.of(FrameChannel.header(callId, status, length)), Outbound.of(head), region);
+    }
+}
@@ -0,0 +1,147 @@
+package com.twd.rpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author twd
+ * @description makes calls to servers through a small pool of connections per address.
+ *              calls don't wait for each other: any number can be in flight on one connection,
+ *              each is answered through its own future
+ * @date 2026-10-18
+ */
+public class RpcClient implements Closeable {
+    public static final int DEFAULT_CONNECTIONS = 2;
+
+    private final EventLoop loop;
+
+    private final int connectionsPerAddress;
+
+    /**
+     * {address} -> {its connections}, a closed one is opened again on its next use
+     */
+    private final Map<InetSocketAddress, Connection[]> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong callIds = new AtomicLong();
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    public RpcClient() throws IOException {
+        this(DEFAULT_CONNECTIONS);
+    }
+
+    public RpcClient(int connectionsPerAddress) throws IOException {
+        this.connectionsPerAddress = connectionsPerAddress;
+        loop = new EventLoop("rpc-client-" + System.identityHashCode(this));
+    }
+
+    /**
+     * send the call
+     * @param address
+     * @param method
+     * @param payload sent back to back, left untouched
+     * @return completes with the reply, or exceptionally if the connection fails first
+     */
+    public CompletableFuture<RpcResponse> call(InetSocketAddress address, byte method, ByteBuffer... payload) {
+        Connection connection;
+        try {
+            connection = connection(address);
+        } catch (IOException e) {
+            CompletableFuture<RpcResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return connection.call(callIds.incrementAndGet(), method, payload);
+    }
+
+    private Connection connection(InetSocketAddress address) throws IOException {
+        Connection[] pool = pools.computeIfAbsent(address, key -> new Connection[connectionsPerAddress]);
+        int index = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % pool.length;
+        Connection connection = pool[index];
+        if (null != connection && !connection.channel.isClosed()) {
+            return connection;
+        }
+        synchronized (pool) {
+            connection = pool[index];
+            if (null == connection || connection.channel.isClosed()) {
+                connection = new Connection(address);
+                pool[index] = connection;
+            }
+            return connection;
+        }
+    }
+
+    private class Connection implements FrameChannel.Listener {
+        private final FrameChannel channel;
+
+        /**
+         * {call id} -> {the caller's future}
+         */
+        private final Map<Long, CompletableFuture<RpcResponse>> pending = new ConcurrentHashMap<>();
+
+        Connection(InetSocketAddress address) throws IOException {
+            SocketChannel socket = SocketChannel.open(address);
+            socket.configureBlocking(false);
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel = new FrameChannel(socket, loop, this);
+            loop.execute(channel::register);
+        }
+
+        CompletableFuture<RpcResponse> call(long callId, byte method, ByteBuffer... payload) {
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            pending.put(callId, future);
+            int length = 0;
+            Outbound[] parts = new Outbound[payload.length + 1];
+            for (int i = 0; i < payload.length; i++) {
+                length += payload[i].remaining();
+                parts[i + 1] = Outbound.of(payload[i].duplicate());
+            }
+            parts[0] = Outbound.of(FrameChannel.header(callId, method, length));
+            if (!channel.send(parts)) {
+                pending.remove(callId);
+                future.completeExceptionally(new IOException("connection closed"));
+            }
+            return future;
+        }
+
+        @Override
+        public void onFrame(FrameChannel channel, long callId, byte code, ByteBuffer payload) {
+            CompletableFuture<RpcResponse> future = pending.remove(callId);
+            if (null != future) {
+                future.complete(new RpcResponse(code, payload));
+            }
+        }
+
+        @Override
+        public void onClose(FrameChannel channel, IOException cause) {
+            IOException failure = null != cause ? cause : new IOException("connection closed");
+            for (Long callId : pending.keySet()) {
+                CompletableFuture<RpcResponse> future = pending.remove(callId);
+                if (null != future) {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Connection[] pool : pools.values()) {
+            for (Connection connection : pool) {
+                if (null != connection) {
+                    connection.channel.close(null);
+                }
+            }
+        }
+        loop.close();
+    }
+}
@@ -0,0 +1,35 @@
+package com.twd.rpc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description the reply to a call: a status and the payload
+ * @date 2026-10-18
+ */
+public class RpcResponse {
+    public static final byte OK = 0;
+
+    public static final byte ERROR = 1;
+
+    private final byte status;
+
+    private final ByteBuffer payload;
+
+    public RpcResponse(byte status, ByteBuffer payload) {
+        this.status = status;
+        this.payload = payload;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return OK == status;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,155 @@
+package com.twd.rpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author twd
+ * @description serves calls on a port: one event loop does all the socket I/O, the calls are handled
+ *              on worker threads so a slow call doesn't hold up the others on its connection
+ * @date 2026-10-18
+ */
+public class RpcServer implements Closeable {
+    /**
+     * answers the calls
+     */
+    public interface Handler {
+        void handle(RpcCall call);
+
+        /**
+         * @param method
+         * @return whether the method is quick and never blocks, it's then handled on the event loop
+         *         and skips two thread hand-offs
+         */
+        default boolean inline(byte method) {
+            return false;
+        }
+    }
+
+    private final Handler handler;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final EventLoop loop;
+
+    private final ExecutorService workers;
+
+    private final LongAdder connections = new LongAdder();
+
+    private final LongAdder calls = new LongAdder();
+
+    private final Logger logger;
+
+    /**
+     * @param address port 0 picks a free one
+     * @param handler
+     * @throws IOException
+     */
+    public RpcServer(InetSocketAddress address, Handler handler) throws IOException {
+        this.handler = handler;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        String name = "rpc-server-" + getAddress().getPort();
+        logger = LoggerFactory.getLogger(name);
+        loop = new EventLoop(name);
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loop.execute(() -> {
+            try {
+                serverChannel.register(loop.selector(), SelectionKey.OP_ACCEPT, new Acceptor());
+            } catch (ClosedChannelException e) {
+                logger.error("register server channel error", e);
+            }
+        });
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    private class Acceptor implements EventLoop.Handler, FrameChannel.Listener {
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            SocketChannel channel;
+            while (null != (channel = serverChannel.accept())) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.increment();
+                new FrameChannel(channel, loop, this).register();
+            }
+        }
+
+        @Override
+        public void onError(IOException e) {
+            logger.error("accept error", e);
+        }
+
+        @Override
+        public void onFrame(FrameChannel channel, long callId, byte code, ByteBuffer payload) {
+            calls.increment();
+            RpcCall call = new RpcCall(channel, callId, code, payload);
+            if (handler.inline(code)) {
+                handle(call);
+            } else {
+                workers.execute(() -> handle(call));
+            }
+        }
+
+        private void handle(RpcCall call) {
+            try {
+                handler.handle(call);
+            } catch (RuntimeException e) {
+                logger.error("handle call error", e);
+                call.reply(RpcResponse.ERROR);
+            }
+        }
+
+        @Override
+        public void onClose(FrameChannel channel, IOException cause) {
+            if (null != cause && !(cause instanceof EOFException)) {
+                logger.info("connection closed: {}", cause.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        loop.close();
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.error("close server channel error", e);
+        }
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,590 @@
+package com.twd.store;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author twd
+ * @description the master's chunk records in one open-addressing table keyed by chunk handle, no object per chunk.
+ *              a record is a row of longs: the handle, the chunk version and lease expire time packed in one long,
+ *              then the replicas' server ids packed four 16-bit ids to a long, e.g. 24 bytes for 3 replicas.
+ *              the first replica is the primary while the lease lasts. rows are found by linear probing from a hash
+ *              of the handle, and removal shifts the following rows back, so no tombstones pile up.
+ *              the rows live in a long[] or, off the heap, in direct buffers the garbage collector never scans
+ * @date 2026-10-18
+ */
+public class ChunkTable {
+    /**
+     * where the rows are kept
+     */
+    public enum Backing {
+        HEAP,
+        OFF_HEAP
+    }
+
+    /**
+     * the backing used when none is given, set by -Dgfs.metadata.backing=HEAP|OFF_HEAP
+     */
+    public static final Backing DEFAULT_BACKING =
+            Backing.valueOf(System.getProperty("gfs.metadata.backing", Backing.HEAP.name()));
+
+    /**
+     * marks a free row, no handle is ever this
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int KEY = 0;
+
+    /**
+     * the version in the high bits, the lease expire time relative to leaseBase in the low ones
+     */
+    private static final int LEASE = 1;
+
+    private static final int LEASE_BITS = 40;
+
+    private static final long LEASE_MASK = (1L << LEASE_BITS) - 1;
+
+    /**
+     * the highest chunk version, 16M leases
+     */
+    public static final long MAX_VERSION = (1L << (64 - LEASE_BITS)) - 1;
+
+    private static final int IDS = 2;
+
+    private static final int IDS_PER_LONG = 4;
+
+    private static final double MAX_LOAD = 0.75;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * records a bulk update changes per write lock
+     */
+    private static final int BATCH = 4096;
+
+    private final int replicaNum;
+
+    private final int rowLongs;
+
+    private final Backing backing;
+
+    private LongSlots slots;
+
+    /**
+     * rows, a power of two
+     */
+    private long capacity;
+
+    private long size;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * lease expire times are kept as millis after it, 34 years of them
+     */
+    private final long leaseBase = System.currentTimeMillis() - 1;
+
+    /**
+     * told of a replica the table dropped or didn't take, its server should delete it
+     */
+    public interface StaleReplicaListener {
+        void onStale(long handle, int id);
+    }
+
+    public ChunkTable(int replicaNum) {
+        this(replicaNum, DEFAULT_BACKING, MIN_CAPACITY);
+    }
+
+    /**
+     * @param replicaNum the most replicas a record holds
+     * @param backing
+     * @param expectedSize chunks the table holds without growing
+     */
+    public ChunkTable(int replicaNum, Backing backing, long expectedSize) {
+        if (replicaNum < 1 || replicaNum > ServerRegistry.MAX_SERVERS) {
+            throw new IllegalArgumentException("replica num " + replicaNum);
+        }
+        this.replicaNum = replicaNum;
+        this.rowLongs = IDS + (replicaNum + IDS_PER_LONG - 1) / IDS_PER_LONG;
+        this.backing = backing;
+        long rows = MIN_CAPACITY;
+        while (rows * MAX_LOAD < expectedSize) {
+            rows <<= 1;
+        }
+        allocate(rows);
+    }
+
+    private void allocate(long rows) {
+        capacity = rows;
+        slots = LongSlots.allocate(rows * rowLongs, Backing.OFF_HEAP == backing);
+        for (long row = 0; row < rows; row++) {
+            slots.set(row * rowLongs + KEY, EMPTY);
+        }
+    }
+
+    private static long hash(long handle) {
+        // murmur3's finalizer, handles are sequential
+        handle ^= handle >>> 33;
+        handle *= 0xff51afd7ed558ccdL;
+        handle ^= handle >>> 33;
+        handle *= 0xc4ceb9fe1a85ec53L;
+        handle ^= handle >>> 33;
+        return handle;
+    }
+
+    /**
+     * @return the row of the handle, or the free row where it would go
+     */
+    private long find(long handle) {
+        long mask = capacity - 1;
+        long row = hash(handle) & mask;
+        while (true) {
+            long key = slots.get(row * rowLongs + KEY);
+            if (key == handle || EMPTY == key) {
+                return row;
+            }
+            row = (row + 1) & mask;
+        }
+    }
+
+    private int getId(long base, int replica) {
+        long packed = slots.get(base + IDS + replica / IDS_PER_LONG);
+        return (int) (packed >>> (16 * (replica % IDS_PER_LONG))) & 0xFFFF;
+    }
+
+    private void setId(long base, int replica, int id) {
+        long index = base + IDS + replica / IDS_PER_LONG;
+        int shift = 16 * (replica % IDS_PER_LONG);
+        long packed = slots.get(index) & ~(0xFFFFL << shift);
+        slots.set(index, packed | ((long) (id & 0xFFFF) << shift));
+    }
+
+    private long leaseAt(long base) {
+        long offset = slots.get(base + LEASE) & LEASE_MASK;
+        return 0 == offset ? 0 : leaseBase + offset;
+    }
+
+    private long versionAt(long base) {
+        return slots.get(base + LEASE) >>> LEASE_BITS;
+    }
+
+    private void setLease(long base, long version, long leaseExpireTime) {
+        long offset = Math.min(Math.max(leaseExpireTime - leaseBase, 0), LEASE_MASK);
+        slots.set(base + LEASE, Math.min(version, MAX_VERSION) << LEASE_BITS | offset);
+    }
+
+    private int readIds(long base, int[] ids) {
+        int count = 0;
+        for (int i = 0; i < replicaNum; i++) {
+            int id = getId(base, i);
+            if (ServerRegistry.NO_SERVER != id) {
+                ids[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    private void grow() {
+        LongSlots old = slots;
+        long oldCapacity = capacity;
+        allocate(capacity << 1);
+        for (long row = 0; row < oldCapacity; row++) {
+            long oldBase = row * rowLongs;
+            long key = old.get(oldBase + KEY);
+            if (EMPTY != key) {
+                long base = find(key) * rowLongs;
+                for (int i = 0; i < rowLongs; i++) {
+                    slots.set(base + i, old.get(oldBase + i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the base of the handle's row, inserting an empty record if it has none
+     */
+    private long insert(long handle) {
+        if (EMPTY == handle) {
+            throw new IllegalArgumentException("chunk handle " + handle);
+        }
+        long base = find(handle) * rowLongs;
+        if (EMPTY == slots.get(base + KEY)) {
+            if (size + 1 > capacity * MAX_LOAD) {
+                grow();
+                base = find(handle) * rowLongs;
+            }
+            slots.set(base + KEY, handle);
+            slots.set(base + LEASE, 0);
+            for (int i = IDS; i < rowLongs; i++) {
+                slots.set(base + i, 0);
+            }
+            size++;
+        }
+        return base;
+    }
+
+    private void setIds(long base, int[] ids, int count) {
+        for (int i = 0; i < replicaNum; i++) {
+            setId(base, i, i < count ? ids[i] : ServerRegistry.NO_SERVER);
+        }
+    }
+
+    /**
+     * add or replace the chunk's record, keeping its version
+     * @param handle
+     * @param ids the replicas' server ids
+     * @param count the ids used, at most replicaNum
+     * @param leaseExpireTime
+     */
+    public void put(long handle, int[] ids, int count, long leaseExpireTime) {
+        lock.writeLock().lock();
+        try {
+            long base = insert(handle);
+            setLease(base, versionAt(base), leaseExpireTime);
+            setIds(base, ids, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * add or replace the chunk's record
+     * @param handle
+     * @param ids the replicas' server ids
+     * @param count the ids used, at most replicaNum
+     * @param leaseExpireTime
+     * @param version
+     */
+    public void put(long handle, int[] ids, int count, long leaseExpireTime, long version) {
+        lock.writeLock().lock();
+        try {
+            long base = insert(handle);
+            setLease(base, version, leaseExpireTime);
+            setIds(base, ids, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * replace the chunk's record, keeping its version, unless it has none
+     * @return false if the chunk has no record
+     */
+    public boolean replace(long handle, int[] ids, int count, long leaseExpireTime) {
+        lock.writeLock().lock();
+        try {
+            if (EMPTY == slots.get(find(handle) * rowLongs + KEY)) {
+                return false;
+            }
+            put(handle, ids, count, leaseExpireTime);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * add a replica to the chunk's record, making the record if needed
+     * @param handle
+     * @param id
+     * @return false if the record is full or has the replica already
+     */
+    public boolean addReplica(long handle, int id) {
+        lock.writeLock().lock();
+        try {
+            return addId(insert(handle), id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean addId(long base, int id) {
+        for (int i = 0; i < replicaNum; i++) {
+            int current = getId(base, i);
+            if (current == id) {
+                return false;
+            }
+            if (ServerRegistry.NO_SERVER == current) {
+                setId(base, i, id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * add a server's replicas of many chunks, with their versions, the write lock is taken once per batch of them
+     * so readers get in between the batches of a large report.
+     * a replica older than the record is stale and left out. a newer one means the master lost a version it
+     * granted, the record takes it and the replicas it had are stale
+     * @param handles
+     * @param versions the replicas' versions
+     * @param count the handles used
+     * @param id
+     * @param recordUnknown make a record for a chunk that has none, or leave its replica out as stale
+     * @param listener told of every stale replica
+     */
+    public void addReplicas(long[] handles, long[] versions, int count, int id, boolean recordUnknown,
+                            StaleReplicaListener listener) {
+        for (int from = 0; from < count; from += BATCH) {
+            int to = Math.min(count, from + BATCH);
+            lock.writeLock().lock();
+            try {
+                for (int i = from; i < to; i++) {
+                    addReplica(handles[i], versions[i], id, recordUnknown, listener);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void addReplica(long handle, long version, int id, boolean recordUnknown, StaleReplicaListener listener) {
+        long base = find(handle) * rowLongs;
+        if (EMPTY == slots.get(base + KEY)) {
+            if (!recordUnknown) {
+                listener.onStale(handle, id);
+                return;
+            }
+            base = insert(handle);
+            setLease(base, version, 0);
+        }
+        long current = versionAt(base);
+        if (version < current) {
+            removeId(base, id);
+            listener.onStale(handle, id);
+            return;
+        }
+        if (version > current) {
+            for (int i = 0; i < replicaNum; i++) {
+                int other = getId(base, i);
+                if (ServerRegistry.NO_SERVER != other && other != id) {
+                    listener.onStale(handle, other);
+                }
+            }
+            setIds(base, new int[0], 0);
+            setLease(base, version, 0);
+        }
+        addId(base, id);
+    }
+
+    /**
+     * drop a server from the chunk's replicas, the others keep their order
+     * @param handle
+     * @param id
+     * @return false if the server isn't a replica of the chunk
+     */
+    public boolean removeReplica(long handle, int id) {
+        lock.writeLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            return EMPTY != slots.get(base + KEY) && removeId(base, id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeId(long base, int id) {
+        boolean found = false;
+        for (int i = 0; i < replicaNum; i++) {
+            if (!found) {
+                found = getId(base, i) == id;
+            }
+            if (found) {
+                setId(base, i, i + 1 < replicaNum ? getId(base, i + 1) : ServerRegistry.NO_SERVER);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param handle
+     * @param ids filled with the replicas' server ids, at least replicaNum long
+     * @return the replica count, -1 if the chunk has no record
+     */
+    public int getReplicas(long handle, int[] ids) {
+        lock.readLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            return EMPTY == slots.get(base + KEY) ? -1 : readIds(base, ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param handle
+     * @return -1 if the chunk has no record
+     */
+    public long getLeaseExpireTime(long handle) {
+        lock.readLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            return EMPTY == slots.get(base + KEY) ? -1 : leaseAt(base);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param handle
+     * @return -1 if the chunk has no record
+     */
+    public long getVersion(long handle) {
+        lock.readLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            return EMPTY == slots.get(base + KEY) ? -1 : versionAt(base);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * read the chunk's replicas with its lease in one step
+     * @param handle
+     * @param ids filled with the replicas' server ids, the primary first
+     * @param lease filled with the lease expire time and the version
+     * @return the replica count, -1 if the chunk has no record
+     */
+    public int getReplicas(long handle, int[] ids, long[] lease) {
+        lock.readLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            if (EMPTY == slots.get(base + KEY)) {
+                return -1;
+            }
+            lease[0] = leaseAt(base);
+            lease[1] = versionAt(base);
+            return readIds(base, ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * grant the first replica a lease on the chunk under a new version, unless a lease is still running
+     * @param handle
+     * @param now
+     * @param leaseExpireTime
+     * @param ids filled with the replicas' server ids, the primary first
+     * @param lease filled with the running lease's expire time and version, leaseExpireTime if it was granted now
+     * @return the replica count, -1 if the chunk has no record
+     */
+    public int grantLease(long handle, long now, long leaseExpireTime, int[] ids, long[] lease) {
+        lock.writeLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            if (EMPTY == slots.get(base + KEY)) {
+                return -1;
+            }
+            int count = readIds(base, ids);
+            if (count > 0 && leaseAt(base) <= now) {
+                setLease(base, versionAt(base) + 1, leaseExpireTime);
+            }
+            lease[0] = leaseAt(base);
+            lease[1] = versionAt(base);
+            return count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * extend the running lease of the primary
+     * @param handle
+     * @param id the server asking, it must be the primary
+     * @param now
+     * @param leaseExpireTime
+     * @return false if the server doesn't hold a running lease on the chunk
+     */
+    public boolean extendLease(long handle, int id, long now, long leaseExpireTime) {
+        lock.writeLock().lock();
+        try {
+            long base = find(handle) * rowLongs;
+            if (EMPTY == slots.get(base + KEY) || getId(base, 0) != id || leaseAt(base) <= now) {
+                return false;
+            }
+            setLease(base, versionAt(base), leaseExpireTime);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long handle) {
+        lock.readLock().lock();
+        try {
+            return EMPTY != slots.get(find(handle) * rowLongs + KEY);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param handle
+     * @return false if the chunk has no record
+     */
+    public boolean remove(long handle) {
+        lock.writeLock().lock();
+        try {
+            long hole = find(handle);
+            if (EMPTY == slots.get(hole * rowLongs + KEY)) {
+                return false;
+            }
+            // shift back every following row that may sit there, then free the last hole
+            long mask = capacity - 1;
+            long row = hole;
+            while (true) {
+                row = (row + 1) & mask;
+                long key = slots.get(row * rowLongs + KEY);
+                if (EMPTY == key) {
+                    break;
+                }
+                long home = hash(key) & mask;
+                // the row can move back unless its home lies cyclically in (hole, row]
+                boolean movable = hole <= row ? (home <= hole || home > row) : (home <= hole && home > row);
+                if (movable) {
+                    for (int i = 0; i < rowLongs; i++) {
+                        slots.set(hole * rowLongs + i, slots.get(row * rowLongs + i));
+                    }
+                    hole = row;
+                }
+            }
+            slots.set(hole * rowLongs + KEY, EMPTY);
+            size--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getReplicaNum() {
+        return replicaNum;
+    }
+
+    public Backing getBacking() {
+        return backing;
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * the bytes the rows take, on or off the heap
+     */
+    public long getFootprintBytes() {
+        lock.readLock().lock();
+        try {
+            return slots.bytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.twd.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author twd
+ * @description a fixed-size array of longs, on the heap or off it
+ * @date 2026-10-18
+ */
+abstract class LongSlots {
+    abstract long get(long index);
+
+    abstract void set(long index, long value);
+
+    abstract long length();
+
+    /**
+     * the bytes the slots take
+     */
+    long bytes() {
+        return length() * Long.BYTES;
+    }
+
+    /**
+     * @param length
+     * @param offHeap
+     * @return zeroed slots
+     */
+    static LongSlots allocate(long length, boolean offHeap) {
+        return offHeap ? new Direct(length) : new Heap(length);
+    }
+
+    private static class Heap extends LongSlots {
+        private final long[] values;
+
+        Heap(long length) {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("too many slots for the heap: " + length);
+            }
+            values = new long[(int) length];
+        }
+
+        @Override
+        long get(long index) {
+            return values[(int) index];
+        }
+
+        @Override
+        void set(long index, long value) {
+            values[(int) index] = value;
+        }
+
+        @Override
+        long length() {
+            return values.length;
+        }
+    }
+
+    /**
+     * direct buffers of 1MB pages, a single buffer stops at 2GB
+     */
+    private static class Direct extends LongSlots {
+        private static final int PAGE_SHIFT = 17;
+
+        private static final int PAGE_LONGS = 1 << PAGE_SHIFT;
+
+        private final ByteBuffer[] pages;
+
+        private final long length;
+
+        Direct(long length) {
+            this.length = length;
+            int pageCount = (int) ((length + PAGE_LONGS - 1) >>> PAGE_SHIFT);
+            pages = new ByteBuffer[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                long longs = Math.min(PAGE_LONGS, length - ((long) i << PAGE_SHIFT));
+                pages[i] = ByteBuffer.allocateDirect((int) longs * Long.BYTES);
+            }
+        }
+
+        @Override
+        long get(long index) {
+            return pages[(int) (index >>> PAGE_SHIFT)].getLong((int) (index & (PAGE_LONGS - 1)) << 3);
+        }
+
+        @Override
+        void set(long index, long value) {
+            pages[(int) (index >>> PAGE_SHIFT)].putLong((int) (index & (PAGE_LONGS - 1)) << 3, value);
+        }
+
+        @Override
+        long length() {
+            return length;
+        }
+    }
+}
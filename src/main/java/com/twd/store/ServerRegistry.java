@@ -0,0 +1,75 @@
+package com.twd.store;
+
+import com.twd.role.ChunkServer;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * @author twd
+ * @description give every chunkserver a small id, so chunk records store 2 bytes per replica instead of a reference
+ * @date 2026-10-18
+ */
+public class ServerRegistry {
+    /**
+     * stands for no server
+     */
+    public static final int NO_SERVER = 0;
+
+    /**
+     * ids fit in 16 bits
+     */
+    public static final int MAX_SERVERS = 0xFFFF;
+
+    private final Map<ChunkServer, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * the server of each id, replaced when it grows so lookups need no lock
+     */
+    private volatile ChunkServer[] servers = new ChunkServer[16];
+
+    /**
+     * @param server
+     * @return the server's id, the same one if it registers again
+     */
+    public synchronized int register(ChunkServer server) {
+        Integer id = ids.get(server);
+        if (null != id) {
+            return id;
+        }
+        int next = ids.size() + 1;
+        if (next > MAX_SERVERS) {
+            throw new IllegalStateException("more than " + MAX_SERVERS + " chunkservers");
+        }
+        ChunkServer[] current = servers;
+        if (next >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[next] = server;
+        servers = current;
+        ids.put(server, next);
+        return next;
+    }
+
+    /**
+     * @param server
+     * @return NO_SERVER if it never registered
+     */
+    public synchronized int getId(ChunkServer server) {
+        return ids.getOrDefault(server, NO_SERVER);
+    }
+
+    /**
+     * @param id
+     * @return null for NO_SERVER or an unknown id
+     */
+    public ChunkServer getServer(int id) {
+        ChunkServer[] current = servers;
+        return id > 0 && id < current.length ? current[id] : null;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,93 @@
+package com.twd.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unit test for the push buffer.
+ */
+public class PushBufferTest
+{
+    private static ByteBuffer data(int size, int value)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void keysSeparateClientsAndRepushReplaces()
+    {
+        PushBuffer pushBuffer = new PushBuffer(new BufferPool(4), 1 << 10, 60_000);
+        assertTrue(pushBuffer.put(new PushBuffer.Key(1, 7, 0), data(10, 1)));
+        assertTrue(pushBuffer.put(new PushBuffer.Key(2, 7, 0), data(10, 2)));
+        assertTrue(pushBuffer.put(new PushBuffer.Key(1, 7, 0), data(20, 3)));
+        assertEquals(2, pushBuffer.getEntryCount());
+        assertEquals(30, pushBuffer.getOccupiedBytes());
+
+        ByteBuffer buffer = pushBuffer.take(new PushBuffer.Key(1, 7, 0));
+        assertEquals(20, buffer.remaining());
+        assertEquals(3, buffer.get(0));
+        assertTrue(buffer.isDirect());
+        pushBuffer.release(buffer);
+        assertNull(pushBuffer.take(new PushBuffer.Key(1, 7, 0)));
+        assertEquals(10, pushBuffer.getOccupiedBytes());
+    }
+
+    @Test
+    public void budgetEvictsOldestPush()
+    {
+        PushBuffer pushBuffer = new PushBuffer(new BufferPool(4), 100, 60_000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pushBuffer.put(new PushBuffer.Key(1, 1, i), data(30, i)));
+        }
+        assertEquals(3, pushBuffer.getEntryCount());
+        assertEquals(90, pushBuffer.getOccupiedBytes());
+        assertEquals(2, pushBuffer.getEvictions());
+        assertNull(pushBuffer.take(new PushBuffer.Key(1, 1, 0)));
+        assertFalse(pushBuffer.put(new PushBuffer.Key(1, 1, 9), data(101, 0)));
+        assertEquals(1, pushBuffer.getRejections());
+    }
+
+    @Test
+    public void packetsReceivedTwiceCountOnce()
+    {
+        PushBuffer pushBuffer = new PushBuffer(new BufferPool(4), 1 << 10, 60_000);
+        PushBuffer.Key key = new PushBuffer.Key(1, 1, 0);
+        assertTrue(pushBuffer.putPacket(key, 30, 10, data(10, 2)));
+        assertTrue(pushBuffer.putPacket(key, 30, 10, data(10, 2)));
+        assertNull(pushBuffer.take(key));
+        // overlaps the packet before and after it
+        assertTrue(pushBuffer.putPacket(key, 30, 15, data(15, 3)));
+        assertNull(pushBuffer.take(key));
+        assertTrue(pushBuffer.putPacket(key, 30, 0, data(10, 1)));
+
+        ByteBuffer buffer = pushBuffer.take(key);
+        assertEquals(30, buffer.remaining());
+        assertEquals(1, buffer.get(9));
+        assertEquals(2, buffer.get(14));
+        assertEquals(3, buffer.get(29));
+        pushBuffer.release(buffer);
+    }
+
+    @Test
+    public void abandonedPushesExpire() throws InterruptedException
+    {
+        PushBuffer pushBuffer = new PushBuffer(new BufferPool(4), 1 << 10, 5);
+        pushBuffer.put(new PushBuffer.Key(1, 1, 0), data(10, 0));
+        Thread.sleep(20);
+        pushBuffer.expire();
+        assertEquals(0, pushBuffer.getEntryCount());
+        assertEquals(0, pushBuffer.getOccupiedBytes());
+        assertEquals(1, pushBuffer.getExpirations());
+    }
+}
@@ -0,0 +1,202 @@
+package com.twd.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import com.twd.role.Master;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Block cache eviction, miss coalescing and invalidation by chunkserver writes.
+ */
+public class BlockCacheTest
+{
+    private static final int BLOCK_SIZE = 128;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    private final List<ChunkServer> servers = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    private Chunk fullChunk(long chunkHandle)
+    {
+        Chunk chunk = new Chunk(chunkHandle, rootDir.getPath());
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE];
+        Arrays.fill(data, (byte) chunkHandle);
+        assertTrue(chunk.write(0, ByteBuffer.wrap(data)));
+        return chunk;
+    }
+
+    private static int readBlock(BlockCache cache, Chunk chunk, int block)
+    {
+        return cache.read(chunk, block * BLOCK_SIZE, ByteBuffer.allocate(BLOCK_SIZE));
+    }
+
+    @Test
+    public void scanDoesNotFlushHotBlocks()
+    {
+        // room for 10 blocks, one of them the window
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, BLOCK_SIZE, false);
+        Chunk hot = fullChunk(1);
+        for (int round = 0; round < 20; round++) {
+            for (int block = 0; block < 4; block++) {
+                assertEquals(BLOCK_SIZE, readBlock(cache, hot, block));
+            }
+        }
+        // a scan of many more blocks than fit, each read once
+        for (long chunkHandle = 2; chunkHandle < 15; chunkHandle++) {
+            Chunk cold = fullChunk(chunkHandle);
+            for (int block = 0; block < ChunkMetadata.CHUNK_SIZE / BLOCK_SIZE; block++) {
+                assertEquals(BLOCK_SIZE, readBlock(cache, cold, block));
+            }
+        }
+        assertTrue(cache.getSizeBytes() <= cache.getCapacityBytes());
+
+        long misses = cache.getMisses();
+        for (int block = 0; block < 4; block++) {
+            assertEquals(BLOCK_SIZE, readBlock(cache, hot, block));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void concurrentMissesReadTheBlockOnce() throws Exception
+    {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Chunk chunk = new Chunk(1, rootDir.getPath()) {
+            @Override
+            public int read(int offset, ByteBuffer dst)
+            {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(offset, dst);
+            }
+        };
+        byte[] data = new byte[BLOCK_SIZE];
+        Arrays.fill(data, (byte) 7);
+        assertTrue(chunk.write(0, ByteBuffer.wrap(data)));
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, BLOCK_SIZE, true);
+
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            ByteBuffer first = ByteBuffer.allocate(BLOCK_SIZE);
+            ByteBuffer second = ByteBuffer.allocate(BLOCK_SIZE);
+            Future<Integer> loading = readers.submit(() -> cache.read(chunk, 0, first));
+            reading.await();
+            Future<Integer> waiting = readers.submit(() -> cache.read(chunk, 0, second));
+            while (0 == cache.getCoalescedMisses()) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            assertEquals(BLOCK_SIZE, (int) loading.get());
+            assertEquals(BLOCK_SIZE, (int) waiting.get());
+            assertArrayEquals(data, first.array());
+            assertArrayEquals(data, second.array());
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getCoalescedMisses());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void writesInvalidateCachedBlocks()
+    {
+        Master master = new Master(1);
+        ChunkServer server = new ChunkServer(new File(rootDir, "0").getPath(), master);
+        servers.add(server);
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, BLOCK_SIZE, true);
+        server.setBlockCache(cache);
+        Client client = new Client(master);
+        byte[] data = new byte[3 * BLOCK_SIZE];
+        Arrays.fill(data, (byte) 1);
+        assertTrue(client.create("/cached"));
+        assertTrue(client.write("/cached", 0, ByteBuffer.wrap(data)));
+
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer read = ByteBuffer.allocate(data.length);
+            assertEquals(data.length, client.read("/cached", 0, read));
+            assertArrayEquals(data, read.array());
+        }
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.getHits());
+        assertEquals(3L * BLOCK_SIZE, cache.getBytesSaved());
+
+        // overwrite the middle of the second block
+        byte[] update = {9, 9, 9, 9};
+        assertTrue(client.write("/cached", BLOCK_SIZE + 10, ByteBuffer.wrap(update)));
+        System.arraycopy(update, 0, data, BLOCK_SIZE + 10, update.length);
+        ByteBuffer read = ByteBuffer.allocate(data.length);
+        assertEquals(data.length, client.read("/cached", 0, read));
+        assertArrayEquals(data, read.array());
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(4, cache.getMisses());
+        assertEquals(5.0 / 9, cache.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void writePastTheEndInvalidatesTheLastCachedBlock()
+    {
+        Master master = new Master(1);
+        ChunkServer server = new ChunkServer(new File(rootDir, "0").getPath(), master);
+        servers.add(server);
+        server.setBlockCache(new BlockCache(10 * BLOCK_SIZE, BLOCK_SIZE, true));
+        Client client = new Client(master);
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 1);
+        assertTrue(client.create("/sparse"));
+        assertTrue(client.write("/sparse", 0, ByteBuffer.wrap(data)));
+        // caches the block the chunk ends in, 100 bytes long
+        assertEquals(data.length, client.read("/sparse", 0, ByteBuffer.allocate(data.length)));
+
+        byte[] tail = {9, 9, 9, 9, 9, 9, 9, 9, 9, 9};
+        assertTrue(client.write("/sparse", 600, ByteBuffer.wrap(tail)));
+        byte[] expected = new byte[610];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        System.arraycopy(tail, 0, expected, 600, tail.length);
+        ByteBuffer read = ByteBuffer.allocate(expected.length);
+        assertEquals(expected.length, client.read("/sparse", 0, read));
+        assertArrayEquals(expected, read.array());
+    }
+}
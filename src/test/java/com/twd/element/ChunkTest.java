@@ -0,0 +1,262 @@
+package com.twd.element;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.buffer.BufferPool;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit test for chunk storage modes.
+ */
+public class ChunkTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+    }
+
+    private void roundTrip(Chunk.StorageMode mode)
+    {
+        Chunk chunk = new Chunk(1, rootDir.getPath(), mode);
+        byte[] first = "abcdefg".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "hijklmn".getBytes(StandardCharsets.UTF_8);
+        assertTrue(chunk.write(0, ByteBuffer.wrap(first)));
+        // past the first mapping, forces the mapped file to grow
+        assertTrue(chunk.write(1000, ByteBuffer.wrap(second)));
+
+        ByteBuffer buffer = chunk.read(0, first.length);
+        assertEquals(first.length, buffer.position());
+        assertArrayEquals(first, buffer.array());
+        assertArrayEquals(second, chunk.read(1000, second.length).array());
+        assertTrue(chunk.close());
+
+        // the file only keeps the written bytes, and reopens on the next call
+        assertEquals(1000 + second.length, new File(chunk.getFilename()).length());
+        buffer = chunk.read(1000, 100);
+        assertEquals(second.length, buffer.position());
+        assertTrue(chunk.close());
+    }
+
+    @Test
+    public void chunkFilesGrowLazilyUnlessPreallocated()
+    {
+        int capacity = 1 << 20;
+        byte[] data = "abcdefg".getBytes(StandardCharsets.UTF_8);
+        Chunk lazy = new Chunk(1, rootDir.getPath(), Chunk.StorageMode.MMAP);
+        lazy.setCapacity(capacity);
+        assertTrue(lazy.write(0, ByteBuffer.wrap(data)));
+        assertTrue(new File(lazy.getFilename()).length() < capacity);
+
+        Chunk preallocated = new Chunk(2, rootDir.getPath(), Chunk.StorageMode.MMAP);
+        preallocated.setCapacity(capacity);
+        preallocated.setPreallocate(true);
+        assertTrue(preallocated.write(0, ByteBuffer.wrap(data)));
+        assertEquals(capacity, new File(preallocated.getFilename()).length());
+        assertEquals(data.length, preallocated.size());
+        assertArrayEquals(data, preallocated.read(0, data.length).array());
+        // keeps its extent on close, the checksums keep the length of its data
+        assertTrue(preallocated.close());
+        assertEquals(capacity, new File(preallocated.getFilename()).length());
+        assertEquals(data.length, preallocated.size());
+        assertTrue(lazy.close());
+        assertEquals(data.length, new File(lazy.getFilename()).length());
+
+        Chunk reopened = new Chunk(2, rootDir.getPath(), Chunk.StorageMode.MMAP, ChunkMetadata.INITIAL_VERSION,
+                Chunk.CHECKSUM_BLOCK_SIZE, -1);
+        reopened.setCapacity(capacity);
+        reopened.setPreallocate(true);
+        assertEquals(data.length, reopened.size());
+        // a write past the end after a reopen finds zeros in between
+        assertTrue(reopened.write(100, ByteBuffer.wrap(data)));
+        assertEquals(100 + data.length, reopened.size());
+        byte[] expected = new byte[100 + data.length];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        System.arraycopy(data, 0, expected, 100, data.length);
+        assertArrayEquals(expected, reopened.read(0, expected.length).array());
+        assertTrue(reopened.close());
+        assertEquals(capacity, new File(reopened.getFilename()).length());
+    }
+
+    @Test
+    public void fileChannelRoundTrip()
+    {
+        roundTrip(Chunk.StorageMode.FILE_CHANNEL);
+    }
+
+    @Test
+    public void mappedRoundTrip()
+    {
+        roundTrip(Chunk.StorageMode.MMAP);
+    }
+
+    private void checksums(Chunk.StorageMode mode) throws IOException
+    {
+        // small blocks so the 100 bytes span several
+        Chunk chunk = new Chunk(2, rootDir.getPath(), mode, ChunkMetadata.INITIAL_VERSION, 16, -1);
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertTrue(chunk.write(0, ByteBuffer.wrap(data)));
+        // overwrite inside two blocks, then append past a hole
+        assertTrue(chunk.write(20, ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13})));
+        assertTrue(chunk.write(130, ByteBuffer.wrap(new byte[] {42})));
+        assertEquals(6, chunk.read(125, ByteBuffer.allocate(10)));
+        assertTrue(chunk.close());
+
+        // the checksums are kept with the chunk and checked after it's reopened
+        ByteBuffer all = ByteBuffer.allocate(131);
+        assertEquals(131, chunk.read(0, all));
+        assertEquals(13, all.get(32));
+
+        try (RandomAccessFile file = new RandomAccessFile(chunk.getFilename(), "rw")) {
+            file.seek(70);
+            file.write(0xff);
+        }
+        // the blocks around the bad one still read
+        assertEquals(16, chunk.read(48, ByteBuffer.allocate(16)));
+        assertEquals(10, chunk.read(80, ByteBuffer.allocate(10)));
+        assertFalse(chunk.isCorrupt());
+        assertEquals(-1, chunk.read(66, ByteBuffer.allocate(2)));
+        assertTrue(chunk.isCorrupt());
+        // a write into part of the bad block doesn't paper over it
+        assertFalse(chunk.write(72, ByteBuffer.wrap(new byte[] {1})));
+        assertTrue(chunk.delete());
+    }
+
+    @Test
+    public void tornTailReadsAsZerosInALaterHole() throws IOException
+    {
+        Chunk chunk = new Chunk(3, rootDir.getPath(), Chunk.StorageMode.MMAP, ChunkMetadata.INITIAL_VERSION, 16, -1);
+        assertTrue(chunk.write(0, ByteBuffer.wrap(new byte[100])));
+        assertTrue(chunk.close());
+        // a write cut short by a crash, past the checksummed length
+        try (RandomAccessFile file = new RandomAccessFile(chunk.getFilename(), "rw")) {
+            file.seek(100);
+            for (int i = 0; i < 50; i++) {
+                file.write(0xff);
+            }
+        }
+        assertTrue(chunk.write(200, ByteBuffer.wrap(new byte[] {42})));
+        ByteBuffer all = ByteBuffer.allocate(201);
+        assertEquals(201, chunk.read(0, all));
+        byte[] expected = new byte[201];
+        expected[200] = 42;
+        assertArrayEquals(expected, all.array());
+        assertFalse(chunk.isCorrupt());
+        assertTrue(chunk.close());
+    }
+
+    @Test
+    public void fileChannelChecksums() throws IOException
+    {
+        checksums(Chunk.StorageMode.FILE_CHANNEL);
+    }
+
+    @Test
+    public void mappedChecksums() throws IOException
+    {
+        checksums(Chunk.StorageMode.MMAP);
+    }
+
+    private void pooledBuffers(Chunk.StorageMode mode)
+    {
+        Chunk chunk = new Chunk(3, rootDir.getPath(), mode, ChunkMetadata.INITIAL_VERSION, 16, -1);
+        // write a range out of the middle of a pooled buffer, its bounds are left as they were
+        ByteBuffer source = BufferPool.shared().acquire(100);
+        for (int i = 0; i < 100; i++) {
+            source.put(i, (byte) i);
+        }
+        source.position(10);
+        source.limit(60);
+        assertTrue(chunk.write(5, source));
+        assertEquals(60, source.position());
+        assertEquals(60, source.limit());
+
+        // read into a pooled buffer, the checksums are verified in place
+        ByteBuffer dst = BufferPool.shared().acquire(40);
+        dst.position(3);
+        assertEquals(37, chunk.read(8, dst));
+        assertEquals(40, dst.position());
+        assertEquals(40, dst.limit());
+        assertEquals(13, dst.get(3));
+        assertEquals(49, dst.get(39));
+        BufferPool.shared().release(source);
+        BufferPool.shared().release(dst);
+        assertTrue(chunk.delete());
+    }
+
+    @Test
+    public void fileChannelPooledBuffers()
+    {
+        pooledBuffers(Chunk.StorageMode.FILE_CHANNEL);
+    }
+
+    @Test
+    public void mappedPooledBuffers()
+    {
+        pooledBuffers(Chunk.StorageMode.MMAP);
+    }
+
+    @Test
+    public void openChunksAreBoundedAndPinnedOnesStay()
+    {
+        OpenChunkCache cache = new OpenChunkCache(2);
+        Chunk[] chunks = new Chunk[5];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(10 + i, rootDir.getPath(), Chunk.StorageMode.FILE_CHANNEL);
+            chunks[i].setOpenChunkCache(cache);
+            assertTrue(chunks[i].write(0, ByteBuffer.wrap(new byte[] {(byte) i})));
+        }
+        // only the last two used stay open
+        assertEquals(2, cache.getOpenChunks());
+        assertEquals(3, cache.getEvictions());
+        assertFalse(chunks[0].isOpen());
+        assertTrue(chunks[3].isOpen());
+
+        assertNotNull(chunks[3].pin());
+        assertEquals(1, chunks[0].read(0, ByteBuffer.allocate(1)));
+        // the pinned chunk is passed over, the one used before it goes
+        assertEquals(1, chunks[1].read(0, ByteBuffer.allocate(1)));
+        assertTrue(chunks[3].isOpen());
+        assertFalse(chunks[0].isOpen());
+        chunks[3].unpin();
+        assertEquals(1, chunks[2].read(0, ByteBuffer.allocate(1)));
+        assertFalse(chunks[3].isOpen());
+        assertEquals(2, cache.getOpenChunks());
+
+        // reopened on demand with the data and checksums intact
+        for (int i = 0; i < chunks.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            assertEquals(1, chunks[i].read(0, buffer));
+            assertEquals(i, buffer.get(0));
+        }
+        assertEquals(2, cache.getOpenChunks());
+        assertEquals(1, cache.getHits());
+        assertEquals(13, cache.getMisses());
+        for (Chunk chunk : chunks) {
+            assertTrue(chunk.delete());
+            assertFalse(chunk.open());
+        }
+        assertEquals(0, cache.getOpenChunks());
+    }
+}
@@ -0,0 +1,48 @@
+package com.twd.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Percentiles of the log-linear latency histogram.
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void percentilesAreWithinBucketPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean(), 1);
+        assertWithin(500_000, histogram.getPercentile(0.5));
+        assertWithin(990_000, histogram.getPercentile(0.99));
+        assertWithin(1_000_000, histogram.getPercentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void bucketsCoverEveryValue()
+    {
+        long previous = -1;
+        for (int bucket = 0; bucket < 8 * 61; bucket++) {
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(upper > previous);
+            assertEquals(bucket, LatencyHistogram.bucket(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucket(upper));
+            previous = upper;
+        }
+    }
+
+    private static void assertWithin(long expected, long actual)
+    {
+        assertTrue(actual + " not within 12.5% of " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,75 @@
+package com.twd.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import com.twd.role.Master;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Operation metrics, their mbeans and the calls recorded by the cluster.
+ */
+public class MetricsRegistryTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void operationsArePublishedAsMBeans() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry(true);
+        OperationMetrics metrics = registry.operation("test:component", "op");
+        assertSame(metrics, registry.operation("test:component", "op"));
+        metrics.record(System.nanoTime() - 1000, true);
+        metrics.record(System.nanoTime(), false);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.twd.gfs:type=Operation,component="
+                + ObjectName.quote("test:component") + ",operation=" + ObjectName.quote("op"));
+        assertEquals(1L, server.getAttribute(name, "Successes"));
+        assertEquals(1L, server.getAttribute(name, "Failures"));
+        assertTrue((Long) server.getAttribute(name, "P50Nanos") >= 1000);
+        assertTrue(registry.snapshot().startsWith("test:component op ok=1 failed=1 "));
+
+        server.invoke(name, "reset", null, null);
+        assertEquals(0, metrics.getSuccesses());
+        assertEquals("", registry.snapshot());
+    }
+
+    @Test
+    public void clusterCallsAreRecordedByComponentAndOutcome()
+    {
+        File rootDir = temporaryFolder.getRoot();
+        Master master = new Master(1);
+        ChunkServer server = new ChunkServer(new File(rootDir, "0").getPath(), master);
+        MetricsRegistry registry = MetricsRegistry.shared();
+        OperationMetrics serverReads = registry.operation(server.getChunkServerName(), "read");
+        OperationMetrics diskWrites = registry.operation(server.getChunkServerName(), "disk.write");
+        long clientReads = registry.operation("client", "read").getSuccesses();
+        long missingReads = registry.operation("client", "read").getFailures();
+
+        Client client = new Client(master);
+        assertTrue(client.create("/metrics"));
+        assertTrue(client.write("/metrics", 0, ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        assertEquals(3, client.read("/metrics", 0, ByteBuffer.allocate(3)));
+        assertEquals(-1, client.read("/missing", 0, ByteBuffer.allocate(3)));
+
+        assertEquals(1, serverReads.getSuccesses());
+        assertEquals(1, diskWrites.getSuccesses());
+        assertEquals(clientReads + 1, registry.operation("client", "read").getSuccesses());
+        assertEquals(missingReads + 1, registry.operation("client", "read").getFailures());
+        assertTrue(registry.snapshot().contains(server.getChunkServerName() + " write ok=1 failed=0 "));
+        assertTrue(server.close());
+    }
+}
@@ -0,0 +1,128 @@
+package com.twd.namespace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File table, path locks and prefix listing.
+ */
+public class NamespaceTest
+{
+    @Test
+    public void createsFilesAndDirectories()
+    {
+        Namespace namespace = new Namespace();
+        assertTrue(namespace.create("/logs/2026/app.log"));
+        assertTrue(namespace.exists("logs/2026/app.log"));
+        assertFalse(namespace.exists("/logs/2026"));
+        assertFalse(namespace.create("/logs/2026/app.log"));
+        // a directory and a file can't share a path
+        assertFalse(namespace.create("/logs/2026"));
+        assertFalse(namespace.create("/logs/2026/app.log/inner"));
+        assertFalse(namespace.create("/"));
+        assertEquals(1, namespace.getFileCount());
+        assertEquals("/logs/2026/app.log", Namespace.normalize("logs//2026/app.log/"));
+    }
+
+    @Test
+    public void keepsOrderedChunkHandles()
+    {
+        Namespace namespace = new Namespace();
+        assertTrue(namespace.create("/data.bin"));
+        assertEquals(-1, namespace.getLastChunkIndex("/data.bin"));
+        assertFalse(namespace.setChunkHandle("/missing", 0, 1));
+        for (int i = 0; i < 300; i++) {
+            assertTrue(namespace.setChunkHandle("/data.bin", i, 1000 + i));
+        }
+        // past the end, leaving a hole
+        assertTrue(namespace.setChunkHandle("/data.bin", 302, 7));
+        assertEquals(302, namespace.getLastChunkIndex("/data.bin"));
+        assertEquals(1150, namespace.getChunkHandle("/data.bin", 150));
+        assertEquals(Namespace.NO_HANDLE, namespace.getChunkHandle("/data.bin", 301));
+        assertEquals(Namespace.NO_HANDLE, namespace.getChunkHandle("/data.bin", 303));
+
+        FileInfo info = namespace.stat("data.bin");
+        assertEquals("/data.bin", info.getPath());
+        assertEquals(303, info.getChunkCount());
+        assertEquals(7, info.getChunkHandle(302));
+
+        long[] deleted = namespace.delete("/data.bin");
+        assertEquals(301, deleted.length);
+        assertFalse(namespace.exists("/data.bin"));
+        assertNull(namespace.delete("/data.bin"));
+        assertEquals(0, namespace.getFileCount());
+    }
+
+    @Test
+    public void listsByPrefixInOrder()
+    {
+        Namespace namespace = new Namespace();
+        for (String path : new String[]{"/a/app-2", "/a/app-1", "/a/apple/x", "/a/b", "/b/app-3", "/a/ap"}) {
+            assertTrue(namespace.create(path));
+        }
+        assertEquals(Arrays.asList("/a/app-1", "/a/app-2", "/a/apple/x"), namespace.list("/a/app"));
+        assertEquals(Arrays.asList("/a/ap", "/a/app-1", "/a/app-2", "/a/apple/x", "/a/b"), namespace.list("/a/"));
+        assertEquals(Arrays.asList("/a/ap", "/a/app-1"), namespace.list("a/", 2));
+        assertEquals(6, namespace.list("/").size());
+        assertEquals(6, namespace.list("").size());
+        assertTrue(namespace.list("/c/").isEmpty());
+        assertEquals("/a", Namespace.listDirectory("/a/app"));
+        assertEquals("/a", Namespace.listDirectory("/a/"));
+    }
+
+    @Test
+    public void pathLocksAreDroppedWhenReleased() throws Exception
+    {
+        Namespace namespace = new Namespace();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String path = "/dir/file-" + thread + "-" + i;
+                    try (Namespace.PathLock lock = namespace.lock(path, true)) {
+                        assertTrue(namespace.create(path));
+                        assertTrue(namespace.setChunkHandle(path, 0, i));
+                    }
+                    try (Namespace.PathLock lock = namespace.lock(path, false)) {
+                        assertEquals(i, namespace.getChunkHandle(path, 0));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(4000, namespace.getFileCount());
+        assertEquals(4000, namespace.list("/dir/").size());
+        // only / and /dir keep their locks
+        assertEquals(2, namespace.getLockedPaths());
+    }
+
+    @Test
+    public void allocatesIncreasingHandles()
+    {
+        HandleAllocator allocator = new HandleAllocator();
+        long first = allocator.allocate();
+        assertEquals(first + 1, allocator.allocate());
+        allocator.advancePast(100);
+        assertEquals(101, allocator.allocate());
+        allocator.advancePast(5);
+        assertEquals(102, allocator.allocate());
+    }
+}
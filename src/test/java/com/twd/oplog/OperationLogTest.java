@@ -0,0 +1,198 @@
+package com.twd.oplog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Operation log group commit, replay and checkpoints.
+ */
+public class OperationLogTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp()
+    {
+        dir = temporaryFolder.getRoot();
+    }
+
+    private static List<LogRecord> replayAll(File dir, long afterTxid) throws IOException
+    {
+        List<LogRecord> records = new ArrayList<>();
+        OperationLog.replay(dir, afterTxid, records::add);
+        return records;
+    }
+
+    @Test
+    public void concurrentSyncsShareForces() throws Exception
+    {
+        final int writers = 8;
+        final int perWriter = 200;
+        OperationLog log = new OperationLog(dir, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    log.sync(log.append(LogRecord.addChunk("/f" + writer, i, writer * perWriter + i)));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        log.close();
+
+        assertEquals(writers * perWriter, log.getSyncedTxid());
+        assertTrue(log.getSyncs() <= writers * perWriter);
+        List<LogRecord> records = replayAll(dir, 0);
+        assertEquals(writers * perWriter, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i).getTxid());
+        }
+    }
+
+    @Test
+    public void replayStopsAtTornRecord() throws IOException
+    {
+        OperationLog log = new OperationLog(dir, 0);
+        log.append(LogRecord.createFile("/a", 1L));
+        log.append(LogRecord.addChunk("/a", 0, 7L));
+        log.sync();
+        log.close();
+
+        // a crash in the middle of the next write leaves half a record
+        File segment = new File(dir, "oplog.1");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length());
+            file.writeInt(64);
+            file.writeInt(0);
+            file.write(new byte[10]);
+        }
+        List<LogRecord> records = replayAll(dir, 0);
+        assertEquals(2, records.size());
+        assertEquals(LogRecord.Type.ADD_CHUNK, records.get(1).getType());
+        assertEquals(7L, records.get(1).getChunkHandle());
+
+        // the next log starts a new segment after the torn one
+        OperationLog reopened = new OperationLog(dir, OperationLog.replay(dir, 0, record -> { }));
+        reopened.sync(reopened.append(LogRecord.deleteFile("/a")));
+        reopened.close();
+        records = replayAll(dir, 1);
+        assertEquals(2, records.size());
+        assertEquals(3, records.get(1).getTxid());
+        assertEquals(LogRecord.Type.DELETE_FILE, records.get(1).getType());
+    }
+
+    @Test
+    public void checkpointRoundTripsAndPurgesOlderLog() throws IOException
+    {
+        OperationLog log = new OperationLog(dir, 0);
+        for (int i = 0; i < 10; i++) {
+            log.append(LogRecord.createFile("/f" + i, i));
+        }
+        long txid = log.roll();
+        log.append(LogRecord.deleteFile("/f0"));
+        log.sync();
+
+        long[] handles = {100L, 101L, -1L, 90L};
+        try (Checkpoint.Writer writer = new Checkpoint.Writer(dir, txid, 102L)) {
+            writer.writeFile("/dir/file", 42L, 64 << 20, handles);
+            writer.writeFile("/empty", 43L, 1 << 10, new long[0]);
+            writer.commit();
+        }
+        log.purge(txid);
+        log.close();
+
+        List<String> paths = new ArrayList<>();
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<long[]> visited = new ArrayList<>();
+        Checkpoint.Header header = Checkpoint.read(dir, Checkpoint.list(dir).get(0),
+                (path, createTime, chunkSize, chunkHandles) -> {
+            paths.add(path);
+            chunkSizes.add(chunkSize);
+            visited.add(chunkHandles);
+        });
+        assertEquals(txid, header.getTxid());
+        assertEquals(102L, header.getNextHandle());
+        assertEquals(2, paths.size());
+        assertEquals("/dir/file", paths.get(0));
+        assertArrayEquals(handles, visited.get(0));
+        assertEquals(64 << 20, (int) chunkSizes.get(0));
+        assertEquals(0, visited.get(1).length);
+
+        List<LogRecord> records = replayAll(dir, txid);
+        assertEquals(1, records.size());
+        assertEquals(LogRecord.Type.DELETE_FILE, records.get(0).getType());
+    }
+
+    @Test
+    public void olderFormatsAreRefused() throws IOException
+    {
+        // a segment of the first format: frames from the first byte, CREATE_FILE without a chunk size
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, "oplog.1")))) {
+            byte[] body = {0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 2, '/', 'a', 0, 0, 0, 0, 0, 0, 0, 5};
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+        }
+        try {
+            replayAll(dir, 0);
+            fail("replayed a segment of the first format");
+        } catch (UnsupportedFormatException e) {
+            // refused
+        }
+        assertTrue(new File(dir, "oplog.1").delete());
+
+        // a checkpoint of the first format: no version, no chunk sizes, with a valid crc
+        try (FileOutputStream file = new FileOutputStream(new File(dir, "checkpoint.1"))) {
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(0x47465343);
+            out.writeLong(1L);
+            out.writeLong(8L);
+            out.writeByte(1);
+            out.writeUTF("/a");
+            out.writeLong(5L);
+            out.writeByte(1);
+            out.writeByte(14);
+            out.writeByte(0);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        }
+        try {
+            Checkpoint.read(dir, 1L, (path, createTime, chunkSize, chunkHandles) -> fail("visited " + path));
+            fail("read a checkpoint of the first format");
+        } catch (UnsupportedFormatException e) {
+            // refused
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.twd.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.element.Chunk;
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.element.WriteResult;
+import com.twd.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Concurrent access to chunkservers.
+ */
+public class ChunkServerTest
+{
+    private static final String FILENAME = "stress.txt";
+
+    private static final int WRITERS = 8;
+
+    private static final int READERS = 4;
+
+    private static final int ROUNDS = 200;
+
+    private static final int SLOT = ChunkMetadata.CHUNK_SIZE / WRITERS;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    private Master master;
+
+    private List<ChunkServer> servers;
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+        master = new Master();
+        servers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            servers.add(new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master));
+        }
+        assertTrue(new Client(master).create(FILENAME));
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static byte[] fill(int round)
+    {
+        byte[] data = new byte[SLOT];
+        Arrays.fill(data, (byte) round);
+        return data;
+    }
+
+    /**
+     * every writer owns one slot of the chunk and rewrites it with a uniform byte per round,
+     * readers must never see a slot holding bytes of two rounds
+     */
+    @Test
+    public void concurrentWritesAreNeitherLostNorTorn() throws Exception
+    {
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ);
+        assertNotNull(metadata);
+        ChunkServer[] replicas = metadata.getChunkServers();
+        long chunkHandle = metadata.getChunkHandle();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int slot = w;
+            writers.add(executor.submit(() -> {
+                Client client = new Client(master);
+                for (int round = 1; round <= ROUNDS; round++) {
+                    assertTrue(client.write(FILENAME, slot * SLOT, ByteBuffer.wrap(fill(round))));
+                }
+                return null;
+            }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (writing.get()) {
+                    ChunkServer replica = replicas[random.nextInt(replicas.length)];
+                    int slot = random.nextInt(WRITERS);
+                    byte[] data = replica.read(chunkHandle, slot * SLOT, SLOT).array();
+                    for (byte b : data) {
+                        assertEquals("torn read in slot " + slot, data[0], b);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // every replica holds the last round of every slot
+        for (ChunkServer replica : replicas) {
+            for (int slot = 0; slot < WRITERS; slot++) {
+                assertTrue(Arrays.equals(fill(ROUNDS), replica.read(chunkHandle, slot * SLOT, SLOT).array()));
+            }
+        }
+    }
+
+    @Test
+    public void chainedPushReachesEveryReplica()
+    {
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ);
+        ChunkServer[] replicas = metadata.getChunkServers();
+        replicas[0].setNetworkLocation("/dc/rack-a/host-0");
+        replicas[1].setNetworkLocation("/dc/rack-b/host-1");
+        replicas[2].setNetworkLocation("/dc/rack-a/host-2");
+
+        ClosestFirstChainPolicy policy = new ClosestFirstChainPolicy("/dc/rack-b/client");
+        ChunkServer[] chain = policy.order(replicas);
+        assertEquals(Arrays.asList(replicas[1], replicas[0], replicas[2]), Arrays.asList(chain));
+
+        Client client = new Client(master);
+        client.setPushMode(Client.PushMode.CHAIN);
+        client.setPushChainPolicy(policy);
+        client.setPushPacketSize(100);
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE - 24];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertTrue(client.write(FILENAME, 24, ByteBuffer.wrap(data)));
+        for (ChunkServer replica : replicas) {
+            assertTrue(Arrays.equals(data, replica.read(metadata.getChunkHandle(), 24, data.length).array()));
+            assertEquals(0, replica.getPushBuffer().getEntryCount());
+        }
+    }
+
+    @Test
+    public void primaryReportsSecondariesWhichFailed()
+    {
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_WRITE);
+        ChunkServer[] replicas = metadata.getChunkServers();
+        // only the primary and the first secondary get the data
+        ByteBuffer data = ByteBuffer.wrap(fill(1));
+        assertTrue(replicas[0].push(-1, metadata.getChunkHandle(), 0, data));
+        assertTrue(replicas[1].push(-1, metadata.getChunkHandle(), 0, data));
+
+        WriteResult result = replicas[0].write(-1, metadata.getChunkHandle(), 0);
+        assertFalse(result.isSuccess());
+        assertEquals(Arrays.asList(replicas[2]), result.getFailedReplicas());
+    }
+
+    @Test
+    public void heartbeatsReconcileDeletedAndLostChunks()
+    {
+        Client client = new Client(master);
+        assertTrue(client.create("gc.txt"));
+        assertTrue(client.write("gc.txt", 0, ByteBuffer.wrap(fill(2))));
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest("gc.txt", 0), Master.REQUEST_READ);
+        long handle = metadata.getChunkHandle();
+        ChunkServer[] replicas = metadata.getChunkServers();
+        assertTrue(master.delete("gc.txt"));
+        for (ChunkServer replica : replicas) {
+            assertNotNull(replica.read(handle, 0, 1));
+            replica.heartbeat();
+            assertNull(replica.read(handle, 0, 1));
+        }
+        for (File dir : rootDir.listFiles()) {
+            assertEquals(0, dir.listFiles((parent, name) -> name.startsWith(handle + ".")).length);
+        }
+
+        // a replica the server lost is dropped from the master's records
+        ChunkMetadata kept = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ);
+        ChunkServer lost = kept.getChunkServers()[1];
+        assertTrue(lost.removeChunk(kept.getChunkHandle()));
+        lost.heartbeat();
+        ChunkMetadata after = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ);
+        assertEquals(kept.getChunkServers().length - 1, after.getChunkServers().length);
+        assertFalse(Arrays.asList(after.getChunkServers()).contains(lost));
+    }
+
+    @Test
+    public void expiredLeaseMovesChunkToNewVersion() throws InterruptedException
+    {
+        master.setLeaseMillis(100);
+        String filename = "/lease";
+        Client client = new Client(master);
+        assertTrue(client.create(filename));
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(filename, 0), Master.REQUEST_WRITE);
+        long version = metadata.getVersion();
+        // while the lease runs the master hands out the same one
+        ChunkMetadata again = master.getChunkMetadata(new ChunkRequest(filename, 0), Master.REQUEST_WRITE);
+        assertEquals(metadata.getLeaseExpireTime(), again.getLeaseExpireTime());
+        Thread.sleep(150);
+
+        // the primary refuses writes once its lease is over
+        ChunkServer[] replicas = metadata.getChunkServers();
+        ByteBuffer data = ByteBuffer.wrap(fill(3));
+        for (ChunkServer replica : replicas) {
+            assertTrue(replica.push(-1, metadata.getChunkHandle(), 0, data));
+        }
+        assertFalse(replicas[0].write(-1, metadata.getChunkHandle(), 0).isSuccess());
+
+        ChunkMetadata renewed = master.getChunkMetadata(new ChunkRequest(filename, 0), Master.REQUEST_WRITE);
+        assertEquals(version + 1, renewed.getVersion());
+        for (ChunkServer replica : renewed.getChunkServers()) {
+            assertEquals(version + 1, replica.getChunkVersion(metadata.getChunkHandle()));
+        }
+        assertTrue(client.write(filename, 0, ByteBuffer.wrap(fill(4))));
+    }
+
+    @Test
+    public void staleReplicaIsRejectedByVersion()
+    {
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_WRITE);
+        ChunkServer[] replicas = metadata.getChunkServers();
+        // the replica missed a lease grant while it was away
+        assertTrue(replicas[2].setChunkVersion(metadata.getChunkHandle(), metadata.getVersion() - 1));
+        ByteBuffer data = ByteBuffer.wrap(fill(5));
+        for (ChunkServer replica : replicas) {
+            assertTrue(replica.push(-1, metadata.getChunkHandle(), 0, data));
+        }
+        WriteResult result = replicas[0].write(-1, metadata.getChunkHandle(), 0);
+        assertEquals(Arrays.asList(replicas[2]), result.getFailedReplicas());
+    }
+
+    @Test
+    public void syncWritesAreAcknowledgedAfterSharedForces() throws Exception
+    {
+        for (ChunkServer server : servers) {
+            server.setDurability(ChunkServer.Durability.SYNC);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            String filename = "/sync-" + w;
+            writers.add(executor.submit(() -> {
+                Client client = new Client(master);
+                assertTrue(client.create(filename));
+                for (int round = 1; round <= 20; round++) {
+                    assertTrue(client.write(filename, 0, ByteBuffer.wrap(fill(round))));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        long syncs = 0;
+        long batches = 0;
+        for (ChunkServer server : servers) {
+            syncs += server.getGroupCommit().getSyncs();
+            batches += server.getGroupCommit().getBatches();
+        }
+        // the primary and both secondaries of every write
+        assertTrue(syncs >= WRITERS * 20 * 3);
+        assertTrue(batches > 0 && batches <= syncs);
+        Client client = new Client(master);
+        for (int w = 0; w < WRITERS; w++) {
+            ByteBuffer read = ByteBuffer.allocate(SLOT);
+            assertEquals(SLOT, client.read("/sync-" + w, 0, read));
+            assertTrue(Arrays.equals(fill(20), read.array()));
+        }
+    }
+
+    @Test
+    public void paddedChunkReadsAsZerosPastItsData()
+    {
+        ChunkServer server = servers.get(0);
+        assertTrue(server.create(42L, 1L, ChunkMetadata.CHUNK_SIZE));
+        byte[] data = fill(7);
+        assertTrue(server.push(-1, 42L, 0, ByteBuffer.wrap(data)));
+        assertTrue(server.applyWrite(-1, 42L, 0, 1L).isSuccess());
+        // caches the chunk's last block with the length it had before the pad
+        assertEquals(SLOT, server.read(42L, 0, ByteBuffer.allocate(ChunkMetadata.CHUNK_SIZE)));
+
+        assertTrue(server.padChunk(42L));
+        ByteBuffer read = ByteBuffer.allocate(ChunkMetadata.CHUNK_SIZE);
+        assertEquals(ChunkMetadata.CHUNK_SIZE, server.read(42L, 0, read));
+        byte[] expected = Arrays.copyOf(data, ChunkMetadata.CHUNK_SIZE);
+        assertTrue(Arrays.equals(expected, read.array()));
+        assertTrue(server.padChunk(42L));
+    }
+
+    @Test
+    public void closeStopsTheServersThreads()
+    {
+        for (ChunkServer server : servers) {
+            server.setDurability(ChunkServer.Durability.SYNC);
+        }
+        assertTrue(new Client(master).write(FILENAME, 0, ByteBuffer.wrap(fill(8))));
+        ChunkServer primary = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ).getChunkServers()[0];
+        assertFalse(threads(primary).isEmpty());
+
+        assertTrue(primary.close());
+        assertEquals(Arrays.asList(), threads(primary));
+        assertFalse(primary.getGroupCommit().sync());
+    }
+
+    private static List<Thread> threads(ChunkServer server)
+    {
+        List<Thread> threads = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(server.getChunkServerName() + "-") && thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void periodicForceNeedsNoWaitingWriter() throws InterruptedException
+    {
+        Chunk chunk = new Chunk(1, rootDir.getPath());
+        assertTrue(chunk.write(0, ByteBuffer.wrap(fill(6))));
+        GroupCommit groupCommit = new GroupCommit("test-sync", 10,
+                new MetricsRegistry(false).operation("test", "disk.force"));
+        groupCommit.written(chunk);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (0 == groupCommit.getBatches() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, groupCommit.getBatches());
+        assertEquals(0, groupCommit.getSyncs());
+        assertTrue(chunk.close());
+    }
+}
@@ -0,0 +1,599 @@
+package com.twd.role;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.cache.ChunkMetadataCache;
+import com.twd.element.ChunkMetadata;
+import com.twd.element.ChunkRequest;
+import com.twd.namespace.FileInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client operations against an in-process cluster.
+ */
+public class ClientTest
+{
+    private static final String FILENAME = "log.txt";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    private Master master;
+
+    private List<ChunkServer> servers;
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+        master = new Master();
+        servers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            servers.add(new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master));
+        }
+        assertTrue(new Client(master).create(FILENAME));
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static byte[] record(int appender, int seq)
+    {
+        return String.format("appender-%02d-record-%04d|", appender, seq).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void concurrentRecordAppendsGetDistinctOffsets() throws Exception
+    {
+        final int appenders = 8;
+        final int records = 50;
+        Map<Long, byte[]> appended = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(appenders);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int a = 0; a < appenders; a++) {
+            final int appender = a;
+            futures.add(executor.submit(() -> {
+                Client client = new Client(master);
+                for (int seq = 0; seq < records; seq++) {
+                    byte[] data = record(appender, seq);
+                    long offset = client.recordAppend(FILENAME, ByteBuffer.wrap(data));
+                    assertTrue(offset >= 0);
+                    assertEquals("offset handed out twice", null, appended.put(offset, data));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(appenders * records, appended.size());
+        assertTrue(master.getLastChunkIndex(FILENAME) > 0);
+        Client reader = new Client(master);
+        for (Map.Entry<Long, byte[]> entry : appended.entrySet()) {
+            long offset = entry.getKey();
+            byte[] data = entry.getValue();
+            // records never straddle chunks
+            assertTrue(offset % ChunkMetadata.CHUNK_SIZE + data.length <= ChunkMetadata.CHUNK_SIZE);
+            ByteBuffer buffer = reader.read(FILENAME, (int) offset, data.length);
+            assertArrayEquals(data, buffer.array());
+        }
+    }
+
+    @Test
+    public void sequentialReadsPrefetchMetadata()
+    {
+        Client writer = new Client(master);
+        byte[] data = "chunk".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(writer.write(FILENAME, i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data)));
+        }
+
+        Client reader = new Client(master, new ChunkMetadataCache(100, 60_000));
+        reader.setPrefetchChunks(4);
+        for (int i = 0; i < 6; i++) {
+            assertArrayEquals(data, reader.read(FILENAME, i * ChunkMetadata.CHUNK_SIZE, data.length).array());
+        }
+        // chunk 0 misses, chunk 1 misses and fetches 1-5, the rest hit
+        ChunkMetadataCache cache = reader.getChunkMetadataCache();
+        assertEquals(2, cache.getMisses());
+        assertEquals(4, cache.getHits());
+        assertEquals(6, cache.size());
+    }
+
+    @Test
+    public void interleavedSequentialReadsPrefetchByFile()
+    {
+        Client writer = new Client(master);
+        assertTrue(writer.create("other.txt"));
+        byte[] data = "chunk".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(writer.write(FILENAME, i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data)));
+            assertTrue(writer.write("other.txt", i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data)));
+        }
+
+        Client reader = new Client(master, new ChunkMetadataCache(100, 60_000));
+        reader.setPrefetchChunks(4);
+        for (int i = 0; i < 6; i++) {
+            assertArrayEquals(data, reader.read(FILENAME, i * ChunkMetadata.CHUNK_SIZE, data.length).array());
+            assertArrayEquals(data, reader.read("other.txt", i * ChunkMetadata.CHUNK_SIZE, data.length).array());
+        }
+        // each file is read sequentially, however the two are interleaved
+        ChunkMetadataCache cache = reader.getChunkMetadataCache();
+        assertEquals(4, cache.getMisses());
+        assertEquals(8, cache.getHits());
+    }
+
+    @Test
+    public void metadataCacheIsBounded()
+    {
+        Client writer = new Client(master);
+        Client reader = new Client(master, new ChunkMetadataCache(2, 60_000));
+        reader.setPrefetchChunks(0);
+        byte[] data = "chunk".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(writer.write(FILENAME, i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data)));
+            reader.read(FILENAME, i * ChunkMetadata.CHUNK_SIZE, data.length);
+        }
+        assertEquals(2, reader.getChunkMetadataCache().size());
+        assertEquals(2, reader.getChunkMetadataCache().getEvictions());
+    }
+
+    @Test
+    public void writeSpanningChunksFetchesMetadataOnce()
+    {
+        Client client = new Client(master);
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        int offset = ChunkMetadata.CHUNK_SIZE / 2;
+        assertTrue(client.write(FILENAME, offset, ByteBuffer.wrap(data)));
+        // one batched lookup for the three chunks, then every piece hits the cache
+        assertEquals(3, client.getChunkMetadataCache().getMisses());
+        assertEquals(3, client.getChunkMetadataCache().getHits());
+
+        int position = 0;
+        while (position < data.length) {
+            int fileOffset = offset + position;
+            int len = Math.min(data.length - position, ChunkMetadata.CHUNK_SIZE - fileOffset % ChunkMetadata.CHUNK_SIZE);
+            byte[] expected = new byte[len];
+            System.arraycopy(data, position, expected, 0, len);
+            assertArrayEquals(expected, client.read(FILENAME, fileOffset, len).array());
+            position += len;
+        }
+    }
+
+    @Test
+    public void readSpanningChunksFillsCallerBuffer()
+    {
+        Client client = new Client(master);
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 253);
+        }
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+
+        // starts and ends mid-chunk, read in one call into a slice of a bigger direct buffer
+        int offset = ChunkMetadata.CHUNK_SIZE / 3;
+        int len = data.length - offset - 10;
+        ByteBuffer dst = ByteBuffer.allocateDirect(len + 8);
+        dst.position(8);
+        assertEquals(len, new Client(master).read(FILENAME, offset, dst));
+        assertEquals(len + 8, dst.position());
+        for (int i = 0; i < len; i++) {
+            assertEquals(data[offset + i], dst.get(8 + i));
+        }
+
+        // past the end of the file the read comes back short
+        ByteBuffer tail = client.read(FILENAME, data.length - 10, 100);
+        assertEquals(10, tail.position());
+    }
+
+    /**
+     * a chunkserver whose reads take as long as asked
+     */
+    private static class SlowChunkServer extends ChunkServer
+    {
+        private volatile long delayMillis;
+
+        SlowChunkServer(String rootFolder, Master master)
+        {
+            super(rootFolder, master);
+        }
+
+        @Override
+        public int read(long chunkHandle, int offset, ByteBuffer dst)
+        {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            return super.read(chunkHandle, offset, dst);
+        }
+    }
+
+    @Test
+    public void readStopsAtShortChunkInTheMiddle()
+    {
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE];
+        Arrays.fill(data, (byte) 1);
+        Client client = new Client(master);
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+        // the middle chunk holds only 10 bytes
+        assertTrue(client.write(FILENAME, ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data, 0, 10)));
+        assertTrue(client.write(FILENAME, 2 * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data)));
+
+        // a reused buffer, stale bytes must not be reported as read
+        ByteBuffer dst = ByteBuffer.allocate(3 * ChunkMetadata.CHUNK_SIZE);
+        Arrays.fill(dst.array(), (byte) 9);
+        int n = new Client(master).read(FILENAME, 0, dst);
+        assertEquals(ChunkMetadata.CHUNK_SIZE + 10, n);
+        assertEquals(n, dst.position());
+        for (int i = 0; i < n; i++) {
+            assertEquals(1, dst.get(i));
+        }
+    }
+
+    @Test
+    public void readsSteerClearOfSlowReplica()
+    {
+        Master master = new Master(3);
+        SlowChunkServer slow = new SlowChunkServer(new File(rootDir, "slow").getPath(), master);
+        slow.delayMillis = 20;
+        servers.add(slow);
+        servers.add(new ChunkServer(new File(rootDir, "fast-0").getPath(), master));
+        servers.add(new ChunkServer(new File(rootDir, "fast-1").getPath(), master));
+        Client client = new Client(master);
+        assertTrue(client.create(FILENAME));
+        byte[] data = "replica".getBytes(StandardCharsets.UTF_8);
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+
+        for (int i = 0; i < 200; i++) {
+            assertArrayEquals(data, client.read(FILENAME, 0, data.length).array());
+        }
+        LeastLoadedReplicaSelector selector = (LeastLoadedReplicaSelector) client.getReplicaSelector();
+        // only tried while the fast replicas have no history yet
+        assertTrue(selector.getStats(slow).getRequests() <= 5);
+        assertEquals(3, selector.getStats().size());
+        assertEquals(0, selector.getStats(slow).getOutstanding());
+    }
+
+    @Test
+    public void slowReadIsHedgedToAnotherReplica()
+    {
+        Master master = new Master(3);
+        SlowChunkServer slow = new SlowChunkServer(new File(rootDir, "slow").getPath(), master);
+        servers.add(slow);
+        servers.add(new ChunkServer(new File(rootDir, "fast-0").getPath(), master));
+        servers.add(new ChunkServer(new File(rootDir, "fast-1").getPath(), master));
+        Client client = new Client(master);
+        assertTrue(client.create(FILENAME));
+        byte[] data = "hedge".getBytes(StandardCharsets.UTF_8);
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+        // always try the slow replica first
+        client.setReplicaSelector(new LeastLoadedReplicaSelector(0.9)
+        {
+            @Override
+            public ChunkServer select(ChunkServer[] replicas, Collection<ChunkServer> exclude)
+            {
+                return exclude.contains(slow) ? super.select(replicas, exclude) : slow;
+            }
+        });
+
+        for (int i = 0; i < LeastLoadedReplicaSelector.MIN_HEDGE_SAMPLES; i++) {
+            assertArrayEquals(data, client.read(FILENAME, 0, data.length).array());
+        }
+        assertEquals(0, client.getHedgedReads());
+
+        slow.delayMillis = 2000;
+        long start = System.nanoTime();
+        assertArrayEquals(data, client.read(FILENAME, 0, data.length).array());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(1, client.getHedgedReads());
+    }
+
+    @Test
+    public void filesPastHundredChunksGetTheirOwnHandles()
+    {
+        Client client = new Client(master);
+        assertTrue(client.create("other.txt"));
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 150];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 241);
+        }
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+        byte[] other = "other".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(client.write("other.txt", i * ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(other)));
+        }
+
+        FileInfo info = master.stat(FILENAME);
+        assertEquals(150, info.getChunkCount());
+        assertEquals(150, new HashSet<>(Arrays.asList(Arrays.stream(info.getChunkHandles()).boxed().toArray())).size());
+        assertArrayEquals(data, new Client(master).read(FILENAME, 0, data.length).array());
+        assertArrayEquals(other, new Client(master).read("other.txt", 2 * ChunkMetadata.CHUNK_SIZE, other.length).array());
+        assertEquals(Arrays.asList("/log.txt", "/other.txt"), master.list("/"));
+
+        assertTrue(master.delete("other.txt"));
+        assertNull(master.stat("other.txt"));
+        assertFalse(master.delete("other.txt"));
+        assertEquals(1, master.getFileCount());
+        assertNull(new Client(master).read("other.txt", 0, other.length));
+    }
+
+    @Test
+    public void restartedMasterRecoversNamespaceFromLog() throws IOException
+    {
+        File logDir = new File(rootDir, "master");
+        File dataDir = new File(rootDir, "durable");
+        assertTrue(dataDir.mkdir());
+        Master logged = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        for (int i = 0; i < 4; i++) {
+            servers.add(new ChunkServer(new File(dataDir, String.valueOf(i)).getPath(), logged));
+        }
+        Client client = new Client(logged);
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        assertTrue(client.create("/dir/a"));
+        assertTrue(client.write("/dir/a", 0, ByteBuffer.wrap(data)));
+        assertTrue(client.create("/dir/b"));
+        logged.checkpoint();
+        // after the checkpoint, only in the log
+        assertTrue(client.create("/dir/c"));
+        assertTrue(client.write("/dir/c", ChunkMetadata.CHUNK_SIZE, ByteBuffer.wrap(data, 0, 10)));
+        long deleted = logged.stat("/dir/b").getChunkHandles()[0];
+        assertTrue(logged.delete("/dir/b"));
+        long[] handles = logged.stat("/dir/c").getChunkHandles();
+        long createTime = logged.stat("/dir/a").getCreateTime();
+        assertTrue(logged.close());
+
+        Master restarted = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        for (int i = 0; i < 4; i++) {
+            servers.add(new ChunkServer(new File(dataDir, String.valueOf(i)).getPath(), restarted));
+        }
+        assertEquals(Arrays.asList("/dir/a", "/dir/c"), restarted.list("/dir"));
+        // the block reports turn up the deleted file's chunks, they are removed
+        for (int i = 0; i < 4; i++) {
+            File dir = new File(dataDir, String.valueOf(i));
+            assertEquals(0, dir.listFiles((parent, name) -> name.startsWith(deleted + ".")).length);
+        }
+        assertEquals(createTime, restarted.stat("/dir/a").getCreateTime());
+        assertArrayEquals(handles, restarted.stat("/dir/c").getChunkHandles());
+        Client reader = new Client(restarted);
+        assertArrayEquals(data, reader.read("/dir/a", 0, data.length).array());
+        byte[] head = Arrays.copyOf(data, 10);
+        assertArrayEquals(head, reader.read("/dir/c", ChunkMetadata.CHUNK_SIZE, 10).array());
+
+        // handles are never handed out twice, even those of deleted files
+        assertTrue(reader.create("/dir/d"));
+        long handle = restarted.stat("/dir/d").getChunkHandles()[0];
+        assertTrue(handle > Arrays.stream(handles).max().getAsLong());
+        assertTrue(restarted.close());
+    }
+
+    @Test
+    public void filesKeepTheChunkSizeTheyWereCreatedWith()
+    {
+        int chunkSize = ChunkMetadata.CHUNK_SIZE * 4;
+        Client client = new Client(master);
+        assertFalse(client.create("zero.bin", 0));
+        assertFalse(client.create("huge.bin", ChunkMetadata.MAX_CHUNK_SIZE + 1));
+        assertTrue(client.create("big.bin", chunkSize));
+        assertFalse(client.create("big.bin", chunkSize));
+        assertEquals(chunkSize, master.getChunkSize("big.bin"));
+        assertEquals(ChunkMetadata.CHUNK_SIZE, master.getChunkSize(FILENAME));
+        assertEquals(-1, master.getChunkSize("missing.bin"));
+
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        int offset = ChunkMetadata.CHUNK_SIZE / 2;
+        assertTrue(client.write("big.bin", offset, ByteBuffer.wrap(data)));
+        // [0.5, 10.5) default chunks fit in 3 large ones
+        assertEquals(3, master.stat("big.bin").getChunkHandles().length);
+        assertArrayEquals(data, new Client(master).read("big.bin", offset, data.length).array());
+
+        // a record too large for a default chunk fits a quarter of a large one
+        byte[] record = Arrays.copyOf(data, Client.maxRecordSize(ChunkMetadata.CHUNK_SIZE) + 1);
+        assertEquals(-1, client.recordAppend(FILENAME, ByteBuffer.wrap(record)));
+        long appended = client.recordAppend("big.bin", ByteBuffer.wrap(record));
+        assertTrue(appended >= 0);
+        assertTrue(appended % chunkSize + record.length <= chunkSize);
+        assertArrayEquals(record, new Client(master).read("big.bin", (int) appended, record.length).array());
+    }
+
+    @Test
+    public void deletedFileCreatedAgainStartsOver()
+    {
+        Client client = new Client(master);
+        assertTrue(client.create("again.bin", ChunkMetadata.CHUNK_SIZE * 4));
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 6];
+        Arrays.fill(data, (byte) 1);
+        assertTrue(client.write("again.bin", 0, ByteBuffer.wrap(data)));
+        assertArrayEquals(data, client.read("again.bin", 0, data.length).array());
+
+        assertTrue(client.delete("again.bin"));
+        assertFalse(client.delete("again.bin"));
+        assertTrue(client.create("again.bin"));
+        byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+        int offset = ChunkMetadata.CHUNK_SIZE + 1;
+        assertTrue(client.write("again.bin", offset, ByteBuffer.wrap(small)));
+        // the default chunks of the new file, not the large ones of the old
+        assertEquals(2, master.stat("again.bin").getChunkHandles().length);
+        assertArrayEquals(small, client.read("again.bin", offset, small.length).array());
+    }
+
+    @Test
+    public void recordAppendsPastTwoGigabytes()
+    {
+        Client client = new Client(master);
+        assertTrue(client.create("huge.log", ChunkMetadata.MAX_CHUNK_SIZE));
+        // the chunks are sparse, only their metadata and empty files are created
+        for (int chunkIndex = 1; chunkIndex <= 2; chunkIndex++) {
+            assertNotNull(master.getChunkMetadata(new ChunkRequest("huge.log", chunkIndex), Master.REQUEST_WRITE));
+        }
+        byte[] record = "past-2gb".getBytes(StandardCharsets.UTF_8);
+        assertEquals(2L * ChunkMetadata.MAX_CHUNK_SIZE, client.recordAppend("huge.log", ByteBuffer.wrap(record)));
+    }
+
+    @Test
+    public void recordAppendsRememberTheLastChunk()
+    {
+        Client client = new Client(master);
+        long before = master.getMetadataRequests();
+        long previous = -1;
+        for (int seq = 0; seq < 100; seq++) {
+            long offset = client.recordAppend(FILENAME, ByteBuffer.wrap(record(0, seq)));
+            assertTrue(offset > previous);
+            previous = offset;
+        }
+        long requests = master.getMetadataRequests() - before;
+        int chunks = master.getLastChunkIndex(FILENAME) + 1;
+        assertTrue(chunks > 2);
+        // a few lookups for each chunk moved on to, not a call per append
+        assertTrue(requests <= 3 * chunks);
+    }
+
+    @Test
+    public void restartedMasterRecoversChunkSizes() throws IOException
+    {
+        File logDir = new File(rootDir, "sized");
+        Master logged = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        for (int i = 0; i < 3; i++) {
+            servers.add(new ChunkServer(new File(rootDir, "sized-" + i).getPath(), logged));
+        }
+        Client client = new Client(logged);
+        assertTrue(client.create("/a", ChunkMetadata.CHUNK_SIZE * 2));
+        logged.checkpoint();
+        // after the checkpoint, only in the log
+        assertTrue(client.create("/b", ChunkMetadata.CHUNK_SIZE * 8));
+        assertTrue(logged.close());
+
+        Master restarted = new Master(Master.DEFAULT_REPLICA_NUM, logDir);
+        assertEquals(ChunkMetadata.CHUNK_SIZE * 2, restarted.getChunkSize("/a"));
+        assertEquals(ChunkMetadata.CHUNK_SIZE * 8, restarted.getChunkSize("/b"));
+        assertEquals(ChunkMetadata.CHUNK_SIZE * 8, restarted.stat("/b").getChunkSize());
+        assertTrue(restarted.close());
+    }
+
+    @Test
+    public void steadyWritesUnderExtendedLeaseSkipMaster() throws InterruptedException
+    {
+        master.setLeaseMillis(200);
+        Client client = new Client(master);
+        byte[] data = "steady".getBytes(StandardCharsets.UTF_8);
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+        long requests = master.getMetadataRequests();
+        long end = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+            }
+            // the primary asks for extensions with its heartbeats
+            for (ChunkServer server : servers) {
+                server.heartbeat();
+            }
+            Thread.sleep(50);
+        }
+        assertEquals(requests, master.getMetadataRequests());
+    }
+
+    @Test
+    public void readsAfterTheLeaseRanOutAreCached() throws InterruptedException
+    {
+        master.setLeaseMillis(100);
+        Client writer = new Client(master);
+        byte[] data = "cold".getBytes(StandardCharsets.UTF_8);
+        assertTrue(writer.create("cold.txt"));
+        assertTrue(writer.write("cold.txt", 0, ByteBuffer.wrap(data)));
+        Thread.sleep(300);
+
+        Client reader = new Client(master);
+        long requests = master.getMetadataRequests();
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data, reader.read("cold.txt", 0, data.length).array());
+        }
+        assertEquals(requests + 1, master.getMetadataRequests());
+        assertEquals(1, reader.getChunkMetadataCache().size());
+    }
+
+    @Test
+    public void corruptReplicasFailOverAndAreDropped() throws IOException
+    {
+        Client client = new Client(master);
+        byte[] data = "checksummed".getBytes(StandardCharsets.UTF_8);
+        assertTrue(client.write(FILENAME, 0, ByteBuffer.wrap(data)));
+        ChunkMetadata metadata = master.getChunkMetadata(new ChunkRequest(FILENAME, 0), Master.REQUEST_READ);
+        long chunkHandle = metadata.getChunkHandle();
+
+        // flip a byte in the files of all replicas but one
+        int corrupted = 0;
+        for (File dir : rootDir.listFiles()) {
+            File[] files = dir.listFiles((parent, name) -> name.startsWith(chunkHandle + ".") && name.endsWith(".chunk"));
+            if (0 == files.length || corrupted == metadata.getChunkServers().length - 1) {
+                continue;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+                file.seek(3);
+                int b = file.read();
+                file.seek(3);
+                file.write(b ^ 0xff);
+            }
+            corrupted++;
+        }
+        assertEquals(2, corrupted);
+
+        // reads skip the bad replicas, those they hit are dropped
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data, client.read(FILENAME, 0, data.length).array());
+        }
+        // the scrubber finds the ones nobody read
+        for (ChunkServer server : servers) {
+            server.getScrubber().setIdleMillis(0);
+            server.getScrubber().scrub();
+        }
+        assertEquals(2, master.getCorruptReplicas());
+        assertEquals(1, master.getChunkTable().getReplicas(chunkHandle, new int[Master.DEFAULT_REPLICA_NUM]));
+        assertArrayEquals(data, client.read(FILENAME, 0, data.length).array());
+    }
+}
@@ -0,0 +1,126 @@
+package com.twd.role;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk placement by free space.
+ */
+public class PlacementEngineTest
+{
+    private static final long CHUNK = 100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    private List<ChunkServer> servers;
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+        Master master = new Master();
+        servers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            servers.add(new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void placesOnDistinctEmptiestServers()
+    {
+        PlacementEngine engine = new PlacementEngine(CHUNK);
+        for (ChunkServer server : servers) {
+            engine.addServer(server, 100 * CHUNK, 0, 0);
+        }
+        for (int i = 0; i < 100; i++) {
+            ChunkServer[] placed = engine.place(3);
+            assertEquals(3, placed.length);
+            assertEquals(3, new HashSet<>(Arrays.asList(placed)).size());
+        }
+        // 300 replicas spread evenly
+        for (ChunkServer server : servers) {
+            assertEquals(30, engine.getChunkNum(server));
+            assertEquals(30 * CHUNK, engine.getUsedBytes(server));
+        }
+    }
+
+    @Test
+    public void placesByFreeCapacity()
+    {
+        PlacementEngine engine = new PlacementEngine(CHUNK);
+        ChunkServer big = servers.get(0);
+        ChunkServer small = servers.get(1);
+        ChunkServer full = servers.get(2);
+        engine.addServer(big, 40 * CHUNK, 0, 0);
+        engine.addServer(small, 10 * CHUNK, 0, 0);
+        engine.addServer(full, 10 * CHUNK, 10 * CHUNK, 10);
+        for (int i = 0; i < 25; i++) {
+            assertEquals(1, engine.place(1).length);
+        }
+        // both end up half full, the full one gets nothing
+        assertEquals(20, engine.getChunkNum(big));
+        assertEquals(5, engine.getChunkNum(small));
+        assertEquals(10, engine.getChunkNum(full));
+        // only two servers have room
+        assertEquals(2, engine.place(3).length);
+
+        engine.updateUsage(full, 0, 0);
+        assertEquals(full, engine.place(1)[0]);
+    }
+
+    @Test
+    public void concurrentPlacementsStayBalanced() throws Exception
+    {
+        PlacementEngine engine = new PlacementEngine(CHUNK);
+        for (ChunkServer server : servers) {
+            engine.addServer(server, 1000 * CHUNK, 0, 0);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    assertEquals(3, new HashSet<>(Arrays.asList(engine.place(3))).size());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        int total = 0;
+        for (ChunkServer server : servers) {
+            int chunkNum = engine.getChunkNum(server);
+            assertEquals(600, chunkNum);
+            total += chunkNum;
+        }
+        assertEquals(6000, total);
+    }
+}
@@ -0,0 +1,46 @@
+package com.twd.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving average latency of a replica, idle and with reads outstanding.
+ */
+public class ReplicaStatsTest
+{
+    private static final long DECAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Test
+    public void idleReplicaDecaysButHungReplicaDoesNot() throws InterruptedException
+    {
+        long latency = TimeUnit.MILLISECONDS.toNanos(2);
+        ReplicaStats idle = new ReplicaStats("idle");
+        idle.start();
+        idle.finish(latency, true, 0.2);
+        ReplicaStats hung = new ReplicaStats("hung");
+        hung.start();
+        hung.finish(latency, true, 0.2);
+        hung.start();
+
+        Thread.sleep(50);
+        // ten time constants later the idle replica is worth probing again
+        assertTrue(idle.getEwmaNanos(DECAY_NANOS) < latency / 100);
+        // the hung one has held a read for 50ms
+        assertTrue(hung.getEwmaNanos(DECAY_NANOS) >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, hung.getOutstanding());
+    }
+
+    @Test
+    public void newReplicaWithReadsInFlightIsNotFree() throws InterruptedException
+    {
+        ReplicaStats busy = new ReplicaStats("busy");
+        busy.start();
+        busy.start();
+        Thread.sleep(10);
+        assertTrue(busy.getEwmaNanos(DECAY_NANOS) >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+}
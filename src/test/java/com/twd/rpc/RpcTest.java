@@ -0,0 +1,137 @@
+package com.twd.rpc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.twd.element.ChunkMetadata;
+import com.twd.role.ChunkServer;
+import com.twd.role.Client;
+import com.twd.role.Master;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Calls over the loopback transport.
+ */
+public class RpcTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File rootDir;
+
+    private final List<RpcServer> rpcServers = new ArrayList<>();
+
+    private final List<ChunkServer> servers = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        rootDir = temporaryFolder.getRoot();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (RpcServer rpcServer : rpcServers) {
+            rpcServer.close();
+        }
+        for (ChunkServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static InetSocketAddress loopback()
+    {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @Test
+    public void remoteClientWritesAndReadsAcrossChunks() throws IOException
+    {
+        Master master = new Master();
+        for (int i = 0; i < 4; i++) {
+            ChunkServer server = new ChunkServer(new File(rootDir, String.valueOf(i)).getPath(), master);
+            servers.add(server);
+            rpcServers.add(ChunkServerService.serve(server, loopback()));
+        }
+        RpcServer masterServer = MasterService.serve(master, loopback());
+        rpcServers.add(masterServer);
+
+        byte[] data = new byte[ChunkMetadata.CHUNK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 253);
+        }
+        try (RemoteClient client = new RemoteClient(masterServer.getAddress())) {
+            assertTrue(client.create("/remote"));
+            assertTrue(client.write("/remote", 10, ByteBuffer.wrap(data)));
+
+            ByteBuffer dst = ByteBuffer.allocate(data.length + 50);
+            // the file ends 10 + data.length bytes in
+            assertEquals(data.length, client.read("/remote", 10, dst));
+            dst.flip();
+            byte[] read = new byte[dst.remaining()];
+            dst.get(read);
+            assertArrayEquals(data, read);
+            assertEquals(-1, client.read("/missing", 0, ByteBuffer.allocate(10)));
+
+            // a file with chunks twice the default size holds the same data in fewer chunks
+            assertTrue(client.create("/large", ChunkMetadata.CHUNK_SIZE * 2));
+            assertTrue(client.write("/large", 10, ByteBuffer.wrap(data)));
+            assertEquals(2, master.stat("/large").getChunkHandles().length);
+            ByteBuffer large = ByteBuffer.allocate(data.length);
+            assertEquals(data.length, client.read("/large", 10, large));
+            assertArrayEquals(data, large.array());
+        }
+        // in-process clients see the same file
+        ByteBuffer local = new Client(master).read("/remote", 10, data.length);
+        assertArrayEquals(data, local.array());
+    }
+
+    @Test
+    public void callsArePipelinedOnOneConnectionAndRepliedOutOfOrder() throws Exception
+    {
+        final int calls = 50;
+        // later calls are answered first
+        RpcServer server = new RpcServer(loopback(), call -> {
+            int index = call.getPayload().getInt(0);
+            try {
+                Thread.sleep((calls - index) * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ByteBuffer reply = ByteBuffer.allocate(Integer.BYTES);
+            reply.putInt(0, index * 10);
+            call.reply(RpcResponse.OK, reply);
+        });
+        rpcServers.add(server);
+        try (RpcClient client = new RpcClient(1)) {
+            List<CompletableFuture<RpcResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                ByteBuffer payload = ByteBuffer.allocate(Integer.BYTES);
+                payload.putInt(0, i);
+                futures.add(client.call(server.getAddress(), (byte) 1, payload));
+            }
+            for (int i = 0; i < calls; i++) {
+                RpcResponse response = futures.get(i).get();
+                assertTrue(response.isOk());
+                assertEquals(i * 10, response.getPayload().getInt());
+            }
+        }
+        assertEquals(1, server.getConnections());
+        assertEquals(calls, server.getCalls());
+    }
+}
@@ -0,0 +1,157 @@
+package com.twd.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Chunk records in the open-addressing table, on and off the heap.
+ */
+public class ChunkTableTest
+{
+    @Test
+    public void matchesHashMapOnHeap()
+    {
+        checkAgainstHashMap(new ChunkTable(3, ChunkTable.Backing.HEAP, 0));
+    }
+
+    @Test
+    public void matchesHashMapOffHeap()
+    {
+        checkAgainstHashMap(new ChunkTable(3, ChunkTable.Backing.OFF_HEAP, 0));
+    }
+
+    /**
+     * random puts and removes over a small key range, so rows collide, move back and get reused
+     */
+    private static void checkAgainstHashMap(ChunkTable table)
+    {
+        Map<Long, int[]> expected = new HashMap<>();
+        Random random = new Random(42);
+        int[] ids = new int[3];
+        long now = System.currentTimeMillis() + 1000;
+        for (int i = 0; i < 200_000; i++) {
+            long handle = random.nextInt(5000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(null != expected.remove(handle), table.remove(handle));
+            } else {
+                int[] replicas = {random.nextInt(0xFFFF) + 1, random.nextInt(0xFFFF) + 1, random.nextInt(0xFFFF) + 1};
+                table.put(handle, replicas, 3, now + handle * 7);
+                expected.put(handle, replicas);
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (long handle = -100; handle < 4900; handle++) {
+            int[] replicas = expected.get(handle);
+            if (null == replicas) {
+                assertEquals(-1, table.getReplicas(handle, ids));
+                assertFalse(table.contains(handle));
+            } else {
+                assertEquals(3, table.getReplicas(handle, ids));
+                assertArrayEquals(replicas, ids);
+                assertEquals(now + handle * 7, table.getLeaseExpireTime(handle));
+            }
+        }
+    }
+
+    @Test
+    public void addsReplicasAndGrantsLeases()
+    {
+        ChunkTable table = new ChunkTable(5, ChunkTable.Backing.OFF_HEAP, 0);
+        int[] ids = new int[5];
+        long[] lease = new long[2];
+        assertEquals(-1, table.grantLease(1, 0, 100, ids, lease));
+        assertFalse(table.replace(1, new int[]{1}, 1, 0));
+        for (int id = 1; id <= 5; id++) {
+            assertTrue(table.addReplica(1, id));
+        }
+        assertFalse(table.addReplica(1, 3));
+        assertFalse(table.addReplica(1, 6));
+        long now = System.currentTimeMillis();
+        assertEquals(5, table.grantLease(1, now, now + 100, ids, lease));
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, ids);
+        assertArrayEquals(new long[]{now + 100, 1}, lease);
+        // the lease runs, no new one
+        assertEquals(5, table.grantLease(1, now + 50, now + 150, ids, lease));
+        assertArrayEquals(new long[]{now + 100, 1}, lease);
+        assertFalse(table.extendLease(1, 2, now + 50, now + 150));
+        assertTrue(table.extendLease(1, 1, now + 50, now + 150));
+        assertEquals(now + 150, table.getLeaseExpireTime(1));
+        // it ran out, the next one comes with a new version
+        assertFalse(table.extendLease(1, 1, now + 150, now + 250));
+        table.grantLease(1, now + 150, now + 250, ids, lease);
+        assertArrayEquals(new long[]{now + 250, 2}, lease);
+        assertTrue(table.replace(1, new int[]{9, 8}, 2, 200));
+        assertEquals(2, table.getReplicas(1, ids));
+        assertArrayEquals(new int[]{9, 8}, Arrays.copyOf(ids, 2));
+        assertEquals(2, table.getVersion(1));
+    }
+
+    @Test
+    public void growsAndStaysCompact()
+    {
+        ChunkTable table = new ChunkTable(3, ChunkTable.Backing.HEAP, 0);
+        int[] replicas = {1, 2, 3};
+        for (long handle = 1; handle <= 100_000; handle++) {
+            table.put(handle, replicas, 3, 0);
+        }
+        assertEquals(100_000, table.size());
+        // 24 bytes a row, between 3/8 and 3/4 of the rows used
+        assertTrue(table.getFootprintBytes() / table.size() <= 64);
+        assertEquals(3, table.getReplicas(54_321, new int[3]));
+    }
+
+    @Test
+    public void bulkReplicaUpdatesDropStaleReplicas()
+    {
+        ChunkTable table = new ChunkTable(3, ChunkTable.Backing.HEAP, 0);
+        int[] ids = new int[3];
+        table.put(1, new int[] {7, 8}, 2, 0, 5);
+        long[] report = new long[10_000];
+        long[] versions = new long[report.length];
+        for (int i = 0; i < report.length; i++) {
+            report[i] = i + 1;
+            versions[i] = 5;
+        }
+        // a report taken as is records every chunk, else the unknown ones are stale
+        List<Long> stale = new ArrayList<>();
+        table.addReplicas(report, versions, report.length, 9, false, (handle, id) -> stale.add(handle));
+        assertEquals(report.length - 1, stale.size());
+        assertEquals(1, table.size());
+        assertEquals(3, table.getReplicas(1, ids));
+        assertArrayEquals(new int[] {7, 8, 9}, ids);
+        stale.clear();
+        table.addReplicas(report, versions, report.length, 5, true, (handle, id) -> stale.add(handle));
+        assertEquals(0, stale.size());
+        assertEquals(report.length, table.size());
+        assertEquals(1, table.getReplicas(500, ids));
+
+        // an older replica is stale, a newer one makes the others stale
+        List<Integer> staleIds = new ArrayList<>();
+        table.addReplicas(new long[] {500}, new long[] {4}, 1, 6, false, (handle, id) -> staleIds.add(id));
+        assertEquals(Arrays.asList(6), staleIds);
+        table.addReplicas(new long[] {1}, new long[] {6}, 1, 8, false, (handle, id) -> staleIds.add(id));
+        assertEquals(Arrays.asList(6, 7, 9), staleIds);
+        assertEquals(1, table.getReplicas(1, ids));
+        assertEquals(8, ids[0]);
+        assertEquals(6, table.getVersion(1));
+
+        table.put(1, new int[] {7, 8, 9}, 3, 0);
+        assertTrue(table.removeReplica(1, 8));
+        assertFalse(table.removeReplica(1, 8));
+        assertEquals(2, table.getReplicas(1, ids));
+        assertEquals(7, ids[0]);
+        assertEquals(9, ids[1]);
+        assertEquals(6, table.getVersion(1));
+    }
+}